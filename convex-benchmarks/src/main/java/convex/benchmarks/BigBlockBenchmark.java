@@ -58,6 +58,12 @@ public class BigBlockBenchmark {
 		ACell.createPersisted(br.getState());
 	}
 
+	@Benchmark
+	public void benchmarkParallel() throws BadSignatureException {
+		BlockResult br=state.applyBlockParallel(block);
+		ACell.createPersisted(br.getState());
+	}
+
 	public static void main(String[] args) throws Exception {
 		Options opt = Benchmarks.createOptions(BigBlockBenchmark.class);
 		new Runner(opt).run();
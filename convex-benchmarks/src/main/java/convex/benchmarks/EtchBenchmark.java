@@ -1,8 +1,10 @@
 package convex.benchmarks;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.Options;
 
@@ -19,6 +21,8 @@ public class EtchBenchmark {
 	
 	static long nonce=0;
 	
+	static final AtomicLong parallelNonce=new AtomicLong(Long.MIN_VALUE);
+	
 	@SuppressWarnings("unchecked")
 	static Ref<ACell>[] refs=new Ref[1000];
 	
@@ -40,6 +44,17 @@ public class EtchBenchmark {
 		store.storeTopRef(v.getRef(), Ref.STORED, null);
 	}
 	
+	/**
+	 * Concurrent writers. Compare throughput with writeData to see the
+	 * effect of striped writes into independent radix subtrees.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void writeDataParallel() {
+		AVector<CVMLong> v=Vectors.of(2L,parallelNonce.getAndIncrement());
+		store.storeTopRef(v.getRef(), Ref.STORED, null);
+	}
+	
 	@Benchmark
 	public void readDataRandom() {
 		int ix=rand.nextInt(1000);
@@ -9,6 +9,9 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.Options;
 
@@ -23,8 +26,10 @@ import convex.peer.API;
 import convex.peer.Server;
 
 /**
- * Benchmark for full round-trip latencies
+ * Benchmark for full round-trip latencies. Samples each round trip, so reports percentiles (p50, p99 etc.)
  */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
 public class LatencyBenchmark {
 	
 	static Address HERO=null;
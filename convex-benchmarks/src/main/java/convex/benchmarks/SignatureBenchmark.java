@@ -1,6 +1,15 @@
 package convex.benchmarks;
 
+import java.util.concurrent.CountDownLatch;
+
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.Options;
 
@@ -11,6 +20,8 @@ import convex.core.data.ACell;
 import convex.core.data.Blobs;
 import convex.core.data.Ref;
 import convex.core.data.SignedData;
+import convex.core.store.Stores;
+import convex.peer.SignatureVerifier;
 
 public class SignatureBenchmark {
 
@@ -54,6 +65,51 @@ public class SignatureBenchmark {
 	}
 
 
+	private static final int BATCH=1000;
+	
+	/**
+	 * State for end-to-end verification through the Server signature verification stage,
+	 * with a varying number of worker threads
+	 */
+	@State(Scope.Benchmark)
+	public static class VerifierState {
+		@Param({"1", "2", "4", "8"})
+		public int workers;
+		
+		SignatureVerifier verifier;
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		SignedData<ABlob>[] signed=new SignedData[BATCH];
+		
+		@Setup(Level.Trial)
+		public void setup() {
+			verifier=SignatureVerifier.create(workers, Stores.current(), "Benchmark verifier");
+			for (int i=0; i<BATCH; i++) {
+				signed[i]=KEYPAIR.signData(Blobs.createRandom(16));
+			}
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			verifier.close();
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void verifyPipeline(VerifierState state) throws InterruptedException {
+		CountDownLatch latch=new CountDownLatch(BATCH);
+		for (int i=0; i<BATCH; i++) {
+			SignedData<ABlob> template=state.signed[i];
+			// fresh instance so no cached verification result
+			SignedData<ABlob> sd=SignedData.create(template.getAccountKey(), template.getSignature(), template.getDataRef());
+			
+			// spread over a few origins, as if from multiple connections
+			state.verifier.submit(i&7, sd, ok->latch.countDown());
+		}
+		latch.await();
+	}
+
 	public static void main(String[] args) throws Exception {
 		Options opt = Benchmarks.createOptions(SignatureBenchmark.class);
 		new Runner(opt).run();
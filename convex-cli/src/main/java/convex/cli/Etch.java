@@ -0,0 +1,33 @@
+package convex.cli;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ *
+ * Convex etch sub commands
+ *
+ *		convex.etch
+ *
+ */
+@Command(name="etch",
+	subcommands = {
+		EtchCompact.class,
+		EtchExport.class,
+		EtchImport.class,
+		CommandLine.HelpCommand.class
+	},
+	mixinStandardHelpOptions=true,
+	description="Maintains an Etch database.")
+public class Etch implements Runnable {
+
+	@ParentCommand
+	protected Main mainParent;
+
+	@Override
+	public void run() {
+		// sub command run with no command provided
+		CommandLine.usage(new Etch(), System.out);
+	}
+}
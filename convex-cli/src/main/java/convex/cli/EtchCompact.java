@@ -0,0 +1,62 @@
+package convex.cli;
+
+import java.io.File;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import etch.Compaction;
+import etch.EtchStore;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ *
+ * Convex etch sub commands
+ *
+ *		convex.etch.compact
+ *
+ *
+ */
+@Command(name="compact",
+	mixinStandardHelpOptions=true,
+	description="Compacts an Etch database, keeping only data reachable from the stored peer data. "
+		+ "The peer must not be running.")
+public class EtchCompact implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(EtchCompact.class);
+
+	@ParentCommand
+	protected Etch etchParent;
+
+	@Override
+	public void run() {
+		Main mainParent = etchParent.mainParent;
+
+		String filename = mainParent.getEtchStoreFilename();
+		if (filename == null) {
+			log.warn("You need to provide an Etch database filename");
+			return;
+		}
+		File etchFile = new File(filename);
+		try {
+			if (!etchFile.exists()) {
+				log.error("Cannot find Etch database file {}", etchFile.getCanonicalPath());
+				return;
+			}
+			EtchStore store = EtchStore.create(etchFile);
+			try {
+				Compaction c = store.compact(() -> List.of());
+				mainParent.output.setField("Cells", c.getCopiedCount());
+				mainParent.output.setField("Length Before", c.getStartLength());
+				mainParent.output.setField("Length After", c.getEndLength());
+				mainParent.output.addRow();
+			} finally {
+				store.close();
+			}
+		} catch (Throwable t) {
+			mainParent.showError(t);
+		}
+	}
+}
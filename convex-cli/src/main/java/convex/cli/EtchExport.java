@@ -0,0 +1,84 @@
+package convex.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.Hash;
+import etch.CellStream;
+import etch.EtchStore;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ *
+ * Convex etch sub commands
+ *
+ *		convex.etch.export
+ *
+ *
+ */
+@Command(name="export",
+	mixinStandardHelpOptions=true,
+	description="Exports all cells reachable from the root of an Etch database to a cell stream file.")
+public class EtchExport implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(EtchExport.class);
+
+	@ParentCommand
+	protected Etch etchParent;
+
+	@Option(names={"-o", "--output-file"},
+		description="Output file for the cell stream.")
+	private String outputFilename;
+
+	@Option(names={"--root"},
+		description="Hex string of the root hash to export from. Defaults to the root of the database.")
+	private String rootHash;
+
+	@Override
+	public void run() {
+		Main mainParent = etchParent.mainParent;
+
+		String filename = mainParent.getEtchStoreFilename();
+		if (filename == null) {
+			log.warn("You need to provide an Etch database filename");
+			return;
+		}
+		if (outputFilename == null) {
+			log.warn("You need to provide an output file '--output-file'");
+			return;
+		}
+		File etchFile = new File(filename);
+		try {
+			if (!etchFile.exists()) {
+				log.error("Cannot find Etch database file {}", etchFile.getCanonicalPath());
+				return;
+			}
+			EtchStore store = EtchStore.create(etchFile);
+			try {
+				Hash root = (rootHash == null) ? store.getRootHash() : Hash.fromHex(rootHash);
+				if (root == null) {
+					log.error("Invalid root hash {}", rootHash);
+					return;
+				}
+				long count;
+				try (OutputStream out = new FileOutputStream(outputFilename)) {
+					count = CellStream.export(store, root, out);
+				}
+				mainParent.output.setField("Root", root.toHexString());
+				mainParent.output.setField("Cells", count);
+				mainParent.output.setField("File", outputFilename);
+				mainParent.output.addRow();
+			} finally {
+				store.close();
+			}
+		} catch (Throwable t) {
+			mainParent.showError(t);
+		}
+	}
+}
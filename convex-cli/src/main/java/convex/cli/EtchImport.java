@@ -0,0 +1,80 @@
+package convex.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.Hash;
+import etch.CellStream;
+import etch.EtchStore;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ *
+ * Convex etch sub commands
+ *
+ *		convex.etch.import
+ *
+ *
+ */
+@Command(name="import",
+	mixinStandardHelpOptions=true,
+	description="Imports cells from a cell stream file into an Etch database. "
+		+ "The peer must not be running.")
+public class EtchImport implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(EtchImport.class);
+
+	@ParentCommand
+	protected Etch etchParent;
+
+	@Option(names={"-i", "--input-file"},
+		description="Input file containing the cell stream.")
+	private String inputFilename;
+
+	@Option(names={"--set-root"},
+		description="Set the root of the database to the root of the cell stream.")
+	private boolean setRoot;
+
+	@Override
+	public void run() {
+		Main mainParent = etchParent.mainParent;
+
+		String filename = mainParent.getEtchStoreFilename();
+		if (filename == null) {
+			log.warn("You need to provide an Etch database filename");
+			return;
+		}
+		if (inputFilename == null) {
+			log.warn("You need to provide an input file '--input-file'");
+			return;
+		}
+		try {
+			File inputFile = new File(inputFilename);
+			if (!inputFile.exists()) {
+				log.error("Cannot find input file {}", inputFile.getCanonicalPath());
+				return;
+			}
+			EtchStore store = EtchStore.create(new File(filename));
+			try {
+				long count;
+				try (InputStream in = new FileInputStream(inputFile)) {
+					count = CellStream.load(store, in, setRoot);
+				}
+				mainParent.output.setField("Cells", count);
+				Hash root = store.getRootHash();
+				if (root != null) mainParent.output.setField("Root", root.toHexString());
+				mainParent.output.addRow();
+			} finally {
+				store.close();
+			}
+		} catch (Throwable t) {
+			mainParent.showError(t);
+		}
+	}
+}
@@ -36,6 +36,7 @@ import picocli.CommandLine.ScopeType;
 @Command(name="convex",
 	subcommands = {
 		Account.class,
+		Etch.class,
 		Key.class,
 		Local.class,
 		Peer.class,
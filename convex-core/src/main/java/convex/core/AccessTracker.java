@@ -0,0 +1,124 @@
+package convex.core;
+
+import java.util.HashSet;
+
+/**
+ * Records which parts of a State are accessed by the current thread while executing a
+ * transaction. Used for optimistic parallel execution of Blocks, to detect transactions that
+ * may have been affected by earlier transactions in the same Block.
+ *
+ * Tracking is only active on threads that have called begin(). All recording methods are
+ * static and cheap no-ops otherwise, so the sequential execution path is unaffected.
+ *
+ * Accounts are tracked individually by index. Access to other parts of the State is tracked
+ * with coarse flags. Global fees are deliberately not tracked, since transactions only ever
+ * add to them and cannot otherwise observe them except via *state*.
+ */
+public final class AccessTracker {
+
+	private static final ThreadLocal<AccessTracker> current=new ThreadLocal<>();
+
+	/**
+	 * Indexes of Accounts read or written
+	 */
+	final HashSet<Long> accounts=new HashSet<>();
+
+	/**
+	 * True if the number of Accounts was observed, e.g. when allocating a new Address
+	 */
+	boolean count=false;
+
+	boolean globals=false;
+
+	boolean peers=false;
+
+	boolean schedule=false;
+
+	/**
+	 * True if the State as a whole was observed, so any change may affect the transaction
+	 */
+	boolean readAll=false;
+
+	/**
+	 * True if Accounts were replaced wholesale, so the set of written Accounts is not known
+	 */
+	boolean writeAll=false;
+
+	/**
+	 * States before and after transaction code was run, as used for memory accounting
+	 */
+	State memoryBefore=null;
+	State memoryAfter=null;
+
+	private AccessTracker() {
+	}
+
+	/**
+	 * Starts tracking State access on the current thread
+	 * @return New tracker instance
+	 */
+	static AccessTracker begin() {
+		AccessTracker t=new AccessTracker();
+		current.set(t);
+		return t;
+	}
+
+	/**
+	 * Stops tracking State access on the current thread
+	 */
+	static void end() {
+		current.remove();
+	}
+
+	static void account(long index) {
+		AccessTracker t=current.get();
+		if (t!=null) t.accounts.add(index);
+	}
+
+	static void count() {
+		AccessTracker t=current.get();
+		if (t!=null) t.count=true;
+	}
+
+	static void globals() {
+		AccessTracker t=current.get();
+		if (t!=null) t.globals=true;
+	}
+
+	static void peers() {
+		AccessTracker t=current.get();
+		if (t!=null) t.peers=true;
+	}
+
+	static void schedule() {
+		AccessTracker t=current.get();
+		if (t!=null) t.schedule=true;
+	}
+
+	static void writeAll() {
+		AccessTracker t=current.get();
+		if (t!=null) t.writeAll=true;
+	}
+
+	/**
+	 * Records the States used to compute memory usage for the current transaction. Memory size
+	 * depends on the structure of the whole State, so must be checked separately.
+	 * @param before State before transaction code was run
+	 * @param after State after transaction code was run
+	 */
+	public static void memory(State before, State after) {
+		AccessTracker t=current.get();
+		if (t==null) return;
+		t.memoryBefore=before;
+		t.memoryAfter=after;
+	}
+
+	/**
+	 * Records that the whole State has been observed by the current transaction, e.g.
+	 * via the *state* special. Must be called by any code that exposes the State to CVM code.
+	 */
+	public static void readAll() {
+		AccessTracker t=current.get();
+		if (t!=null) t.readAll=true;
+	}
+}
@@ -182,11 +182,22 @@ public class Belief extends ARecord {
 		// Initialise result with existing Orders from this Belief
 		BlobMap<AccountKey, SignedData<Order>> result = this.orders;
 		
+		// Verify signatures on all incoming Orders as a single batch. Results are cached, so
+		// the checks in the loop below are cheap
+		ArrayList<SignedData<Order>> incoming=new ArrayList<>();
+		for (Belief belief : beliefs) {
+			if (belief == null) continue;
+			if (belief.equals(this)) continue;
+			incoming.addAll(belief.orders.values());
+		}
+		SignedData.checkSignatures(incoming);
+
 		// assemble the latest list of orders from all peers
 		for (Belief belief : beliefs) {
 			if (belief == null) continue; // ignore null beliefs, might happen if invalidated
 			if (belief.equals(this)) continue; // ignore an identical belief. Nothing to update.
 			BlobMap<AccountKey, SignedData<Order>> bOrders = belief.orders;
+			if (bOrders.equals(result)) continue; // PERF: fast path for no changes to any Order
 			
 			long bcount=bOrders.count();
 			for (long i=0; i<bcount; i++) {
@@ -243,7 +254,6 @@ public class Belief extends ARecord {
 	 */
 	private BlobMap<AccountKey, SignedData<Order>> vote(final MergeContext mc, final BlobMap<AccountKey, SignedData<Order>> accOrders)
 			throws BadSignatureException {
-		AccountKey myAddress = mc.getAccountKey();
 
 		// get current Order for this peer.
 		final Order myOrder = getMyOrder(mc);
@@ -254,6 +264,14 @@ public class Belief extends ARecord {
 		// current consensus!
 		State votingState = mc.getConsensusState();
 
+		// Cache of results from previous rounds, if available. Only changed inputs are recomputed.
+		final MergeCache cache = mc.getCache();
+		if (cache != null) {
+			synchronized (cache) {
+				return vote(mc, myOrder, cache.filterConsistent(myOrder, accOrders), cache);
+			}
+		}
+
 		// filter chains for compatibility with current chain for inclusion in Initial Voting Set
 		// TODO: figure out what to do with new blocks filtered out?
 		final BlobMap<AccountKey, SignedData<Order>> filteredOrders = accOrders.filterValues(signedOrder -> {
@@ -265,13 +283,9 @@ public class Belief extends ARecord {
 			}
 		});
 
-		// Current Consensus Point
-		long consensusPoint = myOrder.getConsensusPoint();
-
 		// Compute stake for all peers in consensus state
 		AMap<AccountKey, PeerStatus> peers = votingState.getPeers();
 		HashMap<AccountKey, Double> weightedStakes = votingState.computeStakes();
-		double totalStake = weightedStakes.get(null);
 
 		// Extract unique proposed chains from provided map, computing vote for each.
 		// compute the total weighted vote at the same time in accumulator
@@ -279,6 +293,37 @@ public class Belief extends ARecord {
 		HashMap<Order, Double> stakedOrders = new HashMap<>(peers.size());
 		double consideredStake = prepareStakedOrders(filteredOrders, weightedStakes, stakedOrders);
 
+		final Order consensusOrder = voteOrder(myOrder, stakedOrders, consideredStake, weightedStakes.get(null));
+		if (consensusOrder == null) return null; // if no voting stake on any chain
+		return updateMyOrder(mc, myOrder, filteredOrders, consensusOrder);
+	}
+
+	/**
+	 * Conducts a vote using cached results where the inputs are unchanged. Must hold lock on cache.
+	 */
+	private BlobMap<AccountKey, SignedData<Order>> vote(MergeContext mc, Order myOrder,
+			BlobMap<AccountKey, SignedData<Order>> filteredOrders, MergeCache cache) {
+		HashMap<AccountKey, Double> weightedStakes = cache.getStakes(mc.getConsensusState());
+		Order consensusOrder = cache.getVote(myOrder, filteredOrders, weightedStakes);
+		if (consensusOrder == null) {
+			HashMap<Order, Double> stakedOrders = cache.updateStakedOrders(filteredOrders);
+			if (stakedOrders.isEmpty()) return null; // no voting stake on any chain
+			consensusOrder = voteOrder(myOrder, stakedOrders, cache.getConsideredStake(), weightedStakes.get(null));
+			if (consensusOrder == null) return null;
+			cache.putVote(myOrder, filteredOrders, weightedStakes, consensusOrder);
+		}
+		return updateMyOrder(mc, myOrder, filteredOrders, consensusOrder);
+	}
+
+	/**
+	 * Computes the new Order for this Peer from the stake on each Order
+	 *
+	 * @return Updated Order, or null if there is no voting stake on any Order
+	 */
+	private Order voteOrder(Order myOrder, HashMap<Order, Double> stakedOrders, double consideredStake, double totalStake) {
+		// Current Consensus Point
+		long consensusPoint = myOrder.getConsensusPoint();
+
 		// Get the winning chain for this peer, including new blocks encountered
 		AVector<SignedData<Block>> winningBlocks = computeWinningOrder(stakedOrders, consensusPoint, consideredStake);
 		if (winningBlocks == null) return null; // if no voting stake on any chain
@@ -292,8 +337,15 @@ public class Belief extends ARecord {
 		assert (proposedOrder != null);
 
 		final double C_THRESHOLD = totalStake * Constants.CONSENSUS_THRESHOLD;
-		final Order consensusOrder = updateConsensus(proposedOrder, stakedOrders, C_THRESHOLD);
+		return updateConsensus(proposedOrder, stakedOrders, C_THRESHOLD);
+	}
 
+	/**
+	 * Updates the Orders map with this Peer's new Order, signing it only if it has changed
+	 */
+	private BlobMap<AccountKey, SignedData<Order>> updateMyOrder(MergeContext mc, Order myOrder,
+			BlobMap<AccountKey, SignedData<Order>> filteredOrders, Order consensusOrder) {
+		AccountKey myAddress = mc.getAccountKey();
 		BlobMap<AccountKey, SignedData<Order>> resultOrders = filteredOrders;
 		if (!consensusOrder.equals(myOrder)) {
 			// Only sign and update Order if it has changed
@@ -70,6 +70,26 @@ public class Constants {
 	 */
 	public static final long MEMORY_OVERHEAD = 64;
 
+	/**
+	 * Default capacity in bytes of the decoded Cell cache for each Store
+	 */
+	public static final long CELL_CACHE_SIZE = 64L*1024*1024;
+
+	/**
+	 * Default capacity in bytes of the hot tier of a TieredStore
+	 */
+	public static final long HOT_TIER_SIZE = 128L*1024*1024;
+
+	/**
+	 * Default capacity in bytes of the pinned tier of a TieredStore
+	 */
+	public static final long PINNED_TIER_SIZE = 64L*1024*1024;
+
+	/**
+	 * Maximum number of cells waiting for write-back in a TieredStore before writers are blocked
+	 */
+	public static final int WRITE_BACK_LIMIT = 100000;
+
 	/**
 	 * Default timeout in milliseconds for client transactions
 	 */
@@ -144,10 +164,23 @@ public class Constants {
 	public static final int RECEIVE_BUFFER_SIZE = Format.LIMIT_ENCODING_LENGTH*10+20;
 
 	/**
-	 * Default size for client receive buffers.
+	 * Default size for connection send buffers. Reading from a connection is paused while
+	 * more than this number of bytes are queued for sending on it.
 	 */
 	public static final int SEND_BUFFER_SIZE = Format.LIMIT_ENCODING_LENGTH*10+20;
 
+	/**
+	 * Maximum number of bytes queued for sending on a single connection. Bulk data is
+	 * limited to this amount, urgent messages may use an additional SEND_BUFFER_SIZE.
+	 */
+	public static final int SEND_QUEUE_LIMIT = SEND_BUFFER_SIZE*4;
+
+	/**
+	 * Maximum time in milliseconds that a sender waits for space in a full send queue before
+	 * giving up on a message
+	 */
+	public static final long SEND_RETRY_TIMEOUT = 2000;
+
 
 	/**
 	 * Size of default server socket receive buffer
@@ -175,22 +208,78 @@ public class Constants {
 	public static final long MAX_REBROADCAST_DELAY = 100;
 
 	/**
-	 * Delay before a Peer produces another Block. 
+	 * Minimum delay before a Peer produces another Block. 
 	 * 
 	 * Note: This may be the bottleneck in some benchmarks! Set to 0 if blocks are being delayed
 	 */
 	public static final long MIN_BLOCK_TIME = 0;
 
+	/**
+	 * Maximum time a Peer holds back new transactions to batch them into a Block while earlier
+	 * Blocks are waiting for consensus, in milliseconds
+	 */
+	public static final long MAX_BLOCK_TIME = 20;
+
 	/**
 	 * Timeout for syncing with an existing Peer
 	 */
 	public static final long PEER_SYNC_TIMEOUT = 60000;
 
+	/**
+	 * Default number of most recent consensus States held in memory by a Peer
+	 */
+	public static final long STATE_RETENTION = 100;
+
+	/**
+	 * Default interval between checkpoint States held in memory by a Peer. Older States are reloaded from the store.
+	 */
+	public static final long STATE_CHECKPOINT_INTERVAL = 1000;
+
+	/**
+	 * Default maximum number of queries a client may have outstanding on a Peer
+	 */
+	public static final int QUERY_CLIENT_LIMIT = 16;
+
+	/**
+	 * Default maximum number of queries waiting for execution on a Peer
+	 */
+	public static final int QUERY_QUEUE_SIZE = 1000;
+
+	/**
+	 * Default maximum number of transactions in a Block proposed by a Peer
+	 */
+	public static final int MAX_BLOCK_SIZE = 1000;
+
+	/**
+	 * Maximum number of pending transactions held by a Peer
+	 */
+	public static final int MEMPOOL_SIZE = 10000;
+
+	/**
+	 * Maximum number of pending transactions held by a Peer for each origin Address
+	 */
+	public static final int MEMPOOL_ORIGIN_LIMIT = 1000;
+
+	/**
+	 * Time after which a pending transaction is dropped if not yet included in a Block, in milliseconds
+	 */
+	public static final long MEMPOOL_TIMEOUT = 60000;
+
 	/**
 	 * Number of fields in a Peer STATUS message
 	 */
 	public static final long STATUS_COUNT = 5;
 
+	/**
+	 * Maximum number of Hashes in a single MISSING_DATA request
+	 */
+	public static final int MISSING_DATA_LIMIT = 256;
+
+	/**
+	 * Target size in bytes of each chunk of cell encodings streamed in response to a SNAPSHOT request
+	 */
+	public static final int SNAPSHOT_CHUNK_SIZE = 32768;
+
 	/**
 	 * Default port for Convex Peers
 	 */
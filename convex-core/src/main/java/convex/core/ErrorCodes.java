@@ -191,5 +191,10 @@ public class ErrorCodes {
 	 */
 	public static final Keyword FORMAT = Keyword.create("FORMAT");
 
+	/**
+	 * ErrorCode for a request rejected because the Peer is overloaded. May be retried later.
+	 */
+	public static final Keyword LOAD = Keyword.create("LOAD");
+
 
 }
@@ -0,0 +1,219 @@
+package convex.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import convex.core.data.AccountKey;
+import convex.core.data.BlobMap;
+import convex.core.data.MapEntry;
+import convex.core.data.PeerStatus;
+import convex.core.data.SignedData;
+import convex.core.lang.RT;
+
+/**
+ * Cache of intermediate results for Belief merges by a single Peer, kept between merge rounds
+ * so that each round only does work for the Orders that have changed.
+ *
+ * Holds:
+ * <ul>
+ * <li>Weighted stakes, recomputed only when the Peers in the consensus State change</li>
+ * <li>Consistency of each other Peer's Order with our own, recomputed only when that Order or
+ * our consensus changes</li>
+ * <li>Aggregate stake on each distinct Order, updated only for Peers whose Order changed</li>
+ * <li>The result of the last vote, reused if the voting inputs are unchanged</li>
+ * </ul>
+ *
+ * Everything cached is keyed by the values it was computed from, so results are correct
+ * whatever sequence of Beliefs is merged. Aggregate stakes are accumulated as longs, which are
+ * exact for any total supply, and only converted to doubles for the vote. Floating point sums
+ * would drift as Peers are added and removed, and could leave an Order behind with a tiny stake.
+ *
+ * Not thread safe: callers must synchronise on the cache.
+ */
+final class MergeCache {
+
+	/**
+	 * Number of stale consistency entries allowed to accumulate while consensus does not advance
+	 */
+	private static final int MAX_CONSISTENCY_ENTRIES = 1000;
+
+	private BlobMap<AccountKey, PeerStatus> stakePeers;
+	private HashMap<AccountKey, Double> stakes;
+	private HashMap<AccountKey, Long> exactStakes;
+
+	/**
+	 * Our Order when the consistency cache was last validated. Consistency only depends on the
+	 * Blocks up to its consensus point.
+	 */
+	private Order consistencyBase;
+	private final HashMap<Order, Boolean> consistent = new HashMap<>();
+
+	/**
+	 * Contribution of each Peer to the staked Orders
+	 */
+	private final HashMap<AccountKey, Order> contributions = new HashMap<>();
+	private final HashMap<AccountKey, Long> contributedStakes = new HashMap<>();
+	private final HashMap<Order, Long> orderStakes = new HashMap<>();
+	private long consideredStake = 0;
+
+	/**
+	 * Aggregate stake on each Order converted for voting, kept in step with orderStakes
+	 */
+	private final HashMap<Order, Double> stakedOrders = new HashMap<>();
+
+	private Order voteOrder;
+	private BlobMap<AccountKey, SignedData<Order>> voteOrders;
+	private HashMap<AccountKey, Double> voteStakes;
+	private Order voteResult;
+
+	/**
+	 * Gets the weighted stakes of all Peers in a State, as computed by State.computeStakes().
+	 * The result must not be modified.
+	 *
+	 * @param state Consensus State
+	 * @return Map of Peer keys to stake, with the total stake under the null key
+	 */
+	HashMap<AccountKey, Double> getStakes(State state) {
+		BlobMap<AccountKey, PeerStatus> peers = state.getPeers();
+		if ((stakes == null) || !peers.equals(stakePeers)) {
+			stakes = state.computeStakes();
+			exactStakes = new HashMap<>(stakes.size());
+			long n = peers.count();
+			for (long i = 0; i < n; i++) {
+				MapEntry<AccountKey, PeerStatus> me = peers.entryAt(i);
+				exactStakes.put(RT.ensureAccountKey(me.getKey()), me.getValue().getTotalStake());
+			}
+			stakePeers = peers;
+		}
+		return stakes;
+	}
+
+	/**
+	 * Filters Orders to those consistent with our Order
+	 *
+	 * @param myOrder Our current Order
+	 * @param orders Map of Peer keys to signed Orders
+	 * @return Filtered map of Orders
+	 */
+	BlobMap<AccountKey, SignedData<Order>> filterConsistent(Order myOrder, BlobMap<AccountKey, SignedData<Order>> orders) {
+		long cp = myOrder.getConsensusPoint();
+		if ((consistencyBase == null) || (consistencyBase.getConsensusPoint() != cp)
+				|| (myOrder.getBlocks().commonPrefixLength(consistencyBase.getBlocks()) < cp)) {
+			consistent.clear();
+		} else if (consistent.size() > MAX_CONSISTENCY_ENTRIES + orders.count()) {
+			// consensus has stalled while Orders keep changing, so drop old entries
+			consistent.clear();
+		}
+		consistencyBase = myOrder;
+
+		return orders.filterValues(signedOrder -> {
+			Order otherOrder = signedOrder.getValue();
+			Boolean result = consistent.get(otherOrder);
+			if (result == null) {
+				result = myOrder.checkConsistent(otherOrder);
+				consistent.put(otherOrder, result);
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * Updates the aggregate stake on each distinct Order, for Peers whose Order or stake has
+	 * changed since the last call. Equivalent to Belief.prepareStakedOrders. Uses the stakes from
+	 * the last call to getStakes.
+	 *
+	 * @param orders Map of Peer keys to consistent signed Orders
+	 * @return Map of Orders to total stake. Must not be modified.
+	 */
+	HashMap<Order, Double> updateStakedOrders(BlobMap<AccountKey, SignedData<Order>> orders) {
+		HashMap<AccountKey, Order> seen = new HashMap<>((int) orders.count() * 2);
+		long n = orders.count();
+		for (long i = 0; i < n; i++) {
+			MapEntry<AccountKey, SignedData<Order>> me = orders.entryAt(i);
+			SignedData<Order> signedOrder = me.getValue();
+			AccountKey key = signedOrder.getAccountKey();
+			Long stake = exactStakes.get(key);
+			if ((stake == null) || (stake == 0)) continue;
+			Order order = signedOrder.getValue();
+			seen.put(key, order);
+
+			Order old = contributions.get(key);
+			Long oldStake = contributedStakes.get(key);
+			if ((old != null) && old.equals(order) && stake.equals(oldStake)) continue;
+			if (old != null) remove(key, old, oldStake);
+			add(key, order, stake);
+		}
+
+		// remove Peers no longer present
+		Iterator<Map.Entry<AccountKey, Order>> it = contributions.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<AccountKey, Order> me = it.next();
+			AccountKey key = me.getKey();
+			if (seen.containsKey(key)) continue;
+			long oldStake = contributedStakes.remove(key);
+			subtract(me.getValue(), oldStake);
+			it.remove();
+		}
+		return stakedOrders;
+	}
+
+	private void add(AccountKey key, Order order, long stake) {
+		contributions.put(key, order);
+		contributedStakes.put(key, stake);
+		Long current = orderStakes.get(order);
+		long total = (current == null) ? stake : current + stake;
+		orderStakes.put(order, total);
+		stakedOrders.put(order, (double) total);
+		consideredStake += stake;
+	}
+
+	private void remove(AccountKey key, Order order, long stake) {
+		contributions.remove(key);
+		contributedStakes.remove(key);
+		subtract(order, stake);
+	}
+
+	private void subtract(Order order, long stake) {
+		long remaining = orderStakes.get(order) - stake;
+		if (remaining == 0) {
+			orderStakes.remove(order);
+			stakedOrders.remove(order);
+		} else {
+			orderStakes.put(order, remaining);
+			stakedOrders.put(order, (double) remaining);
+		}
+		consideredStake -= stake;
+	}
+
+	/**
+	 * Gets the total stake of Peers contributing to the staked Orders
+	 * @return Considered stake
+	 */
+	double getConsideredStake() {
+		return (double) consideredStake;
+	}
+
+	/**
+	 * Gets the result of the last vote, if it had the same inputs
+	 *
+	 * @return Resulting Order, or null if not available
+	 */
+	Order getVote(Order myOrder, BlobMap<AccountKey, SignedData<Order>> orders, HashMap<AccountKey, Double> peerStakes) {
+		if (voteResult == null) return null;
+		if (peerStakes != voteStakes) return null;
+		if (!myOrder.equals(voteOrder)) return null;
+		if (!orders.equals(voteOrders)) return null;
+		return voteResult;
+	}
+
+	/**
+	 * Records the result of a vote
+	 */
+	void putVote(Order myOrder, BlobMap<AccountKey, SignedData<Order>> orders, HashMap<AccountKey, Double> peerStakes, Order result) {
+		voteOrder = myOrder;
+		voteOrders = orders;
+		voteStakes = peerStakes;
+		voteResult = result;
+	}
+}
@@ -21,12 +21,14 @@ public class MergeContext {
 	private final State state;
 	private final AKeyPair keyPair;
 	private final long timestamp;
+	private final MergeCache cache;
 
-	private MergeContext(AKeyPair peerKeyPair, long mergeTimestamp, State consensusState) {
+	private MergeContext(AKeyPair peerKeyPair, long mergeTimestamp, State consensusState, MergeCache cache) {
 		this.state = consensusState;
 		this.publicKey = peerKeyPair.getAccountKey();
 		this.keyPair = peerKeyPair;
 		this.timestamp = mergeTimestamp;
+		this.cache = cache;
 	}
 
 	/**
@@ -37,7 +39,19 @@ public class MergeContext {
 	 * @return New MergeContext instance
 	 */
 	public static MergeContext create(AKeyPair kp, long timestamp, State s) {
-		return new MergeContext(kp, timestamp, s);
+		return new MergeContext(kp, timestamp, s, null);
+	}
+
+	/**
+	 * Create a MergeContext using a cache of results from previous merges by the same Peer
+	 * @param kp Keypair
+	 * @param timestamp Timestamp
+	 * @param s Consensus State
+	 * @param cache Merge cache, or null to compute everything
+	 * @return New MergeContext instance
+	 */
+	static MergeContext create(AKeyPair kp, long timestamp, State s, MergeCache cache) {
+		return new MergeContext(kp, timestamp, s, cache);
 	}
 
 	/**
@@ -73,7 +87,7 @@ public class MergeContext {
 	 * @return Updated MergeContext
 	 */
 	public MergeContext withTimestamp(long newTimestamp) {
-		return new MergeContext(keyPair, newTimestamp, state);
+		return new MergeContext(keyPair, newTimestamp, state, cache);
 	}
 
 	/**
@@ -84,4 +98,12 @@ public class MergeContext {
 		return state;
 	}
 
+	/**
+	 * Gets the cache of results from previous merges
+	 * @return Merge cache, or null if not caching
+	 */
+	MergeCache getCache() {
+		return cache;
+	}
+
 }
@@ -0,0 +1,238 @@
+package convex.core;
+
+import java.util.HashSet;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.AVector;
+import convex.core.data.AccountStatus;
+import convex.core.data.Address;
+import convex.core.data.SignedData;
+import convex.core.data.Strings;
+import convex.core.data.prim.CVMLong;
+import convex.core.lang.Context;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+import convex.core.transactions.ATransaction;
+import convex.core.util.Counters;
+
+/**
+ * Engine for optimistic parallel execution of the transactions in a Block.
+ *
+ * All transactions are first executed speculatively in parallel against the State at the start of
+ * the Block, with an AccessTracker recording which parts of the State each one touched. Results
+ * are then committed in Block order. A speculative result is only committed if nothing it touched
+ * has been changed by an earlier transaction, in which case it is exactly the result that
+ * sequential execution would produce. Otherwise the transaction is executed again on the
+ * latest State, as in State.applyBlock(...).
+ *
+ * Global fees are accumulated as a delta, since transactions only ever add to them. Transactions
+ * that change anything other than Accounts and fees are always executed again in sequence.
+ */
+final class ParallelExecutor {
+
+	private static final Logger log = LoggerFactory.getLogger(ParallelExecutor.class.getName());
+
+	/**
+	 * Blocks with fewer transactions than this are executed sequentially
+	 */
+	static final int MIN_PARALLEL=8;
+
+	/**
+	 * Changes made to the State by transactions committed so far
+	 */
+	private static final class Changes {
+		final HashSet<Long> accounts=new HashSet<>();
+		boolean count=false;
+		boolean globals=false;
+		boolean peers=false;
+		boolean schedule=false;
+		boolean all=false;
+	}
+
+	static BlockResult applyTransactions(State base, Block block) {
+		int n=block.length();
+		if (n<MIN_PARALLEL) return base.applyTransactions(block);
+
+		AVector<SignedData<ATransaction>> transactions=block.getTransactions();
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		SignedData<ATransaction>[] signed=new SignedData[n];
+		for (int i=0; i<n; i++) {
+			signed[i]=transactions.get(i);
+		}
+
+		Context<?>[] contexts=new Context<?>[n];
+		AccessTracker[] trackers=new AccessTracker[n];
+		AStore store=Stores.current();
+		try {
+			IntStream.range(0, n).parallel().forEach(i->{
+				speculate(base,signed[i],store,i,contexts,trackers);
+			});
+		} catch (Throwable t) {
+			// Shouldn't happen since individual failures are caught, but sequential execution is always safe
+			log.warn("Parallel transaction execution failed, falling back to sequential: {}",t.getMessage());
+			return base.applyTransactions(block);
+		}
+
+		State state=base;
+		Result[] results=new Result[n];
+		Changes changes=new Changes();
+		for (int i=0; i<n; i++) {
+			Context<?> ctx=contexts[i];
+			if ((ctx!=null)&&isCommittable(base,state,ctx.getState(),trackers[i],changes)) {
+				try {
+					results[i]=Result.fromContext(CVMLong.create(i),ctx);
+					state=commit(base,state,ctx.getState(),trackers[i],changes);
+					Counters.parallelCommits++;
+					continue;
+				} catch (Throwable t) {
+					// fall through to execution in sequence
+				}
+			}
+
+			// execute the transaction again on the latest state, exactly as in State.applyTransactions
+			Counters.parallelRetries++;
+			AccessTracker tracker=AccessTracker.begin();
+			State next=null;
+			try {
+				ctx=state.applyTransaction(signed[i]);
+				results[i]=Result.fromContext(CVMLong.create(i),ctx);
+				next=ctx.getState();
+			} catch (Throwable t) {
+				String msg= "Unexpected fatal exception applying transaction: "+t.toString();
+				results[i] = Result.create(CVMLong.create(i), Strings.create(msg),ErrorCodes.UNEXPECTED);
+				log.error(msg);
+			} finally {
+				AccessTracker.end();
+			}
+			if (next!=null) {
+				recordChanges(state,next,tracker,changes);
+				state=next;
+			}
+		}
+
+		return BlockResult.create(state, results);
+	}
+
+	private static void speculate(State base, SignedData<ATransaction> signed, AStore store, int i, Context<?>[] contexts, AccessTracker[] trackers) {
+		AStore savedStore=Stores.current();
+		Stores.setCurrent(store);
+		AccessTracker tracker=AccessTracker.begin();
+		try {
+			contexts[i]=base.applyTransaction(signed);
+			trackers[i]=tracker;
+		} catch (Throwable t) {
+			// leave result empty, so the transaction is executed again in sequence
+		} finally {
+			AccessTracker.end();
+			Stores.setCurrent(savedStore);
+		}
+	}
+
+	/**
+	 * Checks if a speculative result can be committed to the current State
+	 */
+	private static boolean isCommittable(State base, State current, State result, AccessTracker tracker, Changes changes) {
+		try {
+			return checkCommittable(base, current, result, tracker, changes);
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	private static boolean checkCommittable(State base, State current, State result, AccessTracker tracker, Changes changes) {
+		if (changes.all||tracker.readAll||tracker.writeAll) return false;
+		if (!hasSameStructure(base,result)) return false;
+
+		if (tracker.count&&changes.count) return false;
+		if (tracker.globals&&changes.globals) return false;
+		if (tracker.peers&&changes.peers) return false;
+		if (tracker.schedule&&changes.schedule) return false;
+		for (Long ix: tracker.accounts) {
+			if (changes.accounts.contains(ix)) return false;
+		}
+
+		// Memory usage depends on the whole State, so must be the same on the current State
+		State before=tracker.memoryBefore;
+		State after=tracker.memoryAfter;
+		if ((before!=null)&&(current!=base)) {
+			if (!hasSameStructure(base,before)||!hasSameStructure(base,after)) return false;
+			long used=after.getMemorySize()-before.getMemorySize();
+			State rebasedBefore=rebase(base,current,before,tracker);
+			State rebasedAfter=rebase(base,current,after,tracker);
+			if ((rebasedAfter.getMemorySize()-rebasedBefore.getMemorySize())!=used) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that a State differs from the base State only in existing Accounts and fees
+	 */
+	private static boolean hasSameStructure(State base, State s) {
+		if (s==base) return true;
+		if (s.getAccounts().count()!=base.getAccounts().count()) return false;
+		if (s.getPeers()!=base.getPeers()) return false;
+		if (s.getSchedule()!=base.getSchedule()) return false;
+		if (!s.getTimeStamp().equals(base.getTimeStamp())) return false;
+		if (!s.getJuicePrice().equals(base.getJuicePrice())) return false;
+		return true;
+	}
+
+	/**
+	 * Applies the Account changes from a speculative result to the current State
+	 */
+	private static State rebase(State base, State current, State result, AccessTracker tracker) {
+		AVector<AccountStatus> baseAccounts=base.getAccounts();
+		AVector<AccountStatus> resultAccounts=result.getAccounts();
+		for (Long ix: tracker.accounts) {
+			AccountStatus as=resultAccounts.get(ix);
+			if (as!=baseAccounts.get(ix)) {
+				current=current.putAccount(Address.create(ix), as);
+			}
+		}
+		return current;
+	}
+
+	private static State commit(State base, State current, State result, AccessTracker tracker, Changes changes) {
+		State state=rebase(base,current,result,tracker);
+		if (state!=current) {
+			AVector<AccountStatus> baseAccounts=base.getAccounts();
+			AVector<AccountStatus> resultAccounts=result.getAccounts();
+			for (Long ix: tracker.accounts) {
+				if (resultAccounts.get(ix)!=baseAccounts.get(ix)) changes.accounts.add(ix);
+			}
+		}
+
+		long fees=result.getGlobalFees().longValue()-base.getGlobalFees().longValue();
+		if (fees!=0) {
+			state=state.withGlobalFees(CVMLong.create(state.getGlobalFees().longValue()+fees));
+		}
+		return state;
+	}
+
+	/**
+	 * Records the changes made by a transaction executed in sequence
+	 */
+	private static void recordChanges(State prev, State next, AccessTracker tracker, Changes changes) {
+		if (prev==next) return;
+		if (tracker.writeAll) changes.all=true;
+
+		AVector<AccountStatus> prevAccounts=prev.getAccounts();
+		AVector<AccountStatus> nextAccounts=next.getAccounts();
+		long prevCount=prevAccounts.count();
+		if (nextAccounts.count()!=prevCount) changes.count=true;
+		for (Long ix: tracker.accounts) {
+			if ((ix>=prevCount)||(ix>=nextAccounts.count())||(nextAccounts.get(ix)!=prevAccounts.get(ix))) {
+				changes.accounts.add(ix);
+			}
+		}
+
+		if (next.getPeers()!=prev.getPeers()) changes.peers=true;
+		if (next.getSchedule()!=prev.getSchedule()) changes.schedule=true;
+		if (!next.getTimeStamp().equals(prev.getTimeStamp())) changes.globals=true;
+		if (!next.getJuicePrice().equals(prev.getJuicePrice())) changes.globals=true;
+	}
+}
@@ -1,6 +1,10 @@
 package convex.core;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import convex.core.crypto.AKeyPair;
@@ -46,6 +50,11 @@ import convex.core.util.Utils;
  * consensus updates happen.
  * </p>
  *
+ * <p>
+ * Only the most recent States and periodic checkpoint States are held in memory once persisted.
+ * Older States are retained in the store and reloaded lazily if needed, e.g. for historical queries.
+ * </p>
+ *
  *
  * "Don't worry about what anybody else is going to do. The best way to predict
  * the future is to invent it." - Alan Kay
@@ -80,14 +89,55 @@ public class Peer {
 	 */
 	private final AVector<BlockResult> blockResults;
 
+	/**
+	 * Number of most recent States to hold in memory
+	 */
+	private final long stateRetention;
+
+	/**
+	 * Interval between checkpoint States held in memory regardless of age. 0 for no checkpoints
+	 */
+	private final long checkpointInterval;
+
+	/**
+	 * States held in memory by index (recent and checkpoint States). Never modified after construction.
+	 */
+	private final Map<Long,State> retainedStates;
+
+	/**
+	 * If true, agreed Blocks are not executed when the Belief is updated. The owner of this Peer is
+	 * then responsible for executing Blocks and adding the results with withBlockResults(...)
+	 */
+	private final boolean deferExecution;
+
+	/**
+	 * Cache of intermediate results from previous Belief merges, shared by Peers derived from this one
+	 */
+	private transient final MergeCache mergeCache;
+
 	private Peer(AKeyPair kp, SignedData<Belief> belief, AVector<State> states, AVector<BlockResult> results,
-			long timeStamp) {
+			long timeStamp, long stateRetention, long checkpointInterval, Map<Long,State> retainedStates, boolean deferExecution,
+			MergeCache mergeCache) {
 		this.keyPair = kp;
 		this.peerKey = kp.getAccountKey();
 		this.belief = belief;
 		this.states = states;
 		this.blockResults = results;
 		this.timestamp = timeStamp;
+		this.stateRetention = stateRetention;
+		this.checkpointInterval = checkpointInterval;
+		this.retainedStates = retainedStates;
+		this.deferExecution = deferExecution;
+		this.mergeCache = mergeCache;
+	}
+
+	private Peer(AKeyPair kp, SignedData<Belief> belief, AVector<State> states, AVector<BlockResult> results,
+			long timeStamp) {
+		this(kp,belief,states,results,timeStamp,Constants.STATE_RETENTION,Constants.STATE_CHECKPOINT_INTERVAL,Map.of(),false,new MergeCache());
+	}
+
+	private Peer withData(SignedData<Belief> belief, AVector<State> states, AVector<BlockResult> results, long timeStamp) {
+		return new Peer(keyPair,belief,states,results,timeStamp,stateRetention,checkpointInterval,retainedStates,deferExecution,mergeCache);
 	}
 
 	/**
@@ -226,7 +276,7 @@ public class Peer {
 	 */
 	public Peer updateTimestamp(long newTimestamp) {
 		if (newTimestamp < timestamp) return this;
-		return new Peer(keyPair, belief, states, blockResults, timestamp);
+		return withData(belief, states, blockResults, timestamp);
 	}
 
 	/**
@@ -365,7 +415,20 @@ public class Peer {
 	 * @return Consensus state for this chain (initial state if no block consensus)
 	 */
 	public State getConsensusState() {
-		return states.get(states.count() - 1);
+		return getState(states.count() - 1);
+	}
+
+	/**
+	 * Gets the State at a given index, i.e. after the given number of Blocks have been applied. States that
+	 * are not held in memory are reloaded from the store.
+	 *
+	 * @param i Index of State (0 for the genesis State)
+	 * @return State at the given index
+	 */
+	public State getState(long i) {
+		State s=retainedStates.get(i);
+		if (s!=null) return s;
+		return states.get(i);
 	}
 
 	/**
@@ -380,7 +443,7 @@ public class Peer {
 	 */
 	public Peer mergeBeliefs(Belief... beliefs) throws BadSignatureException, InvalidDataException {
 		Belief belief = getBelief();
-		MergeContext mc = MergeContext.create(keyPair, timestamp, getConsensusState());
+		MergeContext mc = MergeContext.create(keyPair, timestamp, getConsensusState(), mergeCache);
 		Belief newBelief = belief.merge(mc, beliefs);
 
 		long ocp=getConsensusPoint();
@@ -397,34 +460,113 @@ public class Peer {
 	}
 
 	/**
-	 * Update this Peer with Consensus State for an updated Belief
+	 * Update this Peer with an updated Belief. Executes newly agreed Blocks, unless execution is deferred.
 	 *
 	 * @param newBelief
 	 * @return
-	 * @throws BadSignatureException 
 	 */
 	private Peer updateConsensus(Belief newBelief) {
 		if (belief.getValue() == newBelief) return this;
-		Order myOrder = newBelief.getOrder(peerKey); // this peer's chain from new belief
-		long consensusPoint = myOrder.getConsensusPoint();
-		long stateIndex = states.count() - 1; // index of last state
-		AVector<SignedData<Block>> blocks = myOrder.getBlocks();
+		SignedData<Belief> sb = keyPair.signData(newBelief);
+		Peer result=withData(sb, states, blockResults, timestamp);
+		if (deferExecution) return result;
+		return result.updateState();
+	}
+
+	/**
+	 * Executes all agreed Blocks up to the consensus point that have not yet been executed.
+	 *
+	 * @return Updated Peer with States and BlockResults up to the consensus point
+	 */
+	public Peer updateState() {
+		long consensusPoint = getConsensusPoint();
+		long position = getStatePosition();
+		if (position >= consensusPoint) return this;
+		List<BlockResult> results = executeBlocks(getConsensusState(), getPeerOrder().getBlocks(), position, consensusPoint);
+		return withBlockResults(position, results);
+	}
+
+	/**
+	 * Executes a range of Blocks in sequence, starting from the given State. Does not modify any Peer,
+	 * so may be called from any thread.
+	 *
+	 * @param state State before the first Block is applied
+	 * @param blocks Vector of Blocks, e.g. from an Order
+	 * @param start Index of first Block to execute
+	 * @param end Index after last Block to execute
+	 * @return List of BlockResults, one for each Block executed
+	 */
+	public static List<BlockResult> executeBlocks(State state, AVector<SignedData<Block>> blocks, long start, long end) {
+		return executeBlocks(state, blocks, start, end, false);
+	}
+
+	/**
+	 * Executes a range of Blocks in sequence, starting from the given State, optionally executing
+	 * the transactions within each Block in parallel. Results are identical either way.
+	 *
+	 * @param state State before the first Block is applied
+	 * @param blocks Vector of Blocks, e.g. from an Order
+	 * @param start Index of first Block to execute
+	 * @param end Index after last Block to execute
+	 * @param parallel True to execute transactions within each Block in parallel
+	 * @return List of BlockResults, one for each Block executed
+	 */
+	public static List<BlockResult> executeBlocks(State state, AVector<SignedData<Block>> blocks, long start, long end, boolean parallel) {
+		ArrayList<BlockResult> results = new ArrayList<>((int)(end-start));
+		for (long i = start; i < end; i++) {
+			SignedData<Block> block = blocks.get(i);
+
+			// TODO: Block signature validation?
+			BlockResult br = parallel ? state.applyBlockParallel(block.getValue()) : state.applyBlock(block.getValue());
+			state = br.getState();
+			results.add(br);
+		}
+		return results;
+	}
 
-		// need to advance states
+	/**
+	 * Adds the results of executing Blocks to this Peer. Results must follow on from the current
+	 * State position, i.e. the first result must be for the first Block not yet executed.
+	 *
+	 * @param position State position the results start from
+	 * @param results BlockResults to add
+	 * @return Updated Peer
+	 */
+	public Peer withBlockResults(long position, List<BlockResult> results) {
+		if (position != getStatePosition()) {
+			throw new IllegalArgumentException("Block results for position "+position+" but Peer is at "+getStatePosition());
+		}
+		if (results.isEmpty()) return this;
 		AVector<State> newStates = this.states;
 		AVector<BlockResult> newResults = this.blockResults;
-		while (stateIndex < consensusPoint) { // add states until last state is at consensus point
-			State s = newStates.get(stateIndex);
-			SignedData<Block> block = blocks.get(stateIndex);
-			
-			// TODO: Block signature validation?
-			BlockResult br = s.applyBlock(block.getValue());
+		for (BlockResult br: results) {
 			newStates = newStates.append(br.getState());
 			newResults = newResults.append(br);
-			stateIndex++;
 		}
-		SignedData<Belief> sb = keyPair.signData(newBelief);
-		return new Peer(keyPair, sb, newStates, newResults, timestamp);
+		return withData(belief, newStates, newResults, timestamp);
+	}
+
+	/**
+	 * Gets the State position of this Peer, i.e. the number of Blocks executed to produce the
+	 * current consensus State. May be behind the consensus point if Block execution is deferred.
+	 *
+	 * @return Number of Blocks executed
+	 */
+	public long getStatePosition() {
+		return states.count() - 1;
+	}
+
+	/**
+	 * Sets whether execution of agreed Blocks is deferred. If deferred, Belief updates only update
+	 * the consensus ordering, and Blocks must be executed separately, e.g. with executeBlocks(...)
+	 * followed by withBlockResults(...), or with updateState().
+	 *
+	 * @param defer True to defer Block execution
+	 * @return Updated Peer
+	 */
+	public Peer withDeferredExecution(boolean defer) {
+		if (defer==deferExecution) return this;
+		return new Peer(keyPair, belief, states, blockResults, timestamp, stateRetention, checkpointInterval, retainedStates, defer, mergeCache);
 	}
 
 	/**
@@ -432,25 +574,95 @@ public class Peer {
 	 * @param noveltyHandler Novelty handler for Belief
 	 * @return Updates Peer
 	 */
+	@SuppressWarnings("unchecked")
 	public Peer persistState(Consumer<Ref<ACell>> noveltyHandler) {
-		// Peer Belief must be announced using novelty handler
+		// Persist states and results as a single group. Made durable together with the Belief below,
+		// so the store needs only one durable flush
+		AStore store=Stores.current();
+		List<Ref<? extends ACell>> refs=List.of(states.getRef(),blockResults.getRef());
+		ArrayList<Ref<ACell>> persisted=store.storeAll(refs, Ref.PERSISTED, null, false);
+
+		// Peer Belief must be announced using novelty handler. Stored as a group, so that novelty
+		// is only reported once durable and can be sent as a batch
 		SignedData<Belief> sb=this.belief;
-		sb.announce(noveltyHandler);
+		ArrayList<Ref<ACell>> announced=store.storeAll(List.of(sb.getRef()), Ref.ANNOUNCED, noveltyHandler, true);
+		sb.attachRef(announced.get(0));
 
-		// Persist states
-		AVector<State> newStates = this.states;
-		newStates=ACell.createPersisted(newStates).getValue();
+		AVector<State> newStates = (AVector<State>) persisted.get(0).getValue();
+		AVector<BlockResult> newResults = (AVector<BlockResult>) persisted.get(1).getValue();
 
-		// Persist results
-		AVector<BlockResult> newResults = this.blockResults;
-		newResults=ACell.createPersisted(newResults).getValue();
+		// Pin recent and checkpoint States, then drop in-memory history beyond them
+		Map<Long,State> newRetained=retainStates(newStates);
+		if (newStates.count()>stateRetention) {
+			newStates=unload(persisted.get(0));
+			newResults=unload(persisted.get(1));
+		}
 
-		return new Peer(this.keyPair, sb, newStates, newResults, this.timestamp);
+		return new Peer(this.keyPair, sb, newStates, newResults, this.timestamp, stateRetention, checkpointInterval, newRetained, deferExecution, mergeCache);
+	}
+
+	/**
+	 * Computes the States to hold in memory: the most recent States within the retention window, plus
+	 * any checkpoint States. The genesis State is always a checkpoint.
+	 */
+	private Map<Long,State> retainStates(AVector<State> allStates) {
+		long n=allStates.count();
+		long windowStart=Math.max(0, n-stateRetention);
+		HashMap<Long,State> result=new HashMap<>();
+		for (Map.Entry<Long,State> me: retainedStates.entrySet()) {
+			long i=me.getKey();
+			if ((i<n)&&((i>=windowStart)||isCheckpoint(i))) result.put(i, me.getValue());
+		}
+		for (long i=windowStart; i<n; i++) {
+			if (!result.containsKey(i)) result.put(i, allStates.get(i));
+		}
+		if (!result.containsKey(0L)) result.put(0L, allStates.get(0));
+		return result;
+	}
+
+	private boolean isCheckpoint(long i) {
+		if (i==0) return true;
+		return (checkpointInterval>0)&&((i%checkpointInterval)==0);
+	}
+
+	/**
+	 * Gets a persisted vector as reloaded from the store. Child Refs are then only resolved,
+	 * and softly cached, when accessed, so the full history is not held in memory.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends ACell> AVector<T> unload(Ref<ACell> persisted) {
+		Ref<ACell> stored=Stores.current().refForHash(persisted.getHash());
+		if (stored==null) return (AVector<T>) persisted.getValue();
+		return (AVector<T>) stored.getValue();
+	}
+
+	/**
+	 * Sets the policy for holding consensus history in memory. Historical States outside the policy are
+	 * still available, but need to be reloaded from the store when accessed.
+	 *
+	 * @param retention Number of most recent States to hold in memory
+	 * @param checkpointInterval Interval between checkpoint States held in memory, or 0 for no checkpoints
+	 * @return Updated Peer
+	 */
+	public Peer withHistoryRetention(long retention, long checkpointInterval) {
+		if (retention<1) throw new IllegalArgumentException("Must retain at least one State");
+		if (checkpointInterval<0) throw new IllegalArgumentException("Negative checkpoint interval");
+		return new Peer(keyPair, belief, states, blockResults, timestamp, retention, checkpointInterval, retainedStates, deferExecution, mergeCache);
+	}
+
+	/**
+	 * Gets the number of States currently held in memory by this Peer, excluding any
+	 * not yet persisted.
+	 *
+	 * @return Number of retained States
+	 */
+	public int getRetainedStateCount() {
+		return retainedStates.size();
 	}
 
 	/**
 	 * Gets the vector of States maintained by this Peer, starting from the
-	 * Genesis state (index 0).
+	 * Genesis state (index 0). Older States may be lazily reloaded from the store.
 	 * 
 	 * @return Vector of states
 	 */
@@ -534,6 +746,7 @@ public class Peer {
 	 * Returns State as-of timestamp.
 	 *
 	 * Timestamp doesn't need to be an exact match; a leftmost State will be returned - unless timestamp is too old.
+	 * Historical States not held in memory are reloaded from the store as needed.
 	 *
 	 * @param timestamp Timestamp in milliseconds.
 	 * @return State or null.
@@ -559,6 +772,6 @@ public class Peer {
 	 * @return Network ID
 	 */
 	public Hash getNetworkID() {
-		return getStates().get(0).getHash();
+		return getState(0).getHash();
 	}
 }
@@ -101,6 +101,7 @@ public class State extends ARecord {
 
 	@Override
 	public ACell get(ACell k) {
+		AccessTracker.readAll();
 		if (Keywords.ACCOUNTS.equals(k)) return accounts;
 		if (Keywords.PEERS.equals(k)) return peers;
 		if (Keywords.GLOBALS.equals(k)) return globals;
@@ -233,6 +234,7 @@ public class State extends ARecord {
 	 * @return Vector of Accounts
 	 */
 	public AVector<AccountStatus> getAccounts() {
+		AccessTracker.readAll();
 		return accounts;
 	}
 
@@ -242,6 +244,7 @@ public class State extends ARecord {
 	 * @return A map of addresses to PeerStatus records
 	 */
 	public BlobMap<AccountKey, PeerStatus> getPeers() {
+		AccessTracker.peers();
 		return peers;
 	}
 
@@ -280,12 +283,28 @@ public class State extends ARecord {
 		return state.applyTransactions(block);
 	}
 
+	/**
+	 * Block level state transition function, executing transactions optimistically in parallel
+	 *
+	 * Produces exactly the same BlockResult as applyBlock(...). Transactions are first executed
+	 * speculatively against the State at the start of the Block, then committed in Block order.
+	 * Any transaction affected by an earlier transaction in the Block is executed again in sequence.
+	 *
+	 * @param block Block to Apply
+	 * @return The BlockResult from applying the given Block to this State
+	 */
+	public BlockResult applyBlockParallel(Block block) {
+		Counters.applyBlock++;
+		State state = prepareBlock(block);
+		return ParallelExecutor.applyTransactions(state, block);
+	}
+
 	/**
 	 * Apply state updates consistent with time advancing to a given timestamp
 	 * @param b
 	 * @return
 	 */
-	private State prepareBlock(Block b) {
+	State prepareBlock(Block b) {
 		State state = this;
 		AVector<ACell> glbs = state.globals;
 		long ts=((CVMLong)glbs.get(0)).longValue();
@@ -376,7 +395,7 @@ public class State extends ARecord {
 		return new State(accounts, peers, newGlobals, schedule);
 	}
 
-	private BlockResult applyTransactions(Block block) {
+	BlockResult applyTransactions(Block block) {
 		State state = this;
 		int blockLength = block.length();
 		Result[] results = new Result[blockLength];
@@ -414,7 +433,7 @@ public class State extends ARecord {
 	 *
 	 * @return Context containing the updated chain State (may be exceptional)
 	 */
-	private <T extends ACell> Context<T> applyTransaction(SignedData<? extends ATransaction> signedTransaction) throws BadSignatureException {
+	<T extends ACell> Context<T> applyTransaction(SignedData<? extends ATransaction> signedTransaction) throws BadSignatureException {
 		// Extract transaction, performs signature check
 		ATransaction t=signedTransaction.getValue();
 		Address addr=t.getOrigin();
@@ -540,6 +559,7 @@ public class State extends ARecord {
 	 */
 	public State withAccounts(AVector<AccountStatus> newAccounts) {
 		if (newAccounts == accounts) return this;
+		AccessTracker.writeAll();
 		return create(newAccounts, peers,globals, schedule);
 	}
 
@@ -556,16 +576,19 @@ public class State extends ARecord {
 		if (ix>n) {
 			throw new IndexOutOfBoundsException("Trying to add an account beyond accounts array at position: "+ix);
 		}
+		AccessTracker.account(ix);
 
 		AVector<AccountStatus> newAccounts;
 		if (ix==n) {
 			// adding a new account in next position
+			AccessTracker.count();
 			newAccounts=accounts.conj(accountStatus);
 		} else {
 			newAccounts = accounts.assoc(ix, accountStatus);
 		}
 
-		return withAccounts(newAccounts);
+		if (newAccounts == accounts) return this;
+		return create(newAccounts, peers, globals, schedule);
 	}
 
 	/**
@@ -576,7 +599,11 @@ public class State extends ARecord {
 	 */
 	public AccountStatus getAccount(Address target) {
 		long ix=target.longValue();
-		if ((ix<0)||(ix>=accounts.count())) return null;
+		if ((ix<0)||(ix>=accounts.count())) {
+			AccessTracker.count();
+			return null;
+		}
+		AccessTracker.account(ix);
 		return accounts.get(ix);
 	}
 
@@ -616,8 +643,7 @@ public class State extends ARecord {
 	 */
 	public State tryAddActor() {
 		AccountStatus as = AccountStatus.createActor();
-		AVector<AccountStatus> newAccounts = accounts.conj(as);
-		return withAccounts(newAccounts);
+		return putAccount(nextAddress(), as);
 	}
 
 	/**
@@ -653,6 +679,7 @@ public class State extends ARecord {
 	 * @return The timestamp from this state.
 	 */
 	public CVMLong getTimeStamp() {
+		AccessTracker.globals();
 		return (CVMLong) globals.get(GLOBAL_TIMESTAMP);
 	}
 
@@ -662,6 +689,7 @@ public class State extends ARecord {
 	 * @return Juice Price
 	 */
 	public CVMLong getJuicePrice() {
+		AccessTracker.globals();
 		return (CVMLong) globals.get(GLOBAL_JUICE_PRICE);
 	}
 
@@ -675,6 +703,7 @@ public class State extends ARecord {
 	 * @return The updated State
 	 */
 	public State scheduleOp(long time, Address address, AOp<?> op) {
+		AccessTracker.schedule();
 		AVector<ACell> v = Vectors.of(address, op);
 
 		LongBlob key = LongBlob.create(time);
@@ -695,6 +724,7 @@ public class State extends ARecord {
 	 * @return The schedule data structure.
 	 */
 	public BlobMap<ABlob, AVector<ACell>> getSchedule() {
+		AccessTracker.schedule();
 		return schedule;
 	}
 
@@ -735,6 +765,7 @@ public class State extends ARecord {
 	 * @return Updated state
 	 */
 	public State withPeer(AccountKey peerKey, PeerStatus updatedPeer) {
+		AccessTracker.peers();
 		return withPeers(peers.assoc(peerKey, updatedPeer));
 	}
 
@@ -745,6 +776,7 @@ public class State extends ARecord {
 	 * @return Next address available
 	 */
 	public Address nextAddress() {
+		AccessTracker.count();
 		return Address.create(accounts.count());
 	}
 
@@ -764,6 +796,7 @@ public class State extends ARecord {
 	 * @return Vector of global values
 	 */
 	public AVector<ACell> getGlobals() {
+		AccessTracker.readAll();
 		return globals;
 	}
 
@@ -22,7 +22,20 @@ public abstract class ASignature extends ACell {
 	 * @return True if signature is valid, false otherwise
 	 */
 	public abstract boolean verify(ABlob message, AccountKey publicKey);
-	
+
+	/**
+	 * Checks a batch of signatures. Large batches are verified in parallel. Each entry
+	 * is verified independently, so an invalid entry does not affect the result for any other.
+	 *
+	 * @param signatures Signatures to verify
+	 * @param messages Messages to verify, one for each signature
+	 * @param publicKeys Public keys of signers, one for each signature
+	 * @return Array of results, true for each valid signature
+	 */
+	public static boolean[] verifyBatch(ASignature[] signatures, ABlob[] messages, AccountKey[] publicKeys) {
+		return BatchVerifier.verify(signatures, messages, publicKeys);
+	}
+
 	/**
 	 * Reads a Signature from the given ByteBuffer. Assumes tag byte already read.
 	 * 
@@ -0,0 +1,69 @@
+package convex.core.crypto;
+
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.ABlob;
+import convex.core.data.AccountKey;
+
+/**
+ * Engine for verifying batches of signatures.
+ *
+ * Batches are split into fixed size chunks which are verified in parallel on the common
+ * ForkJoinPool, with the calling thread taking part. Each signature is verified individually
+ * within its chunk, so a bad or malformed entry only fails itself and never the rest of the batch.
+ * If parallel execution is not possible, verification falls back to the calling thread.
+ */
+final class BatchVerifier {
+
+	private static final Logger log = LoggerFactory.getLogger(BatchVerifier.class.getName());
+
+	/**
+	 * Number of signatures verified by each parallel task. Batches no larger than this are
+	 * verified directly on the calling thread.
+	 */
+	static final int CHUNK_SIZE=64;
+
+	static boolean[] verify(ASignature[] signatures, ABlob[] messages, AccountKey[] publicKeys) {
+		int n=signatures.length;
+		if ((messages.length!=n)||(publicKeys.length!=n)) {
+			throw new IllegalArgumentException("Mismatched batch lengths: "+n+","+messages.length+","+publicKeys.length);
+		}
+		boolean[] results=new boolean[n];
+		if (n<=CHUNK_SIZE) {
+			verifyRange(signatures,messages,publicKeys,results,0,n);
+			return results;
+		}
+
+		int chunks=(n+CHUNK_SIZE-1)/CHUNK_SIZE;
+		try {
+			IntStream.range(0, chunks).parallel().forEach(c->{
+				int start=c*CHUNK_SIZE;
+				verifyRange(signatures,messages,publicKeys,results,start,Math.min(n, start+CHUNK_SIZE));
+			});
+		} catch (Throwable t) {
+			// Shouldn't happen since individual failures are caught, but don't trust partial results
+			log.warn("Parallel signature verification failed, falling back to sequential: {}",t.getMessage());
+			verifyRange(signatures,messages,publicKeys,results,0,n);
+		}
+		return results;
+	}
+
+	private static void verifyRange(ASignature[] signatures, ABlob[] messages, AccountKey[] publicKeys, boolean[] results, int start, int end) {
+		for (int i=start; i<end; i++) {
+			results[i]=verifyOne(signatures[i],messages[i],publicKeys[i]);
+		}
+	}
+
+	private static boolean verifyOne(ASignature signature, ABlob message, AccountKey publicKey) {
+		if ((signature==null)||(message==null)||(publicKey==null)) return false;
+		try {
+			return signature.verify(message, publicKey);
+		} catch (Exception e) {
+			// SECURITY: malformed input counts as a bad signature, and must not affect other entries
+			return false;
+		}
+	}
+}
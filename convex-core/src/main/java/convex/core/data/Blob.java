@@ -169,7 +169,8 @@ public class Blob extends AArrayBlob {
 		if (offset == 0) {
 			return ByteBuffer.wrap(store, offset, length).asReadOnlyBuffer();
 		} else {
-			return ByteBuffer.wrap(this.getBytes()).asReadOnlyBuffer();
+			// slice so that buffer position 0 is the start of this Blob, without copying
+			return ByteBuffer.wrap(store, offset, length).slice().asReadOnlyBuffer();
 		}
 	}
 
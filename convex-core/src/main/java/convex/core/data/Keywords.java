@@ -88,4 +88,12 @@ public class Keywords {
 	public static final Keyword TIMEOUT = Keyword.create("timeout");
 	public static final Keyword EVENT_HOOK = Keyword.create("event-hook");
 	public static final Keyword STATIC = Keyword.create("static");
+	public static final Keyword VERIFY_THREADS = Keyword.create("verify-threads");
+	public static final Keyword STATE_RETENTION = Keyword.create("state-retention");
+	public static final Keyword CHECKPOINT_INTERVAL = Keyword.create("checkpoint-interval");
+	public static final Keyword PARALLEL_EXECUTION = Keyword.create("parallel-execution");
+	public static final Keyword QUERY_THREADS = Keyword.create("query-threads");
+	public static final Keyword QUERY_CLIENT_LIMIT = Keyword.create("query-client-limit");
+	public static final Keyword SELECTOR_THREADS = Keyword.create("selector-threads");
+	public static final Keyword MAX_BLOCK_SIZE = Keyword.create("max-block-size");
 }
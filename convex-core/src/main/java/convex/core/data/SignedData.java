@@ -1,6 +1,8 @@
 package convex.core.data;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 
 import convex.core.crypto.AKeyPair;
 import convex.core.crypto.ASignature;
@@ -219,6 +221,50 @@ public class SignedData<T extends ACell> extends ACell {
 		return (flags&(Ref.BAD_MASK|Ref.VERIFIED_MASK))!=0;
 	}
 
+	/**
+	 * Validates the signatures of a collection of SignedData instances as a single batch. Results
+	 * are cached in each instance, so subsequent calls to checkSignature() are cheap. Instances that
+	 * have already been checked are not verified again.
+	 *
+	 * @param signedData Collection of SignedData instances to check. May contain nulls, which are ignored.
+	 * @return Number of invalid signatures found
+	 */
+	public static int checkSignatures(Collection<? extends SignedData<?>> signedData) {
+		ArrayList<SignedData<?>> unchecked=new ArrayList<>();
+		int bad=0;
+		for (SignedData<?> sd: signedData) {
+			if (sd==null) continue;
+			if (!sd.isSignatureChecked()) {
+				unchecked.add(sd);
+			} else if (!sd.checkSignature()) {
+				bad++;
+			}
+		}
+
+		int n=unchecked.size();
+		if (n==0) return bad;
+		ASignature[] sigs=new ASignature[n];
+		ABlob[] messages=new ABlob[n];
+		AccountKey[] keys=new AccountKey[n];
+		for (int i=0; i<n; i++) {
+			SignedData<?> sd=unchecked.get(i);
+			sigs[i]=sd.signature;
+			messages[i]=sd.valueRef.getHash();
+			keys[i]=sd.publicKey;
+		}
+
+		boolean[] results=ASignature.verifyBatch(sigs, messages, keys);
+		for (int i=0; i<n; i++) {
+			if (results[i]) {
+				unchecked.get(i).markValidated();
+			} else {
+				unchecked.get(i).markBadSignature();
+				bad++;
+			}
+		}
+		return bad;
+	}
+
 	public void validateSignature() throws BadSignatureException {
 		if (!checkSignature()) throw new BadSignatureException("Signature not valid!", this);
 	}
@@ -1,5 +1,6 @@
 package convex.core.lang;
 
+import convex.core.AccessTracker;
 import convex.core.Constants;
 import convex.core.ErrorCodes;
 import convex.core.State;
@@ -216,10 +217,6 @@ public class Context<T extends ACell> extends AObject {
 			return withState(newState);
 		}
 
-		private ChainState withAccounts(AVector<AccountStatus> newAccounts) {
-			return withState(state.withAccounts(newAccounts));
-		}
-
 		public AHashMap<Symbol, AHashMap<ACell, ACell>> getMetadata() {
 			if (metadata==null) return Maps.empty();
 			return metadata;
@@ -346,6 +343,7 @@ public class Context<T extends ACell> extends AObject {
 		Address address=getAddress();
 		AccountStatus account=state.getAccount(address);
 		long memUsed=state.getMemorySize()-initialState.getMemorySize();
+		AccessTracker.memory(initialState, state);
 		long allowance=account.getMemory();
 		long balanceLeft=account.getBalance();
 		boolean memoryFailure=false;
@@ -1442,11 +1440,10 @@ public class Context<T extends ACell> extends AObject {
 		if (amount<0) return withError(ErrorCodes.ARGUMENT,"Can't transfer a negative amount");
 		if (amount>Constants.MAX_SUPPLY) return withError(ErrorCodes.ARGUMENT,"Can't transfer an amount beyond maximum limit");
 
-		AVector<AccountStatus> accounts=getState().getAccounts();
+		State state=getState();
 
 		Address source=getAddress();
-		long sourceIndex=source.longValue();
-		AccountStatus sourceAccount=accounts.get(sourceIndex);
+		AccountStatus sourceAccount=state.getAccount(source);
 
 		long currentBalance=sourceAccount.getBalance();
 		if (currentBalance<amount) {
@@ -1455,14 +1452,13 @@ public class Context<T extends ACell> extends AObject {
 
 		long newSourceBalance=currentBalance-amount;
 		AccountStatus newSourceAccount=sourceAccount.withBalance(newSourceBalance);
-		accounts=accounts.assoc(sourceIndex, newSourceAccount);
+		state=state.putAccount(source, newSourceAccount);
 
-		// new target account (note: could be source account, so we get from latest accounts)
-		long targetIndex=target.longValue();
-		if (targetIndex>=accounts.count()) {
+		// new target account (note: could be source account, so we get from latest state)
+		AccountStatus targetAccount=state.getAccount(target);
+		if (targetAccount==null) {
 			return this.withError(ErrorCodes.NOBODY,"Target account for transfer "+target+" does not exist");
 		}
-		AccountStatus targetAccount=accounts.get(targetIndex);
 
 		if (targetAccount.isActor()) {
 			// (call target amount (receive-coin source amount nil))
@@ -1479,10 +1475,10 @@ public class Context<T extends ACell> extends AObject {
 			long oldTargetBalance=targetAccount.getBalance();
 			long newTargetBalance=oldTargetBalance+amount;
 			AccountStatus newTargetAccount=targetAccount.withBalance(newTargetBalance);
-			accounts=accounts.assoc(targetIndex, newTargetAccount);
+			state=state.putAccount(target, newTargetAccount);
 
 			// SECURITY: new context with updated accounts
-			Context<CVMLong> result=withChainState(chainState.withAccounts(accounts)).withResult(CVMLong.create(amount));
+			Context<CVMLong> result=withChainState(chainState.withState(state)).withResult(CVMLong.create(amount));
 
 			return result;
 		}
@@ -1503,11 +1499,10 @@ public class Context<T extends ACell> extends AObject {
 		if (amount<0) return withError(ErrorCodes.ARGUMENT,"Can't transfer a negative aloowance amount");
 		if (amount>Constants.MAX_SUPPLY) return withError(ErrorCodes.ARGUMENT,"Can't transfer an allowance amount beyond maximum limit");
 
-		AVector<AccountStatus> accounts=getState().getAccounts();
+		State state=getState();
 
 		Address source=getAddress();
-		long sourceIndex=source.longValue();
-		AccountStatus sourceAccount=accounts.get(sourceIndex);
+		AccountStatus sourceAccount=state.getAccount(source);
 
 		long currentBalance=sourceAccount.getMemory();
 		if (currentBalance<amount) {
@@ -1516,21 +1511,20 @@ public class Context<T extends ACell> extends AObject {
 
 		long newSourceBalance=currentBalance-amount;
 		AccountStatus newSourceAccount=sourceAccount.withMemory(newSourceBalance);
-		accounts=accounts.assoc(sourceIndex, newSourceAccount);
+		state=state.putAccount(source, newSourceAccount);
 
-		// new target account (note: could be source account, so we get from latest accounts)
-		long targetIndex=target.longValue();
-		if (targetIndex>=accounts.count()) {
+		// new target account (note: could be source account, so we get from latest state)
+		AccountStatus targetAccount=state.getAccount(target);
+		if (targetAccount==null) {
 			return withError(ErrorCodes.NOBODY,"Cannot transfer memory allowance to non-existent account: "+target);
 		}
-		AccountStatus targetAccount=accounts.get(targetIndex);
 
 		long newTargetBalance=targetAccount.getMemory()+amount;
 		AccountStatus newTargetAccount=targetAccount.withMemory(newTargetBalance);
-		accounts=accounts.assoc(targetIndex, newTargetAccount);
+		state=state.putAccount(target, newTargetAccount);
 
 		// SECURITY: new context with updated accounts
-		Context<CVMLong> result=withChainState(chainState.withAccounts(accounts)).withResult(amountToSend);
+		Context<CVMLong> result=withChainState(chainState.withState(state)).withResult(amountToSend);
 		return result;
 	}
 
@@ -1541,20 +1535,19 @@ public class Context<T extends ACell> extends AObject {
 	 * @return Context indicating the price paid for the allowance change (may be zero or negative for refund)
 	 */
 	public Context<CVMLong> setMemory(long allowance) {
-		AVector<AccountStatus> accounts=getState().getAccounts();
+		State state=getState();
 		if (allowance<0) return withError(ErrorCodes.ARGUMENT,"Can't transfer a negative aloowance amount");
 		if (allowance>Constants.MAX_SUPPLY) return withError(ErrorCodes.ARGUMENT,"Can't transfer an allowance amount beyond maximum limit");
 
 		Address source=getAddress();
-		long sourceIndex=source.longValue();
-		AccountStatus sourceAccount=accounts.get(sourceIndex);
+		AccountStatus sourceAccount=state.getAccount(source);
 
 		long current=sourceAccount.getMemory();
 		long balance=sourceAccount.getBalance();
 		long delta=allowance-current;
 		if (delta==0L) return this.withResult(CVMLong.ZERO);
 
-		AccountStatus pool=getState().getAccount(Init.MEMORY_EXCHANGE_ADDRESS);
+		AccountStatus pool=state.getAccount(Init.MEMORY_EXCHANGE_ADDRESS);
 
 		try {
 			long poolAllowance=pool.getMemory();
@@ -1567,10 +1560,10 @@ public class Context<T extends ACell> extends AObject {
 			pool=pool.withBalances(poolBalance+price, poolAllowance-delta);
 
 			// Update accounts
-			AVector<AccountStatus> newAccounts=accounts.assoc(sourceIndex, sourceAccount);
-			newAccounts=newAccounts.assoc(Init.MEMORY_EXCHANGE_ADDRESS.longValue(),pool);
+			state=state.putAccount(source, sourceAccount);
+			state=state.putAccount(Init.MEMORY_EXCHANGE_ADDRESS, pool);
 
-			return withChainState(chainState.withAccounts(newAccounts)).withResult(null);
+			return withChainState(chainState.withState(state)).withResult(null);
 		} catch (IllegalArgumentException e) {
 			return withError(ErrorCodes.FUNDS,"Cannot trade allowance: "+e.getMessage());
 		}
@@ -1801,10 +1794,8 @@ public class Context<T extends ACell> extends AObject {
 	public Context<Address> createAccount(AccountKey key) {
 		final State initialState=getState();
 		Address address=initialState.nextAddress();
-		AVector<AccountStatus> accounts=initialState.getAccounts();
 		AccountStatus as=AccountStatus.create(0L, key);
-		accounts=accounts.conj(as);
-		final State newState=initialState.withAccounts(accounts);
+		final State newState=initialState.putAccount(address, as);
 		Context<Address> rctx=this.withState(newState);
 		return rctx.withResult(address);
 	}
@@ -1,10 +1,15 @@
 package convex.core.store;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
 
+import convex.core.Constants;
 import convex.core.data.ABlob;
 import convex.core.data.ACell;
+import convex.core.data.Blob;
 import convex.core.data.Format;
 import convex.core.data.Hash;
 import convex.core.data.Ref;
@@ -56,6 +61,73 @@ public abstract class AStore {
 	 */
 	public abstract <T extends ACell> Ref<T> storeTopRef(Ref<T> ref, int status,Consumer<Ref<ACell>> noveltyHandler);
 
+	/**
+	 * Stores a group of top level Refs in long term storage as a single unit. Equivalent
+	 * to calling storeTopRef(...) on each Ref in turn, but allows the store to batch the
+	 * writes for the whole group and make them durable together.
+	 * 
+	 * Novelty handler is called for all novelty in the group, starting from lowest levels.
+	 * 
+	 * @param refs Refs to store
+	 * @param status Status to store at
+	 * @param noveltyHandler Novelty Handler function for Novelty detected. May be null.
+	 * @return List of persisted Refs, in the same order as the given Refs
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<Ref<ACell>> storeAll(Collection<Ref<? extends ACell>> refs, int status,Consumer<Ref<ACell>> noveltyHandler) {
+		ArrayList<Ref<ACell>> result=new ArrayList<>(refs.size());
+		for (Ref<? extends ACell> ref: refs) {
+			result.add(storeTopRef((Ref<ACell>)ref,status,noveltyHandler));
+		}
+		return result;
+	}
+
+	/**
+	 * Stores a group of top level Refs as a single unit, optionally leaving the writes to be made
+	 * durable later. Writes that are not made durable become durable with the next durable group
+	 * or flush(), so that several groups stored at different status can share one durable flush.
+	 * 
+	 * Stores that don't batch writes ignore the durable flag.
+	 * 
+	 * @param refs Refs to store
+	 * @param status Status to store at
+	 * @param noveltyHandler Novelty Handler function for Novelty detected. May be null.
+	 * @param durable True to make the group durable before returning
+	 * @return List of persisted Refs, in the same order as the given Refs
+	 */
+	public ArrayList<Ref<ACell>> storeAll(Collection<Ref<? extends ACell>> refs, int status,Consumer<Ref<ACell>> noveltyHandler, boolean durable) {
+		return storeAll(refs,status,noveltyHandler);
+	}
+
+	/**
+	 * Stores cells with STORED status only, i.e. without their children, as a single unit. Intended
+	 * for bulk data such as a snapshot, where cells may arrive before their children.
+	 * 
+	 * @param cells Cells to store
+	 * @return List of stored Refs, in the same order as the given cells
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<Ref<ACell>> storeAllShallow(List<? extends ACell> cells) {
+		ArrayList<Ref<ACell>> result=new ArrayList<>(cells.size());
+		for (ACell cell: cells) {
+			result.add(storeTopRef((Ref<ACell>)Ref.get(cell),Ref.STORED,null));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the encoding of a stored cell, or null if not found. Stores may read the encoding
+	 * directly, without decoding the cell.
+	 * 
+	 * @param hash Hash of the cell
+	 * @return Encoding of the cell, or null if not stored
+	 */
+	public Blob getEncoding(Hash hash) {
+		Ref<ACell> ref=refForHash(hash);
+		if (ref==null) return null;
+		return Format.encodedBlob(ref.getValue());
+	}
+
 	
 	/**
 	 * Gets the stored Ref for a given hash value, or null if not found.
@@ -89,18 +161,25 @@ public abstract class AStore {
 	 */
 	public abstract void close();
 	
-	protected final BlobCache blobCache=BlobCache.create(100000);
+	/**
+	 * Cache of decoded Cells for this store
+	 */
+	protected final CellCache cache=CellCache.create(Constants.CELL_CACHE_SIZE);
 	
 	/**
 	 * Decodes a Cell from an Encoding. Looks up Cell in cache if available. Otherwise
 	 * equivalent to Format.read(Blob).
+	 * 
+	 * The cache is looked up by the encoding itself, so decoding never computes a hash.
+	 * Most decoded encodings (e.g. from incoming messages) are never stored.
+	 * 
 	 * @param encoding Encoding of Cell
 	 * @return Decoded Cell (may be a a null value)
 	 * 
 	 * @throws BadFormatException If cell encoding is invalid
 	 */
 	public final ACell decode(ABlob encoding) throws BadFormatException {
-		ACell cached=blobCache.getCell(encoding);
+		ACell cached=cache.getDecoded(encoding);
 		if (cached!=null) return cached;
 		
 		ACell decoded=Format.read(encoding.toFlatBlob());
@@ -108,8 +187,18 @@ public abstract class AStore {
 		
 		// TODO: can remove this check once happy with all tests
 		assert(decoded.cachedEncoding()!=null);
-		blobCache.putCell(decoded);
+		cache.putDecoded(decoded.getEncoding(),decoded);
 		
 		return decoded;
 	}
+	
+	/**
+	 * Gets the Cell cache for this store. Can be used to configure capacity and read
+	 * hit / miss / eviction counters.
+	 * 
+	 * @return CellCache instance
+	 */
+	public CellCache getCache() {
+		return cache;
+	}
 }
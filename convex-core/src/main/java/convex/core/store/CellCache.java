@@ -0,0 +1,376 @@
+package convex.core.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import convex.core.Constants;
+import convex.core.data.ABlob;
+import convex.core.data.ACell;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.data.RefDirect;
+
+/**
+ * Size-bounded in-memory cache of decoded Cells. Should be used in the context of a specific Store.
+ *
+ * Cells read from storage are keyed by Hash. Each entry is a direct Ref to the Cell, so a store can also
+ * cache the status flags it holds for the Cell and answer lookups without reading storage. Statuses of
+ * cached Refs only ever increase.
+ *
+ * Cells decoded from other sources (e.g. incoming messages) are keyed by their encoding instead, so
+ * that decoding never needs to compute a hash. The two kinds of key never match each other.
+ *
+ * The cache is split into shards, each of which is a segmented LRU. New entries are admitted to a probationary
+ * segment, and promoted to a protected segment when hit again. One-off reads (e.g. scanning a large structure)
+ * can therefore only displace other probationary entries, while frequently used Cells stay decoded.
+ *
+ * Capacity is an approximate budget in bytes, based on the encoding length of each Cell plus a fixed overhead.
+ * Entries are strongly referenced, so the cache does not collapse under GC pressure.
+ */
+public final class CellCache {
+
+	private static final int SHARD_COUNT=16;
+
+	/**
+	 * Proportion of each shard reserved for the protected segment
+	 */
+	private static final double PROTECTED_RATIO=0.8;
+
+	private final Shard[] shards=new Shard[SHARD_COUNT];
+
+	private volatile long capacity;
+
+	private final LongAdder hits=new LongAdder();
+	private final LongAdder misses=new LongAdder();
+	private final LongAdder evictions=new LongAdder();
+
+	private CellCache(long capacity) {
+		this.capacity=capacity;
+		for (int i=0; i<SHARD_COUNT; i++) {
+			shards[i]=new Shard();
+		}
+	}
+
+	/**
+	 * Creates a CellCache with the given capacity
+	 * @param capacity Capacity in bytes
+	 * @return New CellCache instance
+	 */
+	public static CellCache create(long capacity) {
+		if (capacity<0) throw new IllegalArgumentException("Negative cache capacity: "+capacity);
+		return new CellCache(capacity);
+	}
+
+	/**
+	 * Gets the cached Cell for a given Hash, or null if not cached.
+	 * @param hash Hash of Cell to look up in cache
+	 * @return Cached Cell, or null if not found
+	 */
+	public ACell getCell(Hash hash) {
+		Ref<ACell> ref=getRef(hash);
+		if (ref==null) return null;
+		return ref.getValue();
+	}
+
+	/**
+	 * Gets the cached Ref for a given Hash, or null if not cached.
+	 * @param hash Hash of Cell to look up in cache
+	 * @return Cached direct Ref, or null if not found
+	 */
+	public Ref<ACell> getRef(Hash hash) {
+		return count(shardFor(hash).get(hash));
+	}
+
+	/**
+	 * Stores a cell in the cache. Does nothing if the cell is already cached.
+	 * @param hash Hash of the Cell
+	 * @param cell Cell to store
+	 */
+	public void putCell(Hash hash, ACell cell) {
+		shardFor(hash).put(hash,RefDirect.create(cell,hash),false);
+	}
+
+	/**
+	 * Stores a Ref in the cache. If the cell is already cached, merges the flags of the given Ref
+	 * into the cached Ref.
+	 * @param hash Hash of the Cell
+	 * @param ref Ref to store
+	 */
+	public void putRef(Hash hash, Ref<ACell> ref) {
+		shardFor(hash).put(hash,ref,false);
+	}
+
+	/**
+	 * Merges the flags of a Ref into the cached Ref for the same cell, if any. Does not add the
+	 * cell to the cache if not already present.
+	 * @param hash Hash of the Cell
+	 * @param ref Ref with updated flags
+	 */
+	public void updateRef(Hash hash, Ref<ACell> ref) {
+		shardFor(hash).put(hash,ref,true);
+	}
+
+	/**
+	 * Removes a cell from the cache, if present
+	 * @param hash Hash of the Cell
+	 */
+	public void remove(Hash hash) {
+		shardFor(hash).remove(hash);
+	}
+
+	/**
+	 * Gets the cached Cell for a given encoding, or null if not cached. Does not compute the hash
+	 * of the encoding.
+	 * @param encoding Encoding of Cell to look up in cache
+	 * @return Cached Cell, or null if not found
+	 */
+	public ACell getDecoded(ABlob encoding) {
+		EncodingKey key=new EncodingKey(encoding);
+		Ref<ACell> ref=count(shardFor(key).get(key));
+		if (ref==null) return null;
+		return ref.getValue();
+	}
+
+	/**
+	 * Stores a decoded cell in the cache, keyed by its encoding. Does nothing if already cached.
+	 * @param encoding Encoding of the Cell
+	 * @param cell Decoded Cell
+	 */
+	public void putDecoded(ABlob encoding, ACell cell) {
+		EncodingKey key=new EncodingKey(encoding);
+		shardFor(key).put(key,RefDirect.create(cell),false);
+	}
+
+	/**
+	 * Sets the capacity of this cache, evicting entries if necessary
+	 * @param capacity New capacity in bytes
+	 */
+	public void setCapacity(long capacity) {
+		if (capacity<0) throw new IllegalArgumentException("Negative cache capacity: "+capacity);
+		this.capacity=capacity;
+		for (Shard shard: shards) {
+			shard.evict();
+		}
+	}
+
+	/**
+	 * Gets the capacity of this cache
+	 * @return Capacity in bytes
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the approximate number of bytes currently used by cached Cells
+	 * @return Size in bytes
+	 */
+	public long getSize() {
+		long result=0;
+		for (Shard shard: shards) {
+			result+=shard.getSize();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of cache hits
+	 * @return Hit count
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of cache misses
+	 * @return Miss count
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the number of Cells evicted from the cache
+	 * @return Eviction count
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Removes all entries from this cache. Counters are retained.
+	 */
+	public void clear() {
+		for (Shard shard: shards) {
+			shard.clear();
+		}
+	}
+
+	private Ref<ACell> count(Ref<ACell> ref) {
+		if (ref==null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return ref;
+	}
+
+	private Shard shardFor(Object key) {
+		int h=key.hashCode();
+		h^=(h>>>16)^(h>>>8);
+		return shards[h&(SHARD_COUNT-1)];
+	}
+
+	private static long weight(Ref<ACell> ref) {
+		return ref.getValue().getEncodingLength()+Constants.MEMORY_OVERHEAD;
+	}
+
+	/**
+	 * Gets a direct Ref holding the cell, so that cached cells can't be collected
+	 */
+	private static Ref<ACell> direct(Hash hash, Ref<ACell> ref) {
+		if (ref.isDirect()) return ref;
+		return RefDirect.create(ref.getValue(),hash).withFlags(ref.getFlags());
+	}
+
+	/**
+	 * Merges flags of a new Ref into a cached Ref
+	 */
+	private static Ref<ACell> merge(Ref<ACell> cached, Ref<ACell> ref) {
+		int flags=Ref.mergeFlags(cached.getFlags(),ref.getFlags());
+		if (flags==cached.getFlags()) return cached;
+		return cached.withFlags(flags);
+	}
+
+	/**
+	 * Key for a Cell decoded from an encoding. Never equal to a Hash, even if the bytes are the same.
+	 */
+	private static final class EncodingKey {
+		private final ABlob encoding;
+
+		private EncodingKey(ABlob encoding) {
+			this.encoding=encoding;
+		}
+
+		@Override
+		public int hashCode() {
+			return encoding.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof EncodingKey)) return false;
+			return encoding.equals(((EncodingKey)o).encoding);
+		}
+	}
+
+	/**
+	 * Segmented LRU shard. Both segments use access ordering, so the eldest entry is
+	 * always the least recently used.
+	 */
+	private final class Shard {
+		private final LinkedHashMap<Object,Ref<ACell>> probation=new LinkedHashMap<>(16,0.75f,true);
+		private final LinkedHashMap<Object,Ref<ACell>> protect=new LinkedHashMap<>(16,0.75f,true);
+		private long probationSize=0;
+		private long protectSize=0;
+
+		private synchronized Ref<ACell> get(Object key) {
+			Ref<ACell> ref=protect.get(key);
+			if (ref!=null) return ref;
+
+			ref=probation.remove(key);
+			if (ref==null) return null;
+
+			// Hit in probation, so promote to protected segment
+			long w=weight(ref);
+			probationSize-=w;
+			protect.put(key, ref);
+			protectSize+=w;
+
+			// Demote least recently used protected entries back to probation if necessary
+			long protectCapacity=(long)(shardCapacity()*PROTECTED_RATIO);
+			Iterator<Map.Entry<Object,Ref<ACell>>> it=protect.entrySet().iterator();
+			while ((protectSize>protectCapacity)&&it.hasNext()) {
+				Map.Entry<Object,Ref<ACell>> e=it.next();
+				it.remove();
+				long ew=weight(e.getValue());
+				protectSize-=ew;
+				probation.put(e.getKey(),e.getValue());
+				probationSize+=ew;
+			}
+			return ref;
+		}
+
+		private synchronized void put(Object key, Ref<ACell> ref, boolean updateOnly) {
+			// already cached, so only merge flags
+			Ref<ACell> cached=protect.get(key);
+			if (cached!=null) {
+				protect.replace(key,merge(cached,ref));
+				return;
+			}
+			cached=probation.get(key);
+			if (cached!=null) {
+				probation.replace(key,merge(cached,ref));
+				return;
+			}
+			if (updateOnly) return;
+
+			if (key instanceof Hash) ref=direct((Hash)key,ref);
+			long w=weight(ref);
+
+			// Don't admit anything bigger than the whole shard
+			if (w>shardCapacity()) return;
+
+			probation.put(key,ref);
+			probationSize+=w;
+			evict();
+		}
+
+		private synchronized void remove(Object key) {
+			Ref<ACell> ref=protect.remove(key);
+			if (ref!=null) {
+				protectSize-=weight(ref);
+				return;
+			}
+			ref=probation.remove(key);
+			if (ref!=null) probationSize-=weight(ref);
+		}
+
+		private synchronized void evict() {
+			long shardCapacity=shardCapacity();
+			while ((probationSize+protectSize)>shardCapacity) {
+				// Evict from probation first, only take from protected segment if nothing else left
+				if (!probation.isEmpty()) {
+					probationSize-=removeEldest(probation);
+				} else {
+					protectSize-=removeEldest(protect);
+				}
+				evictions.increment();
+			}
+		}
+
+		private long removeEldest(LinkedHashMap<Object,Ref<ACell>> segment) {
+			Iterator<Ref<ACell>> it=segment.values().iterator();
+			Ref<ACell> ref=it.next();
+			it.remove();
+			return weight(ref);
+		}
+
+		private synchronized long getSize() {
+			return probationSize+protectSize;
+		}
+
+		private synchronized void clear() {
+			probation.clear();
+			protect.clear();
+			probationSize=0;
+			protectSize=0;
+		}
+
+		private long shardCapacity() {
+			return capacity/SHARD_COUNT;
+		}
+	}
+}
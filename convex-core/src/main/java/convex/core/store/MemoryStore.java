@@ -1,7 +1,9 @@
 package convex.core.store;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -11,12 +13,17 @@ import org.slf4j.LoggerFactory;
 import convex.core.data.ACell;
 import convex.core.data.Hash;
 import convex.core.data.Ref;
+import convex.core.data.RefDirect;
 import convex.core.util.Utils;
 
 /**
  * Class implementing caching and storage of hashed node data
  * 
  * Persists refs as direct refs, i.e. retains fully in memory
+ * 
+ * Thread safe. Optionally bounded, in which case the oldest cells are evicted to a backing
+ * store (typically an EtchStore) once the number of cells exceeds the bound. Cells are then
+ * still available through this store, but are read from the backing store.
  */
 public class MemoryStore extends AStore {
 	public static final MemoryStore DEFAULT = new MemoryStore();
@@ -26,16 +33,69 @@ public class MemoryStore extends AStore {
 	/**
 	 * Storage of persisted Refs for each hash value
 	 */
-	private final HashMap<Hash, Ref<ACell>> hashRefs = new HashMap<Hash, Ref<ACell>>();
+	private final ConcurrentHashMap<Hash, Ref<ACell>> hashRefs = new ConcurrentHashMap<>();
+
+	/**
+	 * Hashes of stored cells in order of storage, for eviction. Null if unbounded.
+	 */
+	private final Queue<Hash> evictionQueue;
+
+	/**
+	 * Maximum number of cells held in memory
+	 */
+	private final long maxCells;
+
+	/**
+	 * Store for evicted cells, or null if unbounded
+	 */
+	private final AStore backing;
+
+	private volatile Hash rootHash;
 
-	private Hash rootHash;
+	/**
+	 * Creates an unbounded MemoryStore
+	 */
+	public MemoryStore() {
+		this(Long.MAX_VALUE, null);
+	}
+
+	private MemoryStore(long maxCells, AStore backing) {
+		this.maxCells = maxCells;
+		this.backing = backing;
+		this.evictionQueue = (backing == null) ? null : new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * Creates a MemoryStore holding a bounded number of cells in memory. Older cells are
+	 * evicted to the backing store.
+	 * 
+	 * @param maxCells Maximum number of cells to hold in memory
+	 * @param backing Store for evicted cells
+	 * @return New MemoryStore instance
+	 */
+	public static MemoryStore create(long maxCells, AStore backing) {
+		if (maxCells < 1) throw new IllegalArgumentException("Must allow at least one cell in memory");
+		if (backing == null) throw new IllegalArgumentException("Bounded MemoryStore needs a backing store");
+		return new MemoryStore(maxCells, backing);
+	}
 
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T extends ACell> Ref<T> refForHash(Hash hash) {
 		Ref<T> ref = (Ref<T>) hashRefs.get(hash);
+		if ((ref == null) && (backing != null)) {
+			ref = backing.refForHash(hash);
+		}
 		return ref;
 	}
+
+	/**
+	 * Gets the number of cells currently held in memory by this store
+	 * @return Number of cells
+	 */
+	public long getCellCount() {
+		return hashRefs.size();
+	}
 	
 	@Override
 	public <T extends ACell> Ref<T> storeRef(Ref<T> r2, int status, Consumer<Ref<ACell>> noveltyHandler) {
@@ -47,47 +107,53 @@ public class MemoryStore extends AStore {
 		return persistRef(ref,noveltyHandler,status,true); 
 	}
 	
-	@SuppressWarnings("unchecked")
 	public <T extends ACell> Ref<T> persistRef(Ref<T> ref, Consumer<Ref<ACell>> noveltyHandler, int requiredStatus, boolean topLevel) {
-		// Convert to direct Ref. Don't want to store a soft ref!
-		ref = ref.toDirect();
-
-		final T o=ref.getValue();
-		if (o==null) return (Ref<T>) Ref.NULL_VALUE;
-		
-		ACell cell = (ACell) o;
-		boolean embedded=cell.isEmbedded();
-		
-		Hash hash=null;
-		if (!embedded) {
-			// check store for existing ref first. Return this is we have it
-			hash = ref.getHash();
-			Ref<T> existing = refForHash(hash);
-			if ((existing != null)) {
-				if (existing.getStatus()>=requiredStatus) return existing;
-				ref=existing;
+		return Persister.persist(ref, requiredStatus, topLevel, new Persister.Target() {
+			@Override
+			public Ref<ACell> lookup(Hash hash) {
+				return refForHash(hash);
 			}
-		}
-		
-		// need to do recursive persistence
-		cell  = cell.updateRefs(r -> {
-			return r.persist(noveltyHandler);
-		});
-		
-		ref=ref.withValue((T)cell);
-		final ACell oTemp=cell;
-
-		if (topLevel||!embedded) {
-			// Persist at top level
-			final Hash fHash = (hash!=null)?hash:ref.getHash();
-			if (log.isTraceEnabled()) {
-				log.trace("Persisting ref 0x"+fHash.toHexString()+" of class "+Utils.getClassName(oTemp)+" with store "+this);
+
+			@Override
+			public Ref<ACell> write(Hash hash, Ref<ACell> r) {
+				// Convert to direct Ref. Don't want to store a soft ref!
+				final Ref<ACell> newRef = r.toDirect();
+				if (log.isTraceEnabled()) {
+					log.trace("Persisting ref 0x"+hash.toHexString()+" of class "+Utils.getClassName(newRef.getValue())+" with store "+MemoryStore.this);
+				}
+
+				// another thread may have stored the same cell concurrently, if so only one reports novelty
+				Ref<ACell> stored = hashRefs.compute(hash, (h, current) -> {
+					if ((current != null) && (current.getStatus() >= requiredStatus)) return current;
+					return newRef;
+				});
+				if (stored != newRef) return stored;
+				if (evictionQueue != null) {
+					evictionQueue.add(hash);
+					evict();
+				}
+				if (noveltyHandler != null) noveltyHandler.accept(newRef);
+				return newRef;
 			}
-			
-			hashRefs.put(fHash, (Ref<ACell>) ref);
-			if (noveltyHandler != null) noveltyHandler.accept((Ref<ACell>) ref);
+		});
+	}
+
+	/**
+	 * Evicts the oldest cells to the backing store until the number of cells is within bounds.
+	 * Each cell is written to the backing store before removal, so is always available from
+	 * one or the other.
+	 */
+	private void evict() {
+		while (hashRefs.size() > maxCells) {
+			Hash h = evictionQueue.poll();
+			if (h == null) return;
+			Ref<ACell> ref = hashRefs.get(h);
+			if (ref == null) continue;
+			// fresh Ref so that the backing store doesn't treat it as already persisted. Children
+			// are stored before their parents, so are evicted first.
+			backing.storeTopRef(RefDirect.create(ref.getValue(), h), ref.getStatus(), null);
+			hashRefs.remove(h, ref);
 		}
-		return ref.withMinimumStatus(requiredStatus);
 	}
 
 	@Override
@@ -103,6 +169,7 @@ public class MemoryStore extends AStore {
 	@Override
 	public void close() {
 		hashRefs.clear();
+		if (evictionQueue != null) evictionQueue.clear();
 		rootHash=null;
 	}
 }
@@ -0,0 +1,267 @@
+package convex.core.store;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import convex.core.data.ACell;
+import convex.core.data.Hash;
+import convex.core.data.IRefFunction;
+import convex.core.data.Ref;
+
+/**
+ * Persistence engine for trees of cells, used by store implementations to persist a Ref
+ * together with its children.
+ *
+ * Uses an explicit work stack rather than recursion, so trees of any depth can be persisted
+ * without risk of stack overflow. Children are always written before their parents, and each
+ * distinct cell is processed at most once in a single persistence call.
+ *
+ * Before persisting, encodings and hashes of new cells are computed bottom up. Cells at the same
+ * height in the tree are independent, so large groups of them are hashed in parallel.
+ *
+ * Not thread safe: a new instance is used for each persistence call.
+ */
+public final class Persister {
+
+	/**
+	 * Minimum number of independent cells to hash in parallel
+	 */
+	private static final int PARALLEL_HASH_THRESHOLD = 64;
+
+	/**
+	 * Store operations used by the persistence engine
+	 */
+	public interface Target {
+		/**
+		 * Gets an existing Ref for a hash, or null if not stored
+		 * @param hash Hash of cell
+		 * @return Existing Ref, or null
+		 */
+		Ref<ACell> lookup(Hash hash);
+
+		/**
+		 * Writes a cell to the store. Called only after all children have been written.
+		 * @param hash Hash of cell
+		 * @param ref Ref to write, with required status set
+		 * @return Stored Ref
+		 */
+		Ref<ACell> write(Hash hash, Ref<ACell> ref);
+
+		/**
+		 * Called when a Ref is found to be already persisted at the required status
+		 * @param ref Existing Ref
+		 */
+		default void noteExisting(Ref<ACell> ref) {}
+	}
+
+	/**
+	 * Cell being persisted, waiting for its children
+	 */
+	private static final class Frame {
+		final Ref<ACell> ref;
+		final ACell cell;
+		final boolean topLevel;
+		final Ref<ACell>[] results;
+		int next = 0;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Frame(Ref<ACell> ref, ACell cell, boolean topLevel) {
+			this.ref = ref;
+			this.cell = cell;
+			this.topLevel = topLevel;
+			this.results = new Ref[cell.getRefCount()];
+		}
+	}
+
+	private final Target target;
+	private final int requiredStatus;
+
+	/**
+	 * Cells completed in this persistence call
+	 */
+	private final HashMap<Hash, Ref<ACell>> completed = new HashMap<>();
+
+	private Persister(Target target, int requiredStatus) {
+		this.target = target;
+		this.requiredStatus = requiredStatus;
+	}
+
+	/**
+	 * Persists a Ref and, beyond STORED status, all its children.
+	 *
+	 * @param <T> Type of value
+	 * @param ref Ref to persist
+	 * @param requiredStatus Status to persist at
+	 * @param topLevel True to store the cell even if embedded
+	 * @param target Store operations
+	 * @return Persisted Ref
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends ACell> Ref<T> persist(Ref<T> ref, int requiredStatus, boolean topLevel, Target target) {
+		if (ref.getStatus() >= requiredStatus) {
+			target.noteExisting((Ref<ACell>) ref);
+			return ref;
+		}
+		if (ref.isDirect()) prepare(ref.getValue());
+		return (Ref<T>) new Persister(target, requiredStatus).run((Ref<ACell>) ref, topLevel);
+	}
+
+	private Ref<ACell> run(Ref<ACell> root, boolean topLevel) {
+		ArrayDeque<Frame> stack = new ArrayDeque<>();
+		Ref<ACell> result = enter(root, topLevel, stack);
+		while (!stack.isEmpty()) {
+			Frame f = stack.peek();
+			if (f.next < f.results.length) {
+				Ref<ACell> child = f.cell.getRef(f.next);
+				Ref<ACell> done = enter(child, false, stack);
+				if (done != null) f.results[f.next++] = done;
+				continue;
+			}
+
+			stack.pop();
+			ACell cell = f.cell.updateRefs(childResults(f));
+			Ref<ACell> ref = (cell == f.cell) ? f.ref : f.ref.withValue(cell);
+			Ref<ACell> done = complete(ref, cell, f.topLevel);
+			Frame parent = stack.peek();
+			if (parent == null) {
+				result = done;
+			} else {
+				parent.results[parent.next++] = done;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Starts persisting a Ref.
+	 *
+	 * @return Persisted Ref, or null if a Frame was pushed to persist children first
+	 */
+	@SuppressWarnings("unchecked")
+	private Ref<ACell> enter(Ref<ACell> ref, boolean topLevel, ArrayDeque<Frame> stack) {
+		if (ref.getStatus() >= requiredStatus) {
+			target.noteExisting(ref);
+			return ref;
+		}
+
+		ACell cell = ref.getValue();
+		if (cell == null) return (Ref<ACell>) Ref.NULL_VALUE;
+
+		if (!cell.isEmbedded()) {
+			Hash hash = ref.getHash();
+			Ref<ACell> done = completed.get(hash);
+			if (done != null) return done;
+			Ref<ACell> existing = target.lookup(hash);
+			if ((existing != null) && (existing.getStatus() >= requiredStatus)) {
+				target.noteExisting(existing);
+				cell.attachRef(existing);
+				return existing;
+			}
+		}
+
+		// beyond STORED level, need to persist child refs first
+		if ((requiredStatus > Ref.STORED) && (cell.getRefCount() > 0)) {
+			stack.push(new Frame(ref, cell, topLevel));
+			return null;
+		}
+		return complete(ref, cell, topLevel);
+	}
+
+	private Ref<ACell> complete(Ref<ACell> ref, ACell cell, boolean topLevel) {
+		ref = ref.withMinimumStatus(requiredStatus);
+		if (!topLevel && cell.isEmbedded()) return ref;
+
+		Hash hash = ref.getHash();
+		Ref<ACell> result = target.write(hash, ref);
+		completed.put(hash, result);
+		return result;
+	}
+
+	/**
+	 * Gets a function mapping each child Ref of a Frame's cell to its persisted Ref. Cells visit
+	 * their children in Ref index order, but check identity in case a cell does not.
+	 */
+	private static IRefFunction childResults(Frame f) {
+		int n = f.results.length;
+		return new IRefFunction() {
+			int i = 0;
+
+			@Override
+			public Ref<?> apply(Ref<?> r) {
+				if ((i < n) && (f.cell.getRef(i) == r)) return f.results[i++];
+				for (int j = 0; j < n; j++) {
+					if (f.cell.getRef(j) == r) return f.results[j];
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Computes encodings and hashes for all cells in a tree that are not yet encoded, children
+	 * first. Cells are grouped by height so that each group only depends on lower groups, and
+	 * large groups are processed in parallel.
+	 *
+	 * @param root Root cell of tree
+	 */
+	static void prepare(ACell root) {
+		if ((root == null) || (root.cachedEncoding() != null)) return;
+
+		// iterative post order traversal, recording height of each new cell
+		IdentityHashMap<ACell, Integer> heights = new IdentityHashMap<>();
+		ArrayList<ArrayList<ACell>> groups = new ArrayList<>();
+		ArrayDeque<ACell> stack = new ArrayDeque<>();
+		ArrayDeque<Integer> positions = new ArrayDeque<>();
+		stack.push(root);
+		positions.push(0);
+		while (!stack.isEmpty()) {
+			ACell cell = stack.peek();
+			int pos = positions.pop();
+			int n = cell.getRefCount();
+			if (pos < n) {
+				positions.push(pos + 1);
+				Ref<ACell> child = cell.getRef(pos);
+				if (!child.isDirect()) continue;
+				ACell c = child.getValue();
+				if ((c == null) || (c.cachedEncoding() != null) || heights.containsKey(c)) continue;
+				stack.push(c);
+				positions.push(0);
+				continue;
+			}
+
+			stack.pop();
+			int height = 0;
+			for (int i = 0; i < n; i++) {
+				Ref<ACell> child = cell.getRef(i);
+				if (!child.isDirect()) continue;
+				Integer h = heights.get(child.getValue());
+				if ((h != null) && (h >= height)) height = h + 1;
+			}
+			heights.put(cell, height);
+			if (height == groups.size()) groups.add(new ArrayList<>());
+			groups.get(height).add(cell);
+		}
+
+		boolean parallel = ForkJoinPool.getCommonPoolParallelism() > 1;
+		for (ArrayList<ACell> group : groups) {
+			if (parallel && (group.size() >= PARALLEL_HASH_THRESHOLD)) {
+				group.parallelStream().forEach(Persister::encode);
+			} else {
+				for (ACell cell : group) {
+					encode(cell);
+				}
+			}
+		}
+	}
+
+	private static void encode(ACell cell) {
+		if (cell.isEmbedded()) {
+			cell.getEncoding();
+		} else {
+			cell.getHash();
+		}
+	}
+}
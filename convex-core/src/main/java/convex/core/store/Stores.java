@@ -61,9 +61,9 @@ public class Stores {
 	 * Sets the global store for this JVM. Global store is the store used for 
 	 * any new thread.
 	 * 
-	 * @param store Store instance to use as global store
+	 * @param store Store instance to use as global store, e.g. an EtchStore or a TieredStore over one
 	 */
-	public static void setGlobalStore(EtchStore store) {
+	public static void setGlobalStore(AStore store) {
 		if (store==null) throw new IllegalArgumentException("Cannot set global store to null)");
 		globalStore=store;
 	}
@@ -0,0 +1,542 @@
+package convex.core.store;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.Constants;
+import convex.core.data.ACell;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.data.RefDirect;
+import convex.core.util.Utils;
+import etch.EtchStore;
+
+/**
+ * Store layering in-heap tiers over a backing store (typically an EtchStore), so that frequently
+ * used cells can be looked up without going to the backing store.
+ *
+ * Lookups go through, in order:
+ * <ul>
+ * <li>Pinned cells: cells reachable in memory from named roots such as the consensus State,
+ * indexed by hash up to a byte budget</li>
+ * <li>Pending cells: written to this store but not yet written back</li>
+ * <li>Hot cells: a byte-budgeted LRU of recently used cells</li>
+ * <li>The backing store. Cells found there are added to the hot tier</li>
+ * </ul>
+ *
+ * The cell cache of the backing store is disabled, since the tiers replace it. Otherwise cells
+ * read from the backing store would be held in both, outside the hot tier budget.
+ *
+ * All tiers hold strong references, so unlike soft references they do not collapse under GC
+ * pressure. Writes are queued and written back to the backing store in order by a background
+ * thread, children before parents. Novelty is reported as soon as a cell is queued, since it is
+ * available from the pending tier until written. flush() waits for queued writes, and is called
+ * before setting the root hash so that the root hash only ever refers to durable cells.
+ *
+ * If writing back fails, the failed batch is retried until it succeeds or the store is closed.
+ * Meanwhile flush() and setRootHash() fail with the write-back error.
+ *
+ * Thread safe.
+ */
+public class TieredStore extends AStore {
+
+	private static final Logger log = LoggerFactory.getLogger(TieredStore.class.getName());
+
+	private static final int SHARD_COUNT = 16;
+
+	/**
+	 * Maximum number of cells written back to the backing store in one batch
+	 */
+	private static final int WRITE_BATCH_SIZE = 1000;
+
+	/**
+	 * Time in milliseconds the writer waits for new writes before checking if the store is closed
+	 */
+	private static final long WRITE_POLL_TIME = 100;
+
+	/**
+	 * Time in milliseconds the writer waits before retrying a failed batch
+	 */
+	private static final long WRITE_RETRY_TIME = 1000;
+
+	private final AStore backing;
+
+	private final HotShard[] hot = new HotShard[SHARD_COUNT];
+
+	private final long hotCapacity;
+
+	/**
+	 * Cells written to this store and not yet written back
+	 */
+	private final ConcurrentHashMap<Hash, Ref<ACell>> pending = new ConcurrentHashMap<>();
+
+	private final LinkedBlockingQueue<Ref<ACell>> writeQueue = new LinkedBlockingQueue<>();
+
+	private final int maxPending;
+
+	/**
+	 * Counts of writes queued and completed, used to wait for write-back
+	 */
+	private long queuedCount = 0;
+	private long writtenCount = 0;
+	private final Object writeLock = new Object();
+
+	/**
+	 * Error from the last failed write-back, or null if write-back is succeeding
+	 */
+	private IOException writeError = null;
+
+	/**
+	 * Count of failed write-back attempts
+	 */
+	private long failureCount = 0;
+
+	/**
+	 * Pinned roots by name, in pinning order
+	 */
+	private final LinkedHashMap<String, ACell> pins = new LinkedHashMap<>();
+
+	/**
+	 * Index of cells reachable from pinned roots
+	 */
+	private final ConcurrentHashMap<Hash, Ref<ACell>> pinned = new ConcurrentHashMap<>();
+
+	private final long pinCapacity;
+
+	private long pinnedSize = 0;
+
+	private final Thread writer;
+
+	private volatile boolean running = true;
+
+	private TieredStore(AStore backing, long hotCapacity, long pinCapacity, int maxPending) {
+		this.backing = backing;
+		this.hotCapacity = hotCapacity;
+		this.pinCapacity = pinCapacity;
+		this.maxPending = maxPending;
+		backing.getCache().setCapacity(0);
+		for (int i = 0; i < SHARD_COUNT; i++) {
+			hot[i] = new HotShard();
+		}
+		writer = new Thread(this::writeLoop, "Write-back for " + backing);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Creates a TieredStore with default capacities
+	 * @param backing Backing store for all cells
+	 * @return New TieredStore instance
+	 */
+	public static TieredStore create(AStore backing) {
+		return create(backing, Constants.HOT_TIER_SIZE, Constants.PINNED_TIER_SIZE);
+	}
+
+	/**
+	 * Creates a TieredStore
+	 * @param backing Backing store for all cells
+	 * @param hotCapacity Capacity of the hot tier in bytes
+	 * @param pinCapacity Capacity of the pinned tier in bytes
+	 * @return New TieredStore instance
+	 */
+	public static TieredStore create(AStore backing, long hotCapacity, long pinCapacity) {
+		if (backing == null) throw new IllegalArgumentException("TieredStore needs a backing store");
+		if (hotCapacity < 0) throw new IllegalArgumentException("Negative hot tier capacity: " + hotCapacity);
+		if (pinCapacity < 0) throw new IllegalArgumentException("Negative pinned tier capacity: " + pinCapacity);
+		return new TieredStore(backing, hotCapacity, pinCapacity, Constants.WRITE_BACK_LIMIT);
+	}
+
+	/**
+	 * Creates a TieredStore over a temporary EtchStore, with default capacities
+	 * @return New TieredStore instance
+	 */
+	public static TieredStore createTemp() {
+		return create(EtchStore.createTemp());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends ACell> Ref<T> refForHash(Hash hash) {
+		Ref<ACell> ref = pinned.get(hash);
+		if (ref != null) return (Ref<T>) ref;
+		ref = pending.get(hash);
+		if (ref != null) return (Ref<T>) ref;
+		HotShard shard = shardFor(hash);
+		ref = shard.get(hash);
+		if (ref != null) return (Ref<T>) ref;
+
+		ref = backing.refForHash(hash);
+		if (ref == null) return null;
+
+		// hold value strongly while in the hot tier
+		ref = ref.toDirect();
+		shard.put(hash, ref);
+		return (Ref<T>) ref;
+	}
+
+	@Override
+	public <T extends ACell> Ref<T> storeRef(Ref<T> ref, int status, Consumer<Ref<ACell>> noveltyHandler) {
+		return persistRef(ref, noveltyHandler, status, false);
+	}
+
+	@Override
+	public <T extends ACell> Ref<T> storeTopRef(Ref<T> ref, int status, Consumer<Ref<ACell>> noveltyHandler) {
+		return persistRef(ref, noveltyHandler, status, true);
+	}
+
+	private <T extends ACell> Ref<T> persistRef(Ref<T> ref, Consumer<Ref<ACell>> noveltyHandler, int requiredStatus, boolean topLevel) {
+		return Persister.persist(ref, requiredStatus, topLevel, new Persister.Target() {
+			@Override
+			public Ref<ACell> lookup(Hash hash) {
+				return refForHash(hash);
+			}
+
+			@Override
+			public Ref<ACell> write(Hash hash, Ref<ACell> r) {
+				final Ref<ACell> newRef = r.toDirect();
+				if (log.isTraceEnabled()) {
+					log.trace("Queueing write-back of 0x" + hash.toHexString() + " of class " + Utils.getClassName(newRef.getValue()) + " with store " + TieredStore.this);
+				}
+
+				// another thread may have stored the same cell concurrently, if so only one reports novelty
+				Ref<ACell> stored = pending.compute(hash, (h, current) -> {
+					if ((current != null) && (current.getStatus() >= requiredStatus)) return current;
+					return newRef;
+				});
+				if (stored != newRef) return stored;
+				queueWrite(newRef);
+				newRef.getValue().attachRef(newRef);
+				if (noveltyHandler != null) noveltyHandler.accept(newRef);
+				return newRef;
+			}
+		});
+	}
+
+	private void queueWrite(Ref<ACell> ref) {
+		long target;
+		synchronized (writeLock) {
+			if (!running) throw new IllegalStateException("Store is closed");
+			writeQueue.add(ref);
+			target = ++queuedCount;
+		}
+
+		// apply back pressure if the writer is falling behind
+		if (pending.size() > maxPending) {
+			try {
+				awaitWritten(target - maxPending);
+			} catch (IOException e) {
+				// write-back is failing, which flush() reports. Cells remain available from the pending tier
+			}
+		}
+	}
+
+	private void writeLoop() {
+		Stores.setCurrent(this);
+		ArrayList<Ref<ACell>> batch = new ArrayList<>();
+		while (true) {
+			// poll rather than interrupt on close, since interrupts would close the backing file channel
+			Ref<ACell> first;
+			try {
+				first = writeQueue.poll(WRITE_POLL_TIME, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				first = null;
+			}
+			if (first == null) {
+				if (!running && writeQueue.isEmpty()) return;
+				continue;
+			}
+			batch.add(first);
+			writeQueue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+
+			// later batches may depend on this one, so retry until written
+			while (!writeBatch(batch)) {
+				synchronized (writeLock) {
+					if (!running) {
+						log.error("Write-back to {} abandoned on close, {} cells not written", backing, pending.size());
+						return;
+					}
+					try {
+						writeLock.wait(WRITE_RETRY_TIME);
+					} catch (InterruptedException e) {
+						// retry anyway
+					}
+				}
+			}
+			synchronized (writeLock) {
+				writtenCount += batch.size();
+				writeError = null;
+				writeLock.notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Writes a batch of Refs to the backing store, in order. Refs are grouped into runs with the
+	 * same status so that each run can be written as a single unit.
+	 *
+	 * @return True if the whole batch was written, false if writing failed
+	 */
+	private boolean writeBatch(ArrayList<Ref<ACell>> batch) {
+		int n = batch.size();
+		int start = 0;
+		while (start < n) {
+			int status = batch.get(start).getStatus();
+			int end = start + 1;
+			while ((end < n) && (batch.get(end).getStatus() == status)) end++;
+
+			// fresh Refs so that the backing store doesn't treat them as already persisted.
+			// Children were queued before their parents, so are already written.
+			ArrayList<Ref<? extends ACell>> run = new ArrayList<>(end - start);
+			for (int i = start; i < end; i++) {
+				Ref<ACell> ref = batch.get(i);
+				run.add(RefDirect.create(ref.getValue(), ref.getHash()));
+			}
+			try {
+				backing.storeAll(run, status, null);
+				for (int i = start; i < end; i++) {
+					Ref<ACell> ref = batch.get(i);
+					Hash h = ref.getHash();
+					shardFor(h).put(h, ref);
+					pending.remove(h, ref);
+				}
+			} catch (Throwable t) {
+				// cells remain available from the pending tier
+				log.error("Write-back to {} failed, will retry", backing, t);
+				synchronized (writeLock) {
+					writeError = (t instanceof IOException) ? (IOException) t : new IOException("Write-back to " + backing + " failed", t);
+					failureCount++;
+					writeLock.notifyAll();
+				}
+				return false;
+			}
+			start = end;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until the given number of writes have been written back. Fails if a write-back attempt
+	 * fails meanwhile, so waiting for an outstanding error takes at most one retry.
+	 */
+	private void awaitWritten(long target) throws IOException {
+		synchronized (writeLock) {
+			long failures = failureCount;
+			while (writtenCount < target) {
+				if (failureCount != failures) throw new IOException("Write-back to " + backing + " failing", writeError);
+				if (!writer.isAlive()) return;
+				try {
+					writeLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until all writes queued so far have been written back to the backing store
+	 * @throws IOException If write-back is failing
+	 */
+	public void flush() throws IOException {
+		long target;
+		synchronized (writeLock) {
+			target = queuedCount;
+		}
+		awaitWritten(target);
+	}
+
+	/**
+	 * Pins a root cell, replacing any previous root with the same name. Cells reachable in memory
+	 * from pinned roots are held and indexed by hash, up to the pinned tier capacity. Cells that
+	 * are not yet stored are skipped.
+	 *
+	 * Pinning a new version of a root only indexes the cells that have changed, since unchanged
+	 * subtrees are already indexed. Cells from old versions are released once the index exceeds
+	 * its capacity and is rebuilt from the current roots.
+	 *
+	 * @param name Name of root, e.g. "state"
+	 * @param root Root cell, or null to unpin
+	 */
+	public synchronized void pin(String name, ACell root) {
+		if (root == null) {
+			pins.remove(name);
+			return;
+		}
+		ACell old = pins.put(name, root);
+		if (old == root) return;
+		if (!index(root)) {
+			// over capacity, so rebuild from current roots only
+			pinned.clear();
+			pinnedSize = 0;
+			for (ACell r : pins.values()) {
+				if (!index(r)) break;
+			}
+		}
+	}
+
+	/**
+	 * Indexes cells reachable in memory from a root, breadth first so that upper levels of large
+	 * structures take priority.
+	 *
+	 * @return True if the root was completely indexed, false if capacity was reached
+	 */
+	private boolean index(ACell root) {
+		ArrayDeque<Ref<ACell>> work = new ArrayDeque<>();
+		work.add(root.getRef());
+		while (!work.isEmpty()) {
+			Ref<ACell> ref = work.poll();
+			if (!ref.isDirect()) continue;
+			ACell cell = ref.getValue();
+			if (cell == null) continue;
+			if (!cell.isEmbedded()) {
+				Hash h = ref.getHash();
+				if (pinned.containsKey(h)) continue; // subtree already indexed
+				if (ref.getStatus() >= Ref.STORED) {
+					long w = cell.getEncodingLength() + Constants.MEMORY_OVERHEAD;
+					if (pinnedSize + w > pinCapacity) return false;
+					pinned.put(h, ref);
+					pinnedSize += w;
+				}
+			}
+			int n = cell.getRefCount();
+			for (int i = 0; i < n; i++) {
+				work.add(cell.getRef(i));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the approximate number of bytes held in the pinned tier
+	 * @return Size in bytes
+	 */
+	public synchronized long getPinnedSize() {
+		return pinnedSize;
+	}
+
+	/**
+	 * Gets the approximate number of bytes held in the hot tier
+	 * @return Size in bytes
+	 */
+	public long getHotSize() {
+		long result = 0;
+		for (HotShard shard : hot) {
+			result += shard.getSize();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of cells waiting to be written back
+	 * @return Number of cells
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Gets the backing store
+	 * @return Backing store
+	 */
+	public AStore getBacking() {
+		return backing;
+	}
+
+	@Override
+	public Hash getRootHash() throws IOException {
+		return backing.getRootHash();
+	}
+
+	@Override
+	public void setRootHash(Hash h) throws IOException {
+		flush();
+		backing.setRootHash(h);
+	}
+
+	@Override
+	public void close() {
+		synchronized (writeLock) {
+			if (!running) return;
+			running = false;
+			writeLock.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		backing.close();
+		for (HotShard shard : hot) {
+			shard.clear();
+		}
+		synchronized (this) {
+			pins.clear();
+			pinned.clear();
+			pinnedSize = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TieredStore over " + backing;
+	}
+
+	private HotShard shardFor(Hash hash) {
+		return hot[hash.byteAt(0) & (SHARD_COUNT - 1)];
+	}
+
+	private static long weight(Ref<ACell> ref) {
+		ACell cell = ref.getValue();
+		if (cell == null) return Constants.MEMORY_OVERHEAD;
+		return cell.getEncodingLength() + Constants.MEMORY_OVERHEAD;
+	}
+
+	/**
+	 * LRU shard of the hot tier
+	 */
+	private final class HotShard {
+		private final LinkedHashMap<Hash, Ref<ACell>> map = new LinkedHashMap<>(16, 0.75f, true);
+		private long size = 0;
+
+		private synchronized Ref<ACell> get(Hash hash) {
+			return map.get(hash);
+		}
+
+		private synchronized void put(Hash hash, Ref<ACell> ref) {
+			long capacity = hotCapacity / SHARD_COUNT;
+			long w = weight(ref);
+			if (w > capacity) return;
+			Ref<ACell> old = map.put(hash, ref);
+			if (old != null) size -= weight(old);
+			size += w;
+
+			Iterator<Map.Entry<Hash, Ref<ACell>>> it = map.entrySet().iterator();
+			while ((size > capacity) && it.hasNext()) {
+				size -= weight(it.next().getValue());
+				it.remove();
+			}
+		}
+
+		private synchronized long getSize() {
+			return size;
+		}
+
+		private synchronized void clear() {
+			map.clear();
+			size = 0;
+		}
+	}
+}
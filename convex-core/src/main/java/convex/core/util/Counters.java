@@ -6,8 +6,12 @@ package convex.core.util;
 public class Counters {
 
 	public static volatile long sendCount = 0;
+	public static volatile long sendDrops = 0;
+	public static volatile long sendStallTime = 0;
 	public static volatile long beliefMerge = 0;
 	public static volatile long applyBlock = 0;
+	public static volatile long parallelCommits = 0;
+	public static volatile long parallelRetries = 0;
 	
 	public static volatile long etchRead = 0;
 	public static volatile long etchWrite = 0;
@@ -0,0 +1,228 @@
+package etch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.ACell;
+import convex.core.data.AArrayBlob;
+import convex.core.data.Blob;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.exceptions.MissingDataException;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+import convex.core.util.Utils;
+
+/**
+ * Streaming export and import of the cells in an EtchStore, e.g. for backups, cloning a Peer or
+ * setting up test fixtures without copying whole Etch files.
+ *
+ * The stream format is:
+ * <ul>
+ * <li>Magic number (4 bytes)</li>
+ * <li>Root hash (32 bytes)</li>
+ * <li>Number of cells (8 bytes)</li>
+ * <li>For each cell, in hash order: flags (1 byte), memory size (8 bytes), encoding length
+ * (2 bytes) and encoding</li>
+ * </ul>
+ *
+ * Hashes are not included, since they are recomputed from the encodings on import. Flags and
+ * memory size are not trusted on import either: cells are imported with STORED status only, and
+ * persisted status and memory sizes are then recomputed from the root. Because cells
+ * are in hash order, import can append all records sequentially and then update the index in a
+ * single pass, without checking first whether each cell already exists. The order, and the
+ * requirement that the root cell is present, also let import reject duplicate or corrupted records.
+ */
+public class CellStream {
+	private static final Logger log = LoggerFactory.getLogger(CellStream.class.getName());
+
+	private static final byte[] MAGIC_NUMBER=Utils.hexToBytes("e7c65301");
+
+	/**
+	 * Number of records appended before updating the index
+	 */
+	private static final int IMPORT_BATCH_SIZE=16384;
+
+	/**
+	 * Exports all cells reachable from a root hash, in hash order.
+	 *
+	 * @param store Store to export from
+	 * @param root Root hash, typically the root hash of the store
+	 * @param out Stream to write to. Not closed.
+	 * @return Number of cells exported
+	 * @throws IOException If an IO error occurs
+	 */
+	public static long export(EtchStore store, Hash root, OutputStream out) throws IOException {
+		long start=System.currentTimeMillis();
+		ArrayList<Hash> live=mark(store, root);
+
+		DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
+		dos.write(MAGIC_NUMBER);
+		dos.write(root.getBytes());
+		dos.writeLong(live.size());
+		for (Hash h: live) {
+			Ref<ACell> ref=store.refForHash(h);
+			ACell cell=ref.getValue();
+			Blob encoding=cell.getEncoding();
+			long memorySize=(ref.getStatus()>=Ref.PERSISTED)?cell.getMemorySize():0L;
+			dos.writeByte(ref.getFlags());
+			dos.writeLong(memorySize);
+			dos.writeShort(Utils.checkedShort(encoding.count()));
+			dos.write(encoding.getInternalArray(),encoding.getInternalOffset(),(int)encoding.count());
+		}
+		dos.flush();
+		log.info("Exported {} cells from {} in {}ms",live.size(),store,System.currentTimeMillis()-start);
+		return live.size();
+	}
+
+	/**
+	 * Finds all cells reachable from a root that are present in the store, in hash order. Missing
+	 * cells are skipped, so a partial store can still be exported.
+	 *
+	 * @param store Store to search
+	 * @param root Root hash
+	 * @return Hashes of all stored cells reachable from the root, sorted
+	 */
+	public static ArrayList<Hash> mark(AStore store, Hash root) {
+		ArrayList<Hash> live=new ArrayList<>();
+		HashSet<Hash> visited=new HashSet<>();
+		ArrayDeque<Hash> work=new ArrayDeque<>();
+		work.add(root);
+		long missing=0;
+		while (!work.isEmpty()) {
+			Hash h=work.poll();
+			if (!visited.add(h)) continue;
+			Ref<ACell> ref=store.refForHash(h);
+			if (ref==null) {
+				missing++;
+				continue;
+			}
+			live.add(h);
+			addChildren(ref.getValue(),work);
+		}
+		if (missing>0) log.warn("Skipped {} cells missing from {}",missing,store);
+		Collections.sort(live);
+		return live;
+	}
+
+	private static void addChildren(ACell cell, ArrayDeque<Hash> work) {
+		if (cell==null) return;
+		int n=cell.getRefCount();
+		for (int i=0; i<n; i++) {
+			Ref<ACell> child=cell.getRef(i);
+			if (child.isEmbedded()) {
+				// embedded cells are not stored separately, but may refer to cells that are
+				if (child.isDirect()) addChildren(child.getValue(),work);
+			} else {
+				work.add(child.getHash());
+			}
+		}
+	}
+
+	/**
+	 * Imports cells from a stream produced by export(...). Records are appended in batches, and
+	 * the index updated once for each batch. Cells already in the store are not duplicated in the
+	 * index, but their records still take space in the file.
+	 *
+	 * SECURITY: the stream may come from an untrusted source. Flags in the stream are ignored, so
+	 * that a stream cannot mark signatures as verified, or cells as persisted while their
+	 * children are missing. If every cell reachable from the root is present after the import,
+	 * the root is persisted again to recompute status and memory sizes.
+	 *
+	 * @param store Store to import into
+	 * @param in Stream to read from. Not closed.
+	 * @param setRoot If true, set the root hash of the store to the root hash of the stream
+	 * @return Number of cells imported
+	 * @throws IOException If an IO error occurs, or the stream is invalid
+	 */
+	public static long load(EtchStore store, InputStream in, boolean setRoot) throws IOException {
+		long start=System.currentTimeMillis();
+		DataInputStream dis=new DataInputStream(new BufferedInputStream(in));
+		byte[] magic=new byte[MAGIC_NUMBER.length];
+		dis.readFully(magic);
+		if (!Blob.wrap(magic).equals(Blob.wrap(MAGIC_NUMBER))) throw new IOException("Not a cell stream");
+		byte[] rootBytes=new byte[Hash.LENGTH];
+		dis.readFully(rootBytes);
+		Hash root=Hash.wrap(rootBytes);
+		long count=dis.readLong();
+		if (count<0) throw new IOException("Invalid cell count: "+count);
+
+		AArrayBlob[] keys=new AArrayBlob[IMPORT_BATCH_SIZE];
+		long[] pointers=new long[IMPORT_BATCH_SIZE];
+		Hash last=null;
+		boolean foundRoot=false;
+		long done=0;
+		Lock shared=store.gcLock.readLock();
+		shared.lock();
+		try {
+			Etch etch=store.getWriteEtch();
+			while (done<count) {
+				int n=(int)Math.min(IMPORT_BATCH_SIZE, count-done);
+				for (int i=0; i<n; i++) {
+					dis.readUnsignedByte(); // flags, not trusted
+					dis.readLong(); // memory size, not trusted
+					int length=dis.readUnsignedShort();
+					if ((length==0)||(length>Short.MAX_VALUE)) throw new IOException("Invalid encoding length: "+length);
+					byte[] bs=new byte[length];
+					dis.readFully(bs);
+					Blob encoding=Blob.wrap(bs);
+					Hash h=encoding.getContentHash();
+					if ((last!=null)&&(h.compareTo(last)<=0)) throw new IOException("Cell stream not in hash order at cell "+(done+i));
+					last=h;
+					if (h.equals(root)) foundRoot=true;
+					keys[i]=h;
+					pointers[i]=etch.appendRecord(h, Ref.STORED, 0L, encoding);
+				}
+				etch.indexRecords(keys, pointers, n);
+				done+=n;
+			}
+			if ((count>0)&&!foundRoot) throw new IOException("Cell stream does not contain root "+root);
+			if (setRoot) etch.setRootHash(root);
+			store.flush();
+
+			// imported records may have raised the status of cached cells
+			store.getCache().clear();
+		} catch (EOFException e) {
+			throw new IOException("Cell stream truncated after "+done+" of "+count+" cells",e);
+		} finally {
+			shared.unlock();
+		}
+		if (count>0) persistImported(store, root);
+		log.info("Imported {} cells into {} in {}ms",done,store,System.currentTimeMillis()-start);
+		return done;
+	}
+
+	/**
+	 * Persists the imported root, which checks that all its children are present, raises their
+	 * status to PERSISTED and records their memory sizes. A partial stream is left with STORED
+	 * status, so the missing cells can still be acquired later.
+	 */
+	private static void persistImported(EtchStore store, Hash root) throws IOException {
+		AStore temp=Stores.current();
+		try {
+			// children must be found in the target store only
+			Stores.setCurrent(store);
+			Ref<ACell> ref=store.refForHash(root);
+			store.storeTopRef(ref, Ref.PERSISTED, null);
+			store.flush();
+		} catch (MissingDataException e) {
+			log.warn("Imported cells incomplete, missing {}",e.getMissingHash());
+		} finally {
+			Stores.setCurrent(temp);
+		}
+	}
+}
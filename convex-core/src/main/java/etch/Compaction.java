@@ -0,0 +1,200 @@
+package etch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.ACell;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+
+/**
+ * A compaction of an EtchStore, copying live cells from the current Etch file to a new one.
+ *
+ * Cells are marked by walking from the GC roots through the old Etch file, then copied in hash
+ * order, so that the index of the new file is built in a single sequential pass. Progress can be
+ * monitored from other threads while the compaction runs.
+ */
+public class Compaction {
+	private static final Logger log = LoggerFactory.getLogger(Compaction.class.getName());
+
+	/**
+	 * Phases of a compaction
+	 */
+	public enum Phase {
+		MARK, COPY, SWITCH, DONE, ABORTED
+	}
+
+	private final EtchStore store;
+	private final Etch source;
+	private Etch target;
+
+	private final HashSet<Hash> visited=new HashSet<>();
+
+	private volatile Phase phase=Phase.MARK;
+	private volatile long marked=0;
+	private volatile long copied=0;
+	private final long startLength;
+	private volatile long endLength=-1;
+
+	Compaction(EtchStore store, Etch source) {
+		this.store=store;
+		this.source=source;
+		this.startLength=source.getDataLength();
+	}
+
+	/**
+	 * Marks and copies all cells reachable from the roots and the root hash.
+	 */
+	void run(Collection<ACell> roots, Etch target) throws IOException {
+		this.target=target;
+		long start=System.currentTimeMillis();
+
+		ArrayList<Hash> live=new ArrayList<>();
+		ArrayDeque<Ref<ACell>> work=new ArrayDeque<>();
+		work.add(Ref.forHash(source.getRootHash()));
+		for (ACell root: roots) {
+			if (root==null) continue;
+			work.add(root.getRef());
+		}
+		mark(work,live);
+		log.debug("Etch compaction marked {} cells in {}ms",live.size(),System.currentTimeMillis()-start);
+
+		phase=Phase.COPY;
+		Collections.sort(live);
+		copy(live);
+		phase=Phase.SWITCH;
+	}
+
+	/**
+	 * Marks and copies cells referenced by writes during compaction, and anything reachable from
+	 * them that is not already copied. Called with writes to the store blocked.
+	 */
+	void copyReferenced(Collection<Hash> hashes) throws IOException {
+		ArrayList<Hash> live=new ArrayList<>();
+		ArrayDeque<Ref<ACell>> work=new ArrayDeque<>();
+		for (Hash h: hashes) {
+			if (target.read(h)!=null) continue;
+			work.add(Ref.forHash(h));
+		}
+		mark(work,live);
+		Collections.sort(live);
+		copy(live);
+	}
+
+	/**
+	 * Marks cells reachable from a queue of Refs, adding the hashes of those found in the source
+	 * Etch file to the live list. Cells not yet persisted are traversed in memory.
+	 */
+	private void mark(ArrayDeque<Ref<ACell>> work, ArrayList<Hash> live) throws IOException {
+		while (!work.isEmpty()) {
+			Ref<ACell> ref=work.poll();
+			Hash h=ref.getHash();
+			if (!visited.add(h)) continue;
+
+			Ref<ACell> stored=source.read(h);
+			if (stored!=null) {
+				live.add(h);
+				marked++;
+				addChildren(stored.getValue(),work);
+			} else if (ref.isDirect()) {
+				addChildren(ref.getValue(),work);
+			}
+		}
+	}
+
+	private void addChildren(ACell cell, ArrayDeque<Ref<ACell>> work) {
+		if (cell==null) return;
+		int n=cell.getRefCount();
+		for (int i=0; i<n; i++) {
+			Ref<ACell> child=cell.getRef(i);
+			if (child.isDirect()&&child.isEmbedded()) {
+				// embedded cells are not stored separately, but may refer to cells that are
+				addChildren(child.getValue(),work);
+			} else {
+				work.add(child);
+			}
+		}
+	}
+
+	private void copy(ArrayList<Hash> live) throws IOException {
+		for (Hash h: live) {
+			Ref<ACell> ref=source.read(h);
+			target.write(h,ref);
+			copied++;
+		}
+	}
+
+	void done(long length) {
+		endLength=length;
+		phase=Phase.DONE;
+		log.info("Etch compaction of {} copied {} cells, data length reduced from {} to {}",store,copied,startLength,length);
+	}
+
+	void aborted(Throwable cause) {
+		phase=Phase.ABORTED;
+		log.warn("Etch compaction of {} aborted, continuing with existing file",store,cause);
+	}
+
+	/**
+	 * Gets the current phase of this compaction
+	 * @return Phase
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Gets the number of live cells found so far
+	 * @return Number of cells marked
+	 */
+	public long getMarkedCount() {
+		return marked;
+	}
+
+	/**
+	 * Gets the number of live cells copied so far
+	 * @return Number of cells copied
+	 */
+	public long getCopiedCount() {
+		return copied;
+	}
+
+	/**
+	 * Gets the progress of the copy phase
+	 * @return Proportion of live cells copied, from 0.0 to 1.0
+	 */
+	public double getProgress() {
+		long m=marked;
+		if (phase==Phase.MARK) return 0.0;
+		if (m==0) return 1.0;
+		return Math.min(1.0, copied/(double)m);
+	}
+
+	/**
+	 * Gets the data length of the Etch file before compaction
+	 * @return Data length in bytes
+	 */
+	public long getStartLength() {
+		return startLength;
+	}
+
+	/**
+	 * Gets the data length of the Etch file after compaction
+	 * @return Data length in bytes, or -1 if not yet complete
+	 */
+	public long getEndLength() {
+		return endLength;
+	}
+
+	@Override
+	public String toString() {
+		return "Compaction "+phase+" marked="+marked+" copied="+copied;
+	}
+}
@@ -5,20 +5,31 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.FileLock;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.core.Constants;
 import convex.core.data.AArrayBlob;
+import convex.core.data.ABlob;
 import convex.core.data.ACell;
 import convex.core.data.Blob;
+import convex.core.data.Format;
 import convex.core.data.Hash;
 import convex.core.data.Ref;
 import convex.core.data.RefSoft;
@@ -54,6 +65,21 @@ import convex.core.util.Utils;
  *    - 8 bytes Memory Size (TODO: might be negative for unknown?)
  * - 2 bytes data length N (a short)
  * - N byes actual data
+ *
+ * Writers are striped by the first digit of the key, i.e. by the slot in the top level index block.
+ * Writes into different radix subtrees can therefore proceed concurrently, with new space in the file
+ * allocated via an atomic append pointer. Chains are never started in the top level index block so
+ * that a normal write only ever modifies its own top level slot.
+ *
+ * Readers take no locks. Mapped regions of the file are published as an immutable array, replaced
+ * atomically when a region grows, and each thread reads through its own view of each region. Only a
+ * read that misses in a chain, which may be being collapsed by a writer, is retried under the writer's locks.
+ *
+ * Index slots read without locks must be read atomically, or a reader could see a torn pointer. The top
+ * level index block follows the 42 byte header, so its slots are not aligned: readers use an in-memory
+ * copy of it instead. All other index blocks are allocated on 8 byte boundaries, and their slots are
+ * accessed with acquire / release semantics. Index blocks written by older versions may not be aligned,
+ * so reads reaching one of those are retried under the writer's locks.
  */
 public class Etch {
 	// structural constants for data block
@@ -106,6 +132,16 @@ public class Etch {
 	private static final long PTR_START=0x8000000000000000L; // start of chained entries
 	private static final long PTR_CHAIN=0xC000000000000000L; // chained entries after start
 
+	/**
+	 * Result of a lock-free seek that must be retried holding the writer's locks
+	 */
+	private static final long SEEK_LOCKED=-2L;
+
+	/**
+	 * Atomic access to aligned index slots in mapped buffers
+	 */
+	private static final VarHandle SLOT=MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
 	private static final Logger log=LoggerFactory.getLogger(Etch.class.getName());
 
 	/**
@@ -127,11 +163,57 @@ public class Etch {
 	private final RandomAccessFile data;
 
 	/**
-	 * List of MappedByteBuffers for each region of the database file.
+	 * A mapped region of the database file, with a view of the buffer for each reading thread.
+	 * Never modified once published: a region that needs to grow is replaced.
+	 */
+	private static final class Region {
+		final MappedByteBuffer buffer;
+		final ThreadLocal<ByteBuffer> readView;
+
+		Region(MappedByteBuffer buffer) {
+			this.buffer=buffer;
+			this.readView=ThreadLocal.withInitial(buffer::duplicate);
+		}
+	}
+
+	/**
+	 * Mapped regions of the database file. The array is never modified, a new array is published
+	 * whenever a region is created or grown.
+	 */
+	private volatile Region[] regions=new Region[0];
+
+	/**
+	 * Length of data in the database file. New data is appended by atomically advancing this value.
+	 */
+	private final AtomicLong dataLength=new AtomicLong(0L);
+
+	/**
+	 * Striped write locks, one for each slot in the top level index block.
+	 */
+	private final ReentrantLock[] writeLocks=new ReentrantLock[256];
+
+	/**
+	 * Copy of the slots in the top level index block, for lock-free readers. Each slot is updated
+	 * with its stripe lock or exclusive access held, after writing it to the file.
+	 */
+	private final AtomicLongArray topIndex=new AtomicLongArray(256);
+
+	/**
+	 * Lock for operations spanning multiple top level slots. Normal writers hold the read lock
+	 * in addition to their stripe, while the write lock grants exclusive access to the whole database.
 	 */
-	private final ArrayList<MappedByteBuffer> regionMap=new ArrayList<>();
+	private final ReentrantReadWriteLock structureLock=new ReentrantReadWriteLock();
 
-	private long dataLength=0;
+	/**
+	 * Lock for creating regions. Lock order is structureLock, then this Etch instance, then regionLock,
+	 * since regions may be created while holding either of the others.
+	 */
+	private final Object regionLock=new Object();
+
+	/**
+	 * Set once this Etch is closed, after which no new regions can be mapped
+	 */
+	private volatile boolean closed=false;
 
 	private boolean BUILD_CHAINS=true;
 	private EtchStore store;
@@ -139,6 +221,9 @@ public class Etch {
 	private Etch(File dataFile) throws IOException {
 		// Ensure we have a RandomAccessFile that exists
 		this.file=dataFile;
+		for (int i=0; i<writeLocks.length; i++) {
+			writeLocks[i]=new ReentrantLock();
+		}
 		if (!dataFile.exists()) dataFile.createNewFile();
 		this.data=new RandomAccessFile(dataFile,"rw");
 
@@ -161,15 +246,15 @@ public class Etch {
 			int headerZeros=SIZE_HEADER_FILESIZE+SIZE_HEADER_ROOT;
 			byte[] temp=new byte[headerZeros];
 			mbb.put(temp,0,headerZeros);
-			dataLength=SIZE_HEADER; // advance past initial long
+			dataLength.set(SIZE_HEADER); // advance past initial long
 
-			// add an index block
-			long indexStart=appendNewIndexBlock();
+			// add the top level index block, straight after the header
+			long indexStart=clearIndexBlock(allocate(INDEX_BLOCK_SIZE));
 			assert(indexStart==INDEX_START);
 
 			// ensure data length is initially correct
 			mbb=seekMap(SIZE_HEADER_MAGIC);
-			mbb.putLong(dataLength);
+			mbb.putLong(dataLength.get());
 		} else {
 			// existing file, so need to read the length pointer
 			MappedByteBuffer mbb=seekMap(0);
@@ -180,7 +265,11 @@ public class Etch {
 			}
 
 			long length = mbb.getLong();
-			dataLength=length;
+			dataLength.set(length);
+
+			for (int i=0; i<256; i++) {
+				topIndex.set(i, readSlot(INDEX_START,i));
+			}
 		}
 
 		// shutdown hook to close file / release lock
@@ -222,7 +311,7 @@ public class Etch {
 	 */
 	public static Etch create(File file) throws IOException {
 		Etch etch= new Etch(file);
-		log.debug("Etch created on file: {} with data length: {}"+file,etch.dataLength);
+		log.debug("Etch created on file: {} with data length: {}",file,etch.dataLength.get());
 		return etch;
 	}
 
@@ -235,42 +324,86 @@ public class Etch {
 	 * @throws IOException
 	 */
 	private MappedByteBuffer seekMap(long position) throws IOException {
+		position=checkPosition(position);
+		int mapIndex=(int)(position/MAX_REGION_SIZE); // 1GB chunks
+
+		MappedByteBuffer mbb=(MappedByteBuffer) getRegion(mapIndex).buffer.duplicate();
+		mbb.position((int)(position-MAX_REGION_SIZE*(long)mapIndex));
+		return mbb;
+	}
+
+	/**
+	 * Gets this thread's view of the mapped region for a given position, seeking to the specified
+	 * location. The view is reused for every read by this thread, so must not be retained or written to.
+	 *
+	 * @param position Target position
+	 * @return ByteBuffer with correct position.
+	 * @throws IOException
+	 */
+	private ByteBuffer readMap(long position) throws IOException {
+		position=checkPosition(position);
+		int mapIndex=(int)(position/MAX_REGION_SIZE);
+
+		ByteBuffer bb=getRegion(mapIndex).readView.get();
+		bb.position((int)(position-MAX_REGION_SIZE*(long)mapIndex));
+		return bb;
+	}
+
+	private long checkPosition(long position) {
 		position=slotPointer(position); // ensure we don't have any pesky type bits
 
-		if ((position<0)||(position>dataLength)) {
-			throw new Error("Seek out of range in Etch file: position="+Utils.toHexString(position)+ " dataLength="+Utils.toHexString(dataLength)+" file="+file.getName());
+		long length=dataLength.get();
+		if ((position<0)||(position>length)) {
+			throw new Error("Seek out of range in Etch file: position="+Utils.toHexString(position)+ " dataLength="+Utils.toHexString(length)+" file="+file.getName());
 		}
-		int mapIndex=Utils.checkedInt(position/MAX_REGION_SIZE); // 1GB chunks
-
-		MappedByteBuffer mbb=(MappedByteBuffer) getBuffer(mapIndex).duplicate();
-		mbb.position(Utils.checkedInt(position-MAX_REGION_SIZE*(long)mapIndex));
-		return mbb;
+		return position;
 	}
 
-	private MappedByteBuffer getBuffer(int regionIndex) throws IOException {
+	private Region getRegion(int regionIndex) throws IOException {
 		// Get current mapped region, or null if out of range
-		int regionMapSize=regionMap.size();
-		MappedByteBuffer mbb=(regionIndex<regionMapSize)?regionMap.get(regionIndex):null;
+		Region[] rs=regions;
+		Region region=(regionIndex<rs.length)?rs[regionIndex]:null;
 
-		// Call createBuffer if mapped region does not exist, or is too small
-		if ((mbb==null)||(mbb.capacity()<dataLength+REGION_MARGIN)) mbb=createBuffer(regionIndex);
+		// Call createRegion if mapped region does not exist, or is too small
+		if ((region==null)||(region.buffer.capacity()<requiredCapacity(regionIndex))) region=createRegion(regionIndex);
 
-		return mbb;
+		return region;
+	}
+
+	/**
+	 * Gets the capacity a region needs to cover the current database plus the margin for writes
+	 * past the end. Capacity is relative to the start of the region.
+	 */
+	private long requiredCapacity(int regionIndex) {
+		long pos=regionIndex*(long)MAX_REGION_SIZE;
+		return Math.min(dataLength.get()-pos,MAX_REGION_SIZE)+REGION_MARGIN;
 	}
 
 	/**
-	 * Create a MappedByteBuffer at the specified region index position.
+	 * Maps the region at the specified region index position, and publishes it for readers.
 	 *
-	 * CONCURRENCY: should be the only place where regionMap is modified.
+	 * CONCURRENCY: should be the only place where regions are modified, apart from close().
 	 *
 	 * @param regionIndex Index of database file region
 	 * @return
 	 * @throws IOException
 	 */
-	private synchronized MappedByteBuffer createBuffer(int regionIndex) throws IOException {
-		while(regionMap.size()<=regionIndex) regionMap.add(null);
+	private Region createRegion(int regionIndex) throws IOException {
+		synchronized (regionLock) {
+			return createRegionLocked(regionIndex);
+		}
+	}
+
+	private Region createRegionLocked(int regionIndex) throws IOException {
+		if (closed) throw new ClosedChannelException();
+		Region[] rs=regions;
+
+		// Another thread may have already grown the region enough for us
+		Region existing=(regionIndex<rs.length)?rs[regionIndex]:null;
+		if ((existing!=null)&&(existing.buffer.capacity()>=requiredCapacity(regionIndex))) return existing;
 
 		long pos=regionIndex*(long)MAX_REGION_SIZE;
+		long dataLength=this.dataLength.get();
 
 		// Expand region size until big enough for current database plus appropriate margin
 		int length=1<<16;
@@ -280,26 +413,59 @@ public class Etch {
 
 		length+=REGION_MARGIN; // include margin in buffer length
 		MappedByteBuffer mbb= data.getChannel().map(MapMode.READ_WRITE, pos, length);
-		regionMap.set(regionIndex, mbb);
-		return mbb;
+		Region region=new Region(mbb);
+
+		Region[] newRegions=Arrays.copyOf(rs,Math.max(rs.length,regionIndex+1));
+		newRegions[regionIndex]=region;
+		regions=newRegions;
+		return region;
 	}
 
 	/**
 	 * Writes a key / value pair to the immutable store.
 	 *
-	 * CONCURRENCY: Hold a lock for a single writer
+	 * CONCURRENCY: Holds the write lock for the top level slot of the key, so writers to
+	 * different radix subtrees may proceed in parallel. Falls back to an exclusive lock if
+	 * the write needs to modify more than one top level slot.
 	 *
 	 * @param key A key value (typically the Hash)
 	 * @param value Value data to associate with the key
 	 * @return Ref after writing to store
 	 * @throws IOException If an IO error occurs
 	 */
-	public synchronized Ref<ACell> write(AArrayBlob key, Ref<ACell> value) throws IOException {
+	public Ref<ACell> write(AArrayBlob key, Ref<ACell> value) throws IOException {
 		Counters.etchWrite++;
-		return write(key,0,value,INDEX_START);
+		Lock shared=structureLock.readLock();
+		Lock stripe=writeLocks[key.byteAt(0)&0xFF];
+		shared.lock();
+		stripe.lock();
+		try {
+			Ref<ACell> result=write(key,0,value,INDEX_START,-1L);
+			if (result!=null) return result;
+		} finally {
+			stripe.unlock();
+			shared.unlock();
+		}
+
+		// Write touches multiple top level slots, so retry with exclusive access
+		Lock exclusive=structureLock.writeLock();
+		exclusive.lock();
+		try {
+			return write(key,0,value,INDEX_START,-1L);
+		} finally {
+			exclusive.unlock();
+		}
 	}
 
-	private Ref<ACell> write(AArrayBlob key, int keyOffset, Ref<ACell> value, long indexPosition) throws IOException {
+	/**
+	 * Writes a key / value pair starting at the given index block.
+	 *
+	 * @param value Value to write, or null if the data is already appended at dataPointer
+	 * @param dataPointer Pointer to already appended data, used only if value is null
+	 * @return Ref after writing to store, or null if exclusive access is required to complete the write.
+	 *         Meaningless if value is null.
+	 */
+	private Ref<ACell> write(AArrayBlob key, int keyOffset, Ref<ACell> value, long indexPosition, long dataPointer) throws IOException {
 		if (keyOffset>=KEY_SIZE) {
 			throw new Error("Offset exceeded for key: "+key);
 		}
@@ -310,25 +476,26 @@ public class Etch {
 
 		if (slotValue==0L) {
 			// empty location, so simply write new value
-			return writeNewData(indexPosition,digit,key,value,PTR_PLAIN);
+			return writeNewData(indexPosition,digit,key,value,dataPointer,PTR_PLAIN);
 
 		} else if (type==PTR_INDEX) {
 			// recursively check next level of index
 			long newIndexPosition=slotPointer(slotValue); // clear high bits
-			return write(key,keyOffset+1,value,newIndexPosition);
+			return write(key,keyOffset+1,value,newIndexPosition,dataPointer);
 
 		} else if (type==PTR_PLAIN) {
 			// existing data pointer (non-zero)
 			// check if we have the same value first, otherwise need to resolve conflict
 			// This should have the current (potential collision) key in tempArray
 			if (checkMatchingKey(key,slotValue)) {
-				return updateInPlace(slotValue,value);
+				return updateInPlace(slotValue,value,dataPointer);
 			}
 			byte[] temp=tempArray.get();
 
 			// we need to check the next slot position to see if we can extend to a chain
+			// chains are never built in the top level index block, since the next slot belongs to another writer
 			int nextDigit=digit+1;
-			long nextSlotValue=readSlot(indexPosition,nextDigit);
+			long nextSlotValue=(keyOffset==0)?-1L:readSlot(indexPosition,nextDigit);
 
 			// if next slot is empty, we can make a chain!
 			if (BUILD_CHAINS&&(nextSlotValue==0L)) {
@@ -336,7 +503,7 @@ public class Etch {
 				writeSlot(indexPosition,digit,slotValue|PTR_START);
 
 				// write new data pointer to next slot
-				long newDataPointer=appendData(key,value);
+				long newDataPointer=(value==null)?dataPointer:appendData(key,value);
 				writeSlot(indexPosition,nextDigit,newDataPointer|PTR_CHAIN);
 
 				return value;
@@ -354,11 +521,14 @@ public class Etch {
 			writeSlot(indexPosition,digit,newIndexPosition|PTR_INDEX);
 
 			// recursively write this key
-			return write(key,keyOffset+1,value,newIndexPosition);
+			return write(key,keyOffset+1,value,newIndexPosition,dataPointer);
 		} else if (type==PTR_START) {
+			// chain in top level index block (only in older files) may span other writers' slots
+			if ((keyOffset==0)&&!structureLock.isWriteLockedByCurrentThread()) return null;
+
 			// first check if the start pointer is the right value. if so, bail out with nothing to do
 			if (checkMatchingKey(key, slotValue)) {
-				return updateInPlace(slotValue,value);
+				return updateInPlace(slotValue,value,dataPointer);
 			}
 
 			// now scan slots, looking for either the right value or an empty space
@@ -368,7 +538,7 @@ public class Etch {
 
 				// if we reach an empty location simply write new value as a chain continuation (PTR_CHAIN)
 				if (slotValue==0L) {
-					return writeNewData(indexPosition,digit+i,key,value,PTR_CHAIN);
+					return writeNewData(indexPosition,digit+i,key,value,dataPointer,PTR_CHAIN);
 				}
 
 				// if we are not in a chain, we have reached the maximum chain length. Exit loop and compress.
@@ -376,7 +546,7 @@ public class Etch {
 
 				// if we found the key itself, return since already stored.
 				if (checkMatchingKey(key, slotValue)) {
-					return updateInPlace(slotValue,value);
+					return updateInPlace(slotValue,value,dataPointer);
 				}
 
 				i++;
@@ -386,7 +556,7 @@ public class Etch {
 			// System.out.println("Compressing chain, offset="+keyOffset+" chain length="+i+" with key "+key+ " indexDat= "+readBlob(indexPosition,2048));
 
 			// first we build a new index block, containing our new data
-			long newDataPointer=appendData(key,value);
+			long newDataPointer=(value==null)?dataPointer:appendData(key,value);
 			long newIndexPos=appendLeafIndex(key.byteAt(keyOffset+1),newDataPointer);
 
 			// for each element in chain, move existing data to new index block. i is the length of chain
@@ -402,6 +572,8 @@ public class Etch {
 			writeSlot(indexPosition,digit,newIndexPos|PTR_INDEX);
 			return value;
 		} else if (type==PTR_CHAIN) {
+			if ((keyOffset==0)&&!structureLock.isWriteLockedByCurrentThread()) return null;
+
 			// need to collapse existing chain
 			int chainStartDigit=seekChainStart(indexPosition,digit);
 			if (chainStartDigit==digit) throw new Error("Can't start chain at this digit? "+digit);
@@ -420,7 +592,7 @@ public class Etch {
 			writeSlot(indexPosition,chainStartDigit,newIndexPos|PTR_INDEX);
 
 			// write to the current slot
-			return writeNewData(indexPosition,digit,key,value,PTR_PLAIN);
+			return writeNewData(indexPosition,digit,key,value,dataPointer,PTR_PLAIN);
 		} else {
 			throw new Error("Unexpected type: "+type);
 		}
@@ -479,8 +651,7 @@ public class Etch {
 	private void writeExistingData(long indexPosition, int keyOffset, long dp) throws IOException {
 
 		// index into existing key data to get current digit
-		MappedByteBuffer mbb=seekMap(dp+keyOffset);
-		int digit=mbb.get()&0xFF;
+		int digit=readMap(dp+keyOffset).get()&0xFF;
 
 		long currentSlot=readSlot(indexPosition,digit);
 		long type = currentSlot&TYPE_MASK;
@@ -514,7 +685,7 @@ public class Etch {
 	 * @throws IOException
 	 */
 	private Blob readBlob(long pointer, int length) throws IOException {
-		MappedByteBuffer mbb=seekMap(pointer);
+		ByteBuffer mbb=readMap(pointer);
 		byte[] bs=new byte[length];
 		mbb.get(bs);
 		return Blob.wrap(bs);
@@ -537,36 +708,52 @@ public class Etch {
 	protected void truncateFile() throws FileNotFoundException, IOException {
 		try (FileOutputStream fos=new FileOutputStream(file, true)) {
 			FileChannel outChan = fos.getChannel() ;
-			outChan.truncate(dataLength);
+			outChan.truncate(dataLength.get());
 		}
 	}
 
 	/**
 	 * Close all files resources with this Etch store, including writing the final
-	 * data length.
+	 * data length. Mappings are not released explicitly, since lock-free readers may still be
+	 * using them: they remain valid until no longer reachable, and are then released by GC.
 	 */
-	synchronized void close() {
-		if (!(data.getChannel().isOpen())) return; // already closed
+	void close() {
+		// take structureLock before this instance's monitor, see regionLock
+		Lock exclusive=structureLock.writeLock();
+		exclusive.lock();
 		try {
-			// write final data length
-			MappedByteBuffer mbb=seekMap(OFFSET_FILE_SIZE);
-			mbb.putLong(dataLength);
-			mbb=null;
-
-			// Force writes to disk. Probably useful.
-			for (MappedByteBuffer m: regionMap) {
-				m.force();
+			synchronized (this) {
+				if (closed) return; // already closed
+
+				// write final data length
+				MappedByteBuffer mbb=seekMap(OFFSET_FILE_SIZE);
+				mbb.putLong(dataLength.get());
+				mbb=null;
+
+				// Force writes to disk. Probably useful.
+				synchronized (regionLock) {
+					for (Region r: regions) {
+						if (r!=null) r.buffer.force();
+					}
+					closed=true;
+					regions=new Region[0];
+				}
 			}
-			regionMap.clear();
-			System.gc();
+		} catch (IOException e) {
+			log.error("Error closing Etch file: "+file);
+			e.printStackTrace();
+			return;
+		} finally {
+			exclusive.unlock();
+		}
 
+		try {
 			data.close();
-
-			log.debug("Etch closed on file: "+data+" with data length: "+dataLength);
 		} catch (IOException e) {
 			log.error("Error closing Etch file: "+file);
 			e.printStackTrace();
 		}
+		log.debug("Etch closed on file: "+file+" with data length: "+dataLength.get());
 	}
 
 	/**
@@ -587,7 +774,7 @@ public class Etch {
 	 */
 	private boolean checkMatchingKey(AArrayBlob key, long dataPointer) throws IOException {
 		long dataPosition=dataPointer&~TYPE_MASK;
-		MappedByteBuffer mbb=seekMap(dataPosition);
+		ByteBuffer mbb=readMap(dataPosition);
 		byte[] temp=tempArray.get();
 		mbb.get(temp, 0, KEY_SIZE);
 		if (key.equalsBytes(temp,0)) {
@@ -605,15 +792,13 @@ public class Etch {
 	 * @throws IOException
 	 */
 	private long appendLeafIndex(int digit, long dataPointer) throws IOException {
-		long position=dataLength;
+		long position=allocateIndexBlock();
 		byte[] temp=tempArray.get();
 		Arrays.fill(temp, (byte)0x00);
 		int ix=POINTER_SIZE*(digit&0xFF);
 		Utils.writeLong(temp, ix,dataPointer); // single node
 		MappedByteBuffer mbb=seekMap(position);
 		mbb.put(temp); // write full index block
-		// set the datalength to the last available byte in the file
-		setDataLength(position+INDEX_BLOCK_SIZE);
 		return position;
 	}
 
@@ -633,7 +818,7 @@ public class Etch {
 		}
 
 		// seek to correct position, skipping over key
-		MappedByteBuffer mbb=seekMap(pointer+KEY_SIZE);
+		ByteBuffer mbb=readMap(pointer+KEY_SIZE);
 
 		// get flags byte
 		byte flagByte=mbb.get();
@@ -647,8 +832,9 @@ public class Etch {
 		mbb.get(bs);
 		Blob encoding= Blob.wrap(bs);
 		try {
+			// decoded directly, since EtchStore caches what it reads by hash
 			Hash hash=Hash.wrap(key);
-			ACell cell=store.decode(encoding);
+			ACell cell=Format.read(encoding);
 			cell.getEncoding().attachContentHash(hash);
 
 			if (memorySize>0) {
@@ -665,13 +851,40 @@ public class Etch {
 		}
 	}
 
+	/**
+	 * Reads the encoding of a record without decoding it, e.g. to send stored cells elsewhere
+	 * @param key Key to read from Store
+	 * @return Encoding of the cell, or null if not found
+	 * @throws IOException If an IO error occurs
+	 */
+	public Blob readEncoding(AArrayBlob key) throws IOException {
+		Counters.etchRead++;
+
+		long pointer=seekPosition(key);
+		if (pointer<0) {
+			Counters.etchMiss++;
+			return null; // not found
+		}
+
+		// skip over key and label to data length
+		ByteBuffer mbb=readMap(pointer+KEY_SIZE+LABEL_SIZE);
+		short length=mbb.getShort();
+		byte[] bs=new byte[length];
+		mbb.get(bs);
+		return Blob.wrap(bs);
+	}
+
 	/**
 	 * Flushes any changes to persistent storage.
 	 * @throws IOException If an IO error occurs
 	 */
 	public synchronized void flush() throws IOException {
-		for (MappedByteBuffer mbb: regionMap) {
-			if (mbb!=null) mbb.force();
+		// record data length, so flushed data can be recovered even if the file isn't closed cleanly
+		MappedByteBuffer mbb=seekMap(OFFSET_FILE_SIZE);
+		mbb.putLong(dataLength.get());
+
+		for (Region r: regions) {
+			if (r!=null) r.buffer.force();
 		}
 		data.getChannel().force(false);
 	}
@@ -683,11 +896,26 @@ public class Etch {
 	 * @throws IOException
 	 */
 	private long seekPosition(AArrayBlob key) throws IOException {
-		return seekPosition(key,0,INDEX_START);
+		long position=seekPosition(key,0,INDEX_START,false);
+		if (position!=SEEK_LOCKED) return position;
+
+		// seek again holding the same locks as a writer for this key
+		Lock shared=structureLock.readLock();
+		Lock stripe=writeLocks[key.byteAt(0)&0xFF];
+		shared.lock();
+		stripe.lock();
+		try {
+			return seekPosition(key,0,INDEX_START,true);
+		} finally {
+			stripe.unlock();
+			shared.unlock();
+		}
 	}
 
 	/**
-	 * Gets the slot value at the specified digit position in an index block.
+	 * Gets the slot value at the specified digit position in an index block. Must only be used
+	 * where writers to the slot are excluded, e.g. holding the writer's locks for the slot.
+	 *
 	 * @param indexPosition Position of index block
 	 * @param digit Digit of value 0..255 (high bits will be ignored)
 	 * @return Pointer value (including type bits in MSBs)
@@ -695,9 +923,32 @@ public class Etch {
 	 */
 	private long readSlot(long indexPosition, int digit) throws IOException {
 		long pointerIndex=indexPosition+POINTER_SIZE*(digit&0xFF);
-		MappedByteBuffer mbb=seekMap(pointerIndex);
-		long pointer=mbb.getLong();
-		return pointer;
+		return readMap(pointerIndex).getLong();
+	}
+
+	/**
+	 * Gets the slot value at the specified digit position in an index block without locks. The
+	 * read is atomic and has acquire semantics, so the reader sees the complete record or index
+	 * block the slot points to, see writeSlot. The index block must be the top level block or aligned.
+	 *
+	 * @param indexPosition Position of index block
+	 * @param digit Digit of value 0..255 (high bits will be ignored)
+	 * @return Pointer value (including type bits in MSBs)
+	 * @throws IOException
+	 */
+	private long readSlotAcquire(long indexPosition, int digit) throws IOException {
+		if (indexPosition==INDEX_START) return topIndex.get(digit&0xFF);
+		long position=checkPosition(indexPosition+POINTER_SIZE*(digit&0xFF));
+		int mapIndex=(int)(position/MAX_REGION_SIZE);
+		ByteBuffer bb=getRegion(mapIndex).buffer;
+		return (long)SLOT.getAcquire(bb,(int)(position-MAX_REGION_SIZE*(long)mapIndex));
+	}
+
+	/**
+	 * Checks if the slots of an index block can be read without locks
+	 */
+	private static boolean isAtomicIndex(long indexPosition) {
+		return (indexPosition==INDEX_START)||((indexPosition&(POINTER_SIZE-1))==0);
 	}
 
 	/**
@@ -710,8 +961,8 @@ public class Etch {
 	 * @return
 	 * @throws IOException
 	 */
-	private Ref<ACell> writeNewData(long indexPosition, int digit, AArrayBlob key, Ref<ACell> value, long type) throws IOException {
-		long newDataPointer=appendData(key,value)|type;
+	private Ref<ACell> writeNewData(long indexPosition, int digit, AArrayBlob key, Ref<ACell> value, long dataPointer, long type) throws IOException {
+		long newDataPointer=((value==null)?dataPointer:appendData(key,value))|type;
 		writeSlot(indexPosition, digit, newDataPointer);
 		return value;
 	}
@@ -723,7 +974,12 @@ public class Etch {
      * @return
      * @throws IOException
      */
-	private Ref<ACell> updateInPlace(long position, Ref<ACell> ref) throws IOException {
+	private Ref<ACell> updateInPlace(long position, Ref<ACell> ref, long dataPointer) throws IOException {
+		if (ref==null) {
+			mergeRecord(position,dataPointer);
+			return null;
+		}
+
 		// Seek to status location
 		MappedByteBuffer mbb=seekMap(position+KEY_SIZE);
 
@@ -748,7 +1004,37 @@ public class Etch {
 	}
 
 	/**
-	 * Writes a slot value to an index block.
+	 * Merges the flags of an appended record into an existing record with the same key. The
+	 * appended record is left unreferenced.
+	 */
+	private void mergeRecord(long position, long dataPointer) throws IOException {
+		ByteBuffer src=readMap(dataPointer+KEY_SIZE);
+		int flags=src.get();
+		long memorySize=src.getLong();
+		mergeRecord(position,flags,memorySize);
+	}
+
+	/**
+	 * Merges flags and memory size into an existing record
+	 */
+	private void mergeRecord(long position, int flags, long memorySize) throws IOException {
+		MappedByteBuffer mbb=seekMap(position+KEY_SIZE);
+		int currentFlags=mbb.get();
+		long currentSize=mbb.getLong();
+		int newFlags=Ref.mergeFlags(currentFlags,flags);
+		if (currentFlags==newFlags) return;
+
+		mbb=seekMap(position+KEY_SIZE);
+		mbb.put((byte)newFlags);
+		if ((currentSize==0L)&&(memorySize>0L)) mbb.putLong(memorySize);
+	}
+
+	/**
+	 * Writes a slot value to an index block. Has release semantics, so that everything written
+	 * before, in particular the record or index block the slot points to, is visible to a
+	 * lock-free reader that sees the new slot value. Slots in the top level index block are not
+	 * aligned, so lock-free readers see them through topIndex. Unaligned slots in index blocks
+	 * from older versions are only read with the writer's locks held.
 	 *
 	 * @param indexPosition
 	 * @param digit Digit radix position in index block (0..255), high bits are ignored
@@ -757,8 +1043,15 @@ public class Etch {
 	 */
 	private void writeSlot(long indexPosition, int digit, long slotValue) throws IOException {
 		long position=indexPosition+(digit&0xFF)*POINTER_SIZE;
-		MappedByteBuffer mbb=seekMap(position);
-		mbb.putLong(slotValue);
+		if ((position&(POINTER_SIZE-1))==0) {
+			position=checkPosition(position);
+			int mapIndex=(int)(position/MAX_REGION_SIZE);
+			ByteBuffer bb=getRegion(mapIndex).buffer;
+			SLOT.setRelease(bb,(int)(position-MAX_REGION_SIZE*(long)mapIndex),slotValue);
+		} else {
+			seekMap(position).putLong(slotValue);
+		}
+		if (indexPosition==INDEX_START) topIndex.set(digit&0xFF, slotValue);
 	}
 
 	/**
@@ -766,16 +1059,19 @@ public class Etch {
 	 * @param key Key value
 	 * @param offset Offset in number of bytes into key value for next step of search
 	 * @param indexPosition offset of the current index block
-	 * @return data position for data block or -1 if not found
+	 * @param locked True if holding the writer's locks for the key
+	 * @return data position for data block, -1 if not found, or SEEK_LOCKED if the seek must be
+	 *         retried holding the writer's locks
 	 * @throws IOException
 	 */
-	private long seekPosition(AArrayBlob key, int offset, long indexPosition) throws IOException {
+	private long seekPosition(AArrayBlob key, int offset, long indexPosition, boolean locked) throws IOException {
 		if (offset>=KEY_SIZE) {
 			throw new Error("Offset exceeded for key: "+key);
 		}
+		if (!locked&&!isAtomicIndex(indexPosition)) return SEEK_LOCKED;
 
 		int digit=key.byteAt(offset)&0xFF;
-		long slotValue=readSlot(indexPosition,digit);
+		long slotValue=locked?readSlot(indexPosition,digit):readSlotAcquire(indexPosition,digit);
 		long type=(slotValue&TYPE_MASK);
 		if (slotValue==0) {
 			// Empty slot i.e. not found
@@ -783,7 +1079,7 @@ public class Etch {
 		} else if (type==PTR_INDEX) {
 			// recursively check next index node
 			long newIndexPosition=slotPointer(slotValue);
-			return seekPosition(key,offset+1,newIndexPosition);
+			return seekPosition(key,offset+1,newIndexPosition,locked);
 		} else if (type==PTR_PLAIN) {
 			if (checkMatchingKey(key,slotValue)) return slotValue;
 			return -1;
@@ -791,25 +1087,98 @@ public class Etch {
 			// continuation of chain from some previous index, therefore key can't be present
 			return -1;
 		} else if (type==PTR_START) {
-			synchronized (this) {
-				// start of chain, so scan chain of entries
-				int i=0;
-				while (i<256) {
-					long ptr=slotValue&(~TYPE_MASK);
-					if (checkMatchingKey(key,ptr)) return ptr;
-
-					i++; // advance to next position
-					slotValue=readSlot(indexPosition,digit+i);
-					type=(slotValue&TYPE_MASK);
-					if (!(type==PTR_CHAIN)) return -1; // reached end of chain
-				}
-			}
-			return -1;
+			// scan optimistically, a key found in the chain is always correct
+			long ptr=seekChain(key,indexPosition,digit,slotValue,locked);
+			if ((ptr>=0)||locked) return ptr;
+
+			// chain may have been collapsed by a writer during the scan, so confirm the miss holding
+			// the same locks as a writer for this key
+			return SEEK_LOCKED;
 		} else {
 			throw new Error("Shouldn't be possible!");
 		}
 	}
 
+	/**
+	 * Scans a chain of entries for a key
+	 * @param key Key value
+	 * @param indexPosition offset of the current index block
+	 * @param digit Digit of chain start
+	 * @param slotValue Slot value at chain start
+	 * @param locked True if holding the writer's locks for the key
+	 * @return data position for data block or -1 if not found
+	 * @throws IOException
+	 */
+	private long seekChain(AArrayBlob key, long indexPosition, int digit, long slotValue, boolean locked) throws IOException {
+		int i=0;
+		while (i<256) {
+			long ptr=slotValue&(~TYPE_MASK);
+			if (checkMatchingKey(key,ptr)) return ptr;
+
+			i++; // advance to next position
+			slotValue=locked?readSlot(indexPosition,digit+i):readSlotAcquire(indexPosition,digit+i);
+			if (slotType(slotValue)!=PTR_CHAIN) return -1; // reached end of chain
+		}
+		return -1;
+	}
+
+	/**
+	 * Appends a data record without indexing it. The record cannot be read until indexed with
+	 * indexRecords(...), so many records can be appended in one sequential pass before updating
+	 * the index.
+	 *
+	 * @param key Key for the record, i.e. the hash of the encoding
+	 * @param flags Ref flags including status
+	 * @param memorySize Memory size of cell, or 0 if not known
+	 * @param encoding Encoding of cell
+	 * @return Pointer to the appended record
+	 * @throws IOException If an IO error occurs
+	 */
+	long appendRecord(AArrayBlob key, int flags, long memorySize, ABlob encoding) throws IOException {
+		short length=Utils.checkedShort(encoding.count());
+		if (length==0) throw new IllegalArgumentException("Zero length encoding for key: "+key);
+
+		// shared lock only, so that close() can't release mappings while we write
+		Lock shared=structureLock.readLock();
+		shared.lock();
+		try {
+			final long position=allocate(KEY_SIZE+LABEL_SIZE+LENGTH_SIZE+length);
+			MappedByteBuffer mbb=seekMap(position);
+			mbb.put(key.getInternalArray(),key.getInternalOffset(),KEY_SIZE);
+			mbb.put((byte)flags);
+			mbb.putLong(memorySize);
+			mbb.putShort(length);
+			Blob flat=encoding.toFlatBlob();
+			mbb.put(flat.getInternalArray(),flat.getInternalOffset(),length);
+			return position;
+		} finally {
+			shared.unlock();
+		}
+	}
+
+	/**
+	 * Adds appended records to the index with exclusive access, in a single pass. Keys should be
+	 * in sorted order so that successive updates touch the same index blocks. Records with keys
+	 * already present are merged into the existing record.
+	 *
+	 * @param keys Keys of records
+	 * @param pointers Pointers returned by appendRecord(...)
+	 * @param n Number of records
+	 * @throws IOException If an IO error occurs
+	 */
+	void indexRecords(AArrayBlob[] keys, long[] pointers, int n) throws IOException {
+		Lock exclusive=structureLock.writeLock();
+		exclusive.lock();
+		try {
+			for (int i=0; i<n; i++) {
+				write(keys[i],0,null,INDEX_START,pointers[i]);
+			}
+			Counters.etchWrite+=n;
+		} finally {
+			exclusive.unlock();
+		}
+	}
+
 	/**
 	 * Append a new index block to the store file. The new Index block will be initially empty,
 	 * i.e. filled completely with zeros.
@@ -817,13 +1186,20 @@ public class Etch {
 	 * @throws IOException
 	 */
 	private long appendNewIndexBlock() throws IOException {
-		long position=dataLength;
+		return clearIndexBlock(allocateIndexBlock());
+	}
+
+	/**
+	 * Fills an allocated index block with zeros
+	 * @param position Position of the index block
+	 * @return The position of the index block
+	 * @throws IOException
+	 */
+	private long clearIndexBlock(long position) throws IOException {
 		byte[] temp=tempArray.get();
 		MappedByteBuffer mbb=seekMap(position);
 		Arrays.fill(temp,(byte)0);
 		mbb.put(temp);
-		// set the datalength to the last available byte in the file
-		setDataLength(position+INDEX_BLOCK_SIZE);
 		return position;
 	}
 
@@ -849,8 +1225,15 @@ public class Etch {
 			memorySize=cell.getMemorySize();
 		}
 
-		// position ready for append
-		final long position=dataLength;
+		// append blob length
+		short length=Utils.checkedShort(encoding.count());
+		if (length==0) {
+			// Blob b=cell.createEncoding();
+			throw new Error("Etch trying to write zero length encoding for: "+Utils.getClassName(cell));
+		}
+
+		// allocate space and position ready for append
+		final long position=allocate(KEY_SIZE+LABEL_SIZE+LENGTH_SIZE+length);
 		MappedByteBuffer mbb=seekMap(position);
 
 		// append key
@@ -864,44 +1247,109 @@ public class Etch {
 		mbb.putLong(memorySize);
 
 		// append blob length
-		short length=Utils.checkedShort(encoding.count());
-		if (length==0) {
-			// Blob b=cell.createEncoding();
-			throw new Error("Etch trying to write zero length encoding for: "+Utils.getClassName(cell));
-		}
 		mbb.putShort(length);
 
 		// append blob value
 		mbb.put(encoding.getInternalArray(),encoding.getInternalOffset(),length);
 
-		// set the datalength to the last available byte in the file
-		setDataLength(position+KEY_SIZE+LABEL_SIZE+LENGTH_SIZE+length);
-
 		// return file position for added data
 		return position;
 	}
 
 	/**
-	 * Sets the total db dataLength. This is the last position in the database
-	 * that new data can be writtern too.
+	 * Allocates space at the end of the database by atomically advancing the data length.
+	 * The data length can never go back, so the allocated space belongs exclusively to the caller.
 	 *
-	 * @param value The new data length to be set
+	 * @param size Number of bytes to allocate
+	 * @return Position of the start of the allocated space
+	 */
+	private long allocate(long size) {
+		if (size<=0) throw new Error("PANIC! Attempt to allocate invalid size: "+size);
+		return dataLength.getAndAdd(size);
+	}
+
+	/**
+	 * Allocates space for an index block, aligned so that its slots can be accessed atomically.
+	 * Up to 7 bytes before the block are left unused.
 	 *
+	 * @return Position of the start of the allocated index block
 	 */
-	private void setDataLength(long value) {
-		// we can never go back! If we do then we will be corrupting the database
-		if (value < dataLength) {
-			throw new Error("PANIC! New data length is less than the old data length");
+	private long allocateIndexBlock() {
+		while (true) {
+			long length=dataLength.get();
+			long position=(length+POINTER_SIZE-1)&~(long)(POINTER_SIZE-1);
+			if (dataLength.compareAndSet(length,position+INDEX_BLOCK_SIZE)) return position;
 		}
-		dataLength = value;
+	}
+
+	/**
+	 * Gets the current length of data in the database file.
+	 * @return Data length in bytes
+	 */
+	public long getDataLength() {
+		return dataLength.get();
 	}
 
 	public File getFile() {
 		return file;
 	}
 
+	/**
+	 * Merges all records from another Etch database into this one, e.g. to recover writes made
+	 * to a compaction target. Records already present only have their flags merged. The source
+	 * must not be written concurrently.
+	 *
+	 * @param source Etch database to merge from
+	 * @return Number of records merged
+	 * @throws IOException If an IO error occurs
+	 */
+	long mergeFrom(Etch source) throws IOException {
+		Lock exclusive=structureLock.writeLock();
+		exclusive.lock();
+		try {
+			return source.mergeIndexInto(INDEX_START,this);
+		} finally {
+			exclusive.unlock();
+		}
+	}
+
+	private long mergeIndexInto(long indexPosition, Etch dest) throws IOException {
+		long count=0;
+		for (int digit=0; digit<256; digit++) {
+			long slotValue=readSlot(indexPosition,digit);
+			if (slotValue==0L) continue;
+			if (slotType(slotValue)==PTR_INDEX) {
+				count+=mergeIndexInto(slotPointer(slotValue),dest);
+			} else {
+				dest.mergeRecordFrom(this,slotPointer(slotValue));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void mergeRecordFrom(Etch source, long dataPointer) throws IOException {
+		ByteBuffer mbb=source.readMap(dataPointer);
+		byte[] keyBytes=new byte[KEY_SIZE];
+		mbb.get(keyBytes);
+		int flags=mbb.get();
+		long memorySize=mbb.getLong();
+		short length=mbb.getShort();
+		byte[] bs=new byte[length];
+		mbb.get(bs);
+
+		Hash key=Hash.wrap(keyBytes);
+		long position=seekPosition(key);
+		if (position>=0) {
+			mergeRecord(position,flags,memorySize);
+		} else {
+			long pointer=appendRecord(key,flags,memorySize,Blob.wrap(bs));
+			write(key,0,null,INDEX_START,pointer);
+		}
+	}
+
 	public synchronized Hash getRootHash() throws IOException {
-		MappedByteBuffer mbb=seekMap(OFFSET_ROOT_HASH);
+		ByteBuffer mbb=readMap(OFFSET_ROOT_HASH);
 		byte[] bs=new byte[Hash.LENGTH];
 		mbb.get(bs);
 		return Hash.wrap(bs);
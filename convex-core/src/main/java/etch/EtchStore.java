@@ -2,17 +2,32 @@ package etch;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import convex.core.data.AArrayBlob;
 import convex.core.data.ACell;
+import convex.core.data.Blob;
 import convex.core.data.Hash;
-import convex.core.data.IRefFunction;
 import convex.core.data.Ref;
+import convex.core.data.RefSoft;
 import convex.core.store.AStore;
+import convex.core.store.Persister;
+import convex.core.store.Stores;
 import convex.core.util.Utils;
 
 /**
@@ -25,20 +40,48 @@ import convex.core.util.Utils;
  * Objects are keyed by cryptographic hash. That solves naming. Objects are
  * immutable. That solves cache invalidation.
  *
- * Garbage collection is left as an exercise for the reader.
+ * Garbage collection is done online by compaction: live cells are copied to a new Etch file while
+ * the store remains in use, then the new file replaces the old one. See {@link #compact(Supplier)}.
  */
 public class EtchStore extends AStore {
 	private static final Logger log = LoggerFactory.getLogger(EtchStore.class.getName());
 
+	/**
+	 * Root hash of a new Etch file, before any root is set
+	 */
+	private static final Hash EMPTY_ROOT=Hash.wrap(new byte[Hash.LENGTH]);
+
 	/**
 	 * Etch file instance for the current store
 	 */
-	private Etch etch;
+	private volatile Etch etch;
 	
 	/**
 	 * Etch file instance for GC destination
 	 */
-	private Etch target;
+	private volatile Etch target;
+
+	/**
+	 * Set if a group has been stored without being made durable, see storeAll
+	 */
+	private volatile boolean unflushed=false;
+
+	/**
+	 * Held shared by writers, and exclusively while starting or finishing GC, so that no write
+	 * can go to the wrong Etch file.
+	 */
+	final ReentrantReadWriteLock gcLock=new ReentrantReadWriteLock();
+
+	/**
+	 * Hashes of existing cells referenced by new writes during GC. These may not be reachable
+	 * from the GC roots, so must be copied before switching to the new Etch file.
+	 */
+	private final Set<Hash> gcReferenced=ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Current or most recent compaction, or null if never compacted
+	 */
+	private volatile Compaction compaction;
 
 	public EtchStore(Etch etch) {
 		this.etch = etch;
@@ -53,17 +96,209 @@ public class EtchStore extends AStore {
 	 */
 	public synchronized void startGC() throws IOException {
 		if (target!=null) throw new Error("Already collecting!");
-		File temp=new File(etch.getFile().getCanonicalPath()+"~");
-		target=Etch.create(temp);
-		
-		// copy across current root hash
-		target.setRootHash(etch.getRootHash());
+		File temp=gcFile(etch.getFile());
+
+		// writes from an interrupted GC cycle may only exist in the old GC file
+		if (temp.exists()) recover(etch,temp);
+
+		Lock exclusive=gcLock.writeLock();
+		exclusive.lock();
+		try {
+			Etch newEtch=open(temp);
+
+			// copy across current root hash
+			newEtch.setRootHash(etch.getRootHash());
+			gcReferenced.clear();
+			target=newEtch;
+		} finally {
+			exclusive.unlock();
+		}
 	}
-	
-	private Etch getWriteEtch() {
-		if (target!=null) synchronized(this) {
-			if (target!=null) return target;
+
+	/**
+	 * Finishes a GC cycle. Copies any remaining referenced cells to the new Etch file, then
+	 * replaces the old Etch file with it.
+	 *
+	 * @param c Compaction in progress
+	 * @throws IOException If an IO exception occurs
+	 */
+	synchronized void finishGC(Compaction c) throws IOException {
+		Etch newEtch=target;
+		if (newEtch==null) throw new Error("Not collecting!");
+		Lock exclusive=gcLock.writeLock();
+		exclusive.lock();
+		try {
+			// no more writes, so the set of referenced cells is now final
+			while (!gcReferenced.isEmpty()) {
+				ArrayList<Hash> hashes=new ArrayList<>(gcReferenced);
+				gcReferenced.removeAll(hashes);
+				c.copyReferenced(hashes);
+			}
+			newEtch.flush();
+
+			// Both files must be closed before the old one is replaced. Mappings are only released by GC,
+			// so on platforms that can't replace a mapped file the move fails and the store stays usable.
+			// Readers still using either file will retry once the switch is complete, see refForHash
+			File file=etch.getFile();
+			File temp=newEtch.getFile();
+			etch.close();
+			newEtch.close();
+			boolean moved=false;
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				moved=true;
+			} finally {
+				// reopen, so that the store remains usable and a failed switch can be aborted
+				etch=open(file);
+				target=moved?null:open(temp);
+			}
+		} finally {
+			exclusive.unlock();
 		}
+
+		// cached cells may have been garbage
+		cache.clear();
+		log.info("Etch compaction complete on file: {} with data length: {}",etch.getFile(),etch.getDataLength());
+	}
+
+	/**
+	 * Aborts a GC cycle. Writes made to the new Etch file during the cycle are merged back into the
+	 * current Etch file, which remains in use, and the new file is deleted. If merging fails, the store
+	 * stays in GC mode and the new file is recovered when the store is next opened.
+	 *
+	 * @throws IOException If an IO exception occurs
+	 */
+	synchronized void abortGC() throws IOException {
+		Etch t=target;
+		if (t==null) return;
+		Lock exclusive=gcLock.writeLock();
+		exclusive.lock();
+		try {
+			etch.mergeFrom(t);
+			etch.setRootHash(t.getRootHash());
+			etch.flush();
+			target=null;
+			gcReferenced.clear();
+		} finally {
+			exclusive.unlock();
+		}
+
+		// readers still using the new file will retry with the current one, see refForHash
+		File temp=t.getFile();
+		t.close();
+		if (!temp.delete()) log.warn("Unable to delete GC file: {}",temp);
+	}
+
+	/**
+	 * Recovers writes made during an interrupted GC cycle, by merging the GC file into the given
+	 * Etch file. Deletes the GC file once merged.
+	 */
+	private static void recover(Etch etch, File temp) throws IOException {
+		Etch old=Etch.create(temp);
+		try {
+			long n=etch.mergeFrom(old);
+
+			// GC file may have been created without a root hash
+			Hash root=old.getRootHash();
+			if (!root.equals(EMPTY_ROOT)) etch.setRootHash(root);
+			etch.flush();
+			log.warn("Recovered {} cells from interrupted Etch compaction: {}",n,temp);
+		} finally {
+			old.close();
+		}
+		if (!temp.delete()) throw new IOException("Unable to delete old GC file: "+temp);
+	}
+
+	/**
+	 * Gets the file used as the GC destination for an Etch file
+	 */
+	private static File gcFile(File file) throws IOException {
+		return new File(file.getCanonicalPath()+"~");
+	}
+
+	/**
+	 * Opens an Etch file for use with this store
+	 */
+	private Etch open(File file) throws IOException {
+		Etch e=Etch.create(file);
+		e.setStore(this);
+		return e;
+	}
+
+	/**
+	 * Checks if this store is currently collecting garbage
+	 * @return True if a GC cycle is in progress
+	 */
+	public boolean isCollecting() {
+		return target!=null;
+	}
+
+	/**
+	 * Compacts this store, retaining only cells reachable from the current root hash and the given
+	 * roots. Blocks until complete, but the store can continue to be used by other threads meanwhile:
+	 * new writes go to the new Etch file, and live cells are copied across in hash order.
+	 *
+	 * The roots are obtained after new writes have been redirected, so must include all cells that
+	 * will still be used, e.g. everything held by a running Peer. Any cell referenced by a write
+	 * during compaction is also retained. If compaction fails, writes made during compaction are
+	 * copied back and the store continues to use its existing Etch file.
+	 *
+	 * @param roots Supplier of additional GC roots
+	 * @return Compaction, with final statistics
+	 * @throws IOException If an IO exception occurs
+	 */
+	public Compaction compact(Supplier<? extends Collection<ACell>> roots) throws IOException {
+		Compaction c;
+		synchronized(this) {
+			if (target!=null) throw new IllegalStateException("Already collecting!");
+			c=new Compaction(this,etch);
+			compaction=c;
+			startGC();
+		}
+		AStore tempStore=Stores.current();
+		try {
+			// cells decoded while marking must refer to this store
+			Stores.setCurrent(this);
+			c.run(roots.get(),target);
+			finishGC(c);
+		} catch (Throwable t) {
+			try {
+				abortGC();
+			} catch (Throwable e) {
+				t.addSuppressed(e);
+			}
+			c.aborted(t);
+			throw t;
+		} finally {
+			Stores.setCurrent(tempStore);
+		}
+		c.done(etch.getDataLength());
+		return c;
+	}
+
+	/**
+	 * Gets the current or most recent compaction of this store, which can be used to monitor progress
+	 * @return Compaction, or null if this store has never been compacted
+	 */
+	public Compaction getCompaction() {
+		return compaction;
+	}
+
+	/**
+	 * Records a reference to an existing cell while collecting. Must hold GC read lock.
+	 */
+	private void noteReference(Ref<?> ref) {
+		if (target==null) return;
+		if (ref.isDirect()&&ref.isEmbedded()) return;
+		gcReferenced.add(ref.getHash());
+	}
+
+	/**
+	 * Gets the Etch file that new writes go to. Must hold GC read lock.
+	 */
+	Etch getWriteEtch() {
+		Etch t=target;
+		if (t!=null) return t;
 		return etch;
 	}
 
@@ -77,7 +312,12 @@ public class EtchStore extends AStore {
 	 */
 	public static EtchStore create(File file) throws IOException {
 		Etch etch = Etch.create(file);
-		return new EtchStore(etch);
+		EtchStore store=new EtchStore(etch);
+
+		// writes may only exist in the GC file if a GC cycle was interrupted
+		File temp=gcFile(file);
+		if (temp.exists()) recover(etch,temp);
+		return store;
 	}
 
 	/**
@@ -124,12 +364,31 @@ public class EtchStore extends AStore {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends ACell> Ref<T> refForHash(Hash hash) {
+		// cached cells are known to be stored, so no need to look up the index
+		Ref<ACell> cached=cache.getRef(hash);
+		if (cached!=null) return (Ref<T>) cached;
+
+		// read target first, since GC switches to it after copying everything live
+		Etch t=target;
+		Etch e=etch;
+		Ref<ACell> existing=null;
 		try {
-			Ref<ACell> existing = etch.read(hash);
-			return (Ref<T>) existing;
-		} catch (IOException e) {
-			throw Utils.sneakyThrow(e);
+			if (t!=null) existing = t.read(hash);
+			if (existing==null) existing = e.read(hash);
+		} catch (IOException ex) {
+			// Etch may have been closed by GC while reading, if so wait for the switch and try again
+			Lock shared=gcLock.readLock();
+			shared.lock();
+			shared.unlock();
+			if ((e!=etch)||(t!=target)) return refForHash(hash);
+			throw Utils.sneakyThrow(ex);
 		}
+		if (existing==null) return null;
+
+		cache.putRef(hash, existing);
+		// GC may have removed the cell since it was read, see finishGC
+		if (e!=etch) cache.remove(hash);
+		return (Ref<T>) existing;
 	}
 
 	@Override
@@ -142,70 +401,181 @@ public class EtchStore extends AStore {
 		return storeRef(ref, noveltyHandler, status, true);
 	}
 
-	@SuppressWarnings("unchecked")
 	public <T extends ACell> Ref<T> storeRef(Ref<T> ref, Consumer<Ref<ACell>> noveltyHandler, int requiredStatus,
 			boolean topLevel) {
-		// first check if the Ref is already persisted to required level
-		if (ref.getStatus() >= requiredStatus) return ref;
-
-		final ACell cell = ref.getValue();
-		// Quick handling for null
-		if (cell == null) return (Ref<T>) Ref.NULL_VALUE;
-
-		// check store for existing ref first.
-		boolean embedded = cell.isEmbedded();
-		Hash hash = null;
-		// if not embedded, worth checking store first for existing value
-		if (!embedded) {
-			hash = ref.getHash();
-			Ref<T> existing = refForHash(hash);
-			if (existing != null) {
-				// Return existing ref if status is sufficient
-				if (existing.getStatus() >= requiredStatus) {
-					cell.attachRef(existing);
-					return existing;
+		Lock shared=gcLock.readLock();
+		shared.lock();
+		try {
+			return storeRef(ref, noveltyHandler, requiredStatus, topLevel, null);
+		} finally {
+			shared.unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<Ref<ACell>> storeAll(Collection<Ref<? extends ACell>> refs, int status, Consumer<Ref<ACell>> noveltyHandler) {
+		return storeAll(refs, status, noveltyHandler, true);
+	}
+
+	/**
+	 * Stores a group of top level Refs with a single durable flush, unless the flush is left to a
+	 * later group. Novel cells are first collected for the whole group, then written children
+	 * first. A cell must never be visible in the store before its children, since another thread
+	 * sharing the store may find it and assume the whole tree is already persisted.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public ArrayList<Ref<ACell>> storeAll(Collection<Ref<? extends ACell>> refs, int status, Consumer<Ref<ACell>> noveltyHandler, boolean durable) {
+		// Pending writes in the order discovered, i.e. children before parents
+		LinkedHashMap<Hash, Ref<ACell>> batch=new LinkedHashMap<>();
+		ArrayList<Ref<ACell>> result=new ArrayList<>(refs.size());
+		Lock shared=gcLock.readLock();
+		shared.lock();
+		try {
+			for (Ref<? extends ACell> ref: refs) {
+				result.add(storeRef((Ref<ACell>)ref, noveltyHandler, status, true, batch));
+			}
+			if (!batch.isEmpty()) {
+				Etch etch=getWriteEtch();
+				for (Map.Entry<Hash, Ref<ACell>> me: batch.entrySet()) {
+					Ref<ACell> written=etch.write(me.getKey(), me.getValue());
+					cache.updateRef(me.getKey(), written);
+					me.setValue(written);
 				}
+				if (!durable) unflushed=true;
 			}
+
+			// flush if this group or an earlier deferred group has writes
+			if (durable && (unflushed || !batch.isEmpty())) {
+				unflushed=false;
+				flush();
+			}
+		} catch (IOException e) {
+			throw Utils.sneakyThrow(e);
+		} finally {
+			shared.unlock();
 		}
 
-		// beyond STORED level, need to recursively persist child refs if they exist
-		if ((requiredStatus > Ref.STORED)&&(cell.getRefCount()>0)) {
-			IRefFunction func = r -> {
-				return storeRef((Ref<ACell>) r, noveltyHandler, requiredStatus, false);
-			};
+		// call novelty handler only once the group is durable, if requested
+		if (noveltyHandler != null) {
+			for (Ref<ACell> r: batch.values()) {
+				noveltyHandler.accept(r);
+			}
+		}
+		return result;
+	}
 
-			// need to do recursive persistence
-			// TODO: maybe switch to a queue? Mitigate risk of stack overflow?
-			ACell newObject = cell.updateRefs(func);
+	/**
+	 * Stores cells with STORED status in bulk. As in CellStream.load(...), all records are appended
+	 * sequentially and the index is then updated in a single pass, in hash order. Cells already in
+	 * the store are not duplicated in the index. Not flushed, like any other shallow write.
+	 */
+	@Override
+	public ArrayList<Ref<ACell>> storeAllShallow(List<? extends ACell> cells) {
+		int n=cells.size();
+		ArrayList<ACell> sorted=new ArrayList<>(cells);
+		sorted.sort((a,b)->a.getHash().compareTo(b.getHash()));
+		AArrayBlob[] keys=new AArrayBlob[n];
+		long[] pointers=new long[n];
+		int count=0;
+		Lock shared=gcLock.readLock();
+		shared.lock();
+		try {
+			Etch etch=getWriteEtch();
+			for (ACell cell: sorted) {
+				if (cell.isEmbedded()) continue; // not stored separately
+				Hash h=cell.getHash();
+				if (cache.getRef(h)!=null) continue; // already stored
+				keys[count]=h;
+				pointers[count]=etch.appendRecord(h, Ref.STORED, 0L, cell.getEncoding());
+				count++;
+			}
+			if (count>0) etch.indexRecords(keys, pointers, count);
+		} catch (IOException e) {
+			throw Utils.sneakyThrow(e);
+		} finally {
+			shared.unlock();
+		}
+
+		ArrayList<Ref<ACell>> result=new ArrayList<>(n);
+		for (ACell cell: cells) {
+			result.add(cell.isEmbedded()?cell.getRef():RefSoft.create(this, cell, Ref.STORED));
+		}
+		return result;
+	}
 
-			// perhaps need to update Ref
-			if (cell != newObject) ref = ref.withValue((T) newObject);
+	@Override
+	public Blob getEncoding(Hash hash) {
+		ACell cached=cache.getCell(hash);
+		if (cached!=null) return cached.getEncoding();
+
+		// read target first, as in refForHash
+		Etch t=target;
+		Etch e=etch;
+		try {
+			Blob enc=null;
+			if (t!=null) enc=t.readEncoding(hash);
+			if (enc==null) enc=e.readEncoding(hash);
+			return enc;
+		} catch (IOException ex) {
+			// Etch may have been closed by GC while reading, if so wait for the switch and try again
+			Lock shared=gcLock.readLock();
+			shared.lock();
+			shared.unlock();
+			if ((e!=etch)||(t!=target)) return getEncoding(hash);
+			throw Utils.sneakyThrow(ex);
 		}
+	}
 
-		if (topLevel || !embedded) {
-			// Do actual write to store
-			final Hash fHash = (hash != null) ? hash : ref.getHash();
-			if (log.isTraceEnabled()) {
-				log.trace( "Etch persisting at status=" + requiredStatus + " hash = 0x"
-						+ fHash.toHexString() + " ref of class " + Utils.getClassName(cell) + " with store " + this);
+	/**
+	 * Stores a Ref, either writing immediately or adding novel cells to a pending batch.
+	 *
+	 * @param batch Map of pending writes, or null to write immediately
+	 */
+	private <T extends ACell> Ref<T> storeRef(Ref<T> ref, Consumer<Ref<ACell>> noveltyHandler, int requiredStatus,
+			boolean topLevel, LinkedHashMap<Hash, Ref<ACell>> batch) {
+		return Persister.persist(ref, requiredStatus, topLevel, new Persister.Target() {
+			@Override
+			public Ref<ACell> lookup(Hash hash) {
+				if (batch != null) {
+					// already pending in this batch, no need to traverse again
+					Ref<ACell> pending = batch.get(hash);
+					if (pending != null) return pending;
+				}
+				return refForHash(hash);
 			}
 
-			Ref<ACell> result;
-			try {
-				// ensure status is set when we write to store
-				ref = ref.withMinimumStatus(requiredStatus);
-				result = etch.write(fHash, (Ref<ACell>) ref);
-			} catch (IOException e) {
-				throw Utils.sneakyThrow(e);
+			@Override
+			public void noteExisting(Ref<ACell> existing) {
+				noteReference(existing);
 			}
 
-			// call novelty handler if newly persisted
-			if (noveltyHandler != null) noveltyHandler.accept(result);
-			return (Ref<T>) result;
-		} else {
-			// no need to write, just tag updated status
-			return ref.withMinimumStatus(requiredStatus);
-		}
+			@Override
+			public Ref<ACell> write(Hash hash, Ref<ACell> r) {
+				if (log.isTraceEnabled()) {
+					log.trace( "Etch persisting at status=" + requiredStatus + " hash = 0x"
+							+ hash.toHexString() + " ref of class " + Utils.getClassName(r.getValue()) + " with store " + EtchStore.this);
+				}
+
+				if (batch != null) {
+					// defer write and novelty until the batch is committed
+					batch.put(hash, r);
+					return r;
+				}
+
+				Ref<ACell> result;
+				try {
+					result = getWriteEtch().write(hash, r);
+				} catch (IOException e) {
+					throw Utils.sneakyThrow(e);
+				}
+				cache.updateRef(hash, result);
+
+				// call novelty handler if newly persisted
+				if (noveltyHandler != null) noveltyHandler.accept(result);
+				return result;
+			}
+		});
 	}
 
 	@Override
@@ -223,6 +593,8 @@ public class EtchStore extends AStore {
 	}
 
 	public void close() {
+		Etch target=this.target;
+		if (target!=null) target.close();
 		etch.close();
 	}
 
@@ -231,9 +603,15 @@ public class EtchStore extends AStore {
 	 * @throws IOException If an IO error occurs
 	 */
 	public void flush() throws IOException  {
-		etch.flush();
-		Etch target=this.target;
-		if (target!=null) target.flush();
+		Lock shared=gcLock.readLock();
+		shared.lock();
+		try {
+			etch.flush();
+			Etch target=this.target;
+			if (target!=null) target.flush();
+		} finally {
+			shared.unlock();
+		}
 	}
 
 	public File getFile() {
@@ -242,12 +620,24 @@ public class EtchStore extends AStore {
 
 	@Override
 	public Hash getRootHash() throws IOException {
-		return getWriteEtch().getRootHash();
+		Lock shared=gcLock.readLock();
+		shared.lock();
+		try {
+			return getWriteEtch().getRootHash();
+		} finally {
+			shared.unlock();
+		}
 	}
 
 	@Override
 	public void setRootHash(Hash h) throws IOException {
-		getWriteEtch().setRootHash(h);
+		Lock shared=gcLock.readLock();
+		shared.lock();
+		try {
+			getWriteEtch().setRootHash(h);
+		} finally {
+			shared.unlock();
+		}
 	}
 
 	/**
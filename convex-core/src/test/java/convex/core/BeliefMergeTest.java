@@ -435,6 +435,34 @@ public class BeliefMergeTest {
 		RecordTest.doRecordTests(finalState);
 	}
 
+	@Test
+	public void testCachedMerge() throws BadSignatureException, InvalidDataException {
+		Peer[] ps = shareBeliefs(initialBeliefs());
+		for (int i = 0; i < NUM_PEERS; i++) {
+			ATransaction trans = Transfer.create(ADDRESSES[i], 1, ADDRESSES[NUM_PEERS - 1 - i], 100L);
+			ps = proposeTransactions(ps, i, trans);
+		}
+
+		// merges using the Peer's cache should give exactly the same Beliefs as full merges
+		Random r = new Random(1234);
+		for (int round = 0; round < ROUNDS; round++) {
+			Belief[] shared = new Belief[NUM_PEERS];
+			for (int j = 0; j < NUM_PEERS; j++) shared[j] = ps[j].getBelief();
+
+			for (int i = 0; i < NUM_PEERS; i++) {
+				Peer p = ps[i];
+				Belief[] sources = new Belief[3];
+				for (int j = 0; j < sources.length; j++) sources[j] = shared[r.nextInt(NUM_PEERS)];
+				MergeContext mc = MergeContext.create(KEY_PAIRS[i], p.getTimeStamp(), p.getConsensusState());
+				Belief expected = p.getBelief().merge(mc, sources);
+				ps[i] = p.mergeBeliefs(sources);
+				assertEquals(expected, ps[i].getBelief());
+			}
+		}
+		assertTrue(allBeliefsEqual(ps));
+		assertEquals(NUM_PEERS, ps[0].getConsensusPoint());
+	}
+
 	private void printAccounts(AVector<AccountStatus> accounts) {
 		System.out.println("===== Accounts =====");
 		for (int i = 0; i < NUM_PEERS; i++) {
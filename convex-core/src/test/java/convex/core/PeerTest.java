@@ -4,18 +4,30 @@ import static convex.test.Assertions.assertNobodyError;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import convex.core.data.ACell;
+import convex.core.data.AVector;
 import convex.core.data.AccountKey;
 import convex.core.data.PeerStatus;
 import convex.core.data.RecordTest;
+import convex.core.data.Ref;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadSignatureException;
+import convex.core.exceptions.InvalidDataException;
+import convex.core.init.Init;
 import convex.core.init.InitTest;
 import convex.core.lang.RT;
 import convex.core.lang.Reader;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
 import convex.test.Samples;
+import etch.EtchStore;
 
 public class PeerTest {
 	static State STATE=InitTest.STATE;
@@ -115,4 +127,73 @@ public class PeerTest {
 		assertEquals(5, p.asOfRange(initialTimestamp, 1000 * 60, 5).count());
 	}
 
+	@Test
+	public void testHistoryRetention() throws BadSignatureException, InvalidDataException {
+		AStore saved=Stores.current();
+		try {
+			Stores.setCurrent(EtchStore.createTemp());
+			// single Peer, so it can reach consensus alone
+			State genesis=Init.createState(List.of(InitTest.FIRST_PEER_KEY));
+			Peer p = Peer.create(InitTest.FIRST_PEER_KEYPAIR, genesis).withHistoryRetention(5, 10);
+			long ts=p.getTimeStamp();
+
+			int N=40;
+			for (int i=1; i<=N; i++) {
+				p=p.proposeBlock(Block.of(ts+i*1000));
+				p=p.mergeBeliefs();
+				p=p.persistState(null);
+			}
+			long cp=p.getConsensusPoint();
+			assertTrue(cp>30);
+			assertEquals(cp+1,p.getStates().count());
+
+			// recent States, checkpoints and genesis only
+			assertTrue(p.getRetainedStateCount()<=5+(cp/10)+1);
+			assertEquals(genesis.getHash(),p.getNetworkID());
+
+			// history is no longer directly referenced, except via embedded tree nodes
+			AVector<State> history=p.getStates();
+			for (int i=0; i<history.getRefCount(); i++) {
+				Ref<ACell> r=history.getRef(i);
+				assertTrue((!r.isDirect())||r.isEmbedded());
+			}
+
+			// older States are still available from the store
+			State s3=p.getState(3);
+			assertEquals(s3,p.getStates().get(3));
+			assertEquals(s3.getTimeStamp(),p.asOf(s3.getTimeStamp()).getTimeStamp());
+			assertEquals(3,p.asOfRange(s3.getTimeStamp(), 1000, 3).count());
+			assertEquals(p.getConsensusState(),p.getStates().get(cp));
+		} finally {
+			Stores.setCurrent(saved);
+		}
+	}
+
+	@Test
+	public void testDeferredExecution() throws BadSignatureException, InvalidDataException {
+		State genesis=Init.createState(List.of(InitTest.FIRST_PEER_KEY));
+		Peer p = Peer.create(InitTest.FIRST_PEER_KEYPAIR, genesis).withDeferredExecution(true);
+		long ts=p.getTimeStamp();
+		for (int i=1; i<=5; i++) {
+			p=p.proposeBlock(Block.of(ts+i*1000));
+			p=p.mergeBeliefs();
+		}
+		long cp=p.getConsensusPoint();
+		assertTrue(cp>0);
+
+		// consensus ordering has advanced, but no Blocks executed yet
+		assertEquals(0,p.getStatePosition());
+		assertEquals(genesis,p.getConsensusState());
+
+		// execute separately, as an execution stage would
+		List<BlockResult> results=Peer.executeBlocks(p.getConsensusState(), p.getPeerOrder().getBlocks(), 0, cp);
+		Peer q=p.withBlockResults(0, results);
+		assertEquals(cp,q.getStatePosition());
+		assertThrows(IllegalArgumentException.class,()->q.withBlockResults(0, results));
+
+		// same result as executing directly
+		Peer direct=p.updateState();
+		assertEquals(q.getConsensusState(),direct.getConsensusState());
+	}
+
 }
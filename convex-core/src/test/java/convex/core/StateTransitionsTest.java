@@ -7,6 +7,9 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.ArrayList;
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 
 import convex.core.crypto.AKeyPair;
@@ -28,6 +31,7 @@ import convex.core.lang.TestState;
 import convex.core.transactions.ATransaction;
 import convex.core.transactions.Invoke;
 import convex.core.transactions.Transfer;
+import convex.core.util.Counters;
 import convex.core.util.Utils;
 
 /**
@@ -314,4 +318,62 @@ public class StateTransitionsTest {
 
 	}
 
+	@Test
+	public void testParallelBlocks() throws BadSignatureException {
+		State s = TestState.STATE;
+		int NUM_ACCOUNTS=40;
+		AKeyPair[] kps=new AKeyPair[NUM_ACCOUNTS];
+		Address[] addrs=new Address[NUM_ACCOUNTS];
+		long[] seqs=new long[NUM_ACCOUNTS];
+		for (int i=0; i<NUM_ACCOUNTS; i++) {
+			kps[i]=Ed25519KeyPair.createSeeded(2000+i);
+			addrs[i]=s.nextAddress();
+			s=s.putAccount(addrs[i], AccountStatus.create(1000000000L,kps[i].getAccountKey()));
+		}
+
+		Random r=new Random(1234);
+		for (int round=0; round<5; round++) {
+			ArrayList<SignedData<ATransaction>> transactions=new ArrayList<>();
+			for (int j=0; j<100; j++) {
+				int src=r.nextInt(NUM_ACCOUNTS);
+				Address source=addrs[src];
+				Address target=addrs[r.nextInt(NUM_ACCOUNTS)];
+
+				// occasional bad sequence number, which should fail without side effects
+				long seq=(r.nextInt(20)==0)?0:++seqs[src];
+				ATransaction t;
+				switch (r.nextInt(8)) {
+					case 0: t=Invoke.create(source, seq, Reader.read("(def x "+Vectors.of(round,j)+")")); break;
+					case 1: t=Invoke.create(source, seq, Reader.read("(create-account *key*)")); break;
+					case 2: t=Invoke.create(source, seq, Reader.read("(deploy '(def a 1))")); break;
+					case 3: t=Invoke.create(source, seq, Reader.read("(count (:accounts *state*))")); break;
+					case 4: t=Invoke.create(source, seq, Reader.read("(balance "+target+")")); break;
+					case 5: t=Invoke.create(source, seq, Reader.read("(set-memory "+r.nextInt(1000)+")")); break;
+					default: t=Transfer.create(source, seq, target, r.nextInt(1000)); break;
+				}
+				transactions.add(kps[src].signData(t));
+			}
+			Block b=Block.create(s.getTimeStamp().longValue()+1000, transactions);
+
+			// parallel execution must give exactly the same results as sequential execution
+			BlockResult expected=s.applyBlock(b);
+			BlockResult actual=s.applyBlockParallel(b);
+			assertEquals(expected.getResults(),actual.getResults());
+			assertEquals(expected.getState(),actual.getState());
+			s=expected.getState();
+		}
+
+		// transfers between disjoint pairs of accounts should commit in parallel
+		ArrayList<SignedData<ATransaction>> transfers=new ArrayList<>();
+		for (int i=0; i<NUM_ACCOUNTS; i+=2) {
+			transfers.add(kps[i].signData(Transfer.create(addrs[i], ++seqs[i], addrs[i+1], 100)));
+		}
+		Block b=Block.create(s.getTimeStamp().longValue()+1000, transfers);
+		long commits=Counters.parallelCommits;
+		BlockResult expected=s.applyBlock(b);
+		BlockResult actual=s.applyBlockParallel(b);
+		assertEquals(expected.getResults(),actual.getResults());
+		assertEquals(expected.getState(),actual.getState());
+		assertEquals(commits+NUM_ACCOUNTS/2,Counters.parallelCommits);
+	}
 }
@@ -16,6 +16,7 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Base64;
 
 import org.junit.jupiter.api.Test;
@@ -23,7 +24,9 @@ import org.junit.jupiter.api.Test;
 import convex.core.data.ACell;
 import convex.core.data.AccountKey;
 import convex.core.data.Blob;
+import convex.core.data.Hash;
 import convex.core.data.SignedData;
+import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadFormatException;
 import convex.core.exceptions.InvalidDataException;
 import convex.core.lang.RT;
@@ -198,4 +201,58 @@ public class Ed25519Test {
 
 	}
 
+
+	@Test
+	public void testVerifyBatch() {
+		AKeyPair kp=AKeyPair.createSeeded(101);
+		int n=1000; // big enough to be split into parallel chunks
+		ASignature[] sigs=new ASignature[n];
+		Hash[] msgs=new Hash[n];
+		AccountKey[] keys=new AccountKey[n];
+		for (int i=0; i<n; i++) {
+			msgs[i]=CVMLong.create(i).getHash();
+			sigs[i]=kp.sign(msgs[i]);
+			keys[i]=kp.getAccountKey();
+		}
+
+		// corrupt some entries, which should not affect the others
+		sigs[7]=Ed25519Signature.ZERO;
+		keys[500]=AKeyPair.createSeeded(102).getAccountKey();
+		msgs[999]=CVMLong.create(-1).getHash();
+		sigs[3]=null;
+
+		boolean[] results=ASignature.verifyBatch(sigs, msgs, keys);
+		assertEquals(n,results.length);
+		for (int i=0; i<n; i++) {
+			boolean expected=!((i==7)||(i==500)||(i==999)||(i==3));
+			assertEquals(expected,results[i],"Index "+i);
+		}
+
+		assertThrows(IllegalArgumentException.class,()->ASignature.verifyBatch(sigs, new Hash[1], keys));
+		assertEquals(0,ASignature.verifyBatch(new ASignature[0], new Hash[0], new AccountKey[0]).length);
+	}
+
+	@Test
+	public void testCheckSignatures() {
+		AKeyPair kp=AKeyPair.createSeeded(103);
+		ArrayList<SignedData<CVMLong>> sds=new ArrayList<>();
+		for (int i=0; i<200; i++) {
+			SignedData<CVMLong> sd=kp.signData(CVMLong.create(i));
+			// re-create so that signatures are not already marked as verified
+			sds.add(SignedData.create(sd.getAccountKey(), sd.getSignature(), sd.getDataRef()));
+		}
+		SignedData<CVMLong> good=sds.get(0);
+		sds.set(10, SignedData.create(kp.getAccountKey(), good.getSignature(), CVMLong.create(-10).getRef()));
+		sds.add(null);
+		assertFalse(good.isSignatureChecked());
+
+		assertEquals(1,SignedData.checkSignatures(sds));
+		assertTrue(good.isSignatureChecked());
+		assertTrue(good.checkSignature());
+		assertFalse(sds.get(10).checkSignature());
+
+		// already checked, so result comes from cache
+		assertEquals(1,SignedData.checkSignatures(sds));
+	}
+
 }
@@ -0,0 +1,118 @@
+package convex.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.ACell;
+import convex.core.data.AVector;
+import convex.core.data.Blob;
+import convex.core.data.Format;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.data.Vectors;
+import convex.core.data.prim.CVMLong;
+import convex.core.exceptions.BadFormatException;
+import convex.core.store.CellCache;
+import convex.core.util.Counters;
+import convex.test.Samples;
+import etch.EtchStore;
+
+public class CellCacheTest {
+
+	@Test
+	public void testHitsAndMisses() {
+		CellCache cache=CellCache.create(1000000);
+		AVector<CVMLong> v=Vectors.of(1,2,3);
+		Hash h=v.getHash();
+
+		assertNull(cache.getCell(h));
+		cache.putCell(h, v);
+		assertSame(v,cache.getCell(h));
+		assertSame(v,cache.getCell(h));
+
+		assertEquals(2,cache.getHits());
+		assertEquals(1,cache.getMisses());
+		assertEquals(0,cache.getEvictions());
+		assertTrue(cache.getSize()>0);
+	}
+
+	@Test
+	public void testBounded() {
+		CellCache cache=CellCache.create(100000);
+		for (int i=0; i<10000; i++) {
+			AVector<CVMLong> v=Vectors.of(i);
+			cache.putCell(v.getHash(), v);
+		}
+		assertTrue(cache.getSize()<=cache.getCapacity());
+		assertTrue(cache.getEvictions()>0);
+
+		cache.setCapacity(0);
+		assertEquals(0,cache.getSize());
+	}
+
+	@Test
+	public void testScanResistance() {
+		CellCache cache=CellCache.create(100000);
+
+		// hot cell is accessed twice, so gets promoted
+		AVector<CVMLong> hot=Vectors.of(-1);
+		cache.putCell(hot.getHash(), hot);
+		cache.getCell(hot.getHash());
+
+		// a scan of one-off cells should not evict the hot cell
+		for (int i=0; i<10000; i++) {
+			AVector<CVMLong> v=Vectors.of(i);
+			cache.putCell(v.getHash(), v);
+		}
+		assertSame(hot,cache.getCell(hot.getHash()));
+	}
+
+	@Test
+	public void testStoreDecode() throws BadFormatException {
+		EtchStore store=EtchStore.createTemp();
+		AVector<CVMLong> v=Vectors.of(1,2,3);
+		long hits=store.getCache().getHits();
+		ACell c1=store.decode(v.getEncoding());
+		ACell c2=store.decode(v.getEncoding());
+		assertSame(c1,c2);
+		assertEquals(hits+1,store.getCache().getHits());
+
+		// decoded cells are not mistaken for stored cells
+		assertNull(store.refForHash(v.getHash()));
+	}
+
+	@Test
+	public void testStoreReads() {
+		EtchStore store=EtchStore.createTemp();
+		Blob b=Blob.createRandom(new Random(1234), Format.MAX_EMBEDDED_LENGTH+1);
+		Hash h=b.getHash();
+		store.storeTopRef(b.getRef(), Ref.STORED, null);
+
+		// first read goes to the Etch file, then cached
+		long reads=Counters.etchRead;
+		Ref<ACell> r1=store.refForHash(h);
+		assertEquals(reads+1,Counters.etchRead);
+		assertEquals(Ref.STORED,r1.getStatus());
+
+		long hits=store.getCache().getHits();
+		Ref<ACell> r2=store.refForHash(h);
+		assertEquals(reads+1,Counters.etchRead);
+		assertEquals(hits+1,store.getCache().getHits());
+		assertSame(r1.getValue(),r2.getValue());
+
+		// cached status follows writes, and never goes down
+		store.storeTopRef(Blob.wrap(b.getBytes()).getRef(), Ref.PERSISTED, null);
+		assertEquals(Ref.PERSISTED,store.refForHash(h).getStatus());
+		store.storeTopRef(Blob.wrap(b.getBytes()).getRef(), Ref.STORED, null);
+		assertEquals(Ref.PERSISTED,store.refForHash(h).getStatus());
+		assertEquals(reads+1,Counters.etchRead);
+
+		assertNull(store.refForHash(Samples.BAD_HASH));
+	}
+}
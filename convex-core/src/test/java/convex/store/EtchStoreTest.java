@@ -1,16 +1,24 @@
 package convex.store;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -33,8 +41,10 @@ import convex.core.data.Lists;
 import convex.core.data.Maps;
 import convex.core.data.Ref;
 import convex.core.data.Vectors;
+import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadFormatException;
 import convex.core.init.InitTest;
+import convex.core.lang.RT;
 import convex.core.lang.Symbols;
 import convex.core.store.AStore;
 import convex.core.store.Stores;
@@ -43,6 +53,8 @@ import convex.core.transactions.Invoke;
 import convex.core.transactions.Transfer;
 import convex.core.util.Utils;
 import convex.test.Samples;
+import etch.CellStream;
+import etch.Compaction;
 import etch.EtchStore;
 
 public class EtchStoreTest {
@@ -226,6 +238,93 @@ public class EtchStoreTest {
 		assertSame(cell,cell2);
 	}
 
+	@Test
+	public void testStoreAll() {
+		AStore oldStore = Stores.current();
+		ArrayList<Ref<ACell>> al = new ArrayList<>();
+		try {
+			Stores.setCurrent(store);
+			Blob shared=Blob.createRandom(new Random(), Format.MAX_EMBEDDED_LENGTH+1);
+			AVector<Blob> v1 = Vectors.of(shared,Blob.createRandom(new Random(), Format.MAX_EMBEDDED_LENGTH+1));
+			AVector<Blob> v2 = Vectors.of(shared,Blob.createRandom(new Random(), Format.MAX_EMBEDDED_LENGTH+1));
+
+			List<Ref<? extends ACell>> refs=List.of(v1.getRef(),v2.getRef());
+			ArrayList<Ref<ACell>> result=store.storeAll(refs, Ref.PERSISTED, r->al.add(r));
+			assertEquals(2,result.size());
+			assertEquals(v1,result.get(0).getValue());
+			assertEquals(v2,result.get(1).getValue());
+
+			// shared child only counted once, children reported before parents
+			assertEquals(5,al.size());
+			assertEquals(v2,al.get(4).getValue());
+
+			Ref<ACell> r1=store.refForHash(v1.getHash());
+			assertEquals(Ref.PERSISTED,r1.getStatus());
+			assertNotNull(store.refForHash(shared.getHash()));
+
+			// storing persisted refs again gives no novelty
+			al.clear();
+			store.storeAll(List.of(result.get(0),result.get(1)), Ref.PERSISTED, r->al.add(r));
+			assertEquals(0,al.size());
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
+
+	@Test
+	public void testDeepPersist() {
+		AStore oldStore = Stores.current();
+		try {
+			Stores.setCurrent(store);
+			// deep enough to overflow the stack if persisted recursively
+			int depth=100000;
+			AVector<ACell> v=Vectors.empty();
+			for (int i=0; i<depth; i++) {
+				v=Vectors.of(v,CVMLong.create(i));
+			}
+			AtomicLong novelty=new AtomicLong();
+			Ref<ACell> ref=store.storeTopRef(v.getRef(), Ref.PERSISTED, r->novelty.incrementAndGet());
+			assertTrue(ref.isPersisted());
+			assertTrue(novelty.get()>depth/100);
+
+			// walk back down through the store
+			ACell c=store.refForHash(v.getHash()).getValue();
+			for (int i=depth-1; i>=0; i--) {
+				AVector<ACell> cv=RT.castVector(c);
+				assertEquals(CVMLong.create(i),cv.get(1));
+				c=cv.get(0);
+			}
+			assertEquals(Vectors.empty(),c);
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
+
+	@Test
+	public void testWidePersist() {
+		AStore oldStore = Stores.current();
+		try {
+			Stores.setCurrent(store);
+			Random r=new Random(2021);
+			AVector<ACell> v=Vectors.empty();
+			AVector<ACell> copy=Vectors.empty();
+			for (int i=0; i<5000; i++) {
+				Blob b=Blob.createRandom(r, Format.MAX_EMBEDDED_LENGTH+1);
+				v=v.conj(b);
+				copy=copy.conj(Blob.wrap(b.getBytes()));
+			}
+
+			// hashes computed in parallel before persisting match those computed recursively
+			Ref<ACell> ref=ACell.createPersisted((ACell)v);
+			assertEquals(copy.getHash(),ref.getHash());
+			for (int i=0; i<5000; i+=100) {
+				assertEquals(copy.get(i),store.refForHash(v.get(i).getHash()).getValue());
+			}
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
+
 	@Test
 	public void testReopen() throws IOException {
 		File file=File.createTempFile("etch",null);
@@ -236,4 +335,240 @@ public class EtchStoreTest {
 		EtchStore es2=EtchStore.create(file);
 		assertEquals(Hash.NULL_HASH,es2.getRootHash());
 	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		AStore oldStore = Stores.current();
+		try {
+			Stores.setCurrent(store);
+			Random r=new Random(1234);
+			int LEN=Format.MAX_EMBEDDED_LENGTH+1;
+			Blob b1=Blob.createRandom(r, LEN);
+			Blob b2=Blob.createRandom(r, LEN);
+			AVector<ACell> live=ACell.createPersisted(Vectors.of(b1,b2)).getValue();
+			store.setRootHash(live.getHash());
+
+			Blob held=ACell.createPersisted(Blob.createRandom(r, LEN)).getValue();
+			Blob used=ACell.createPersisted(Blob.createRandom(r, LEN)).getValue();
+			AVector<ACell> garbage=ACell.createPersisted(Vectors.of(Blob.createRandom(r, LEN),b1)).getValue();
+			for (int i=0; i<1000; i++) {
+				ACell.createPersisted(Blob.createRandom(r, LEN));
+			}
+			File file=store.getFile();
+
+			ArrayList<AVector<ACell>> written=new ArrayList<>();
+			store.compact(()->{
+				// a write during compaction, referencing an existing cell that is otherwise garbage
+				written.add(ACell.createPersisted(Vectors.of(used)).getValue());
+
+				// an in-memory root referring to an existing cell
+				return List.of(Vectors.of(held,Blob.createRandom(r, LEN)));
+			});
+
+			assertSame(Compaction.Phase.DONE,store.getCompaction().getPhase());
+			assertEquals(store.getCompaction().getMarkedCount(),store.getCompaction().getCopiedCount());
+			assertTrue(store.getCompaction().getEndLength()<store.getCompaction().getStartLength());
+			assertEquals(file,store.getFile());
+			assertFalse(store.isCollecting());
+
+			assertEquals(live.getHash(),store.getRootHash());
+			for (ACell c: List.of(live,b1,b2,held,used,written.get(0))) {
+				assertNotNull(store.refForHash(c.getHash()));
+			}
+			assertNull(store.refForHash(garbage.getHash()));
+
+			// compacted file can be reopened
+			store.close();
+			EtchStore es=EtchStore.create(file);
+			assertEquals(live.getHash(),es.getRootHash());
+			assertEquals(live,es.refForHash(live.getHash()).getValue());
+			es.close();
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
+
+	@Test
+	public void testCompactionAbort() throws IOException {
+		AStore oldStore = Stores.current();
+		try {
+			Stores.setCurrent(store);
+			Random r=new Random(5678);
+			int LEN=Format.MAX_EMBEDDED_LENGTH+1;
+			Blob b1=ACell.createPersisted(Blob.createRandom(r, LEN)).getValue();
+			store.setRootHash(b1.getHash());
+			File file=store.getFile();
+
+			ArrayList<Blob> written=new ArrayList<>();
+			assertThrows(IllegalStateException.class,()->store.compact(()->{
+				// a write and new root during compaction, which must not be lost
+				Blob b2=ACell.createPersisted(Blob.createRandom(r, LEN)).getValue();
+				written.add(b2);
+				try {
+					store.setRootHash(b2.getHash());
+				} catch (IOException e) {
+					throw Utils.sneakyThrow(e);
+				}
+				throw new IllegalStateException("Roots not available");
+			}));
+
+			assertSame(Compaction.Phase.ABORTED,store.getCompaction().getPhase());
+			assertFalse(store.isCollecting());
+			assertEquals(file,store.getFile());
+			assertFalse(new File(file.getCanonicalPath()+"~").exists());
+
+			Blob b2=written.get(0);
+			store.getCache().clear();
+			assertEquals(b2.getHash(),store.getRootHash());
+			assertEquals(b1,store.refForHash(b1.getHash()).getValue());
+			assertEquals(b2,store.refForHash(b2.getHash()).getValue());
+
+			// store can be compacted again afterwards
+			store.compact(()->List.of());
+			assertSame(Compaction.Phase.DONE,store.getCompaction().getPhase());
+			assertEquals(b2,store.refForHash(b2.getHash()).getValue());
+			assertNull(store.refForHash(b1.getHash()));
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
+
+	@Test
+	public void testCompactionRecovery() throws IOException {
+		AStore oldStore = Stores.current();
+		try {
+			Stores.setCurrent(store);
+			Random r=new Random(8765);
+			int LEN=Format.MAX_EMBEDDED_LENGTH+1;
+			Blob b1=ACell.createPersisted(Blob.createRandom(r, LEN)).getValue();
+			store.setRootHash(b1.getHash());
+			File file=store.getFile();
+			File temp=new File(file.getCanonicalPath()+"~");
+
+			// writes during GC only go to the GC file, which is left behind if the GC is interrupted
+			store.startGC();
+			Blob b2=ACell.createPersisted(Blob.createRandom(r, LEN)).getValue();
+			store.setRootHash(b2.getHash());
+			store.close();
+			assertTrue(temp.exists());
+
+			EtchStore es=EtchStore.create(file);
+			assertFalse(temp.exists());
+			assertFalse(es.isCollecting());
+			assertEquals(b2.getHash(),es.getRootHash());
+			assertEquals(b1,es.refForHash(b1.getHash()).getValue());
+			assertEquals(b2,es.refForHash(b2.getHash()).getValue());
+			es.close();
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
+
+	@Test
+	public void testExportImport() throws IOException {
+		AStore oldStore = Stores.current();
+		try {
+			Stores.setCurrent(store);
+			Random r=new Random(4321);
+			int LEN=Format.MAX_EMBEDDED_LENGTH+1;
+			AVector<ACell> v=Vectors.empty();
+			for (int i=0; i<100; i++) {
+				v=v.conj(Vectors.of(Blob.createRandom(r, LEN),CVMLong.create(i)));
+			}
+			Ref<AVector<ACell>> vref=v.getRef().persist();
+			v=vref.getValue();
+			store.setRootHash(v.getHash());
+
+			ByteArrayOutputStream bos=new ByteArrayOutputStream();
+			long n=CellStream.export(store, v.getHash(), bos);
+			assertTrue(n>100);
+			byte[] bs=bos.toByteArray();
+
+			EtchStore target=EtchStore.createTemp();
+			assertEquals(n,CellStream.load(target, new ByteArrayInputStream(bs), true));
+			assertEquals(v.getHash(),target.getRootHash());
+			Ref<ACell> ref=target.refForHash(v.getHash());
+			assertTrue(ref.isPersisted());
+			assertEquals(v,ref.getValue());
+			for (int i=0; i<100; i++) {
+				// blobs are stored, referenced from embedded vectors
+				AVector<ACell> e=RT.castVector(v.get(i));
+				assertTrue(e.isEmbedded());
+				assertEquals(e.get(0),target.refForHash(e.get(0).getHash()).getValue());
+			}
+
+			// loading again doesn't change existing cells
+			assertEquals(n,CellStream.load(target, new ByteArrayInputStream(bs), false));
+			assertTrue(target.refForHash(v.getHash()).isPersisted());
+
+			// export from the imported store is identical
+			ByteArrayOutputStream bos2=new ByteArrayOutputStream();
+			CellStream.export(target, v.getHash(), bos2);
+			assertArrayEquals(bs,bos2.toByteArray());
+			target.close();
+
+			// truncated stream
+			byte[] truncated=Arrays.copyOf(bs, bs.length-10);
+			assertThrows(IOException.class,()->CellStream.load(EtchStore.createTemp(), new ByteArrayInputStream(truncated), true));
+
+			// corrupted root cell
+			EtchStore single=EtchStore.createTemp();
+			Blob a=Blob.createRandom(r, LEN);
+			Blob b=Blob.createRandom(r, LEN);
+			single.storeTopRef(a.getRef(), Ref.PERSISTED, null);
+			single.storeTopRef(b.getRef(), Ref.PERSISTED, null);
+			ByteArrayOutputStream sa=new ByteArrayOutputStream();
+			ByteArrayOutputStream sb=new ByteArrayOutputStream();
+			assertEquals(1,CellStream.export(single, a.getHash(), sa));
+			assertEquals(1,CellStream.export(single, b.getHash(), sb));
+			byte[] corrupted=sa.toByteArray();
+			corrupted[corrupted.length-1]^=0x55;
+			assertThrows(IOException.class,()->CellStream.load(EtchStore.createTemp(), new ByteArrayInputStream(corrupted), true));
+
+			// records out of hash order
+			boolean aFirst=a.getHash().compareTo(b.getHash())<0;
+			byte[] first=(aFirst?sb:sa).toByteArray();
+			byte[] second=(aFirst?sa:sb).toByteArray();
+			byte[] unordered=new byte[first.length+second.length-44];
+			System.arraycopy(first, 0, unordered, 0, first.length);
+			Utils.writeLong(unordered, 36, 2L);
+			System.arraycopy(second, 44, unordered, first.length, second.length-44);
+			assertThrows(IOException.class,()->CellStream.load(EtchStore.createTemp(), new ByteArrayInputStream(unordered), true));
+			single.close();
+
+			// bad magic number
+			byte[] bad=bs.clone();
+			bad[0]=0;
+			assertThrows(IOException.class,()->CellStream.load(EtchStore.createTemp(), new ByteArrayInputStream(bad), true));
+
+			// forged flags and a missing child: nothing beyond STORED is trusted
+			ByteArrayOutputStream forged=new ByteArrayOutputStream();
+			DataOutputStream dos=new DataOutputStream(forged);
+			dos.write(bs, 0, 36);
+			dos.writeLong(n-1);
+			int pos=44;
+			boolean skipped=false;
+			while (pos<bs.length) {
+				int len=((bs[pos+9]&0xFF)<<8)|(bs[pos+10]&0xFF);
+				int end=pos+11+len;
+				Hash h=Blob.wrap(bs, pos+11, len).getContentHash();
+				if (!skipped&&!h.equals(v.getHash())) {
+					skipped=true;
+				} else {
+					dos.writeByte(Ref.INTERNAL|Ref.VERIFIED_MASK);
+					dos.writeLong(12345L);
+					dos.write(bs, pos+9, end-pos-9);
+				}
+				pos=end;
+			}
+			EtchStore partial=EtchStore.createTemp();
+			assertEquals(n-1,CellStream.load(partial, new ByteArrayInputStream(forged.toByteArray()), true));
+			Ref<ACell> pref=partial.refForHash(v.getHash());
+			assertEquals(Ref.STORED,pref.getStatus());
+			assertEquals(0,pref.getFlags()&Ref.VERIFICATION_MASK);
+			partial.close();
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
 }
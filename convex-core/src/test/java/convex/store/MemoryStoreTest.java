@@ -1,13 +1,18 @@
 package convex.store;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import org.junit.Test;
@@ -23,12 +28,14 @@ import convex.core.data.Keywords;
 import convex.core.data.Maps;
 import convex.core.data.Ref;
 import convex.core.data.Sets;
+import convex.core.data.Vectors;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadFormatException;
 import convex.core.store.AStore;
 import convex.core.store.MemoryStore;
 import convex.core.store.Stores;
 import convex.test.Samples;
+import etch.EtchStore;
 
 public class MemoryStoreTest {
 
@@ -111,4 +118,106 @@ public class MemoryStoreTest {
 			Stores.setCurrent(oldStore);
 		}
 	}
+
+	@Test
+	public void testConcurrentPersist() throws InterruptedException {
+		MemoryStore ms = new MemoryStore();
+		Random r = new Random(5678);
+		int n = 200;
+		ArrayList<Blob> blobs = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			blobs.add(Blob.createRandom(r, 200));
+		}
+
+		// every thread stores the same cells, novelty should still be reported once per cell
+		Set<Hash> novel = ConcurrentHashMap.newKeySet();
+		AtomicLong duplicates = new AtomicLong();
+		Consumer<Ref<ACell>> handler = ref -> {
+			if (!novel.add(ref.getHash())) duplicates.incrementAndGet();
+		};
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (Blob b : blobs) {
+					ms.storeTopRef(b.getRef(), Ref.PERSISTED, handler);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(0, duplicates.get());
+		assertEquals(n, novel.size());
+		assertEquals(n, ms.getCellCount());
+		for (Blob b : blobs) {
+			assertEquals(b, ms.refForHash(b.getHash()).getValue());
+		}
+	}
+
+	@Test
+	public void testBoundedStore() throws IOException {
+		AStore oldStore = Stores.current();
+		EtchStore backing = EtchStore.createTemp();
+		MemoryStore ms = MemoryStore.create(10, backing);
+		try {
+			Stores.setCurrent(ms);
+			Random r = new Random(91011);
+			ArrayList<Blob> blobs = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				Blob b = Blob.createRandom(r, 200);
+				blobs.add(b);
+				b.getRef().persist();
+			}
+			assertTrue(ms.getCellCount() <= 10);
+
+			// evicted cells are still available, from the backing store
+			for (Blob b : blobs) {
+				Ref<Blob> ref = ms.refForHash(b.getHash());
+				assertNotNull(ref);
+				assertEquals(b, ref.getValue());
+			}
+			assertNotNull(backing.refForHash(blobs.get(0).getHash()));
+
+			// structures with children evicted before their parents
+			AVector<ACell> v = Vectors.of(blobs.get(0));
+			for (int i = 0; i < 5; i++) {
+				v = v.conj(Blob.createRandom(r, 200));
+			}
+			assertFalse(v.isEmbedded());
+			Ref<AVector<ACell>> vr = v.getRef().persist();
+			assertTrue(vr.isPersisted());
+			for (int i = 0; i < 20; i++) {
+				Blob.createRandom(r, 200).getRef().persist();
+			}
+			assertEquals(v, ms.refForHash(v.getHash()).getValue());
+			assertEquals(v.get(2), backing.refForHash(v.get(2).getHash()).getValue());
+		} finally {
+			Stores.setCurrent(oldStore);
+			ms.close();
+			backing.close();
+		}
+	}
+
+	@Test
+	public void testDeepPersist() {
+		AStore oldStore = Stores.current();
+		MemoryStore ms = new MemoryStore();
+		try {
+			Stores.setCurrent(ms);
+			// deep enough to overflow the stack if persisted recursively
+			AVector<ACell> v = Vectors.empty();
+			for (int i = 0; i < 100000; i++) {
+				v = Vectors.of(v, CVMLong.create(i));
+			}
+			Ref<AVector<ACell>> ref = v.getRef().persist();
+			assertTrue(ref.isPersisted());
+			assertNotNull(ms.refForHash(v.getHash()));
+			assertTrue(ms.getCellCount() > 1000);
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
 }
@@ -0,0 +1,260 @@
+package convex.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import convex.core.data.ACell;
+import convex.core.data.AVector;
+import convex.core.data.Blob;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.data.Vectors;
+import convex.core.store.AStore;
+import convex.core.store.MemoryStore;
+import convex.core.store.Stores;
+import convex.core.store.TieredStore;
+import convex.core.util.Utils;
+import convex.test.Samples;
+import etch.EtchStore;
+
+public class TieredStoreTest {
+
+	private static AVector<ACell> randomVector(Random r, int n) {
+		AVector<ACell> v = Vectors.empty();
+		for (int i = 0; i < n; i++) {
+			v = v.conj(Blob.createRandom(r, 200));
+		}
+		return v;
+	}
+
+	private static AVector<ACell> persist(AVector<ACell> v) {
+		Ref<AVector<ACell>> ref = v.getRef().persist();
+		return ref.getValue();
+	}
+
+	@Test
+	public void testWriteBack() throws IOException {
+		AStore oldStore = Stores.current();
+		EtchStore etch = EtchStore.createTemp();
+		TieredStore ts = TieredStore.create(etch);
+		try {
+			Stores.setCurrent(ts);
+			AVector<ACell> v = randomVector(new Random(1234), 10);
+			Hash hash = v.getHash();
+			assertNull(ts.refForHash(hash));
+
+			ArrayList<Ref<ACell>> novelty = new ArrayList<>();
+			Consumer<Ref<ACell>> handler = r -> novelty.add(r);
+			Ref<AVector<ACell>> ref = v.getRef().persist(handler);
+			assertTrue(ref.isPersisted());
+			assertEquals(11, novelty.size());
+			assertEquals(v, novelty.get(10).getValue());
+
+			// available before write-back completes
+			assertEquals(v, ts.refForHash(hash).getValue());
+
+			// no novelty when persisted again
+			v.getRef().persist(handler);
+			assertEquals(11, novelty.size());
+
+			ts.flush();
+			assertEquals(0, ts.getPendingCount());
+			Ref<ACell> stored = etch.refForHash(hash);
+			assertNotNull(stored);
+			assertTrue(stored.isPersisted());
+			assertEquals(v.get(9), etch.refForHash(v.get(9).getHash()).getValue());
+		} finally {
+			Stores.setCurrent(oldStore);
+			ts.close();
+		}
+	}
+
+	@Test
+	public void testHotTier() {
+		EtchStore etch = EtchStore.createTemp();
+		TieredStore ts = TieredStore.create(etch, 1000000, 0);
+		try {
+			Blob b = Blob.createRandom(new Random(5678), 200);
+			etch.storeTopRef(b.getRef(), Ref.PERSISTED, null);
+			assertEquals(0, ts.getHotSize());
+
+			// read from backing store once, then held in hot tier
+			Ref<Blob> r1 = ts.refForHash(b.getHash());
+			assertEquals(b, r1.getValue());
+			assertTrue(r1.isDirect());
+			assertTrue(ts.getHotSize() > 0);
+			assertSame(r1, ts.refForHash(b.getHash()));
+
+			assertNull(ts.refForHash(Samples.BAD_HASH));
+		} finally {
+			ts.close();
+		}
+	}
+
+	@Test
+	public void testHotTierBound() {
+		EtchStore etch = EtchStore.createTemp();
+		TieredStore ts = TieredStore.create(etch, 16 * 1000, 0);
+		try {
+			Random r = new Random(91011);
+			ArrayList<Blob> blobs = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				Blob b = Blob.createRandom(r, 200);
+				blobs.add(b);
+				etch.storeTopRef(b.getRef(), Ref.PERSISTED, null);
+			}
+			for (Blob b : blobs) {
+				assertEquals(b, ts.refForHash(b.getHash()).getValue());
+			}
+			assertTrue(ts.getHotSize() <= 16 * 1000);
+
+			// cells are not also held by the backing store cache
+			assertEquals(0, etch.getCache().getSize());
+		} finally {
+			ts.close();
+		}
+	}
+
+	@Test
+	public void testPinning() throws IOException {
+		AStore oldStore = Stores.current();
+		TieredStore ts = TieredStore.create(EtchStore.createTemp(), 0, 1000000);
+		try {
+			Stores.setCurrent(ts);
+			Random r = new Random(1213);
+			AVector<ACell> v1 = randomVector(r, 10);
+			v1 = persist(v1);
+			ts.flush();
+
+			ts.pin("test", v1);
+			long size = ts.getPinnedSize();
+			assertTrue(size > 0);
+
+			// pinned cells found without the hot tier
+			assertSame(v1, ts.refForHash(v1.getHash()).getValue());
+			assertEquals(v1.get(3), ts.refForHash(v1.get(3).getHash()).getValue());
+			assertEquals(0, ts.getHotSize());
+
+			// new version only indexes changed cells
+			AVector<ACell> v2 = v1.conj(Blob.createRandom(r, 200));
+			v2 = persist(v2);
+			ts.pin("test", v2);
+			assertTrue(ts.getPinnedSize() > size);
+			assertTrue(ts.getPinnedSize() < 2 * size);
+
+			// unpinned roots don't prevent lookups
+			ts.pin("test", null);
+			assertEquals(v2, ts.refForHash(v2.getHash()).getValue());
+		} finally {
+			Stores.setCurrent(oldStore);
+			ts.close();
+		}
+	}
+
+	@Test
+	public void testPinCapacity() {
+		AStore oldStore = Stores.current();
+		TieredStore ts = TieredStore.create(EtchStore.createTemp(), 0, 3000);
+		try {
+			Stores.setCurrent(ts);
+			Random r = new Random(1415);
+			AVector<ACell> v = randomVector(r, 100);
+			v = persist(v);
+			ts.pin("big", v);
+			assertTrue(ts.getPinnedSize() <= 3000);
+
+			// root indexed first
+			assertSame(v, ts.refForHash(v.getHash()).getValue());
+
+			// repinning rebuilds within capacity
+			for (int i = 0; i < 10; i++) {
+				v = persist(v.assoc(i, Blob.createRandom(r, 200)));
+				ts.pin("big", v);
+				assertTrue(ts.getPinnedSize() <= 3000);
+			}
+			assertSame(v, ts.refForHash(v.getHash()).getValue());
+		} finally {
+			Stores.setCurrent(oldStore);
+			ts.close();
+		}
+	}
+
+	@Test
+	public void testRootHash() throws IOException {
+		AStore oldStore = Stores.current();
+		EtchStore etch = EtchStore.createTemp();
+		File file = etch.getFile();
+		TieredStore ts = TieredStore.create(etch);
+		AVector<ACell> v = randomVector(new Random(1617), 20);
+		try {
+			Stores.setCurrent(ts);
+			Ref<ACell> ref = ACell.createPersisted((ACell) v);
+			ts.setRootHash(ref.getHash());
+			assertEquals(v.getHash(), ts.getRootHash());
+		} finally {
+			Stores.setCurrent(oldStore);
+			ts.close();
+		}
+
+		// everything written back before close
+		EtchStore reopened = EtchStore.create(file);
+		try {
+			assertEquals(v.getHash(), reopened.getRootHash());
+			assertEquals(v, reopened.refForHash(v.getHash()).getValue());
+			assertNotNull(reopened.refForHash(v.get(19).getHash()));
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void testWriteBackFailure() throws IOException {
+		AStore oldStore = Stores.current();
+		AtomicBoolean failing = new AtomicBoolean(true);
+		MemoryStore backing = new MemoryStore() {
+			@Override
+			public ArrayList<Ref<ACell>> storeAll(Collection<Ref<? extends ACell>> refs, int status, Consumer<Ref<ACell>> noveltyHandler) {
+				if (failing.get()) throw Utils.sneakyThrow(new IOException("Disk full"));
+				return super.storeAll(refs, status, noveltyHandler);
+			}
+		};
+		TieredStore ts = TieredStore.create(backing);
+		try {
+			Stores.setCurrent(ts);
+			AVector<ACell> v = persist(randomVector(new Random(1819), 10));
+			Hash hash = v.getHash();
+
+			// failure is reported, and cells stay available until written
+			assertThrows(IOException.class, () -> ts.flush());
+			assertThrows(IOException.class, () -> ts.setRootHash(hash));
+			assertNull(backing.refForHash(hash));
+			assertEquals(v, ts.refForHash(hash).getValue());
+			assertTrue(ts.getPendingCount() > 0);
+
+			// failed batch is retried
+			failing.set(false);
+			ts.flush();
+			assertEquals(0, ts.getPendingCount());
+			assertEquals(v, backing.refForHash(hash).getValue());
+			ts.setRootHash(hash);
+			assertEquals(hash, ts.getRootHash());
+		} finally {
+			Stores.setCurrent(oldStore);
+			ts.close();
+		}
+	}
+}
@@ -3,9 +3,20 @@ package etch.api;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.jupiter.api.Test;
 
@@ -13,6 +24,7 @@ import convex.core.data.ACell;
 import convex.core.data.AVector;
 import convex.core.data.Hash;
 import convex.core.data.Ref;
+import convex.core.data.RefDirect;
 import convex.core.data.Vectors;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadFormatException;
@@ -86,6 +98,228 @@ public class TestEtch {
 		}
 	}
 
+	@Test
+	public void testReopenIndex() throws IOException {
+		EtchStore store=EtchStore.createTemp();
+		Etch etch = store.getEtch();
+		File file=etch.getFile();
+
+		// enough keys to need index blocks and chains below the top level
+		int COUNT=2000;
+		ArrayList<AVector<CVMLong>> values=new ArrayList<>();
+		for (int i = 0; i < COUNT; i++) {
+			AVector<CVMLong> v=Vectors.of(i);
+			etch.write(v.getHash(), v.getRef());
+			values.add(v);
+		}
+		store.close();
+
+		// top level index is loaded from the file
+		EtchStore reopened=EtchStore.create(file);
+		try {
+			Etch etch2=reopened.getEtch();
+			for (AVector<CVMLong> v: values) {
+				assertEquals(v, etch2.read(v.getHash()).getValue());
+			}
+			assertNull(etch2.read(Vectors.of(-1L).getHash()));
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentWrites() throws Exception {
+		EtchStore store=EtchStore.createTemp();
+		Etch etch = store.getEtch();
+
+		int THREADS=4;
+		int COUNT=2000;
+		ExecutorService ex=Executors.newFixedThreadPool(THREADS);
+		try {
+			ArrayList<Future<?>> futures=new ArrayList<>();
+			for (int t=0; t<THREADS; t++) {
+				final long base=t*(long)COUNT;
+				futures.add(ex.submit(()->{
+					for (int i=0; i<COUNT; i++) {
+						AVector<CVMLong> v=Vectors.of(base+i);
+						etch.write(v.getHash(), v.getRef());
+					}
+					return null;
+				}));
+			}
+			for (Future<?> f: futures) f.get();
+		} finally {
+			ex.shutdown();
+		}
+
+		// every value written by every thread should be readable
+		for (long i=0; i<THREADS*(long)COUNT; i++) {
+			AVector<CVMLong> v=Vectors.of(i);
+			Ref<ACell> r=etch.read(v.getHash());
+			assertNotNull(r, "Stored value not found for vector value: " + v);
+			assertEquals(v, r.getValue());
+		}
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		EtchStore store=EtchStore.createTemp();
+		Etch etch = store.getEtch();
+
+		int THREADS=4;
+		int COUNT=2000;
+		for (long i=0; i<COUNT; i++) {
+			AVector<CVMLong> v=Vectors.of(i);
+			etch.write(v.getHash(), v.getRef());
+		}
+
+		// readers should see existing values while a writer grows the file and collapses chains
+		ExecutorService ex=Executors.newFixedThreadPool(THREADS+1);
+		try {
+			ArrayList<Future<?>> futures=new ArrayList<>();
+			futures.add(ex.submit(()->{
+				for (long i=COUNT; i<COUNT*10; i++) {
+					AVector<CVMLong> v=Vectors.of(i);
+					etch.write(v.getHash(), v.getRef());
+				}
+				return null;
+			}));
+			for (int t=0; t<THREADS; t++) {
+				futures.add(ex.submit(()->{
+					for (int ii=0; ii<ITERATIONS; ii++) {
+						for (long i=0; i<COUNT; i++) {
+							AVector<CVMLong> v=Vectors.of(i);
+							Ref<ACell> r=etch.read(v.getHash());
+							assertNotNull(r, "Stored value not found for vector value: " + v);
+							assertEquals(v, r.getValue());
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> f: futures) f.get();
+		} finally {
+			ex.shutdown();
+		}
+	}
+
+	@Test
+	public void testCloseWhileWriting() throws Exception {
+		EtchStore store=EtchStore.createTemp();
+		Etch etch = store.getEtch();
+		File file=etch.getFile();
+
+		AVector<CVMLong> v=Vectors.of(17L);
+		Hash key=v.getHash();
+		CountDownLatch entered=new CountDownLatch(1);
+		CountDownLatch release=new CountDownLatch(1);
+		Ref<ACell> blocking=new BlockingRef(v, entered, release);
+
+		ExecutorService ex=Executors.newFixedThreadPool(2);
+		try {
+			// writer holds its stripe lock while the value is read for appending
+			Future<Ref<ACell>> writer=ex.submit(()->etch.write(key, blocking));
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+			// close must wait for the writer
+			Future<?> closer=ex.submit(()->{
+				store.close();
+				return null;
+			});
+			assertThrows(TimeoutException.class, ()->closer.get(100, TimeUnit.MILLISECONDS));
+
+			release.countDown();
+			assertNotNull(writer.get(10, TimeUnit.SECONDS));
+			closer.get(10, TimeUnit.SECONDS);
+		} finally {
+			ex.shutdownNow();
+		}
+
+		// writes after close fail
+		AVector<CVMLong> v2=Vectors.of(18L);
+		assertThrows(ClosedChannelException.class, ()->etch.write(v2.getHash(), v2.getRef()));
+
+		// the write completed before close is durable
+		EtchStore reopened=EtchStore.create(file);
+		try {
+			Ref<ACell> r=reopened.getEtch().read(key);
+			assertNotNull(r);
+			assertEquals(v, r.getValue());
+		} finally {
+			reopened.close();
+		}
+	}
+
+	/**
+	 * Direct Ref that blocks the first time its value is read, so that a writer can be held
+	 * inside Etch while it appends the value
+	 */
+	private static class BlockingRef extends Ref<ACell> {
+		private final ACell value;
+		private final CountDownLatch entered;
+		private final CountDownLatch release;
+
+		BlockingRef(ACell value, CountDownLatch entered, CountDownLatch release) {
+			super(value.getHash(), Ref.UNKNOWN);
+			this.value=value;
+			this.entered=entered;
+			this.release=release;
+		}
+
+		@Override
+		public ACell getValue() {
+			if (entered.getCount()>0) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return value;
+		}
+
+		@Override
+		public Ref<ACell> withFlags(int newFlags) {
+			return RefDirect.create(value, getHash(), newFlags);
+		}
+
+		@Override
+		public boolean equals(Ref<ACell> a) {
+			return getHash().equals(a.getHash());
+		}
+
+		@Override
+		public Hash getHash() {
+			return hash;
+		}
+
+		@Override
+		public boolean isDirect() {
+			return true;
+		}
+
+		@Override
+		public Ref<ACell> withValue(ACell newValue) {
+			return RefDirect.create(newValue);
+		}
+
+		@Override
+		public boolean isMissing() {
+			return false;
+		}
+
+		@Override
+		public int estimatedEncodingSize() {
+			return Ref.INDIRECT_ENCODING_LENGTH;
+		}
+
+		@Override
+		public Ref<ACell> ensureCanonical() {
+			return this;
+		}
+	}
+
 	private void doStoreWrite(Etch etch, Random random) throws IOException {
 		AVector<CVMLong> v=Vectors.of(random.nextLong());
 		Hash key = v.getHash();
@@ -68,7 +68,8 @@ public class BlockViewComponent extends JPanel {
 			g.setColor(c);
 			g.fillRect(x + 1, 1, W - 2, W - 2);
 
-			if (c == Color.green) {
+			// Blocks may be agreed but not yet executed
+			if ((c == Color.green) && (i < p.getStatePosition())) {
 				g.setColor(Color.black);
 				State s = p.getStates().get(i + 1);
 				for (int j = 0; j < 6; j++) {
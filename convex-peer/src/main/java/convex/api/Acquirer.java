@@ -0,0 +1,316 @@
+package convex.api;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.ACell;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.exceptions.MissingDataException;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+import convex.net.Connection;
+
+/**
+ * Engine for acquiring complete data structures from a remote Peer, given the root Hash.
+ *
+ * Each acquisition keeps a window of missing hashes in flight, requested in batches with
+ * MISSING_DATA messages. It advances as soon as DATA arrives for any of them, requesting any
+ * missing children of the new cell, so a deep tree takes a round trip per level rather than
+ * a fixed delay. Requests that get no response are sent again after a timeout.
+ *
+ * All acquisitions run on a shared executor. Handling of each acquisition is synchronised, so
+ * at most one thread works on it at a time.
+ */
+final class Acquirer {
+
+	private static final Logger log = LoggerFactory.getLogger(Acquirer.class.getName());
+
+	/**
+	 * Maximum number of missing hashes requested but not yet received, per acquisition
+	 */
+	static final int MAX_IN_FLIGHT = 256;
+
+	/**
+	 * Maximum number of hashes in a single request. Small enough that the request Vector
+	 * is a single cell.
+	 */
+	static final int MAX_BATCH = 16;
+
+	/**
+	 * Interval for checking on each acquisition, in milliseconds
+	 */
+	static final long TICK_INTERVAL = 100;
+
+	/**
+	 * Time without progress after which in flight requests are sent again, in milliseconds
+	 */
+	static final long RESEND_TIMEOUT = 2000;
+
+	private static final ScheduledExecutorService executor = createExecutor();
+
+	private static ScheduledExecutorService createExecutor() {
+		AtomicInteger counter = new AtomicInteger(0);
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		return Executors.newScheduledThreadPool(threads, r -> {
+			Thread t = new Thread(r, "Acquisition thread " + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private final ConvexRemote convex;
+
+	/**
+	 * Acquisitions waiting for DATA, by missing hash. Must hold lock on map.
+	 */
+	private final HashMap<Hash, ArrayList<Acquisition<?>>> waiting = new HashMap<>();
+
+	Acquirer(ConvexRemote convex) {
+		this.convex = convex;
+	}
+
+	/**
+	 * Starts acquiring a value
+	 *
+	 * @param hash Hash of value to acquire
+	 * @param store Store to acquire the value to
+	 * @return Future for the acquired value
+	 */
+	<T extends ACell> CompletableFuture<T> acquire(Hash hash, AStore store) {
+		Acquisition<T> acq = new Acquisition<>(hash, store);
+		executor.execute(acq::start);
+		return acq.future;
+	}
+
+	/**
+	 * Notifies the Acquirer that DATA has been received. Should be cheap, since it is called on
+	 * the receiving thread.
+	 *
+	 * @param ref Ref to the data received
+	 */
+	void dataReceived(Ref<ACell> ref) {
+		ArrayList<Acquisition<?>> list;
+		Hash h = ref.getHash();
+		synchronized (waiting) {
+			list = waiting.remove(h);
+		}
+		if (list == null) return;
+		ACell value = ref.getValue();
+		for (Acquisition<?> acq : list) {
+			executor.execute(() -> acq.received(h, value));
+		}
+	}
+
+	private void await(Hash h, Acquisition<?> acq) {
+		synchronized (waiting) {
+			ArrayList<Acquisition<?>> list = waiting.get(h);
+			if (list == null) {
+				list = new ArrayList<>(1);
+				waiting.put(h, list);
+			}
+			if (!list.contains(acq)) list.add(acq);
+		}
+	}
+
+	private void unawait(Hash h, Acquisition<?> acq) {
+		synchronized (waiting) {
+			ArrayList<Acquisition<?>> list = waiting.get(h);
+			if (list == null) return;
+			list.remove(acq);
+			if (list.isEmpty()) waiting.remove(h);
+		}
+	}
+
+	/**
+	 * State of a single acquisition
+	 */
+	private final class Acquisition<T extends ACell> {
+		final Hash hash;
+		final AStore store;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		/**
+		 * Hashes known to be missing, either queued or in flight
+		 */
+		final HashSet<Hash> pending = new HashSet<>();
+
+		/**
+		 * Hashes waiting to be requested. May contain hashes no longer pending, which are skipped.
+		 */
+		final ArrayDeque<Hash> queue = new ArrayDeque<>();
+
+		/**
+		 * Hashes requested but not yet received
+		 */
+		final HashSet<Hash> inFlight = new HashSet<>();
+
+		long lastProgress = System.currentTimeMillis();
+
+		ScheduledFuture<?> ticker;
+
+		Acquisition(Hash hash, AStore store) {
+			this.hash = hash;
+			this.store = store;
+		}
+
+		synchronized void start() {
+			run(() -> {
+				Ref<T> ref = store.refForHash(hash);
+				if (ref == null) {
+					enqueue(hash);
+				} else {
+					if (ref.getStatus() >= Ref.PERSISTED) {
+						// we have everything!
+						future.complete(ref.getValue());
+						return;
+					}
+					HashSet<Hash> missing = new HashSet<>();
+					ref.findMissing(missing);
+					for (Hash h : missing) {
+						enqueue(h);
+					}
+				}
+				ticker = executor.scheduleWithFixedDelay(this::tick, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+				maybeComplete();
+			});
+		}
+
+		synchronized void received(Hash h, ACell value) {
+			run(() -> {
+				if (!pending.remove(h)) return;
+				inFlight.remove(h);
+				lastProgress = System.currentTimeMillis();
+
+				// store in our store, and request any missing children
+				Ref<ACell> ref = Ref.get(value).persistShallow();
+				HashSet<Hash> missing = new HashSet<>();
+				ref.findMissing(missing);
+				for (Hash m : missing) {
+					enqueue(m);
+				}
+				maybeComplete();
+			});
+		}
+
+		synchronized void tick() {
+			run(() -> {
+				if (!inFlight.isEmpty() && (System.currentTimeMillis() - lastProgress > RESEND_TIMEOUT)) {
+					// no response, so request everything in flight again
+					log.debug("Resending {} missing data requests for {}", inFlight.size(), hash);
+					for (Hash h : inFlight) {
+						queue.addFirst(h);
+					}
+					inFlight.clear();
+					lastProgress = System.currentTimeMillis();
+				}
+				sendRequests();
+			});
+		}
+
+		/**
+		 * Runs a step of the acquisition with the correct store, completing exceptionally on failure
+		 */
+		private void run(Runnable step) {
+			if (future.isDone()) {
+				cleanup();
+				return;
+			}
+			AStore savedStore = Stores.current();
+			Stores.setCurrent(store);
+			try {
+				step.run();
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			} finally {
+				Stores.setCurrent(savedStore);
+			}
+			if (future.isDone()) cleanup();
+		}
+
+		private void enqueue(Hash h) {
+			if (pending.add(h)) queue.add(h);
+		}
+
+		/**
+		 * Completes the acquisition if nothing is pending. Otherwise sends any queued requests.
+		 */
+		private void maybeComplete() {
+			if (pending.isEmpty()) {
+				Ref<T> ref = store.refForHash(hash);
+				if (ref == null) {
+					enqueue(hash);
+				} else {
+					try {
+						ref = ref.persist();
+						future.complete(ref.getValue());
+						return;
+					} catch (MissingDataException e) {
+						enqueue(e.getMissingHash());
+					}
+				}
+			}
+			sendRequests();
+		}
+
+		private void sendRequests() {
+			Connection conn = convex.getConnection();
+			if ((conn == null) || conn.isClosed()) {
+				future.completeExceptionally(new IOException("Connection closed during acquisition of " + hash));
+				return;
+			}
+			ArrayList<Hash> batch = new ArrayList<>(MAX_BATCH);
+			while (!queue.isEmpty() && (inFlight.size() < MAX_IN_FLIGHT)) {
+				batch.clear();
+				while (!queue.isEmpty() && (batch.size() < MAX_BATCH) && (inFlight.size() + batch.size() < MAX_IN_FLIGHT)) {
+					Hash h = queue.poll();
+					if (!pending.contains(h) || inFlight.contains(h) || batch.contains(h)) continue;
+					batch.add(h);
+				}
+				if (batch.isEmpty()) continue;
+
+				// register before sending, so DATA can't arrive before we are waiting for it
+				for (Hash h : batch) {
+					await(h, this);
+				}
+				boolean sent;
+				try {
+					sent = conn.sendMissingData(batch);
+				} catch (IOException e) {
+					sent = false;
+				}
+				if (!sent) {
+					// try again later
+					log.debug("Send queue full, will retry missing data requests");
+					for (int i = batch.size() - 1; i >= 0; i--) {
+						queue.addFirst(batch.get(i));
+					}
+					return;
+				}
+				inFlight.addAll(batch);
+			}
+		}
+
+		private void cleanup() {
+			if (ticker != null) ticker.cancel(false);
+			for (Hash h : pending) {
+				unawait(h, this);
+			}
+			pending.clear();
+			queue.clear();
+			inFlight.clear();
+		}
+	}
+}
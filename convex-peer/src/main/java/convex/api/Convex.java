@@ -92,7 +92,7 @@ public abstract class Convex {
 	 */
 	protected HashMap<Long, CompletableFuture<Result>> awaiting = new HashMap<>();
 
-	protected final Consumer<Message> internalHandler = new ResultConsumer() {
+	protected final ResultConsumer internalHandler = new ResultConsumer() {
 		@Override
 		protected synchronized void handleResult(long id, Result v) {
 
@@ -114,6 +114,16 @@ public abstract class Convex {
 			}
 		}
 
+		@Override
+		protected boolean collectData(ACell value) {
+			return Convex.this.collectData(value);
+		}
+
+		@Override
+		protected void handleData(Ref<ACell> ref) {
+			dataReceived(ref);
+		}
+
 		@Override
 		public void accept(Message m) {
 			super.accept(m);
@@ -130,6 +140,27 @@ public abstract class Convex {
 
 	private Consumer<Message> delegatedHandler = null;
 
+	/**
+	 * Method called when DATA is received from the connected Peer, before it is stored. May
+	 * collect the data to store in bulk, see ResultConsumer.collectData(...). Does nothing by default.
+	 *
+	 * @param value Value received
+	 * @return True if the value has been collected, false to store it immediately
+	 */
+	protected boolean collectData(ACell value) {
+		return false;
+	}
+
+	/**
+	 * Method called when DATA is received from the connected Peer, after it has been stored.
+	 * Does nothing by default.
+	 *
+	 * @param ref Ref to the data received
+	 */
+	protected void dataReceived(Ref<ACell> ref) {
+		// Nothing to do by default
+	}
+
 	protected Convex(Address address, AKeyPair keyPair) {
 		this.keyPair = keyPair;
 		this.address = address;
@@ -2,7 +2,7 @@ package convex.api;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -21,10 +21,8 @@ import convex.core.data.Address;
 import convex.core.data.Hash;
 import convex.core.data.Ref;
 import convex.core.data.SignedData;
-import convex.core.exceptions.MissingDataException;
 import convex.core.lang.RT;
 import convex.core.store.AStore;
-import convex.core.store.Stores;
 import convex.core.transactions.ATransaction;
 import convex.core.util.Utils;
 import convex.net.Connection;
@@ -37,6 +35,31 @@ public class ConvexRemote extends Convex {
 	
 	private static final Logger log = LoggerFactory.getLogger(ConvexRemote.class.getName());
 
+	/**
+	 * Engine for acquiring data from the connected Peer
+	 */
+	private final Acquirer acquirer = new Acquirer(this);
+
+	/**
+	 * Number of cells received in a snapshot to store in each bulk write
+	 */
+	private static final int SNAPSHOT_BATCH_SIZE = 4096;
+
+	/**
+	 * Lock for snapshot state
+	 */
+	private final Object snapshotLock = new Object();
+
+	/**
+	 * Store for the snapshot in progress, or null if none. Must hold snapshotLock.
+	 */
+	private AStore snapshotStore = null;
+
+	/**
+	 * Cells received for the snapshot in progress and not yet stored. Must hold snapshotLock.
+	 */
+	private final ArrayList<ACell> snapshotCells = new ArrayList<>();
+
 	
 	/**
 	 * Gets the Internet address of the currently connected remote
@@ -194,65 +217,98 @@ public class ConvexRemote extends Convex {
 	
 	@Override
 	public <T extends ACell> CompletableFuture<T> acquire(Hash hash, AStore store) {
-		CompletableFuture<T> f = new CompletableFuture<T>();
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				Stores.setCurrent(store); // use store for calling thread
-				try {
-					Ref<T> ref = store.refForHash(hash);
-					HashSet<Hash> missingSet = new HashSet<>();
-
-					// Loop until future is complete or cancelled
-					while (!f.isDone()) {
-						missingSet.clear();
+		return acquirer.acquire(hash, store);
+	}
 
-						if (ref == null) {
-							missingSet.add(hash);
-						} else {
-							if (ref.getStatus() >= Ref.PERSISTED) {
-								// we have everything!
-								f.complete(ref.getValue());
-								return;
-							}
-							ref.findMissing(missingSet);
-						}
-						for (Hash h : missingSet) {
-							// send missing data requests until we fill pipeline
-							log.debug("Request missing data: {}", h);
-							boolean sent = connection.sendMissingData(h);
-							if (!sent) {
-								log.debug("Send Queue full!");
-								break;
-							}
-						}
-						// if too low, can send multiple requests, and then block the peer
-						Thread.sleep(100);
-						ref = store.refForHash(hash);
-						if (ref != null) {
-							if (ref.getStatus() >= Ref.PERSISTED) {
-								// we have everything!
-								f.complete(ref.getValue());
-								return;
-							}
-							// maybe complete, but not sure
-							try {
-								ref = ref.persist();
-								f.complete(ref.getValue());
-							} catch (MissingDataException e) {
-								Hash missing = e.getMissingHash();
-								log.debug("Still missing: {}", missing);
-								connection.sendMissingData(missing);
-							}
-						}
-					}
-				} catch (Throwable t) {
-					// catch any errors, probably IO?
-					f.completeExceptionally(t);
+	/**
+	 * Requests a snapshot of a complete data structure from the connected Peer. The Peer streams
+	 * all the cells it holds for the data structure in hash order, followed by a Result containing
+	 * the number of cells sent.
+	 *
+	 * @param hash Hash of the data structure
+	 * @return Future for the Result of the snapshot request
+	 */
+	public CompletableFuture<Result> requestSnapshot(Hash hash) {
+		try {
+			synchronized (awaiting) {
+				long id = connection.sendSnapshotRequest(hash);
+				if (id < 0) {
+					return CompletableFuture.failedFuture(new IOException("Failed to send snapshot request due to full buffer"));
 				}
+				return awaitResult(id);
+			}
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
+	}
+
+	/**
+	 * Acquires a complete data structure using a snapshot from the connected Peer. This is much
+	 * faster than {@link #acquire(Hash, AStore)} for large structures (e.g. a State when joining
+	 * the network), since the Peer streams everything without waiting for requests, and received
+	 * cells are appended to the store in bulk rather than stored one at a time. Any cells not
+	 * received in the snapshot are then acquired as normal, so the result is always verified
+	 * against the hash.
+	 *
+	 * @param <T> Type of value acquired
+	 * @param hash Hash of the data structure
+	 * @param store Store to acquire the value to
+	 * @return Future for the acquired value
+	 */
+	public <T extends ACell> CompletableFuture<T> acquireSnapshot(Hash hash, AStore store) {
+		// cells streamed while a snapshot is in progress are stored in bulk, one snapshot at a time
+		boolean bulk;
+		synchronized (snapshotLock) {
+			bulk = (snapshotStore == null);
+			if (bulk) snapshotStore = store;
+		}
+
+		// the Result is sent after all streamed cells, so acquire only waits for or requests any the snapshot skipped
+		return requestSnapshot(hash).handle((r,e)->{
+			if (bulk) endSnapshot();
+			return null;
+		}).thenCompose(v->acquire(hash, store));
+	}
+
+	@Override
+	protected boolean collectData(ACell value) {
+		synchronized (snapshotLock) {
+			if (snapshotStore == null) return false;
+			snapshotCells.add(value);
+			if (snapshotCells.size() >= SNAPSHOT_BATCH_SIZE) storeSnapshotCells();
+			return true;
+		}
+	}
+
+	/**
+	 * Stores any remaining snapshot cells, and stops collecting cells
+	 */
+	private void endSnapshot() {
+		synchronized (snapshotLock) {
+			try {
+				storeSnapshotCells();
+			} finally {
+				snapshotStore = null;
+				snapshotCells.clear();
 			}
-		}).start();
-		return f;
+		}
+	}
+
+	/**
+	 * Stores collected snapshot cells with a single bulk write. Must hold snapshotLock.
+	 */
+	private void storeSnapshotCells() {
+		if (snapshotCells.isEmpty()) return;
+		ArrayList<Ref<ACell>> refs = snapshotStore.storeAllShallow(snapshotCells);
+		snapshotCells.clear();
+		for (Ref<ACell> ref : refs) {
+			internalHandler.dataStored(ref);
+		}
+	}
+
+	@Override
+	protected void dataReceived(Ref<ACell> ref) {
+		acquirer.dataReceived(ref);
 	}
 	
 	/**
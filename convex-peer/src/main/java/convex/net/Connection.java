@@ -3,6 +3,7 @@ package convex.net;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.SocketException;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
@@ -12,7 +13,11 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeoutException;
@@ -26,6 +31,7 @@ import convex.core.data.ACell;
 import convex.core.data.AccountKey;
 import convex.core.data.AVector;
 import convex.core.data.Address;
+import convex.core.data.Blob;
 import convex.core.data.Format;
 import convex.core.data.Hash;
 import convex.core.data.IRefFunction;
@@ -46,12 +52,14 @@ import convex.net.message.Message;
  * </p>
  *
  * <p>
- * Sent messages are sent asynchronously via the shared client selector.
+ * Sent messages are sent asynchronously via the Connection's selector, from
+ * a shared SelectorPool.
  * </p>
  *
  * <p>
- * Received messages are read by the shared client selector, converted into
- * Message instances, and passed to a Consumer for handling.
+ * Received messages are read by the same selector, converted into Message
+ * instances on the pool's decode threads, and passed to a Consumer for
+ * handling.
  * </p>
  *
  * <p>
@@ -82,18 +90,75 @@ public class Connection {
 	private static final Logger log = LoggerFactory.getLogger(Connection.class.getName());
 
 	/**
-	 * Pre-allocated direct buffer for message sending TODO: is one per connection
-	 * OK? Users should synchronise on this briefly while building message.
+	 * Maximum length of message content in a single frame, excluding the message type
 	 */
-	private final ByteBuffer frameBuf = ByteBuffer.allocateDirect(Format.LIMIT_ENCODING_LENGTH + 20);
+	static final int MAX_CONTENT_LENGTH = Format.LIMIT_ENCODING_LENGTH - 1;
 
 	private final MessageReceiver receiver;
 	private final MessageSender sender;
 
+	/**
+	 * Selection keys with reading paused because of backpressure. Must hold lock on list.
+	 */
+	private final ArrayList<SelectionKey> pausedKeys = new ArrayList<>(1);
+
+	private long pauseStart;
+
+	private long pausedNanos = 0;
+
+	/**
+	 * Selector responsible for reads and writes on the channel, or null if not selectable
+	 */
+	private final Selector selector;
+
+	/**
+	 * Batches of frames deferred by non-blocking senders because the send queue was full, in
+	 * send order. Must hold lock on queue.
+	 */
+	private final ArrayDeque<DeferredSend> deferred = new ArrayDeque<>();
+
+	private long deferredBytes = 0;
+
+	/**
+	 * Actions waiting for this Connection to stop being backpressured. Must hold lock on list.
+	 */
+	private final ArrayList<Runnable> drainActions = new ArrayList<>(1);
+
+	/**
+	 * Threads that must never wait for space in a send queue, e.g. a Server's receiver thread
+	 */
+	private static final ThreadLocal<Boolean> nonBlockingThread = ThreadLocal.withInitial(() -> false);
+
+	private static final class DeferredSend {
+		final List<ByteBuffer> frames;
+		final MessageType type;
+		final int dataLength;
+		final boolean isUrgent;
+		final long bytes;
+
+		DeferredSend(List<ByteBuffer> frames, MessageType type, int dataLength, boolean isUrgent) {
+			this.frames = frames;
+			this.type = type;
+			this.dataLength = dataLength;
+			this.isUrgent = isUrgent;
+			long total = 0;
+			for (ByteBuffer frame : frames) {
+				total += frame.remaining();
+			}
+			this.bytes = total;
+		}
+	}
+
 	private Connection(ByteChannel clientChannel, Consumer<Message> receiveAction, AStore store,
-			AccountKey trustedPeerKey) {
+			AccountKey trustedPeerKey, SelectorPool pool) {
 		this.channel = clientChannel;
-		receiver = new MessageReceiver(receiveAction, this);
+		if (pool != null) {
+			selector = pool.nextSelector();
+			receiver = new MessageReceiver(receiveAction, this, pool.getDecoder());
+		} else {
+			selector = null;
+			receiver = new MessageReceiver(receiveAction, this);
+		}
 		sender = new MessageSender(clientChannel);
 		this.store = store;
 		this.trustedPeerKey = trustedPeerKey;
@@ -113,7 +178,25 @@ public class Connection {
 	 */
 	public static Connection create(ByteChannel channel, Consumer<Message> receiveAction, AStore store,
 			AccountKey trustedPeerKey) throws IOException {
-		return new Connection(channel, receiveAction, store, trustedPeerKey);
+		SelectorPool pool = (channel instanceof SocketChannel) ? getClientPool() : null;
+		return new Connection(channel, receiveAction, store, trustedPeerKey, pool);
+	}
+
+	/**
+	 * Create a Connection using an existing channel, handled by the given SelectorPool. Received
+	 * messages are decoded and passed to the receive action on the pool's decode threads.
+	 *
+	 * @param channel Byte channel to wrap
+	 * @param receiveAction  Consumer to be called when a Message is received
+	 * @param store          Store to use when receiving messages.
+	 * @param trustedPeerKey Trusted peer account key if this is a trusted
+	 *                       connection, if not then null
+	 * @param pool           SelectorPool to handle this Connection
+	 * @return New Connection instance
+	 */
+	static Connection create(ByteChannel channel, Consumer<Message> receiveAction, AStore store,
+			AccountKey trustedPeerKey, SelectorPool pool) {
+		return new Connection(channel, receiveAction, store, trustedPeerKey, pool);
 	}
 	
 	/**
@@ -282,6 +365,22 @@ public class Connection {
 		return sendObject(MessageType.MISSING_DATA, value);
 	}
 
+	/**
+	 * Sends a MISSING_DATA Message requesting many cells on this connection.
+	 *
+	 * @param hashes Hashes of missing data, at most Constants.MISSING_DATA_LIMIT
+	 * @return true if buffered successfully, false otherwise (not sent)
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendMissingData(Collection<Hash> hashes) throws IOException {
+		int n = hashes.size();
+		if (n > Constants.MISSING_DATA_LIMIT) throw new IllegalArgumentException("Too many hashes in missing data request: " + n);
+		if (n == 1) return sendMissingData(hashes.iterator().next());
+		log.trace("Requested missing data for {} hashes with store {}", n, Stores.current());
+		AVector<Hash> v = Vectors.create(hashes);
+		return sendObject(MessageType.MISSING_DATA, v);
+	}
+
 	/**
 	 * Sends a QUERY Message on this connection with a null Address
 	 *
@@ -332,6 +431,25 @@ public class Connection {
 		}
 	}
 
+	/**
+	 * Sends a SNAPSHOT Request Message on this connection.
+	 *
+	 * @param hash Hash of the data structure requested
+	 * @return The ID of the message sent, or -1 if send buffer is full.
+	 * @throws IOException If IO error occurs
+	 */
+	public long sendSnapshotRequest(Hash hash) throws IOException {
+		AStore temp = Stores.current();
+		try {
+			long id = ++idCounter;
+			AVector<ACell> v = Vectors.of(id, hash);
+			boolean sent = sendObject(MessageType.SNAPSHOT, v);
+			return sent ? id : -1;
+		} finally {
+			Stores.setCurrent(temp);
+		}
+	}
+
 	/**
 	 * Sends a CHALLENGE Request Message on this connection.
 	 *
@@ -483,28 +601,169 @@ public class Connection {
 	 */
 	public boolean sendObject(MessageType type, ACell payload) throws IOException {
 		Counters.sendCount++;
+		List<ByteBuffer> frames = createFrames(type, payload);
+		if (log.isTraceEnabled()) {
+			log.trace("Sending message: " + type + " :: " + payload + " to " + getRemoteAddress() + " format: "
+					+ Format.encodedBlob(payload).toHexString()+" in frames: "+frames.size());
+		}
+		return sendFrames(frames, type, frames.get(frames.size() - 1).remaining());
+	}
 
+	/**
+	 * Creates the wire frames for a message, including frames to pre-send any novelty. Persists
+	 * the payload in the current store, so that missing data requests can be answered later.
+	 *
+	 * The frames are never modified after creation, so may be sent on any number of Connections
+	 * with sendFrames(...), e.g. for a broadcast.
+	 *
+	 * @param type    Type of message
+	 * @param payload Payload value for message
+	 * @return List of frames, each ready for reading
+	 */
+	public static List<ByteBuffer> createFrames(MessageType type, ACell payload) {
 		// Need to ensure message is persisted at least, so we can respond to missing
 		// data messages using the current thread store
-		// We pre-send any novelty to the destination
+		// We pre-send any novelty to the destination, batched into as few frames as possible
 		ACell sendVal = payload;
+		ArrayList<Blob> novelty = new ArrayList<>();
 		ACell.createPersisted(sendVal, r -> {
-			try {
-				ACell data = r.getValue();
-				if (data==sendVal) return; // skip sending top payload
-				if (!Format.isEmbedded(data)) sendData(data);
-			} catch (IOException e) {
-				throw Utils.sneakyThrow(e);
-			}
+			ACell data = r.getValue();
+			if (data==sendVal) return; // skip sending top payload
+			if (!Format.isEmbedded(data)) novelty.add(Format.encodedBlob(data));
 		});
 
 		ByteBuffer buf = Format.encodedBuffer(sendVal);
-		if (log.isTraceEnabled()) {
-			log.trace("Sending message: " + type + " :: " + payload + " to " + getRemoteAddress() + " format: "
-					+ Format.encodedBlob(payload).toHexString());
+		ArrayList<ByteBuffer> frames = new ArrayList<>();
+		addDataFrames(frames, novelty);
+		addFrame(frames, type, buf);
+		return frames;
+	}
+
+	/**
+	 * Sends frames created with createFrames(...). The frames are shared rather than copied,
+	 * so the same frames can be sent on many Connections.
+	 *
+	 * Never waits for space in the send queue, since a broadcast must not be held up by a slow
+	 * Peer. The frames are dropped if the queue is full.
+	 *
+	 * @param frames Frames to send, which must not be modified
+	 * @param type   Type of message, for logging
+	 * @return true if message queued successfully, false otherwise
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendFrames(List<ByteBuffer> frames, MessageType type) throws IOException {
+		Counters.sendCount++;
+		int n = frames.size();
+		ArrayList<ByteBuffer> views = new ArrayList<>(n);
+		for (ByteBuffer frame : frames) {
+			// independent position for this Connection's sender, same content
+			views.add(frame.asReadOnlyBuffer());
 		}
-		boolean sent = sendBuffer(type, buf);
-		return sent;
+		return sendFrames(views, type, frames.get(n - 1).remaining(), MessageSender.isUrgent(type), 0);
+	}
+
+	/**
+	 * Sends cell encodings as DATA, packed into as few frames as possible. Encodings are sent
+	 * exactly as given, so should already be verified.
+	 *
+	 * @param encodings Cell encodings to send
+	 * @return true if buffered successfully, false otherwise (not sent)
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendDataBatch(List<Blob> encodings) throws IOException {
+		if (encodings.isEmpty()) return true;
+		List<ByteBuffer> frames = createDataFrames(encodings);
+		return sendFrames(frames, MessageType.DATA_BATCH, frames.get(frames.size() - 1).remaining());
+	}
+
+	/**
+	 * Sends cell encodings as DATA followed by a Result, all in bulk order. The Result therefore
+	 * arrives after all data sent before it, e.g. at the end of a stream of data.
+	 *
+	 * @param encodings Cell encodings to send, which may be empty
+	 * @param result Result to send after the data
+	 * @return true if buffered successfully, false otherwise (not sent)
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendDataBatch(List<Blob> encodings, Result result) throws IOException {
+		Counters.sendCount++;
+		ArrayList<ByteBuffer> frames = new ArrayList<>();
+		addDataFrames(frames, encodings);
+		frames.addAll(createFrames(MessageType.RESULT, result));
+		int dataLength = frames.get(frames.size() - 1).remaining();
+		if (isNonBlockingThread()) return sendOrDefer(frames, MessageType.RESULT, dataLength, false);
+		return sendFrames(frames, MessageType.RESULT, dataLength, false, sendTimeout());
+	}
+
+	/**
+	 * Creates the wire frames for cell encodings sent as DATA. Like createFrames(...), the frames
+	 * may be sent on any number of Connections with sendFrames(...).
+	 *
+	 * @param encodings Cell encodings to send
+	 * @return List of frames, each ready for reading
+	 */
+	public static List<ByteBuffer> createDataFrames(List<Blob> encodings) {
+		ArrayList<ByteBuffer> frames = new ArrayList<>();
+		addDataFrames(frames, encodings);
+		return frames;
+	}
+
+	/**
+	 * Adds frames for a sequence of cell encodings to a list of frames. Encodings are packed
+	 * into DATA_BATCH frames up to the maximum message length, so that the novelty for a
+	 * message is typically sent in one or a few frames rather than one for each cell.
+	 *
+	 * @param frames List of frames to add to
+	 * @param encodings Cell encodings to send
+	 */
+	static void addDataFrames(List<ByteBuffer> frames, List<Blob> encodings) {
+		int n = encodings.size();
+		int start = 0;
+		while (start < n) {
+			// find as many encodings as fit in a single frame, at least one
+			int end = start;
+			int length = 0;
+			while (end < n) {
+				int encLength = (int) encodings.get(end).count();
+				int itemLength = Format.getVLCLength(encLength) + encLength;
+				if ((end > start) && (length + itemLength > MAX_CONTENT_LENGTH)) break;
+				length += itemLength;
+				end++;
+			}
+
+			if (end - start == 1) {
+				addFrame(frames, MessageType.DATA, encodings.get(start).getByteBuffer());
+			} else {
+				ByteBuffer frame = ByteBuffer.allocate(length + 3);
+				Format.writeMessageLength(frame, length + 1);
+				frame.put(MessageType.DATA_BATCH.getMessageCode());
+				for (int i = start; i < end; i++) {
+					Blob enc = encodings.get(i);
+					Format.writeVLCLong(frame, enc.count());
+					frame.put(enc.getByteBuffer());
+				}
+				frames.add(frame.flip());
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Adds a frame for a single message. The header and message data are combined in one frame,
+	 * since the sender may switch to urgent frames between any two frames.
+	 *
+	 * @param frames List of frames to add to
+	 * @param type MessageType value
+	 * @param buf Buffer containing raw wire data for the message
+	 */
+	static void addFrame(List<ByteBuffer> frames, MessageType type, ByteBuffer buf) {
+		// Total length field is message code + encoded object length
+		int messageLength = buf.remaining() + 1;
+		ByteBuffer frame = ByteBuffer.allocate(Format.getVLCLength(messageLength) + messageLength);
+		Format.writeMessageLength(frame, messageLength);
+		frame.put(type.getMessageCode());
+		frame.put(buf.duplicate());
+		frames.add(frame.flip());
 	}
 
 	/**
@@ -517,47 +776,148 @@ public class Connection {
 	 */
 	private boolean sendBuffer(MessageType type, ByteBuffer buf) throws IOException {
 		int dataLength = buf.remaining();
+		ArrayList<ByteBuffer> frames = new ArrayList<>(2);
+		addFrame(frames, type, buf);
+		return sendFrames(frames, type, dataLength);
+	}
 
-		// Total length field is message code + encoded object length
-		int messageLength = dataLength + 1;
-		boolean sent;
-		int headerLength;
+	/**
+	 * Buffers a batch of frames for sending, waiting for space in the send queue if necessary.
+	 * Used for requests and responses, which should not be dropped just because the queue is
+	 * briefly full.
+	 *
+	 * @param frames Frames to send
+	 * @param type MessageType of the final message, for logging
+	 * @param dataLength Data length of the final message, for logging
+	 * @return true if frames sent, false otherwise
+	 * @throws IOException
+	 */
+	private boolean sendFrames(List<ByteBuffer> frames, MessageType type, int dataLength) throws IOException {
+		boolean isUrgent = MessageSender.isUrgent(type);
+		if (isNonBlockingThread()) return sendOrDefer(frames, type, dataLength, isUrgent);
+		return sendFrames(frames, type, dataLength, isUrgent, sendTimeout());
+	}
 
-		// synchronize in case we are sending messages from different threads
-		// This is OK but need to avoid corrupted messages.
-		synchronized (frameBuf) {
-			// ensure frameBuf is clear and ready for writing
-			frameBuf.clear();
+	/**
+	 * Marks the current thread as one that must never wait for space in a send queue, e.g. a
+	 * thread whose progress other Connections depend on. Sends from such a thread that find the
+	 * queue full are deferred, and buffered by the selector as the queue drains.
+	 *
+	 * @param value True to never wait on the current thread
+	 */
+	public static void setNonBlockingThread(boolean value) {
+		nonBlockingThread.set(value);
+	}
 
-			// write message header
-			Format.writeMessageLength(frameBuf, messageLength);
-			frameBuf.put(type.getMessageCode());
-			headerLength = frameBuf.position();
+	/**
+	 * Checks if the current thread must never wait for space in a send queue
+	 *
+	 * @return True if sends on this thread are deferred rather than waiting
+	 */
+	public static boolean isNonBlockingThread() {
+		return nonBlockingThread.get();
+	}
 
-			// now write message
-			frameBuf.put(buf);
-			frameBuf.flip(); // ensure frameBuf is ready to write to channel
+	/**
+	 * Buffers frames for sending without waiting. If the send queue is full, or earlier frames
+	 * are already deferred, the frames are deferred until the selector has made space. Deferred
+	 * frames are dropped only if they exceed the send queue limit, so a remote end that stops
+	 * reading cannot hold up the caller or grow the deferred queue without bound.
+	 *
+	 * @return true if frames sent or deferred, false if dropped
+	 * @throws IOException
+	 */
+	private boolean sendOrDefer(List<ByteBuffer> frames, MessageType type, int dataLength, boolean isUrgent) throws IOException {
+		synchronized (deferred) {
+			if (deferred.isEmpty() && sender.offerFrames(frames, isUrgent)) {
+				return sendFrames(frames, type, dataLength, isUrgent, -1);
+			}
+			DeferredSend d = new DeferredSend(frames, type, dataLength, isUrgent);
+			if ((deferredBytes > 0) && (deferredBytes + d.bytes > Constants.SEND_QUEUE_LIMIT)) {
+				sender.recordDrop();
+				log.debug("Dropped deferred message {} of length: {} Connection ID: {}"
+						, type, dataLength, System.identityHashCode(this));
+				return false;
+			}
+			deferred.add(d);
+			deferredBytes += d.bytes;
+		}
+		// make sure the selector will retry, in case the queue drained since we looked
+		requestSelectorWrite();
+		return true;
+	}
 
-			sent = sender.bufferMessage(frameBuf);
+	/**
+	 * Buffers deferred frames, in order, for as long as there is space in the send queue.
+	 *
+	 * SECURITY: Called on Selector Thread
+	 *
+	 * @return True if any deferred frames were buffered
+	 * @throws IOException
+	 */
+	private boolean flushDeferred() throws IOException {
+		boolean buffered = false;
+		synchronized (deferred) {
+			while (!deferred.isEmpty()) {
+				DeferredSend d = deferred.peek();
+				if (!sender.offerFrames(d.frames, d.isUrgent)) break;
+				deferred.poll();
+				deferredBytes -= d.bytes;
+				sendFrames(d.frames, d.type, d.dataLength, d.isUrgent, -1);
+				buffered = true;
+			}
+		}
+		return buffered;
+	}
+
+	/**
+	 * Checks if any frames are deferred, waiting for space in the send queue
+	 * @return True if frames are deferred
+	 */
+	private boolean hasDeferred() {
+		synchronized (deferred) {
+			return !deferred.isEmpty();
+		}
+	}
+
+	/**
+	 * Gets the time to wait for space in the send queue. If the queue is full, we wait for the
+	 * selector to make space, unless we are the selector.
+	 */
+	private long sendTimeout() {
+		if ((channel instanceof SocketChannel) && !SelectorPool.isSelectorThread()) {
+			return Constants.SEND_RETRY_TIMEOUT;
 		}
+		return 0;
+	}
+
+	/**
+	 * Buffers a batch of frames for sending, and requests a write from the selector if one is
+	 * not already pending. Either all frames are sent, or none are.
+	 *
+	 * @param frames Frames to send
+	 * @param type MessageType of the final message, for logging
+	 * @param dataLength Data length of the final message, for logging
+	 * @param isUrgent True to send ahead of bulk frames
+	 * @param timeout Maximum time to wait for space in the send queue in milliseconds, or 0 to fail immediately
+	 * @return true if frames sent, false otherwise
+	 * @throws IOException
+	 */
+	private boolean sendFrames(List<ByteBuffer> frames, MessageType type, int dataLength, boolean isUrgent, long timeout) throws IOException {
+		// a negative timeout means the frames have already been buffered
+		boolean sent = (timeout < 0) || sender.bufferFrames(frames, isUrgent, timeout);
+		maybeResumeReading();
 
 		if (sent) {
-			if (channel instanceof SocketChannel) {
-				SocketChannel chan = (SocketChannel) channel;
-				// register interest in both reads and writes
-				try {
-					chan.register(selector, SelectionKey.OP_WRITE | SelectionKey.OP_READ, this);
-				} catch (CancelledKeyException e) {
-					// ignore. Must have got cancelled elsewhere?
-				}
-				// wake up selector
-				selector.wakeup();
-			}
+			requestSelectorWrite();
 
 			if (log.isTraceEnabled()) {
-				log.trace("Sent message " + type + " of length: " + dataLength + " Connection ID: "
+				log.trace("Sent message " + type + " of length: " + dataLength + " in "+frames.size()+" frames, Connection ID: "
 						+ System.identityHashCode(this));
 			}
+		} else if (timeout > 0) {
+			log.warn("Dropped message {} of length: {} after waiting {}ms for send queue, Connection ID: {}"
+						, type, dataLength, timeout, System.identityHashCode(this));
 		} else {
 			log.debug("sendBuffer failed with message {} of length: {} Connection ID: {}"
 						, type, dataLength, System.identityHashCode(this));
@@ -565,6 +925,163 @@ public class Connection {
 		return sent;
 	}
 
+	/**
+	 * Requests a write from the selector, if one is not already pending
+	 */
+	private void requestSelectorWrite() throws IOException {
+		if (!(channel instanceof SocketChannel)) return;
+		// register interest in both reads and writes, once for each pending write
+		if (sender.requestWrite()) {
+			SocketChannel chan = (SocketChannel) channel;
+			int ops = SelectionKey.OP_WRITE;
+			if (!isReadPaused()) ops |= SelectionKey.OP_READ;
+			try {
+				chan.register(selector, ops, this);
+			} catch (CancelledKeyException e) {
+				// ignore. Must have got cancelled elsewhere?
+			}
+			// wake up selector
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Pauses reading on a selection key if this Connection is backpressured, i.e. the remote end
+	 * is not reading what we send fast enough. This stops a slow peer making requests faster than
+	 * it can receive the responses. Also pauses if received messages are waiting to be decoded.
+	 * Reading resumes when the queues drain.
+	 *
+	 * SECURITY: Called on Selector Thread
+	 *
+	 * @param key Selection key used for reading from this Connection
+	 * @return True if reading is paused, false if reading should continue
+	 */
+	boolean maybePauseReading(SelectionKey key) {
+		synchronized (pausedKeys) {
+			if (!isStalled()) return false;
+			if (pausedKeys.isEmpty()) {
+				pauseStart = System.nanoTime();
+				log.debug("Pausing reads due to backpressure, Connection ID: {}", System.identityHashCode(this));
+			}
+			if (!pausedKeys.contains(key)) pausedKeys.add(key);
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			return true;
+		}
+	}
+
+	/**
+	 * Checks if reading from this Connection should pause, because the remote end is not reading
+	 * what we send fast enough, or we are not decoding what we receive fast enough
+	 */
+	private boolean isStalled() {
+		return sender.isBackpressured() || receiver.isBacklogged();
+	}
+
+	/**
+	 * Resumes reading on any paused selection keys, if no longer stalled
+	 */
+	void maybeResumeReading() {
+		synchronized (pausedKeys) {
+			if (pausedKeys.isEmpty() || isStalled()) return;
+			for (SelectionKey key : pausedKeys) {
+				if (!key.isValid()) continue;
+				try {
+					key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+					key.selector().wakeup();
+				} catch (CancelledKeyException e) {
+					// ignore, key no longer in use
+				}
+			}
+			pausedKeys.clear();
+			pausedNanos += System.nanoTime() - pauseStart;
+		}
+	}
+
+	/**
+	 * Checks if reading from this Connection is paused because of backpressure
+	 * @return True if reading is paused
+	 */
+	public boolean isReadPaused() {
+		synchronized (pausedKeys) {
+			return !pausedKeys.isEmpty();
+		}
+	}
+
+	/**
+	 * Checks if this Connection is backpressured, i.e. has filled its send buffer and is waiting
+	 * for it to drain. Senders of bulk data should wait until this is false.
+	 *
+	 * @return True if backpressured
+	 */
+	public boolean isBackpressured() {
+		return sender.isBackpressured();
+	}
+
+	/**
+	 * Registers an action to run once this Connection is no longer backpressured, e.g. to send the
+	 * next part of a large stream of data without polling. The action runs on the selector thread
+	 * when the send queue drains, so should be quick, typically handing work to another thread.
+	 *
+	 * @param action Action to run
+	 * @return True if registered, false if not backpressured, in which case the action is not run
+	 */
+	public boolean onDrain(Runnable action) {
+		synchronized (drainActions) {
+			if (!sender.isBackpressured()) return false;
+			drainActions.add(action);
+			return true;
+		}
+	}
+
+	/**
+	 * Runs any actions waiting for the send queue to drain, if no longer backpressured
+	 */
+	private void maybeRunDrainActions() {
+		Runnable[] actions;
+		synchronized (drainActions) {
+			if (drainActions.isEmpty() || sender.isBackpressured()) return;
+			actions = drainActions.toArray(new Runnable[drainActions.size()]);
+			drainActions.clear();
+		}
+		for (Runnable action : actions) {
+			try {
+				action.run();
+			} catch (Throwable t) {
+				log.warn("Error in send queue drain action: {}", t);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes queued for sending on this Connection
+	 * @return Send queue depth in bytes
+	 */
+	public long getSendQueueDepth() {
+		return sender.getQueuedBytes();
+	}
+
+	/**
+	 * Gets the number of messages dropped on this Connection because the send queue was full
+	 * @return Number of dropped messages
+	 */
+	public long getDropCount() {
+		return sender.getDropCount();
+	}
+
+	/**
+	 * Gets the total time this Connection has been stalled by backpressure, either with
+	 * senders waiting for space or with reading paused
+	 * @return Stall time in milliseconds
+	 */
+	public long getStallTime() {
+		long paused;
+		synchronized (pausedKeys) {
+			paused = pausedNanos;
+			if (!pausedKeys.isEmpty()) paused += System.nanoTime() - pauseStart;
+		}
+		return sender.getStallTime() + paused / 1000000L;
+	}
+
 	public synchronized void close() {
 		if (channel != null) {
 			try {
@@ -594,91 +1111,44 @@ public class Connection {
 		SocketChannel chan = (SocketChannel) channel;
 		chan.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
 
-		// start running selector loop after we register for reading!
-		ensureSelectorLoop();
-
 		// seems to be needed to ensure selector sees new connection?
 		selector.wakeup();
 	}
 
-	private static final Selector selector;
-
-	static {
-		try {
-			selector = Selector.open();
-		} catch (IOException e) {
-			throw new Error(e);
-		}
-	}
-
-	public void wakeUp() {
-		selector.wakeup();
-	}
-
-	private static Thread loopThread;
+	/**
+	 * Shared selector pool for client Connections
+	 */
+	private static volatile SelectorPool clientPool;
 
-	private static void ensureSelectorLoop() {
+	private static SelectorPool getClientPool() throws IOException {
 		// double checked initialisation
-		if (loopThread == null) {
+		if (clientPool == null) {
 			synchronized (Connection.class) {
-				if (loopThread == null) {
-					loopThread = new Thread(selectorLoop, "PeerConnection NIO client selector loop");
-					// make this a daemon thread so it shuts down if everything else exits
-					loopThread.setDaemon(true);
-					loopThread.start();
+				if (clientPool == null) {
+					int threads = SelectorPool.defaultThreadCount();
+					clientPool = SelectorPool.create(threads, threads, "Connection client");
 				}
 			}
 		}
+		return clientPool;
 	}
 
-	private static Runnable selectorLoop = new Runnable() {
-		@Override
-		public void run() {
+	/**
+	 * Gets the selector responsible for this Connection's channel
+	 * @return Selector, or null if the channel is not selectable
+	 */
+	Selector getSelector() {
+		return selector;
+	}
 
-			log.debug("Client selector loop started");
-			while (true) {
-				try {
-					selector.select(1000);
-					Set<SelectionKey> keys = selector.selectedKeys();
-					Iterator<SelectionKey> it = keys.iterator();
-					while (it.hasNext()) {
-						final SelectionKey key = it.next();
-						it.remove(); // always remove key from selection set
-
-						// log.finest("PeerConnection key received: "+key);
-						if (!key.isValid()) {
-							continue;
-						}
-
-						try {
-							if (key.isReadable()) {
-								selectRead(key);
-							} else if (key.isWritable()) {
-								selectWrite(key);
-							}
-						} catch (ClosedChannelException e) {
-							// channel was closed, just lose the key?
-							log.debug("Unexpected ChannelClosedException, cancelling key: {}", e);
-							key.cancel();
-						} catch (IOException e) {
-							log.debug("Unexpected IOException, cancelling key: {}", e);
-							key.cancel();
-						} catch (CancelledKeyException e) {
-							log.debug("Cancelled key");
-						}
-					}
-				} catch (Throwable t) {
-					log.error("Uncaught error in PeerConnection client selector loop: {}", t);
-					t.printStackTrace();
-				}
-			}
-		}
-	};
+	public void wakeUp() {
+		if (selector != null) selector.wakeup();
+	}
 
 	/**
-	 * Handles channel reads from a SelectionKey for the client listener
+	 * Handles channel reads from a SelectionKey
 	 *
-	 * SECURITY: Called on Connection Selector Thread
+	 * SECURITY: Called on Selector Thread
 	 *
 	 * @param key
 	 * @throws IOException
@@ -687,15 +1157,16 @@ public class Connection {
 		Connection conn = (Connection) key.attachment();
 		if (conn == null)
 			throw new Error("No PeerConnection specified");
+		if (conn.maybePauseReading(key)) return;
 
 		try {
 			int n = conn.handleChannelRecieve();
 			// log.finest("Received bytes: " + n);
-		} catch (ClosedChannelException e) {
+		} catch (ClosedChannelException | SocketException e) {
 			log.debug("Channel closed from: {}", conn.getRemoteAddress());
 			key.cancel();
 		} catch (BadFormatException e) {
-			log.warn("Cancelled connection to Peer: Bad data format from: " + conn.getRemoteAddress() + " "
+			log.warn("Cancelled connection: Bad data format from: " + conn.getRemoteAddress() + " "
 					+ e.getMessage());
 			key.cancel();
 		}
@@ -733,23 +1204,25 @@ public class Connection {
 	 */
 	static void selectWrite(SelectionKey key) throws IOException {
 		Connection pc = (Connection) key.attachment();
-		boolean allSent = pc.sender.maybeSendBytes();
 
-		if (allSent) {
-			// deregister interest in writing
-			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
-		} else {
-			// we want to continue writing
-		}
+		// deregisters interest in writing if all bytes sent, otherwise we want to continue writing
+		pc.sender.maybeCompleteWrite(key);
+		pc.flushDeferred();
+		pc.maybeResumeReading();
+		pc.maybeRunDrainActions();
 	}
 
 	/**
-	 * Sends bytes buffered into the underlying channel.
+	 * Sends bytes buffered into the underlying channel, including any deferred frames that now fit.
 	 * @return True if all bytes are sent, false otherwise
 	 * @throws IOException If an IO Exception occurs
 	 */
 	public boolean flushBytes() throws IOException {
-		return sender.maybeSendBytes();
+		boolean allSent = sender.maybeSendBytes();
+		if (flushDeferred()) allSent = sender.maybeSendBytes();
+		maybeResumeReading();
+		maybeRunDrainActions();
+		return allSent && !hasDeferred();
 	}
 
 	@Override
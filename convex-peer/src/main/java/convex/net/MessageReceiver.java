@@ -1,9 +1,14 @@
 package convex.net;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -15,6 +20,8 @@ import convex.core.data.ACell;
 import convex.core.data.Blob;
 import convex.core.data.Format;
 import convex.core.exceptions.BadFormatException;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
 import convex.net.message.Message;
 
 /**
@@ -22,8 +29,10 @@ import convex.net.message.Message;
  *
  * ByteBuffers received must be passed in via @receiveFromChannel
  *
- * Passes any successfully received objects to a specified Consumer, using the same thread on which the
- * MessageReceiver was called.
+ * Passes any successfully received objects to a specified Consumer. If a decode Executor is given,
+ * frames are decoded and passed on by the Executor, in the order received, so that the thread reading
+ * from the channel does not spend time decoding. Otherwise this happens on the same thread on which
+ * the MessageReceiver was called.
  *
  * <blockquote>
  *   <p>"There are only two hard problems in distributed systems: 2. Exactly-once
@@ -39,22 +48,77 @@ public class MessageReceiver {
 	public static final int RECEIVE_BUFFER_SIZE = Constants.RECEIVE_BUFFER_SIZE;
 
 	/**
-	 * Buffer for receiving partial messages. Maintained ready for writing.
-	 * 
-	 * Maybe use a direct buffer since we are copying from the socket channel? But probably doesn't make any difference.
+	 * Buffer for receiving messages. Maintained ready for writing.
+	 *
+	 * This is a heap buffer because large frames are decoded directly from slices of its
+	 * backing array. Once that has happened the array is owned by the decoded cells (which retain
+	 * their encodings), so it is never written again: a new buffer is allocated instead.
 	 */
 	private ByteBuffer buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
 
+	/**
+	 * Minimum length of a frame decoded directly from the receive buffer array. Smaller encodings
+	 * are copied out, since a small cell (e.g. held in a cell cache, which only counts encoding
+	 * length) would otherwise keep the whole array alive.
+	 */
+	public static final int MIN_SHARED_LENGTH = RECEIVE_BUFFER_SIZE / 4;
+
+	/**
+	 * Maximum number of frames waiting to be decoded before the receiver is backlogged
+	 */
+	static final int MAX_BACKLOG = 1000;
+
+	/**
+	 * Maximum number of frames decoded in one task, so that a busy connection does not
+	 * hold on to a decode thread
+	 */
+	static final int MAX_DECODE_RUN = 100;
+
 	private final Consumer<Message> action;
 	private final Connection connection;
+	private final Executor decoder;
+
+	/**
+	 * Frames waiting to be decoded. Must hold lock on backlog.
+	 */
+	private final ArrayDeque<Frame> backlog = new ArrayDeque<>();
+
+	/**
+	 * True if a decode task is scheduled or running. Must hold lock on backlog.
+	 */
+	private boolean decoding = false;
 
-	private long receivedMessageCount = 0;
+	private boolean backlogged = false;
+
+	private volatile long receivedMessageCount = 0;
 
 	private static final Logger log = LoggerFactory.getLogger(MessageReceiver.class.getName());
 
+	private static final class Frame {
+		final MessageType type;
+		final Blob encoding;
+
+		Frame(MessageType type, Blob encoding) {
+			this.type = type;
+			this.encoding = encoding;
+		}
+	}
+
 	public MessageReceiver(Consumer<Message> receiveAction, Connection pc) {
+		this(receiveAction, pc, null);
+	}
+
+	/**
+	 * Creates a MessageReceiver that decodes messages using the given Executor
+	 *
+	 * @param receiveAction Consumer for received messages
+	 * @param pc Connection for received messages
+	 * @param decoder Executor for decoding messages, or null to decode on the receiving thread
+	 */
+	public MessageReceiver(Consumer<Message> receiveAction, Connection pc, Executor decoder) {
 		this.action = receiveAction;
 		this.connection = pc;
+		this.decoder = decoder;
 	}
 
 	public Consumer<Message> getAction() {
@@ -76,11 +140,10 @@ public class MessageReceiver {
 	 * May be called multiple times during receipt of a single message, i.e. can
 	 * handle partial message receipt.
 	 *
-	 * Will consume enough bytes from channel to handle exactly one message. Bytes
-	 * will be left unconsumed on the channel if more are available.
-	 *
-	 * This hopefully
-	 * creates sufficient backpressure on clients sending a lot of messages.
+	 * Makes a single read from the channel of up to the receive buffer size, and handles
+	 * all complete messages received. Bytes will be left unconsumed on the channel if more
+	 * are available, which hopefully creates sufficient backpressure on clients sending
+	 * a lot of messages.
 	 *
 	 * @param chan Byte channel
 	 * @throws IOException If IO error occurs
@@ -88,59 +151,171 @@ public class MessageReceiver {
 	 * @throws BadFormatException If a bad encoding is received
 	 */
 	public synchronized int receiveFromChannel(ReadableByteChannel chan) throws IOException, BadFormatException {
-		int numRead=0;
+		int numRead = chan.read(buffer);
+		if (numRead < 0) {
+			chan.close();
+			throw new ClosedChannelException();
+		}
+		if (numRead == 0) return 0;
+
+		boolean shared = false;
+
+		buffer.flip(); // prepare for read
+		byte[] array = buffer.array();
+		while (buffer.remaining() >= 2) {
+			// peek message length at start of frame. May throw BFE.
+			int start = buffer.position();
+			int len = Format.peekMessageLength(buffer.slice());
+			int lengthLength = (len < 64) ? 1 : 2;
+
+			// exit if we are still waiting for more bytes
+			int totalFrameSize = lengthLength + len;
+			if (buffer.remaining() < totalFrameSize) break;
 
-		// first read a message length
-		if (buffer.position()<2) {
-			buffer.limit(2);
-			numRead = chan.read(buffer);
+			// message content follows length field and message code
+			MessageType type = MessageType.decode(array[start + lengthLength]);
+			int contentStart = start + lengthLength + 1;
+			int contentLength = len - 1;
+			buffer.position(start + totalFrameSize);
 
-			if (numRead < 0) {
-				chan.close();
-			    throw new ClosedChannelException();
+			if (type == MessageType.DATA_BATCH) {
+				receiveDataBatch(array, contentStart, contentLength);
+			} else {
+				// Decode directly from the buffer array only if the frame is large enough to justify
+				// holding on to the array
+				boolean share = contentLength >= MIN_SHARED_LENGTH;
+				deliver(type, wrapEncoding(array, contentStart, contentLength, share));
+				shared |= share;
 			}
+		}
 
-			// exit if we don't have at least 2 bytes for message length (may also be a message code)
-			if (buffer.position()<2) return numRead;
+		// keep any partial message ready for the next read
+		if (shared) {
+			ByteBuffer newBuffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		} else {
+			buffer.compact();
 		}
+		return numRead;
+	}
 
-		// peek message length at start of buffer. May throw BFE.
-		int len = Format.peekMessageLength(buffer);
-		int lengthLength = (len < 64) ? 1 : 2;
+	private static Blob wrapEncoding(byte[] array, int offset, int length, boolean share) {
+		if (share) return Blob.wrap(array, offset, length);
+		return Blob.wrap(Arrays.copyOfRange(array, offset, offset + length));
+	}
 
-		// limit buffer to total message frame size including length
-		int totalFrameSize=lengthLength + len;
-		buffer.limit(totalFrameSize);
+	/**
+	 * Reads the cells from a DATA_BATCH message, passing each on as a separate DATA message.
+	 * Each cell encoding is preceded by its VLC encoded length. Cell encodings are small, so
+	 * they are always copied out of the array.
+	 *
+	 * @param array Array containing the message
+	 * @param offset Offset of the message content
+	 * @param length Length of the message content
+	 * @throws BadFormatException if the message is incorrectly formatted
+	 */
+	private void receiveDataBatch(byte[] array, int offset, int length) throws BadFormatException {
+		ByteBuffer bb = ByteBuffer.wrap(array, offset, length);
+		while (bb.hasRemaining()) {
+			long n;
+			try {
+				n=Format.readVLCLong(bb);
+			} catch (BufferUnderflowException e) {
+				throw new BadFormatException("Truncated cell length in DATA_BATCH message");
+			}
+			if ((n<=0)||(n>bb.remaining())) throw new BadFormatException("Bad cell length in DATA_BATCH message: "+n);
+			int pos = bb.position();
+			bb.position(pos + (int)n);
+			deliver(MessageType.DATA, wrapEncoding(array, pos, (int)n, false));
+		}
+	}
 
-		// try to read more bytes up to limit of total message size
-		{
-			int n=chan.read(buffer);
-			if (n < 0) throw new ClosedChannelException();
-			numRead+=n;
+	/**
+	 * Passes on a received frame, either decoding it immediately or adding it to the backlog
+	 * for the decode Executor
+	 */
+	private void deliver(MessageType type, Blob encoding) throws BadFormatException {
+		if (decoder == null) {
+			receiveMessage(type, encoding);
+			return;
 		}
+		synchronized (backlog) {
+			backlog.add(new Frame(type, encoding));
+			if (backlog.size() > MAX_BACKLOG) backlogged = true;
+			if (decoding) return;
+			decoding = true;
+		}
+		schedule();
+	}
 
-		// exit if we are still waiting for more bytes
-		if (buffer.hasRemaining()) return numRead;
+	private void schedule() {
+		try {
+			decoder.execute(this::decodeBacklog);
+		} catch (RejectedExecutionException e) {
+			// executor shut down, so nothing more to do
+			synchronized (backlog) {
+				backlog.clear();
+				decoding = false;
+			}
+		}
+	}
 
-		// Log.debug("Message received with length: "+len);
-		buffer.flip(); // prepare for read
+	/**
+	 * Decodes frames from the backlog in order. Runs on the decode Executor.
+	 */
+	private void decodeBacklog() {
+		AStore tempStore = Stores.current();
+		try {
+			// use the Connection-specific store for handling incoming messages
+			Stores.setCurrent(connection.getStore());
+			for (int i = 0; i < MAX_DECODE_RUN; i++) {
+				Frame frame;
+				boolean resume = false;
+				synchronized (backlog) {
+					frame = backlog.poll();
+					if (frame == null) {
+						decoding = false;
+						return;
+					}
+					if (backlogged && (backlog.size() <= MAX_BACKLOG / 2)) {
+						backlogged = false;
+						resume = true;
+					}
+				}
+				if (resume) connection.maybeResumeReading();
 
-		// position buffer ready to receive message content (i.e. skip length
-		// field). We still want to include the message code.
-		buffer.position(lengthLength);
-		byte mType=buffer.get();
-		MessageType type=MessageType.decode(mType);
-		
-		byte[] bs=new byte[len-1]; // message length after type byte
-		buffer.get(bs);
-		assert(!buffer.hasRemaining()); // should consume entire buffer!
-		Blob encoding=Blob.wrap(bs);
+				try {
+					receiveMessage(frame.type, frame.encoding);
+				} catch (BadFormatException e) {
+					log.warn("Closing connection: Bad data format from: {} message: {}", connection.getRemoteAddress(),
+							e.getMessage());
+					connection.close();
+					synchronized (backlog) {
+						backlog.clear();
+						decoding = false;
+					}
+					return;
+				}
+			}
+		} finally {
+			Stores.setCurrent(tempStore);
+		}
 
-		receiveMessage(type, encoding);
+		// more to do, give other connections a turn
+		schedule();
+	}
 
-		// clear buffer
-		buffer.clear();
-		return numRead;
+	/**
+	 * Checks if this receiver has too many frames waiting to be decoded. Reading from the
+	 * channel should pause while this is the case.
+	 *
+	 * @return True if backlogged
+	 */
+	public boolean isBacklogged() {
+		synchronized (backlog) {
+			return backlogged;
+		}
 	}
 
 	/**
@@ -3,27 +3,94 @@ package convex.net;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.core.Constants;
+import convex.core.util.Counters;
 
 /**
- * Message sender responsible for moving bytes from a ByteBuffer to a ByteChannel
- * 
- * Must call maybeSendBytes to attempt to flush buffer to channel.
+ * Message sender responsible for moving bytes from queued message frames to a ByteChannel
+ *
+ * Frames are queued as separate ByteBuffers, and written with a single gathering write where
+ * the channel supports it, so that many small messages can be sent without copying them into
+ * a common buffer or making a system call for each one.
+ *
+ * There are two queues: urgent frames (e.g. Beliefs and Results) are always written before
+ * bulk frames (DATA), so they are not held up behind large data transfers. A frame that has
+ * been partially written is always completed first. Each frame must be a complete message,
+ * since an urgent frame may be written between any two bulk frames.
+ *
+ * The queues are bounded. Once more than SEND_BUFFER_SIZE bytes are queued the sender is
+ * backpressured until the queue drains to half that size, which the Connection uses to pause
+ * reading from the remote end.
+ *
+ * Must call maybeSendBytes to attempt to flush queued frames to channel.
  */
 public class MessageSender {
 	public static final int SEND_BUFFER_SIZE = Constants.SEND_BUFFER_SIZE;
 
+	/**
+	 * Maximum number of bytes queued for bulk frames
+	 */
+	public static final int BULK_LIMIT = Constants.SEND_QUEUE_LIMIT;
+
+	/**
+	 * Maximum number of bytes queued for urgent frames, leaving room above the bulk limit
+	 */
+	public static final int URGENT_LIMIT = Constants.SEND_QUEUE_LIMIT + SEND_BUFFER_SIZE;
+
+	/**
+	 * Maximum number of frames to pass to a single gathering write
+	 */
+	static final int MAX_GATHER = 256;
+
 	private final ByteChannel channel;
 
 	/**
-	 * Buffer for send bytes. Retained in a state ready for reading, so we flip on
-	 * initialisation. Must be accessed holding lock on buffer.
+	 * Lock for all queue state
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Frame that has been partially written, if any. Must be completed before any other frame.
+	 */
+	private ByteBuffer partial = null;
+
+	/**
+	 * Queue of urgent frames waiting to be sent, each ready for reading.
 	 */
-	private final ByteBuffer buffer = ByteBuffer.allocate(SEND_BUFFER_SIZE).flip();
+	private final ArrayDeque<ByteBuffer> urgent = new ArrayDeque<>();
+
+	/**
+	 * Queue of bulk frames waiting to be sent, each ready for reading.
+	 */
+	private final ArrayDeque<ByteBuffer> bulk = new ArrayDeque<>();
+
+	/**
+	 * Number of bytes remaining in queued frames
+	 */
+	private long queuedBytes = 0;
+
+	/**
+	 * True if a write has been requested from the selector and not yet completed
+	 */
+	private boolean writeRequested = false;
+
+	/**
+	 * True if the queue has passed the high watermark and not yet drained to the low watermark
+	 */
+	private boolean backpressured = false;
+
+	private long dropCount = 0;
+
+	private long stallNanos = 0;
 
 	protected static final Logger log = LoggerFactory.getLogger(MessageSender.class.getName());
 
@@ -32,44 +99,197 @@ public class MessageSender {
 	}
 
 	/**
-	 * Buffers a message for sending.
-	 * 
+	 * Checks if messages of the given type are urgent, i.e. should be sent ahead of bulk data.
+	 *
+	 * @param type Message type
+	 * @return True if urgent, false for bulk data
+	 */
+	public static boolean isUrgent(MessageType type) {
+		return (type != MessageType.DATA) && (type != MessageType.DATA_BATCH);
+	}
+
+	/**
+	 * Buffers a message for sending. The frame is copied, so may be reused by the caller.
+	 *
 	 * @param messageFrame Source ByteBuffer containing complete message bytes (including length)
 	 * @return True if successfully buffered, false otherwise (insufficient send buffer
 	 *         size)
 	 */
 	public boolean bufferMessage(ByteBuffer messageFrame) {
-		synchronized (buffer) {
-			// compact buffer, ready for writing			
-			buffer.compact();
-			
-			// return false if insufficient space to send
-			if (buffer.remaining() < messageFrame.remaining()) {
-				// flip to maintain readiness for writing
-				buffer.flip();
-				return false;
+		ByteBuffer copy = ByteBuffer.allocate(messageFrame.remaining());
+		copy.put(messageFrame.duplicate());
+		copy.flip();
+		if (!bufferFrames(List.of(copy))) return false;
+		messageFrame.position(messageFrame.limit());
+		return true;
+	}
+
+	/**
+	 * Buffers a batch of urgent frames for sending, without waiting.
+	 *
+	 * @param frames Frames to send, each ready for reading
+	 * @return True if successfully buffered, false otherwise (insufficient send buffer
+	 *         size)
+	 */
+	public boolean bufferFrames(List<ByteBuffer> frames) {
+		return bufferFrames(frames, true, 0);
+	}
+
+	/**
+	 * Buffers a batch of frames for sending. Either all frames are buffered, or none are.
+	 * Each frame must contain exactly one complete message. The sender takes ownership of the
+	 * frame buffers, which must not be modified afterwards.
+	 *
+	 * A batch larger than the queue limit is accepted if nothing else is queued, so
+	 * that large batches can always be sent eventually.
+	 *
+	 * If the queue is full, first tries to make space by writing directly to the channel, then
+	 * waits up to the given timeout for space. Should only wait if another thread is writing
+	 * queued frames to the channel.
+	 *
+	 * @param frames Frames to send, each ready for reading
+	 * @param isUrgent True to send ahead of bulk frames
+	 * @param timeout Maximum time to wait for space in milliseconds, or 0 to fail immediately
+	 * @return True if successfully buffered, false otherwise (insufficient send buffer
+	 *         size)
+	 */
+	public boolean bufferFrames(List<ByteBuffer> frames, boolean isUrgent, long timeout) {
+		long total = 0;
+		for (ByteBuffer frame : frames) {
+			total += frame.remaining();
+		}
+		long limit = isUrgent ? URGENT_LIMIT : BULK_LIMIT;
+		synchronized (lock) {
+			if ((queuedBytes > 0) && (queuedBytes + total > limit)) {
+				try {
+					maybeSendBytes();
+				} catch (IOException e) {
+					// ignore, channel will be closed
+				}
+				if (!awaitSpace(total, limit, timeout)) {
+					dropCount++;
+					Counters.sendDrops++;
+					return false;
+				}
+			}
+			enqueue(frames, isUrgent, total);
+		}
+		return true;
+	}
+
+	/**
+	 * Buffers a batch of frames for sending if there is space in the queue, without waiting.
+	 * Unlike bufferFrames, a full queue is not counted as a drop, since the caller keeps the
+	 * frames to offer again later.
+	 *
+	 * @param frames Frames to send, each ready for reading
+	 * @param isUrgent True to send ahead of bulk frames
+	 * @return True if successfully buffered, false if the queue is full
+	 */
+	boolean offerFrames(List<ByteBuffer> frames, boolean isUrgent) {
+		long total = 0;
+		for (ByteBuffer frame : frames) {
+			total += frame.remaining();
+		}
+		long limit = isUrgent ? URGENT_LIMIT : BULK_LIMIT;
+		synchronized (lock) {
+			if ((queuedBytes > 0) && (queuedBytes + total > limit)) {
+				try {
+					maybeSendBytes();
+				} catch (IOException e) {
+					// ignore, channel will be closed
+				}
+				if ((queuedBytes > 0) && (queuedBytes + total > limit)) return false;
 			}
-			buffer.put(messageFrame);
-			// flip so ready for reading once again
-			buffer.flip();
+			enqueue(frames, isUrgent, total);
 		}
 		return true;
 	}
 
+	/**
+	 * Adds frames to the appropriate queue. Must hold lock.
+	 */
+	private void enqueue(List<ByteBuffer> frames, boolean isUrgent, long total) {
+		ArrayDeque<ByteBuffer> queue = isUrgent ? urgent : bulk;
+		for (ByteBuffer frame : frames) {
+			if (frame.hasRemaining()) queue.add(frame);
+		}
+		queuedBytes += total;
+		if (queuedBytes > SEND_BUFFER_SIZE) backpressured = true;
+	}
+
+	/**
+	 * Records a batch of frames dropped by the caller because the send queue was full
+	 */
+	void recordDrop() {
+		synchronized (lock) {
+			dropCount++;
+		}
+		Counters.sendDrops++;
+	}
+
+	/**
+	 * Waits for space in the queue. Must hold lock.
+	 *
+	 * @return True if there is now space, false if timed out
+	 */
+	private boolean awaitSpace(long total, long limit, long timeout) {
+		if ((queuedBytes == 0) || (queuedBytes + total <= limit)) return true;
+		if (timeout <= 0) return false;
+		long start = System.nanoTime();
+		long deadline = start + timeout * 1000000L;
+		try {
+			while ((queuedBytes > 0) && (queuedBytes + total > limit)) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) return false;
+				lock.wait(Math.max(1, remaining / 1000000L));
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			long stalled = System.nanoTime() - start;
+			stallNanos += stalled;
+			Counters.sendStallTime += stalled / 1000000L;
+		}
+	}
+
+	/**
+	 * Marks that a write has been requested from the selector, if not already done.
+	 *
+	 * @return True if the caller should request a write, false if one is already pending
+	 */
+	boolean requestWrite() {
+		synchronized (lock) {
+			if (writeRequested) return false;
+			writeRequested = true;
+			return true;
+		}
+	}
+
 	/**
 	 * Try to send bytes on the outbound channel.
-	 * 
+	 *
 	 * @return True if all bytes have been sent, false otherwise.
 	 * @throws IOException If IO error occurs
 	 */
 	public boolean maybeSendBytes() throws IOException {
-		synchronized (buffer) {
-			if (!buffer.hasRemaining()) return true;
+		synchronized (lock) {
+			boolean progress = false;
+			while (queuedBytes > 0) {
+				long written = writeFrames();
+				if (written == 0) break;
+				queuedBytes -= written;
+				progress = true;
+			}
 
-			// write to channel if possible. May write zero or more bytes
-			channel.write(buffer);
+			if (progress) {
+				if (queuedBytes <= SEND_BUFFER_SIZE / 2) backpressured = false;
+				lock.notifyAll();
+			}
 
-			if (buffer.hasRemaining()) {
+			if (queuedBytes > 0) {
 				log.debug("Send buffer full!");
 				return false;
 			} else {
@@ -78,4 +298,116 @@ public class MessageSender {
 		}
 	}
 
+	/**
+	 * Writes as many frames as possible in priority order. Must hold lock.
+	 *
+	 * @return Number of bytes written
+	 */
+	private long writeFrames() throws IOException {
+		int n = Math.min(urgent.size() + bulk.size() + ((partial == null) ? 0 : 1), MAX_GATHER);
+		if (!(channel instanceof GatheringByteChannel)) n = Math.min(n, 1);
+		if (n == 0) return 0;
+		ByteBuffer[] bufs = new ByteBuffer[n];
+		int i = 0;
+		if ((partial != null) && (i < n)) bufs[i++] = partial;
+		Iterator<ByteBuffer> it = urgent.iterator();
+		while ((i < n) && it.hasNext()) bufs[i++] = it.next();
+		it = bulk.iterator();
+		while ((i < n) && it.hasNext()) bufs[i++] = it.next();
+		int[] before = new int[n];
+		for (i = 0; i < n; i++) {
+			before[i] = bufs[i].remaining();
+		}
+
+		long written;
+		if (channel instanceof GatheringByteChannel) {
+			// write to channel if possible. May write zero or more bytes
+			written = ((GatheringByteChannel) channel).write(bufs);
+		} else {
+			written = channel.write(bufs[0]);
+		}
+
+		// drop completely sent frames, in the order they were written
+		for (i = 0; i < n; i++) {
+			ByteBuffer buf = bufs[i];
+			boolean done = !buf.hasRemaining();
+			if (buf == partial) {
+				if (done) partial = null;
+			} else if (done || (buf.remaining() < before[i])) {
+				// frame is now complete or partially written, so no longer waiting in its queue
+				if (urgent.peek() == buf) {
+					urgent.poll();
+				} else {
+					bulk.poll();
+				}
+				if (!done) partial = buf;
+			}
+			if (!done) break;
+		}
+		return written;
+	}
+
+	/**
+	 * Try to send bytes on the outbound channel. If all bytes have been sent, clears the pending
+	 * write request and the selector's interest in writes together, so that frames buffered
+	 * concurrently always cause a new write request. Should be called by the selector when the
+	 * channel is writable.
+	 *
+	 * @param key Selection key for the channel
+	 * @return True if all bytes have been sent, false otherwise.
+	 * @throws IOException If IO error occurs
+	 */
+	boolean maybeCompleteWrite(SelectionKey key) throws IOException {
+		synchronized (lock) {
+			boolean allSent = maybeSendBytes();
+			if (allSent) {
+				writeRequested = false;
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+			return allSent;
+		}
+	}
+
+	/**
+	 * Checks if this sender is backpressured, i.e. the queue has filled past the send buffer
+	 * size and not yet drained to half of it. Reading from the remote end should pause while
+	 * this is the case.
+	 *
+	 * @return True if backpressured
+	 */
+	public boolean isBackpressured() {
+		synchronized (lock) {
+			return backpressured;
+		}
+	}
+
+	/**
+	 * Gets the number of bytes queued for sending
+	 * @return Queue depth in bytes
+	 */
+	public long getQueuedBytes() {
+		synchronized (lock) {
+			return queuedBytes;
+		}
+	}
+
+	/**
+	 * Gets the number of message batches dropped because the send queue was full
+	 * @return Number of dropped batches
+	 */
+	public long getDropCount() {
+		synchronized (lock) {
+			return dropCount;
+		}
+	}
+
+	/**
+	 * Gets the total time senders have waited for space in the send queue
+	 * @return Stall time in milliseconds
+	 */
+	public long getStallTime() {
+		synchronized (lock) {
+			return stallNanos / 1000000L;
+		}
+	}
 }
@@ -44,10 +44,11 @@ public enum MessageType {
 	 * Excessive invalid missing data requests may be considered a DoS attack by
 	 * peers. Peers under load may need to ignore missing data requests.
 	 *
-	 * Payload is the missing data hash.
+	 * Payload is the missing data hash, or a Vector of hashes (up to
+	 * Constants.MISSING_DATA_LIMIT) to request many cells at once.
 	 *
-	 * Receiver should respond with a DATA message if the specified data is
-	 * available in their store.
+	 * Receiver should respond with a DATA message for each of the specified data
+	 * that is available in their store.
 	 */
 	MISSING_DATA(5),
 
@@ -101,7 +102,30 @@ public enum MessageType {
 	 *
 	 * Expected Result is a Vector: [signed-belief-hash states-hash initial-state-hash peer-key consensus-state-hash]
 	 */
-	STATUS(11);
+	STATUS(11),
+
+	/**
+	 * A message relaying multiple cells of data in a single frame, e.g. the novelty sent
+	 * ahead of another message.
+	 *
+	 * Content is the encoding of each cell, preceded by its VLC encoded length. Receivers
+	 * handle each cell exactly as if it had been sent in a separate DATA message.
+	 */
+	DATA_BATCH(12),
+
+	/**
+	 * A request for a complete data structure, typically a State or Belief needed by a
+	 * joining Peer.
+	 *
+	 * Payload is: [id hash]
+	 *
+	 * Receiver streams every cell reachable from the hash that it has in its store, in
+	 * DATA_BATCH messages, followed by a RESULT containing the number of cells sent.
+	 * Receivers verify and store each cell exactly as for DATA, so a requester can
+	 * then check the structure is complete against the hash, requesting any gaps with
+	 * MISSING_DATA.
+	 */
+	SNAPSHOT(13);
 
 	private final byte messageCode;
 
@@ -133,6 +157,10 @@ public enum MessageType {
 			return GOODBYE;
 		case 11:
 			return STATUS;
+		case 12:
+			return DATA_BATCH;
+		case 13:
+			return SNAPSHOT;
 		}
 		throw new BadFormatException("Invalid message code: " + i);
 	}
@@ -4,7 +4,6 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.SocketException;
 import java.net.StandardSocketOptions;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CancelledKeyException;
@@ -20,7 +19,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.core.Constants;
-import convex.core.exceptions.BadFormatException;
 import convex.core.store.Stores;
 import convex.net.message.Message;
 import convex.peer.Server;
@@ -28,11 +26,13 @@ import convex.peer.Server;
 /**
  * NIO Server implementation that handles incoming messages on a given port.
  *
- * Allocates a single thread for the selector.
+ * Allocates a single thread to accept connections. Each accepted connection is
+ * assigned to a selector from a SelectorPool, which handles all reads and
+ * writes for it, so network IO can use several threads.
  *
- * Incoming messages are associated with a Connection (which is created if
- * required), then placed on the receive message queue. This will block if the
- * receive queue is full (thereby applying back-pressure to clients)
+ * Incoming messages are associated with a Connection, then placed on the
+ * receive message queue. This will block if the receive queue is full (thereby
+ * applying back-pressure to clients)
  *
  */
 public class NIOServer implements Closeable {
@@ -46,7 +46,9 @@ public class NIOServer implements Closeable {
 
 	private Selector selector = null;
 
-	private boolean running = false;
+	private SelectorPool pool = null;
+
+	private volatile boolean running = false;
 
 	private final Server server;
 
@@ -71,6 +73,17 @@ public class NIOServer implements Closeable {
 	}
 
 	public void launch(String bindAddress, Integer port) {
+		launch(bindAddress, port, SelectorPool.defaultThreadCount());
+	}
+
+	/**
+	 * Launches this NIO server
+	 *
+	 * @param bindAddress     Address to bind to, or null for localhost
+	 * @param port            Port to listen on, or null / 0 for any available port
+	 * @param selectorThreads Number of selector threads for handling connections
+	 */
+	public void launch(String bindAddress, Integer port, int selectorThreads) {
 		if (port == null)
 			port = 0;
 
@@ -92,10 +105,12 @@ public class NIOServer implements Closeable {
 			selector = Selector.open();
 			ssc.register(selector, SelectionKey.OP_ACCEPT);
 
+			pool = SelectorPool.create(selectorThreads, Runtime.getRuntime().availableProcessors(), "NIO Server on port: " + port);
+
 			// set running status now, so that loops don't terminate
 			running = true;
 
-			Thread selectorThread = new Thread(selectorLoop, "NIO Server selector loop on port: " + port);
+			Thread selectorThread = new Thread(selectorLoop, "NIO Server accept loop on port: " + port);
 			selectorThread.setDaemon(true);
 			selectorThread.start();
 			log.info("NIO server started on port {}", port);
@@ -105,8 +120,8 @@ public class NIOServer implements Closeable {
 	}
 
 	/**
-	 * Runnable class for accepting socket connections and incoming data, one per
-	 * peer If this gets maxed out, rely on backpressure to throttle clients.
+	 * Runnable class for accepting socket connections. Incoming data is handled by
+	 * the selector pool.
 	 */
 	private Runnable selectorLoop = new Runnable() {
 		@Override
@@ -125,13 +140,8 @@ public class NIOServer implements Closeable {
 						it.remove();
 
 						try {
-							// Just do one op on each key
 							if (key.isAcceptable()) {
-								accept(selector);
-							} else if (key.isReadable()) {
-								selectRead(key);
-							} else if (key.isWritable()) {
-								selectWrite(key);
+								accept();
 							}
 						} catch (ClosedChannelException e) {
 							// channel was closed, just lose the key?
@@ -154,11 +164,9 @@ public class NIOServer implements Closeable {
 				// print error and terminate
 				e.printStackTrace();
 			} finally {
+				// closes all client channels
+				pool.close();
 				try {
-					// close all client channels
-					for (SelectionKey key : selector.keys()) {
-						key.channel().close();
-					}
 					selector.close();
 					selector = null;
 				} catch (IOException e) {
@@ -179,7 +187,7 @@ public class NIOServer implements Closeable {
 					}
 				}
 
-				log.info("Selector loop ended on port: " + getPort());
+				log.info("Accept loop ended on port: " + getPort());
 			}
 		}
 	};
@@ -198,50 +206,6 @@ public class NIOServer implements Closeable {
 		return socket.getLocalPort();
 	}
 
-	protected void selectWrite(SelectionKey key) throws IOException {
-		// attach a PeerConnection if needed for this client
-		ensurePeerConnection(key);
-
-		Connection.selectWrite(key);
-	}
-
-	private Connection ensurePeerConnection(SelectionKey key) throws IOException {
-		Connection pc = (Connection) key.attachment();
-		if (pc != null)
-			return pc;
-		SocketChannel sc = (SocketChannel) key.channel();
-		assert (!sc.isBlocking());
-		pc = createPC(sc, receiveQueue);
-		key.attach(pc);
-		return pc;
-	}
-
-	private Connection createPC(SocketChannel sc, BlockingQueue<Message> queue) throws IOException {
-		return Connection.create(sc, server.getReceiveAction(), server.getStore(), null);
-	}
-
-	protected void selectRead(SelectionKey key) throws IOException {
-
-		// log.info("Connection read from: "+sc.getRemoteAddress()+" with key:"+key);
-		Connection conn = ensurePeerConnection(key);
-		if (conn == null)
-			throw new Error("No PeerConnection specified");
-		try {
-			int n = conn.handleChannelRecieve();
-			if (n == 0) {
-				log.debug("No bytes received for key: {}", key);
-			}
-		} catch (ClosedChannelException | SocketException e) {
-			log.debug("Channel closed from: {}", conn.getRemoteAddress());
-			key.cancel();
-		} catch (BadFormatException e) {
-			log.warn("Cancelled connection: Bad data format from: {} message: {}", conn.getRemoteAddress(),
-					e.getMessage());
-			// TODO: blacklist peer?
-			key.cancel();
-		}
-	}
-
 	@Override
 	public void finalize() {
 		close();
@@ -256,7 +220,7 @@ public class NIOServer implements Closeable {
 
 	}
 
-	private void accept(Selector selector) throws IOException, ClosedChannelException {
+	private void accept() throws IOException, ClosedChannelException {
 		SocketChannel socketChannel = ssc.accept();
 		if (socketChannel == null)
 			return; // false alarm? Nobody there?
@@ -266,7 +230,12 @@ public class NIOServer implements Closeable {
 		// TODO: Confirm we don't want Nagle?
 		// Generally, we want to send packets as fast as possible.
 		socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
-		socketChannel.register(selector, SelectionKey.OP_READ);
+
+		// hand over to the next selector in the pool
+		Connection pc = Connection.create(socketChannel, server.getReceiveAction(), server.getStore(), null, pool);
+		Selector connSelector = pc.getSelector();
+		socketChannel.register(connSelector, SelectionKey.OP_READ, pc);
+		connSelector.wakeup();
 	}
 
 	/**
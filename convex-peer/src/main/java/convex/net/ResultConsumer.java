@@ -7,8 +7,10 @@ import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import convex.core.Constants;
 import convex.core.Result;
 import convex.core.data.ACell;
+import convex.core.data.AVector;
 import convex.core.data.Hash;
 import convex.core.data.Ref;
 import convex.core.exceptions.MissingDataException;
@@ -58,21 +60,65 @@ public abstract class ResultConsumer implements Consumer<Message> {
 		// Just store the data, can't guarantee full persistence yet
 		try {
 			ACell o = m.getPayload();
-			Ref<?> r = Ref.get(o);
-			r.persistShallow();
-			Hash h=r.getHash();
-			log.trace("Recieved DATA for hash {}",h);
-			unbuffer(h);
+			if (collectData(o)) return;
+			Ref<ACell> r = Ref.get(o);
+			r = r.persistShallow();
+			log.trace("Recieved DATA for hash {}",r.getHash());
+			dataStored(r);
 		} catch (MissingDataException e) {
 			// ignore?
 		}
 	}
 
+	/**
+	 * Method called when DATA is received, before it is stored. Subclasses may collect the data
+	 * to store later in bulk, in which case they must call dataStored(...) once it is stored.
+	 *
+	 * @param value Value received
+	 * @return True if the value has been collected, false to store it immediately
+	 */
+	protected boolean collectData(ACell value) {
+		return false;
+	}
+
+	/**
+	 * Handles DATA once it has been stored, replaying any messages waiting for it
+	 *
+	 * @param ref Ref to the data stored
+	 */
+	public void dataStored(Ref<ACell> ref) {
+		unbuffer(ref.getHash());
+		handleData(ref);
+	}
+
+	/**
+	 * Method called when DATA is received, after it has been stored. Does nothing by default.
+	 *
+	 * @param ref Ref to the data received
+	 */
+	protected void handleData(Ref<ACell> ref) {
+		// Nothing to do by default
+	}
+
 	private void handleMissingDataRequest(Message m) {
 		// try to be helpful by returning sent data
-		Hash h = RT.ensureHash(m.getPayload());
-		if (h==null) return; // not a valid payload so ignore
-		
+		ACell payload = m.getPayload();
+		if (payload instanceof AVector) {
+			AVector<ACell> v = RT.castVector(payload);
+			if (v.count() > Constants.MISSING_DATA_LIMIT) return; // not a valid payload so ignore
+			for (ACell e : v) {
+				Hash h = RT.ensureHash(e);
+				if (h==null) return; // not a valid payload so ignore
+				provideMissingData(m, h);
+			}
+		} else {
+			Hash h = RT.ensureHash(payload);
+			if (h==null) return; // not a valid payload so ignore
+			provideMissingData(m, h);
+		}
+	}
+
+	private void provideMissingData(Message m, Hash h) {
 		Ref<?> r = Stores.current().refForHash(h);
 		if (r != null) try {
 			m.sendData(r.getValue());
@@ -0,0 +1,180 @@
+package convex.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of selector threads handling network IO for a set of Connections, plus a pool of worker
+ * threads for decoding received messages.
+ *
+ * Each Connection is assigned to one selector, round-robin, which handles all reads and writes for
+ * its channel. Selector threads only move bytes and split them into frames: decoding and handling
+ * of messages happens on the decode workers, so a busy Peer can use several cores for networking.
+ */
+public class SelectorPool implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(SelectorPool.class.getName());
+
+	private static final ThreadLocal<Boolean> selectorThread = ThreadLocal.withInitial(() -> false);
+
+	private final Selector[] selectors;
+
+	private final ExecutorService decoder;
+
+	private final AtomicInteger next = new AtomicInteger(0);
+
+	private volatile boolean running = true;
+
+	private SelectorPool(int selectorThreads, int decodeThreads, String name) throws IOException {
+		selectors = new Selector[selectorThreads];
+		for (int i = 0; i < selectorThreads; i++) {
+			selectors[i] = Selector.open();
+		}
+		for (int i = 0; i < selectorThreads; i++) {
+			Selector selector = selectors[i];
+			Thread t = new Thread(() -> selectorLoop(selector), name + " selector " + (i + 1));
+			// daemon thread so it shuts down if everything else exits
+			t.setDaemon(true);
+			t.start();
+		}
+
+		AtomicInteger counter = new AtomicInteger(0);
+		decoder = Executors.newFixedThreadPool(decodeThreads, r -> {
+			Thread t = new Thread(r, name + " decoder " + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Creates and starts a SelectorPool
+	 * @param selectorThreads Number of selector threads
+	 * @param decodeThreads Number of threads for decoding received messages
+	 * @param name Name prefix for threads
+	 * @return New SelectorPool instance
+	 * @throws IOException If a selector cannot be opened
+	 */
+	public static SelectorPool create(int selectorThreads, int decodeThreads, String name) throws IOException {
+		if (selectorThreads < 1) throw new IllegalArgumentException("Need at least one selector thread");
+		if (decodeThreads < 1) throw new IllegalArgumentException("Need at least one decode thread");
+		return new SelectorPool(selectorThreads, decodeThreads, name);
+	}
+
+	/**
+	 * Gets the default number of selector threads, which is half the available processors
+	 * @return Default number of selector threads
+	 */
+	public static int defaultThreadCount() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	}
+
+	/**
+	 * Checks if the current thread is a selector thread. Selector threads must never wait for
+	 * network IO, since they may be the thread responsible for performing it.
+	 *
+	 * @return True if called on a selector thread
+	 */
+	public static boolean isSelectorThread() {
+		return selectorThread.get();
+	}
+
+	/**
+	 * Gets the selector for the next channel, round-robin
+	 * @return Selector
+	 */
+	Selector nextSelector() {
+		int i = Math.floorMod(next.getAndIncrement(), selectors.length);
+		return selectors[i];
+	}
+
+	/**
+	 * Gets the executor used for decoding received messages
+	 * @return Executor for decoding
+	 */
+	ExecutorService getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * Gets the number of selector threads in this pool
+	 * @return Number of threads
+	 */
+	public int getThreadCount() {
+		return selectors.length;
+	}
+
+	private void selectorLoop(Selector selector) {
+		selectorThread.set(true);
+		log.debug("Selector loop started");
+		try {
+			while (running) {
+				try {
+					selector.select(1000);
+					Set<SelectionKey> keys = selector.selectedKeys();
+					Iterator<SelectionKey> it = keys.iterator();
+					while (it.hasNext()) {
+						final SelectionKey key = it.next();
+						it.remove(); // always remove key from selection set
+						handleKey(key);
+					}
+				} catch (Throwable t) {
+					if (!running) break;
+					log.error("Uncaught error in selector loop: {}", t);
+					t.printStackTrace();
+				}
+			}
+		} finally {
+			try {
+				// close all channels
+				for (SelectionKey key : selector.keys()) {
+					key.channel().close();
+				}
+				selector.close();
+			} catch (IOException e) {
+				log.warn("IOException while closing selector: {}", e);
+			}
+			log.debug("Selector loop ended");
+		}
+	}
+
+	private void handleKey(SelectionKey key) {
+		try {
+			if (key.isValid() && key.isReadable()) {
+				Connection.selectRead(key);
+			}
+			if (key.isValid() && key.isWritable()) {
+				Connection.selectWrite(key);
+			}
+		} catch (ClosedChannelException e) {
+			// channel was closed, just lose the key?
+			log.debug("Channel closed, cancelling key: {}", e);
+			key.cancel();
+		} catch (IOException e) {
+			log.debug("Unexpected IOException, cancelling key: {}", e);
+			key.cancel();
+		} catch (CancelledKeyException e) {
+			log.debug("Cancelled key");
+		}
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		for (Selector selector : selectors) {
+			selector.wakeup();
+		}
+		decoder.shutdownNow();
+	}
+}
@@ -1,5 +1,7 @@
 package convex.net.message;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -93,9 +95,10 @@ public abstract class Message {
 	 */
 	public CVMLong getID() {
 		switch (type) {
-			// Query and transact use a vector [ID ...]
+			// Query, transact and snapshot use a vector [ID ...]
 			case QUERY:
-			case TRANSACT: return (CVMLong) ((AVector<?>)payload).get(0);
+			case TRANSACT:
+			case SNAPSHOT: return (CVMLong) ((AVector<?>)payload).get(0);
 
 			// Result is a special record type
 			case RESULT: return (CVMLong)((Result)payload).getID();
@@ -138,6 +141,13 @@ public abstract class Message {
 	 */
 	public abstract boolean sendData(ACell data);
 
+	/**
+	 * Sends cells of data to the connected Peer as a single batch
+	 * @param data Data to send
+	 * @return true if data sent, false otherwise
+	 */
+	public abstract boolean sendDataBatch(List<ACell> data);
+
 	/**
 	 * Sends a missing data request to the connected Peer
 	 * @param hash HAsh of missing data
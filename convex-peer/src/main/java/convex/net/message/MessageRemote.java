@@ -1,7 +1,11 @@
 package convex.net.message;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import convex.core.Result;
 import convex.core.data.ACell;
+import convex.core.data.Blob;
 import convex.core.data.Hash;
 import convex.core.data.prim.CVMLong;
 import convex.net.Connection;
@@ -88,6 +92,21 @@ public class MessageRemote extends Message {
 		return true;
 	}
 
+	@Override
+	public boolean sendDataBatch(List<ACell> data) {
+		Connection pc=getConnection();
+		if (pc==null) return false;
+		ArrayList<Blob> encodings=new ArrayList<>(data.size());
+		for (ACell cell: data) {
+			encodings.add(cell.getEncoding());
+		}
+		try {
+			return pc.sendDataBatch(encodings);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
 	@Override
 	public boolean sendMissingData(Hash hash) {
 		Connection pc=getConnection();
@@ -41,13 +41,21 @@ public class API {
 	 * <ul>
 	 * <li>:keypair (required, AKeyPair) - AKeyPair instance.
 	 * <li>:port (optional, Integer) - Integer port number to use for incoming connections. Defaults to random allocation.
-	 * <li>:store (optional, AStore) - AStore instance. Defaults to the configured global store
+	 * <li>:store (optional, AStore) - AStore instance, e.g. a TieredStore over an EtchStore to keep hot cells in memory. Defaults to the configured global store
 	 * <li>:source (optional, String) - URL for Peer to replicate initial State/Belief from.
 	 * <li>:state (optional, State) - Genesis state. Defaults to a fresh genesis state for the Peer if neither :source nor :state is specified
 	 * <li>:restore (optional, Boolean) - Boolean Flag to restore from existing store. Default to true
 	 * <li>:persist (optional, Boolean) - Boolean flag to determine if peer state should be persisted in store at server close. Default true.
 	 * <li>:url (optional, String) - public URL for server. If provided, peer will set its public on-chain address based on this, and the bind-address to 0.0.0.0.
 	 * <li>:auto-manage (optional Boolean) - set to true for peer to auto-manage own account. Defaults to true.
+	 * <li>:parallel-execution (optional Boolean) - set to true to execute transactions within each Block in parallel. Defaults to false.
+	 * <li>:verify-threads (optional Integer) - number of threads used to verify transaction signatures. Defaults to the number of available processors.
+	 * <li>:query-threads (optional Integer) - number of threads used to execute queries. Defaults to the number of available processors.
+	 * <li>:query-client-limit (optional Integer) - maximum number of queries each client may have outstanding. Defaults to 16.
+	 * <li>:selector-threads (optional Integer) - number of threads used for network IO on incoming connections. Defaults to half the number of available processors.
+	 * <li>:max-block-size (optional Integer) - maximum number of transactions in each Block proposed by the Peer. Defaults to 1000.
+	 * <li>:state-retention (optional Integer) - number of most recent consensus States held in memory. Older States are reloaded from the store when needed. Defaults to 100.
+	 * <li>:checkpoint-interval (optional Integer) - interval in States between older checkpoint States also held in memory, or 0 for no checkpoints. Defaults to 1000.
      * <li>:bind-address (optional String) - IP address of the ethernet device to bind too. For public peers set too 0.0.0.0. Default to 127.0.0.1.
 	 * </ul>
 	 *
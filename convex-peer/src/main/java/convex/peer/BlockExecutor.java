@@ -0,0 +1,175 @@
+package convex.peer;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.Block;
+import convex.core.BlockResult;
+import convex.core.Peer;
+import convex.core.State;
+import convex.core.data.AVector;
+import convex.core.data.SignedData;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+
+/**
+ * Stage that executes agreed Blocks on a dedicated thread, so that Belief merges and
+ * broadcasts are not held up by CVM execution.
+ *
+ * At most one batch of Blocks is outstanding at any time. A completed batch is held until
+ * collected by the owner with poll(), so that the owner can add the results to its own
+ * Peer in order. Only the owner thread should call submit() and poll().
+ */
+public class BlockExecutor implements Closeable {
+
+	static final Logger log = LoggerFactory.getLogger(BlockExecutor.class.getName());
+
+	private final ExecutorService executor;
+
+	private final ConcurrentLinkedQueue<Execution> completed=new ConcurrentLinkedQueue<>();
+
+	/**
+	 * True if a batch has been submitted but not yet collected. Accessed only by owner thread.
+	 */
+	private boolean outstanding=false;
+
+	/**
+	 * True if transactions within each Block should be executed in parallel
+	 */
+	private final boolean parallel;
+
+	/**
+	 * Results of executing a batch of Blocks
+	 */
+	public static final class Execution {
+		private final AVector<SignedData<Block>> blocks;
+		private final long start;
+		private final List<BlockResult> results;
+		private final Throwable error;
+
+		private Execution(AVector<SignedData<Block>> blocks, long start, List<BlockResult> results, Throwable error) {
+			this.blocks=blocks;
+			this.start=start;
+			this.results=results;
+			this.error=error;
+		}
+
+		/**
+		 * Gets the vector of Blocks the executed Blocks were taken from
+		 * @return Vector of Blocks
+		 */
+		public AVector<SignedData<Block>> getBlocks() {
+			return blocks;
+		}
+
+		/**
+		 * Gets the index of the first executed Block, i.e. the State position before execution
+		 * @return Index of first Block
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * Gets the results of execution, one for each Block
+		 * @return List of BlockResults, or null if execution failed
+		 */
+		public List<BlockResult> getResults() {
+			return results;
+		}
+
+		/**
+		 * Gets the error that caused execution to fail
+		 * @return Error, or null if execution succeeded
+		 */
+		public Throwable getError() {
+			return error;
+		}
+	}
+
+	private BlockExecutor(AStore store, String name, boolean parallel) {
+		this.parallel=parallel;
+		this.executor=Executors.newSingleThreadExecutor(r->{
+			Thread t=new Thread(()->{
+				Stores.setCurrent(store); // ensure execution uses the Server's store
+				r.run();
+			}, name);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Creates a BlockExecutor
+	 * @param store Store to use for the execution thread
+	 * @param name Name for the execution thread
+	 * @return New BlockExecutor instance
+	 */
+	public static BlockExecutor create(AStore store, String name) {
+		return new BlockExecutor(store,name,false);
+	}
+
+	/**
+	 * Creates a BlockExecutor
+	 * @param store Store to use for the execution thread
+	 * @param name Name for the execution thread
+	 * @param parallel True to execute transactions within each Block in parallel
+	 * @return New BlockExecutor instance
+	 */
+	public static BlockExecutor create(AStore store, String name, boolean parallel) {
+		return new BlockExecutor(store,name,parallel);
+	}
+
+	/**
+	 * Submits a range of Blocks for execution.
+	 *
+	 * @param state State before the first Block is applied
+	 * @param blocks Vector of Blocks, e.g. from the Peer's Order
+	 * @param start Index of first Block to execute
+	 * @param end Index after last Block to execute
+	 */
+	public void submit(State state, AVector<SignedData<Block>> blocks, long start, long end) {
+		if (outstanding) throw new IllegalStateException("Previous Block execution not yet collected");
+		outstanding=true;
+		executor.execute(()->{
+			Execution ex;
+			try {
+				List<BlockResult> results=Peer.executeBlocks(state, blocks, start, end, parallel);
+				ex=new Execution(blocks,start,results,null);
+			} catch (Throwable t) {
+				log.error("Block execution failed at block {}: {}",start,t);
+				ex=new Execution(blocks,start,null,t);
+			}
+			completed.add(ex);
+		});
+	}
+
+	/**
+	 * Collects a completed execution, if available
+	 * @return Completed execution, or null if none available
+	 */
+	public Execution poll() {
+		Execution ex=completed.poll();
+		if (ex!=null) outstanding=false;
+		return ex;
+	}
+
+	/**
+	 * Checks if a submitted execution has not yet been collected
+	 * @return True if execution is outstanding
+	 */
+	public boolean isBusy() {
+		return outstanding;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
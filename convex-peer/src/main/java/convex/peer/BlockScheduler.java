@@ -0,0 +1,96 @@
+package convex.peer;
+
+/**
+ * Decides when a Peer should propose its next Block.
+ *
+ * When no Blocks are waiting for consensus, pending transactions are proposed immediately, so a
+ * lightly loaded Peer adds no latency of its own. While earlier Blocks are still waiting for
+ * consensus, new transactions are held back for up to the current block interval, so that they
+ * can be batched into fewer, larger Blocks and each Belief merge does more work. A full Block is
+ * always proposed immediately.
+ *
+ * The block interval adapts to load: it doubles each time a Block has to be proposed while others
+ * are still waiting, and halves each time consensus catches up before the next proposal.
+ *
+ * Not thread safe: should only be used from the Server update thread.
+ */
+public class BlockScheduler {
+
+	private final long minInterval;
+
+	private final long maxInterval;
+
+	private long interval;
+
+	private long lastPublished = 0L;
+
+	private BlockScheduler(long minInterval, long maxInterval) {
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.interval = minInterval;
+	}
+
+	/**
+	 * Creates a BlockScheduler
+	 * @param minInterval Minimum time between Blocks in milliseconds
+	 * @param maxInterval Maximum time to hold back transactions for batching, in milliseconds
+	 * @return New BlockScheduler instance
+	 */
+	public static BlockScheduler create(long minInterval, long maxInterval) {
+		if (minInterval < 0) throw new IllegalArgumentException("Negative block interval");
+		if (maxInterval < minInterval) throw new IllegalArgumentException("Maximum block interval less than minimum");
+		return new BlockScheduler(minInterval, maxInterval);
+	}
+
+	/**
+	 * Checks if a Block should be proposed now
+	 *
+	 * @param timestamp Current timestamp
+	 * @param pending Number of pending transactions
+	 * @param maxBlockSize Maximum number of transactions in a Block
+	 * @param outstanding Number of Blocks proposed but not yet in consensus
+	 * @return True if a Block should be proposed
+	 */
+	public boolean shouldPublish(long timestamp, int pending, int maxBlockSize, long outstanding) {
+		return getDelay(timestamp, pending, maxBlockSize, outstanding) == 0;
+	}
+
+	/**
+	 * Gets the time until the next Block should be proposed
+	 *
+	 * @param timestamp Current timestamp
+	 * @param pending Number of pending transactions
+	 * @param maxBlockSize Maximum number of transactions in a Block
+	 * @param outstanding Number of Blocks proposed but not yet in consensus
+	 * @return Delay in milliseconds, 0 if a Block should be proposed now, or -1 if there is
+	 *         nothing to propose
+	 */
+	public long getDelay(long timestamp, int pending, int maxBlockSize, long outstanding) {
+		if (pending == 0) return -1;
+		long wait = (outstanding > 0) && (pending < maxBlockSize) ? interval : minInterval;
+		return Math.max(0L, lastPublished + wait - timestamp);
+	}
+
+	/**
+	 * Records that a Block has been proposed, adapting the block interval
+	 *
+	 * @param timestamp Current timestamp
+	 * @param outstanding Number of Blocks that were waiting for consensus before this one
+	 */
+	public void published(long timestamp, long outstanding) {
+		if (outstanding > 0) {
+			interval = Math.min(maxInterval, Math.max(1L, interval * 2));
+		} else {
+			interval = Math.max(minInterval, interval / 2);
+		}
+		lastPublished = timestamp;
+	}
+
+	/**
+	 * Gets the current interval used to batch transactions while Blocks are waiting for consensus
+	 * @return Block interval in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+}
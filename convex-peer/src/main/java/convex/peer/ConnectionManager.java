@@ -2,11 +2,13 @@ package convex.peer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -21,6 +23,7 @@ import convex.core.Peer;
 import convex.core.Result;
 import convex.core.State;
 import convex.core.data.ACell;
+import convex.core.data.Blob;
 import convex.core.data.AString;
 import convex.core.data.AVector;
 import convex.core.data.AccountKey;
@@ -33,6 +36,7 @@ import convex.core.lang.RT;
 import convex.core.store.Stores;
 import convex.core.util.Utils;
 import convex.net.Connection;
+import convex.net.MessageType;
 import convex.net.message.Message;
 import convex.net.message.MessageRemote;
 
@@ -385,6 +389,18 @@ public class ConnectionManager {
 		return result;
 	}
 
+	/**
+	 * Gets the total number of bytes queued for sending to connected peers
+	 * @return Send queue depth in bytes
+	 */
+	public long getSendQueueDepth() {
+		long result = 0;
+		for (Connection connection : connections.values()) {
+			result += connection.getSendQueueDepth();
+		}
+		return result;
+	}
+
 	public void processChallenge(Message m, Peer thisPeer) {
 		try {
 			SignedData<AVector<ACell>> signedData = m.getPayload();
@@ -572,6 +588,11 @@ public class ConnectionManager {
 	}
 
 	/**
+	 * Broadcasts a Message to connected Peers. The Message is persisted and encoded
+	 * only once, regardless of the number of Peers.
+	 *
+	 * Never waits for a slow Peer. Peers that are backpressured are skipped, and will
+	 * catch up from a later broadcast.
 	 *
 	 * @param msg Message to broadcast
 	 *
@@ -579,11 +600,38 @@ public class ConnectionManager {
 	 *
 	 */
 	public synchronized void broadcast(Message msg, boolean requireTrusted) {
+		// persist and encode once, then share the same frames with every connection
+		MessageType type=msg.getType();
+		List<ByteBuffer> frames=Connection.createFrames(type, msg.getPayload());
+		broadcastFrames(frames, type, requireTrusted);
+	}
+
+	/**
+	 * Broadcasts a Message to connected Peers, preceded by cell encodings as DATA, packed into
+	 * as few frames as possible. The data is sent in the same queue as the Message, so always
+	 * arrives before it. Frames are created only once, regardless of the number of Peers.
+	 *
+	 * @param msg Message to broadcast
+	 * @param novelty Cell encodings to send before the Message
+	 * @param requireTrusted If true, only broadcast to trusted peers
+	 */
+	public synchronized void broadcast(Message msg, List<Blob> novelty, boolean requireTrusted) {
+		MessageType type=msg.getType();
+		ArrayList<ByteBuffer> frames=new ArrayList<>(Connection.createDataFrames(novelty));
+		frames.addAll(Connection.createFrames(type, msg.getPayload()));
+		broadcastFrames(frames, type, requireTrusted);
+	}
+
+	private void broadcastFrames(List<ByteBuffer> frames, MessageType type, boolean requireTrusted) {
 		synchronized(connections) {
 			for (Connection pc : connections.values()) {
 				try {
 					if ( (requireTrusted && pc.isTrusted()) || !requireTrusted) {
-						pc.sendMessage(msg);
+						if (pc.isBackpressured()) {
+							log.debug("Skipping broadcast of {} to backpressured peer {}",type,pc.getRemoteAddress());
+							continue;
+						}
+						pc.sendFrames(frames, type);
 					}
 				} catch (IOException e) {
 					log.error("Error in broadcast: ", e);
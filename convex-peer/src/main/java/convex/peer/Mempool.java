@@ -0,0 +1,208 @@
+package convex.peer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import convex.core.ErrorCodes;
+import convex.core.State;
+import convex.core.data.AccountStatus;
+import convex.core.data.Address;
+import convex.core.data.Hash;
+import convex.core.data.Keyword;
+import convex.core.data.SignedData;
+import convex.core.transactions.ATransaction;
+
+/**
+ * Pool of pending transactions waiting to be included in a Block proposed by this Peer.
+ *
+ * Transactions are deduplicated by hash, and queued for each origin Address in sequence number
+ * order, so transactions that arrive out of order are still proposed in the order they must
+ * execute. Blocks are filled round-robin across origins, starting after the origin where the
+ * previous Block stopped, so a single busy account cannot starve others.
+ *
+ * The pool is bounded both in total and for each origin. Transactions that can no longer execute
+ * (because the origin's sequence number has passed them) or have waited too long are evicted.
+ *
+ * Normally only used from the Server update thread, but synchronised so that other threads can
+ * take a snapshot of pending transactions.
+ */
+public class Mempool {
+
+	private final int maxSize;
+
+	private final int maxPerOrigin;
+
+	private final long timeout;
+
+	/**
+	 * Queue of transactions for each origin, sorted by sequence number then arrival. Iteration
+	 * order is the round-robin order for filling Blocks.
+	 */
+	private final LinkedHashMap<Address, ArrayList<SignedData<ATransaction>>> queues = new LinkedHashMap<>();
+
+	/**
+	 * Arrival timestamp of each pending transaction, by hash
+	 */
+	private final HashMap<Hash, Long> pending = new HashMap<>();
+
+	private Mempool(int maxSize, int maxPerOrigin, long timeout) {
+		this.maxSize = maxSize;
+		this.maxPerOrigin = maxPerOrigin;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Creates a Mempool
+	 * @param maxSize Maximum number of pending transactions
+	 * @param maxPerOrigin Maximum number of pending transactions for each origin Address
+	 * @param timeout Time in milliseconds after which a pending transaction is evicted
+	 * @return New Mempool instance
+	 */
+	public static Mempool create(int maxSize, int maxPerOrigin, long timeout) {
+		if (maxSize < 1) throw new IllegalArgumentException("Need a pool size of at least one");
+		if (maxPerOrigin < 1) throw new IllegalArgumentException("Need to allow at least one transaction per origin");
+		return new Mempool(maxSize, maxPerOrigin, timeout);
+	}
+
+	/**
+	 * Adds a transaction to the pool. A transaction already in the pool is ignored.
+	 *
+	 * @param st Signed transaction. Should already be verified and persisted.
+	 * @param timestamp Current timestamp
+	 * @return True if added or already present, false if rejected because the pool is full
+	 */
+	public synchronized boolean add(SignedData<ATransaction> st, long timestamp) {
+		Hash h = st.getHash();
+		if (pending.containsKey(h)) return true;
+		if (pending.size() >= maxSize) return false;
+
+		ATransaction t = st.getValue();
+		Address origin = t.getOrigin();
+		ArrayList<SignedData<ATransaction>> queue = queues.get(origin);
+		if (queue == null) {
+			queue = new ArrayList<>();
+			queues.put(origin, queue);
+		} else if (queue.size() >= maxPerOrigin) {
+			return false;
+		}
+
+		// insert after any transactions with the same or lower sequence number
+		long seq = t.getSequence();
+		int i = queue.size();
+		while ((i > 0) && (queue.get(i - 1).getValue().getSequence() > seq)) {
+			i--;
+		}
+		queue.add(i, st);
+		pending.put(h, timestamp);
+		return true;
+	}
+
+	/**
+	 * Evicts transactions that can no longer be executed, or have been pending too long.
+	 *
+	 * A transaction can no longer be executed if its origin's sequence number in the given State
+	 * has already reached it. This is only decided when the transaction is signed with the origin's
+	 * current key, otherwise execution will fail anyway with a more informative error.
+	 *
+	 * @param state Latest consensus State
+	 * @param timestamp Current timestamp
+	 * @param handler Handler called with each evicted transaction and an error code
+	 */
+	public synchronized void evict(State state, long timestamp, BiConsumer<SignedData<ATransaction>, Keyword> handler) {
+		Iterator<Map.Entry<Address, ArrayList<SignedData<ATransaction>>>> it = queues.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Address, ArrayList<SignedData<ATransaction>>> me = it.next();
+			ArrayList<SignedData<ATransaction>> queue = me.getValue();
+
+			// stale transactions are at the front of the queue
+			AccountStatus as = state.getAccount(me.getKey());
+			if (as != null) {
+				long seq = as.getSequence();
+				while (!queue.isEmpty()) {
+					SignedData<ATransaction> st = queue.get(0);
+					if (st.getValue().getSequence() > seq) break;
+					if (!st.getAccountKey().equals(as.getAccountKey())) break;
+					queue.remove(0);
+					pending.remove(st.getHash());
+					handler.accept(st, ErrorCodes.SEQUENCE);
+				}
+			}
+
+			if (timeout > 0) {
+				Iterator<SignedData<ATransaction>> qit = queue.iterator();
+				while (qit.hasNext()) {
+					SignedData<ATransaction> st = qit.next();
+					Hash h = st.getHash();
+					if (pending.get(h) + timeout > timestamp) continue;
+					qit.remove();
+					pending.remove(h);
+					handler.accept(st, ErrorCodes.LOAD);
+				}
+			}
+
+			if (queue.isEmpty()) it.remove();
+		}
+	}
+
+	/**
+	 * Removes transactions for the next Block, taking one from each origin in turn.
+	 *
+	 * @param maxTransactions Maximum number of transactions to take
+	 * @return List of transactions, possibly empty
+	 */
+	public synchronized ArrayList<SignedData<ATransaction>> takeBlock(int maxTransactions) {
+		ArrayList<SignedData<ATransaction>> result = new ArrayList<>();
+		ArrayList<Address> served = new ArrayList<>();
+		while ((result.size() < maxTransactions) && !queues.isEmpty()) {
+			Iterator<Map.Entry<Address, ArrayList<SignedData<ATransaction>>>> it = queues.entrySet().iterator();
+			while (it.hasNext() && (result.size() < maxTransactions)) {
+				Map.Entry<Address, ArrayList<SignedData<ATransaction>>> me = it.next();
+				ArrayList<SignedData<ATransaction>> queue = me.getValue();
+				SignedData<ATransaction> st = queue.remove(0);
+				pending.remove(st.getHash());
+				result.add(st);
+				served.add(me.getKey());
+				if (queue.isEmpty()) it.remove();
+			}
+		}
+
+		// origins served in this Block go to the back of the round-robin order
+		for (Address origin : served) {
+			ArrayList<SignedData<ATransaction>> queue = queues.remove(origin);
+			if (queue != null) queues.put(origin, queue);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets all pending transactions
+	 * @return List of transactions, in round-robin order for each origin
+	 */
+	public synchronized ArrayList<SignedData<ATransaction>> getTransactions() {
+		ArrayList<SignedData<ATransaction>> result = new ArrayList<>(pending.size());
+		for (ArrayList<SignedData<ATransaction>> queue : queues.values()) {
+			result.addAll(queue);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of pending transactions
+	 * @return Number of transactions in the pool
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Checks if the pool is empty
+	 * @return True if there are no pending transactions
+	 */
+	public synchronized boolean isEmpty() {
+		return pending.isEmpty();
+	}
+}
@@ -0,0 +1,128 @@
+package convex.peer;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+
+/**
+ * Stage that executes read-only queries on a bounded pool of worker threads, so that expensive
+ * queries do not hold up processing of Beliefs, transactions and data on the receiver thread.
+ *
+ * Queries should run against an immutable snapshot taken when they are submitted (e.g. the Peer
+ * at that time), so workers never need to coordinate with the rest of the Server.
+ *
+ * Each origin (typically a Connection) may have a limited number of queries outstanding, and
+ * the number of queued queries is also limited. Submissions over either limit are rejected, so
+ * that a single busy client cannot starve others.
+ */
+public class QueryExecutor implements Closeable {
+
+	static final Logger log = LoggerFactory.getLogger(QueryExecutor.class.getName());
+
+	private final ThreadPoolExecutor executor;
+
+	private final int threadCount;
+
+	private final int maxPerOrigin;
+
+	/**
+	 * Number of outstanding queries for each origin
+	 */
+	private final ConcurrentHashMap<Object, Integer> outstanding=new ConcurrentHashMap<>();
+
+	private QueryExecutor(int threads, int maxPerOrigin, int maxQueue, AStore store, String name) {
+		this.threadCount=threads;
+		this.maxPerOrigin=maxPerOrigin;
+		AtomicInteger counter=new AtomicInteger(0);
+		this.executor=new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(maxQueue), r->{
+			Thread t=new Thread(()->{
+				Stores.setCurrent(store); // ensure workers use the Server's store
+				r.run();
+			}, name+" "+counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Creates a QueryExecutor
+	 * @param threads Number of worker threads
+	 * @param maxPerOrigin Maximum number of outstanding queries for each origin
+	 * @param maxQueue Maximum number of queries waiting for a worker thread
+	 * @param store Store to use for worker threads
+	 * @param name Name prefix for worker threads
+	 * @return New QueryExecutor instance
+	 */
+	public static QueryExecutor create(int threads, int maxPerOrigin, int maxQueue, AStore store, String name) {
+		if (threads<1) throw new IllegalArgumentException("Need at least one query thread");
+		if (maxPerOrigin<1) throw new IllegalArgumentException("Need to allow at least one query per client");
+		if (maxQueue<1) throw new IllegalArgumentException("Need a query queue size of at least one");
+		return new QueryExecutor(threads,maxPerOrigin,maxQueue,store,name);
+	}
+
+	/**
+	 * Submits a query for execution.
+	 *
+	 * @param origin Origin of the query, e.g. a Connection. May be null.
+	 * @param query Query to run. Should handle its own errors and report its own result.
+	 * @return True if the query was accepted, false if rejected because of load
+	 */
+	public boolean submit(Object origin, Runnable query) {
+		Object key=(origin==null)?this:origin;
+		if (outstanding.merge(key, 1, Integer::sum)>maxPerOrigin) {
+			release(key);
+			return false;
+		}
+
+		try {
+			executor.execute(()->{
+				try {
+					query.run();
+				} catch (Throwable t) {
+					log.warn("Unhandled error in query: {}",t);
+				} finally {
+					release(key);
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			release(key);
+			return false;
+		}
+	}
+
+	private void release(Object key) {
+		outstanding.computeIfPresent(key, (k,n)->(n<=1)?null:n-1);
+	}
+
+	/**
+	 * Gets the number of queries waiting for a worker thread
+	 * @return Query queue depth
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Gets the number of worker threads used by this executor
+	 * @return Number of threads
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -8,6 +8,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -17,11 +19,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.api.Convex;
+import convex.api.ConvexRemote;
 import convex.core.Belief;
 import convex.core.Block;
 import convex.core.BlockResult;
 import convex.core.Constants;
 import convex.core.ErrorCodes;
+import convex.core.Order;
 import convex.core.Peer;
 import convex.core.Result;
 import convex.core.State;
@@ -29,6 +33,7 @@ import convex.core.crypto.AKeyPair;
 import convex.core.data.ACell;
 import convex.core.data.AString;
 import convex.core.data.AVector;
+import convex.core.data.Blob;
 import convex.core.data.AccountKey;
 import convex.core.data.AccountStatus;
 import convex.core.data.Address;
@@ -52,13 +57,20 @@ import convex.core.lang.RT;
 import convex.core.lang.Reader;
 import convex.core.store.AStore;
 import convex.core.store.Stores;
+import convex.core.store.TieredStore;
 import convex.core.transactions.ATransaction;
 import convex.core.transactions.Invoke;
 import convex.core.util.Shutdown;
 import convex.core.util.Utils;
+import convex.net.Connection;
 import convex.net.MessageType;
 import convex.net.NIOServer;
+import convex.net.SelectorPool;
 import convex.net.message.Message;
+import convex.net.message.MessageRemote;
+import etch.CellStream;
+import etch.Compaction;
+import etch.EtchStore;
 
 
 /**
@@ -66,7 +78,9 @@ import convex.net.message.Message;
  *
  * Server creates the following threads:
  * - A ReceiverThread that processes message from the Server's receive Queue
+ * - A pool of signature verification threads, feeding verified events to the UpdateThread
  * - An UpdateThread that handles Belief updates and transaction processing
+ * - A Block execution thread, which applies agreed Blocks to produce new consensus States
  * - A ConnectionManager thread, via the ConnectionManager
  *
  * "Programming is a science dressed up as art, because most of us don't
@@ -137,6 +151,9 @@ public class Server implements Closeable {
 	private volatile boolean isRunning = false;
 
 	private NIOServer nio;
+	private SignatureVerifier verifier = null;
+	private BlockExecutor executor = null;
+	private QueryExecutor queryExecutor = null;
 	private Thread receiverThread = null;
 	private Thread updateThread = null;
 
@@ -151,11 +168,21 @@ public class Server implements Closeable {
 	private Address controller;
 
 	/**
-	 * The list of new transactions to be added to the next Block. Accessed only in update loop
+	 * Pool of new transactions to be added to the next Blocks. Accessed only in update loop
 	 *
 	 * Must all have been fully persisted.
 	 */
-	private ArrayList<SignedData<ATransaction>> newTransactions = new ArrayList<>();
+	private final Mempool mempool = Mempool.create(Constants.MEMPOOL_SIZE, Constants.MEMPOOL_ORIGIN_LIMIT, Constants.MEMPOOL_TIMEOUT);
+
+	/**
+	 * Maximum number of transactions in each Block proposed by this Peer
+	 */
+	private int maxBlockSize = Constants.MAX_BLOCK_SIZE;
+
+	/**
+	 * Scheduler deciding when to propose Blocks. Accessed only in update loop
+	 */
+	private final BlockScheduler blockScheduler = BlockScheduler.create(Constants.MIN_BLOCK_TIME, Constants.MAX_BLOCK_TIME);
 
 	/**
 	 * The set of queued partial messages pending missing data.
@@ -198,7 +225,8 @@ public class Server implements Closeable {
 			// now setup the connection manager
 			this.manager = new ConnectionManager(this);
 
-			this.peer = establishPeer();
+			// Blocks are executed by the Server's execution stage, not during Belief merges
+			this.peer = establishHistoryRetention(establishPeer()).withDeferredExecution(true);
 
 			establishController();
 
@@ -245,7 +273,7 @@ public class Server implements Closeable {
 			if (Utils.bool(source)) {
 				// Peer sync case
 				InetSocketAddress sourceAddr=Utils.toInetSocketAddress(source);
-				Convex convex=Convex.connect(sourceAddr);
+				ConvexRemote convex=Convex.connect(sourceAddr);
 				log.info("Attempting Peer Sync with: "+sourceAddr);
 				long timeout = establishTimeout();
 				
@@ -258,16 +286,17 @@ public class Server implements Closeable {
 				Hash beliefHash=RT.ensureHash(status.get(0));
 				Hash networkID=RT.ensureHash(status.get(2));
 				log.info("Attempting to sync genesis state with network: "+networkID);
-				State genF=(State) convex.acquire(networkID).get(timeout,TimeUnit.MILLISECONDS);
+				State genF=(State) convex.acquireSnapshot(networkID, store).get(timeout,TimeUnit.MILLISECONDS);
 				log.info("Retreived Genesis State: "+networkID);
 				
 				// Belief acquisition
 				log.info("Attempting to obtain peer Belief: "+beliefHash);
 				SignedData<Belief> belF=null;
 				long timeElapsed=0;
+				CompletableFuture<ACell> belFuture=convex.acquireSnapshot(beliefHash, store);
 				while (belF==null) {
 					try {
-						belF=(SignedData<Belief>) convex.acquire(beliefHash).get(timeout,TimeUnit.MILLISECONDS);
+						belF=(SignedData<Belief>) belFuture.get(timeout,TimeUnit.MILLISECONDS);
 					} catch (TimeoutException te) {
 						timeElapsed+=timeout;
 						log.info("Still waiting for Belief sync after "+timeElapsed/1000+"s");
@@ -305,6 +334,45 @@ public class Server implements Closeable {
 		}
 	}
 
+	private Peer establishHistoryRetention(Peer peer) {
+		Object maybeRetention=getConfig().get(Keywords.STATE_RETENTION);
+		Object maybeInterval=getConfig().get(Keywords.CHECKPOINT_INTERVAL);
+		if ((maybeRetention==null)&&(maybeInterval==null)) return peer;
+		long retention=(maybeRetention==null)?Constants.STATE_RETENTION:Utils.toInt(maybeRetention);
+		long interval=(maybeInterval==null)?Constants.STATE_CHECKPOINT_INTERVAL:Utils.toInt(maybeInterval);
+		return peer.withHistoryRetention(retention, interval);
+	}
+
+	private int establishVerifyThreads() {
+		Object maybeThreads=getConfig().get(Keywords.VERIFY_THREADS);
+		if (maybeThreads==null) return Runtime.getRuntime().availableProcessors();
+		return Utils.toInt(maybeThreads);
+	}
+
+	private int establishQueryThreads() {
+		Object maybeThreads=getConfig().get(Keywords.QUERY_THREADS);
+		if (maybeThreads==null) return Runtime.getRuntime().availableProcessors();
+		return Utils.toInt(maybeThreads);
+	}
+
+	private int establishSelectorThreads() {
+		Object maybeThreads=getConfig().get(Keywords.SELECTOR_THREADS);
+		if (maybeThreads==null) return SelectorPool.defaultThreadCount();
+		return Utils.toInt(maybeThreads);
+	}
+
+	private int establishMaxBlockSize() {
+		Object maybeSize=getConfig().get(Keywords.MAX_BLOCK_SIZE);
+		if (maybeSize==null) return Constants.MAX_BLOCK_SIZE;
+		return Utils.toInt(maybeSize);
+	}
+
+	private int establishQueryClientLimit() {
+		Object maybeLimit=getConfig().get(Keywords.QUERY_CLIENT_LIMIT);
+		if (maybeLimit==null) return Constants.QUERY_CLIENT_LIMIT;
+		return Utils.toInt(maybeLimit);
+	}
+
 	private long establishTimeout() {
 		Object maybeTimeout=getConfig().get(Keywords.TIMEOUT);
 		if (maybeTimeout==null) return Constants.PEER_SYNC_TIMEOUT;
@@ -344,6 +412,25 @@ public class Server implements Closeable {
 		return peer;
 	}
 
+	/**
+	 * Gets the number of queries waiting for execution on this Server
+	 * @return Query queue depth, or 0 if the Server is not running
+	 */
+	public int getQueryQueueDepth() {
+		QueryExecutor qe=queryExecutor;
+		if (qe==null) return 0;
+		return qe.getQueueDepth();
+	}
+
+	/**
+	 * Gets the current interval this Server uses to batch transactions into Blocks while
+	 * earlier Blocks are waiting for consensus
+	 * @return Block interval in milliseconds
+	 */
+	public long getBlockInterval() {
+		return blockScheduler.getInterval();
+	}
+
 	/**
 	 * Gets the desired host name for this Peer
 	 * @return Hostname String
@@ -365,7 +452,7 @@ public class Server implements Closeable {
 			Object p = config.get(Keywords.PORT);
 			Integer port = (p == null) ? null : Utils.toInt(p);
 
-			nio.launch((String)config.get(Keywords.BIND_ADDRESS), port);
+			nio.launch((String)config.get(Keywords.BIND_ADDRESS), port, establishSelectorThreads());
 			port = nio.getPort(); // Get the actual port (may be auto-allocated)
 
 			if (getConfig().containsKey(Keywords.URL)) {
@@ -383,6 +470,12 @@ public class Server implements Closeable {
 			// Start connection manager loop
 			manager.start();
 
+			verifier = SignatureVerifier.create(establishVerifyThreads(), store, "Signature verifier on port: " + port);
+			boolean parallel=Utils.bool(getConfig().get(Keywords.PARALLEL_EXECUTION));
+			executor = BlockExecutor.create(store, "Block executor on port: " + port, parallel);
+			queryExecutor = QueryExecutor.create(establishQueryThreads(), establishQueryClientLimit(), Constants.QUERY_QUEUE_SIZE, store, "Query executor on port: " + port);
+			maxBlockSize = establishMaxBlockSize();
+
 			receiverThread = new Thread(receiverLoop, "Receive Loop on port: " + port);
 			receiverThread.setDaemon(true);
 			receiverThread.start();
@@ -473,6 +566,9 @@ public class Server implements Closeable {
 			case STATUS:
 				processStatus(m);
 				break;
+			case SNAPSHOT:
+				processSnapshot(m);
+				break;
 			default:
 				Result r=Result.create(m.getID(), Strings.create("Bad Message Type: "+type), ErrorCodes.ARGUMENT);
 				m.reportResult(r);
@@ -496,27 +592,48 @@ public class Server implements Closeable {
 
 	/**
 	 * Respond to a request for missing data, on a best-efforts basis. Requests for
-	 * missing data we do not hold are ignored.
+	 * missing data we do not hold are ignored. All the data found is sent in a single batch.
 	 *
 	 * @param m
 	 * @throws BadFormatException
 	 */
 	private void processMissingData(Message m) throws BadFormatException {
-		// payload for a missing data request should be a valid Hash
-		Hash h = RT.ensureHash(m.getPayload());
-		if (h == null) throw new BadFormatException("Hash required for missing data message");
+		// payload for a missing data request should be a valid Hash, or a Vector of Hashes
+		ACell payload = m.getPayload();
+		ArrayList<ACell> data = new ArrayList<>();
+		if (payload instanceof AVector) {
+			AVector<ACell> v = RT.castVector(payload);
+			long n = v.count();
+			if (n > Constants.MISSING_DATA_LIMIT) throw new BadFormatException("Too many hashes in missing data message: "+n);
+			for (long i = 0; i < n; i++) {
+				Hash h = RT.ensureHash(v.get(i));
+				if (h == null) throw new BadFormatException("Hash required for missing data message");
+				findMissingData(h, data);
+			}
+		} else {
+			Hash h = RT.ensureHash(payload);
+			if (h == null) throw new BadFormatException("Hash required for missing data message");
+			findMissingData(h, data);
+		}
+		if (data.isEmpty()) return;
+
+		try {
+			boolean sent = m.sendDataBatch(data);
+			if (!sent) {
+				log.debug("Can't send {} cells of missing data due to full buffer", data.size());
+			}
+		} catch (Exception e) {
+			log.warn("Unable to deliver missing data due to exception: {}", e);
+		}
+	}
 
+	private void findMissingData(Hash h, List<ACell> data) {
 		Ref<?> r = store.refForHash(h);
 		if (r != null) {
 			try {
-				ACell data = r.getValue();
-				boolean sent = m.sendData(data);
-				// log.trace( "Sent missing data for hash: {} with type {}",Utils.getClassName(data));
-				if (!sent) {
-					log.debug("Can't send missing data for hash {} due to full buffer",h);
-				}
+				data.add(r.getValue());
 			} catch (Exception e) {
-				log.warn("Unable to deliver missing data for {} due to exception: {}", h, e);
+				log.warn("Unable to read missing data for {} due to exception: {}", h, e);
 			}
 		} else {
 			log.debug("Unable to provide missing data for {} from store: {}", h,Stores.current());
@@ -535,31 +652,44 @@ public class Server implements Closeable {
 		// If we already have the transaction persisted, will get signature status
 		ACell.createPersisted(sd);
 
-		if (!sd.checkSignature()) {
-			// terminate the connection, dishonest client?
-			try {
-				// TODO: throttle?
-				Result r=Result.create(m.getID(), Strings.BAD_SIGNATURE, ErrorCodes.SIGNATURE);
-				m.reportResult(r);
-			} catch (Exception e) {
-				// Ignore?? Connection probably gone anyway
-			}
-			log.info("Bad signature from Client! {}" , sd);
-			return;
-		}
-		
 		if (!(sd.getValue() instanceof ATransaction)) {
 			Result r=Result.create(m.getID(), Strings.BAD_FORMAT, ErrorCodes.FORMAT);
 			m.reportResult(r);
 			return;
 		}
 
-		registerInterest(sd.getHash(), m);
-		try {
-			eventQueue.put(sd);
-		} catch (InterruptedException e) {
-			log.warn("Unexpected interruption adding transaction to event queue!");
-		}
+		// Verify signature off the receiver thread, results arrive in order for each connection
+		verifier.submit(getOrigin(m), sd, ok->{
+			if (!ok) {
+				// terminate the connection, dishonest client?
+				try {
+					// TODO: throttle?
+					Result r=Result.create(m.getID(), Strings.BAD_SIGNATURE, ErrorCodes.SIGNATURE);
+					m.reportResult(r);
+				} catch (Exception e) {
+					// Ignore?? Connection probably gone anyway
+				}
+				log.info("Bad signature from Client! {}" , sd);
+				return;
+			}
+
+			registerInterest(sd.getHash(), m);
+			try {
+				eventQueue.put(sd);
+			} catch (InterruptedException e) {
+				log.warn("Unexpected interruption adding transaction to event queue!");
+			}
+		});
+	}
+
+	/**
+	 * Gets the origin of a Message, used to keep verification results in order for each connection
+	 * @param m Message
+	 * @return Connection for remote messages, null otherwise
+	 */
+	private Object getOrigin(Message m) {
+		if (m instanceof MessageRemote) return ((MessageRemote)m).getConnection();
+		return null;
 	}
 
 	/**
@@ -615,7 +745,7 @@ public class Server implements Closeable {
 	/**
 	 * Register of client interests in receiving transaction responses
 	 */
-	private HashMap<Hash, Message> interests = new HashMap<>();
+	private ConcurrentHashMap<Hash, Message> interests = new ConcurrentHashMap<>();
 
 	/**
 	 * Register interest in receiving a result for a transaction
@@ -633,8 +763,6 @@ public class Server implements Closeable {
 	 * @throws InterruptedException
 	 */
 	protected boolean maybeUpdateBelief() throws InterruptedException {
-		long oldConsensusPoint = peer.getConsensusPoint();
-
 		// possibly have own transactions to publish
 		maybePostOwnTransactions();
 
@@ -657,20 +785,44 @@ public class Server implements Closeable {
 
 		broadcastBelief(belief);
 
-		// Report transaction results
-		long newConsensusPoint = peer.getConsensusPoint();
-		if (newConsensusPoint > oldConsensusPoint) {
-			log.debug("Consensus point update from {} to {}" ,oldConsensusPoint , newConsensusPoint);
-			for (long i = oldConsensusPoint; i < newConsensusPoint; i++) {
-				SignedData<Block> block = peer.getPeerOrder().getBlock(i);
-				BlockResult br = peer.getBlockResult(i);
-				reportTransactions(block.getValue(), br);
-			}
-		}
+		return true;
+	}
 
+	/**
+	 * Collects Blocks executed by the execution stage, updating the Peer and reporting
+	 * transaction results.
+	 *
+	 * @return True if the consensus State was updated, false otherwise
+	 */
+	protected boolean maybeApplyBlockResults() {
+		BlockExecutor.Execution ex=executor.poll();
+		if (ex==null) return false;
+		if (ex.getError()!=null) throw new Error("Block execution failed", ex.getError());
+
+		long start=ex.getStart();
+		List<BlockResult> results=ex.getResults();
+		peer=peer.withBlockResults(start, results);
+		log.debug("State position update from {} to {}" ,start, peer.getStatePosition());
+
+		AVector<SignedData<Block>> blocks=ex.getBlocks();
+		int n=results.size();
+		for (int i = 0; i < n; i++) {
+			reportTransactions(blocks.get(start+i).getValue(), results.get(i));
+		}
 		return true;
 	}
 
+	/**
+	 * Starts execution of newly agreed Blocks, if any and the execution stage is not already busy.
+	 */
+	protected void maybeExecuteBlocks() {
+		if (executor.isBusy()) return;
+		long position=peer.getStatePosition();
+		long consensusPoint=peer.getConsensusPoint();
+		if (consensusPoint<=position) return;
+		executor.submit(peer.getConsensusState(), peer.getPeerOrder().getBlocks(), position, consensusPoint);
+	}
+
 	/**
 	 * Time of last belief broadcast
 	 */
@@ -680,17 +832,18 @@ public class Server implements Closeable {
 	private void broadcastBelief(Belief belief) {
 		// At this point we know something updated our belief, so we want to rebroadcast
 		// belief to network
+		SignedData<Belief> signedBelief=peer.getSignedBelief();
+		ArrayList<Blob> novelty=new ArrayList<>();
 		Consumer<Ref<ACell>> noveltyHandler = r -> {
 			ACell o = r.getValue();
-			if (o == belief) return; // skip sending data for belief cell itself, will be BELIEF payload
-			Message msg = Message.createData(o);
-            // broadcast to all peers trusted or not
-			manager.broadcast(msg, false);
+			if ((o == belief)||(o == signedBelief)) return; // skip sending data for belief itself, will be BELIEF payload
+			if (!Format.isEmbedded(o)) novelty.add(Format.encodedBlob(o)); // embedded cells are sent within their parents
 		};
 
 		// persist the state of the Peer, announcing the new Belief
 		// (ensure we can handle missing data requests etc.)
 		peer=peer.persistState(noveltyHandler);
+		pinConsensusState();
 
 		// Broadcast latest Belief to connected Peers
 		SignedData<Belief> sb = peer.getSignedBelief();
@@ -698,11 +851,26 @@ public class Server implements Closeable {
 		Message msg = Message.createBelief(sb);
 
         // at the moment broadcast to all peers trusted or not TODO: recheck this
-		manager.broadcast(msg, false);
+		// novelty is sent as a batch ahead of the Belief
+		manager.broadcast(msg, novelty, false);
 		lastBroadcastBelief=Utils.getCurrentTimestamp();
 		broadcastCount++;
 	}
 
+	/**
+	 * Pins the consensus State in the store, if the store supports pinning, so that lookups of
+	 * the most used cells never go to disk. The Core environment is pinned first so that it takes
+	 * priority if the State is too large for the pinned tier.
+	 */
+	private void pinConsensusState() {
+		if (!(store instanceof TieredStore)) return;
+		TieredStore ts=(TieredStore)store;
+		State s=peer.getConsensusState();
+		AccountStatus core=s.getAccount(Init.CORE_ADDRESS);
+		if (core!=null) ts.pin("core", core.getEnvironment());
+		ts.pin("state", s);
+	}
+
 	/**
 	 * Gets the number of belief broadcasts made by this Peer
 	 * @return Count of broadcasts from this Server instance
@@ -711,24 +879,24 @@ public class Server implements Closeable {
 		return broadcastCount;
 	}
 
-	private long lastBlockPublishedTime=0L;
-
 	/**
 	 * Checks for pending transactions, and if found propose them as a new Block.
 	 *
 	 * @return True if a new block is published, false otherwise.
 	 */
 	protected boolean maybePublishBlock() {
+		if (mempool.isEmpty()) return false;
 		long timestamp=Utils.getCurrentTimestamp();
-		// skip if recently published a block
-		if ((lastBlockPublishedTime+Constants.MIN_BLOCK_TIME)>timestamp) return false;
 
-		Block block=null;
-		int n = newTransactions.size();
-		if (n == 0) return false;
-		// TODO: smaller block if too many transactions?
-		block = Block.create(timestamp, (List<SignedData<ATransaction>>) newTransactions);
-		newTransactions.clear();
+		// drop transactions that can no longer be executed
+		mempool.evict(peer.getConsensusState(), timestamp, this::reportEvicted);
+
+		// skip if the scheduler wants to wait for more transactions
+		long outstanding=getOutstandingBlockCount();
+		if (!blockScheduler.shouldPublish(timestamp, mempool.size(), maxBlockSize, outstanding)) return false;
+
+		ArrayList<SignedData<ATransaction>> transactions = mempool.takeBlock(maxBlockSize);
+		Block block = Block.create(timestamp, (List<SignedData<ATransaction>>) transactions);
 
 		ACell.createPersisted(block);
 
@@ -736,10 +904,19 @@ public class Server implements Closeable {
 		log.info("New block proposed: {} transaction(s), hash={}", block.getTransactions().count(), block.getHash());
 
 		peer = newPeer;
-		lastBlockPublishedTime=timestamp;
+		blockScheduler.published(timestamp, outstanding);
 		return true;
 	}
 
+	/**
+	 * Gets the number of Blocks in this Peer's Order that are not yet in consensus
+	 */
+	private long getOutstandingBlockCount() {
+		Order order=peer.getPeerOrder();
+		if (order==null) return 0;
+		return order.getBlockCount()-peer.getConsensusPoint();
+	}
+
 	private long lastOwnTransactionTimestamp=0L;
 
 	private static final long OWN_TRANSACTIONS_DELAY=300;
@@ -816,7 +993,7 @@ public class Server implements Closeable {
 			}
 			ACell message = Reader.read(code);
 			ATransaction transaction = Invoke.create(address, as.getSequence()+1, message);
-			newTransactions.add(getKeyPair().signData(transaction));
+			mempool.add(getKeyPair().signData(transaction), Utils.getCurrentTimestamp());
 		}
 	}
 
@@ -875,7 +1052,7 @@ public class Server implements Closeable {
 			Peer peer=this.getPeer();
 			Hash beliefHash=peer.getSignedBelief().getHash();
 			Hash stateHash=peer.getStates().getHash();
-			Hash initialStateHash=peer.getStates().get(0).getHash();
+			Hash initialStateHash=peer.getNetworkID();
 			AccountKey peerKey=getPeerKey();
 			Hash consensusHash=peer.getConsensusState().getHash();
 
@@ -905,18 +1082,160 @@ public class Server implements Closeable {
 			// extract the Address, might be null
 			Address address = RT.ensureAddress(v.get(2));
 
+			// Peer is immutable, so this is a consensus snapshot as of now
+			Peer snapshot = peer;
+
 			log.debug( "Processing query: {} with address: {}" , form, address);
-			// log.log(LEVEL_MESSAGE, "Processing query: " + form + " with address: " +
-			// address);
-			Context<ACell> resultContext = peer.executeQuery(form, address);
-			
+			boolean accepted = queryExecutor.submit(getOrigin(m), ()->{
+				executeQuery(m, snapshot, id, form, address);
+			});
+
+			if (!accepted) {
+				Result r=Result.create(id, Strings.create("Too many queries, try again later"), ErrorCodes.LOAD);
+				m.reportResult(r);
+			}
+		} catch (Throwable t) {
+			log.warn("Query Error: {}", t);
+		}
+	}
+
+	/**
+	 * Handles a request for a snapshot of a complete data structure. Streaming runs on the
+	 * query executor, so it is subject to the same per-client limits as queries.
+	 *
+	 * @param m SNAPSHOT Message
+	 */
+	private void processSnapshot(Message m) {
+		// payload is a vector [id , hash]
+		AVector<ACell> v = m.getPayload();
+		CVMLong id = RT.ensureLong(v.get(0));
+		Hash hash = RT.ensureHash(v.get(1));
+		if (hash == null) {
+			m.reportResult(Result.create(id, Strings.BAD_FORMAT, ErrorCodes.FORMAT));
+			return;
+		}
+
+		boolean accepted = queryExecutor.submit(getOrigin(m), ()->{
+			streamSnapshot(m, id, hash);
+		});
+		if (!accepted) {
+			Result r=Result.create(id, Strings.create("Too many requests, try again later"), ErrorCodes.LOAD);
+			m.reportResult(r);
+		}
+	}
+
+	/**
+	 * Streams every cell reachable from a hash to the sender of a SNAPSHOT request, in hash order
+	 * and in chunks of stored cell encodings, then reports the number of cells sent. Cells missing
+	 * from our store are skipped, so the requester may need to acquire them separately. Runs on a
+	 * query executor thread.
+	 */
+	private void streamSnapshot(Message m, CVMLong id, Hash hash) {
+		try {
+			Ref<ACell> root = store.refForHash(hash);
+			if (root == null) {
+				m.reportResult(Result.create(id, Strings.create("Data not available"), ErrorCodes.ARGUMENT));
+				return;
+			}
+
+			ArrayList<Hash> hashes = CellStream.mark(store, hash);
+			if (m instanceof MessageRemote) {
+				Connection pc = ((MessageRemote)m).getConnection();
+				new SnapshotStream(pc, id, hashes).run();
+				return;
+			}
+			m.reportResult(Result.create(id, CVMLong.create(hashes.size()), null));
+		} catch (Throwable t) {
+			log.warn("Snapshot Error: {}", t);
+		}
+	}
+
+	/**
+	 * Sends the cells of a snapshot in chunks. Sends while the Connection has space in its send
+	 * queue, then waits for the queue to drain without holding a query executor thread.
+	 */
+	private final class SnapshotStream implements Runnable {
+		private final Connection pc;
+		private final CVMLong id;
+		private final List<Hash> hashes;
+		private int pos = 0;
+		private long count = 0;
+
+		/**
+		 * Chunk built but not yet sent, or null if none
+		 */
+		private ArrayList<Blob> chunk = null;
+
+		SnapshotStream(Connection pc, CVMLong id, List<Hash> hashes) {
+			this.pc = pc;
+			this.id = id;
+			this.hashes = hashes;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (isRunning && !pc.isClosed()) {
+					if (chunk == null) chunk = nextChunk();
+					boolean last = (pos >= hashes.size());
+					if (!pc.isBackpressured()) {
+						// final chunk carries the Result, so that it can't overtake chunks still queued
+						boolean sent = last ? pc.sendDataBatch(chunk, Result.create(id, CVMLong.create(count), null))
+											: pc.sendDataBatch(chunk);
+						if (sent) {
+							chunk = null;
+							if (last) return;
+							continue;
+						}
+					}
+
+					// resume on a query executor thread once the send queue drains
+					if (pc.onDrain(this::resume)) return;
+				}
+			} catch (Throwable t) {
+				log.warn("Snapshot Error: {}", t);
+			}
+		}
+
+		private void resume() {
+			if (queryExecutor.submit(pc, this)) return;
+			try {
+				pc.sendResult(Result.create(id, Strings.create("Too many requests, try again later"), ErrorCodes.LOAD));
+			} catch (IOException e) {
+				// ignore, Connection probably gone anyway
+			}
+		}
+
+		/**
+		 * Reads the next chunk of stored encodings
+		 */
+		private ArrayList<Blob> nextChunk() {
+			ArrayList<Blob> result = new ArrayList<>();
+			long chunkSize = 0;
+			while ((pos < hashes.size()) && (chunkSize < Constants.SNAPSHOT_CHUNK_SIZE)) {
+				Blob enc = store.getEncoding(hashes.get(pos++));
+				if (enc == null) continue; // removed since marked?
+				result.add(enc);
+				chunkSize += enc.count();
+				count++;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Executes a query and reports the result. Runs on a query executor thread.
+	 */
+	private void executeQuery(Message m, Peer snapshot, CVMLong id, ACell form, Address address) {
+		try {
+			Context<ACell> resultContext = snapshot.executeQuery(form, address);
+
 			// Report result back to message sender
 			boolean resultReturned= m.reportResult(Result.fromContext(id, resultContext));
 
 			if (!resultReturned) {
 				log.warn("Failed to send query result back to client with ID: {}", id);
 			}
-
 		} catch (Throwable t) {
 			log.warn("Query Error: {}", t);
 		}
@@ -954,7 +1273,6 @@ public class Server implements Closeable {
 
 			@SuppressWarnings("unchecked")
 			SignedData<Belief> receivedBelief = (SignedData<Belief>) o;
-			receivedBelief.validateSignature();
 
 			// TODO: validate trusted connection?
 			// TODO: can drop Beliefs if under pressure?
@@ -965,16 +1283,22 @@ public class Server implements Closeable {
 				return;
 			}
 
-			eventQueue.put(receivedBelief);
+			verifier.submit(getOrigin(m), receivedBelief, ok->{
+				if (!ok) {
+					// we got sent a bad signature.
+					// TODO: Probably need to slash peer? but ignore for now
+					log.warn("Bad signed belief from peer: " + Utils.print(o));
+					return;
+				}
+				try {
+					eventQueue.put(receivedBelief);
+				} catch (InterruptedException e) {
+					log.warn("Unexpected interruption adding belief to event queue!");
+				}
+			});
 		} catch (ClassCastException e) {
 			// bad message?
 			log.warn("Exception due to bad message from peer? {}" ,e);
-		} catch (BadSignatureException e) {
-			// we got sent a bad signature.
-			// TODO: Probably need to slash peer? but ignore for now
-			log.warn("Bad signed belief from peer: " + Utils.print(o));
-		} catch (InterruptedException e) {
-			throw Utils.sneakyThrow(e);
 		}
 	}
 
@@ -985,6 +1309,7 @@ public class Server implements Closeable {
 		@Override
 		public void run() {
 			Stores.setCurrent(getStore()); // ensure the loop uses this Server's store
+			Connection.setNonBlockingThread(true); // never wait for a slow client when replying
 
 			try {
 				log.debug("Reciever thread started for peer at {}", getHostAddress());
@@ -1014,6 +1339,7 @@ public class Server implements Closeable {
 		@Override
 		public void run() {
 			Stores.setCurrent(getStore()); // ensure the loop uses this Server's store
+			Connection.setNonBlockingThread(true); // never wait for a slow client when reporting results
 			try {
 				// loop while the server is running
 				while (isRunning) {
@@ -1033,6 +1359,12 @@ public class Server implements Closeable {
 						}
 					}
 
+					// Pick up executed Blocks, and hand newly agreed Blocks to the execution stage
+					if (maybeApplyBlockResults()) {
+						raiseServerChange("state");
+					}
+					maybeExecuteBlocks();
+
 					// Maybe sleep a bit, wait for some new events to accumulate
 					awaitEvents();
 				}
@@ -1048,7 +1380,11 @@ public class Server implements Closeable {
 
 	@SuppressWarnings("unchecked")
 	private void awaitEvents() throws InterruptedException {
-		SignedData<?> firstEvent=eventQueue.poll(SERVER_UPDATE_PAUSE, TimeUnit.MILLISECONDS);
+		// wake up in time to propose a Block if one is due
+		long pause=SERVER_UPDATE_PAUSE;
+		long delay=blockScheduler.getDelay(Utils.getCurrentTimestamp(), mempool.size(), maxBlockSize, getOutstandingBlockCount());
+		if (delay>=0) pause=Math.min(pause, delay);
+		SignedData<?> firstEvent=eventQueue.poll(pause, TimeUnit.MILLISECONDS);
 		if (firstEvent==null) return;
 		ArrayList<SignedData<?>> allEvents=new ArrayList<>();
 		allEvents.add(firstEvent);
@@ -1057,7 +1393,9 @@ public class Server implements Closeable {
 			ACell event=signedEvent.getValue();
 			if (event instanceof ATransaction) {
 				SignedData<ATransaction> receivedTrans=(SignedData<ATransaction>)signedEvent;
-				newTransactions.add(receivedTrans);
+				if (!mempool.add(receivedTrans, Utils.getCurrentTimestamp())) {
+					reportRejected(receivedTrans, ErrorCodes.LOAD, "Too many pending transactions, try again later");
+				}
 			} else if (event instanceof Belief) {
 				SignedData<Belief> receivedBelief=(SignedData<Belief>)signedEvent;
 				AccountKey addr = receivedBelief.getAccountKey();
@@ -1078,6 +1416,30 @@ public class Server implements Closeable {
 		}
 	}
 
+	/**
+	 * Reports a transaction evicted from the mempool to any interested client
+	 */
+	private void reportEvicted(SignedData<ATransaction> st, Keyword code) {
+		if (code == ErrorCodes.SEQUENCE) {
+			reportRejected(st, code, "Sequence number already used");
+		} else {
+			reportRejected(st, code, "Transaction not included in a Block in time, try again later");
+		}
+	}
+
+	/**
+	 * Reports a transaction that will not be executed to any interested client
+	 */
+	private void reportRejected(SignedData<ATransaction> st, Keyword code, String message) {
+		Message m = interests.remove(st.getHash());
+		if (m == null) return;
+		try {
+			m.reportResult(Result.create(m.getID(), Strings.create(message), code));
+		} catch (Throwable e) {
+			log.warn("Exception while sending Result: ",e);
+		}
+	}
+
 	private void reportTransactions(Block block, BlockResult br) {
 		// TODO: consider culling old interests after some time period
 		int nTrans = block.length();
@@ -1115,6 +1477,25 @@ public class Server implements Closeable {
 		close();
 	}
 
+	/**
+	 * Compacts the store of this Server, retaining the Peer data and pending transactions. Blocks until
+	 * complete, while the Server continues to operate.
+	 *
+	 * The store must not be shared with other Servers, since their data would not be retained.
+	 *
+	 * @return Compaction with final statistics, or null if the store does not support compaction
+	 * @throws IOException If an IO error occurs
+	 */
+	public Compaction compactStore() throws IOException {
+		if (!(store instanceof EtchStore)) return null;
+		return ((EtchStore) store).compact(() -> {
+			ArrayList<ACell> roots = new ArrayList<>();
+			roots.add(peer.toData());
+			roots.addAll(mempool.getTransactions());
+			return roots;
+		});
+	}
+
 	/**
 	 * Writes the Peer data to the configured store.
 	 *
@@ -1172,6 +1553,9 @@ public class Server implements Closeable {
 				// Ignore
 			}
 		}
+		if (verifier != null) verifier.close();
+		if (executor != null) executor.close();
+		if (queryExecutor != null) queryExecutor.close();
 		manager.close();
 		nio.close();
 		// Note we don't do store.close(); because we don't own the store.
@@ -5,6 +5,7 @@ import convex.core.Order;
 import convex.core.Peer;
 import convex.core.data.AccountKey;
 import convex.core.data.Hash;
+import convex.core.util.Counters;
 
 /**
  * Utility class to extract and store server information samples
@@ -22,6 +23,11 @@ public class ServerInformation {
 	private Hash stateHash;
     private Hash beliefHash;
 	private long blockCount;
+	private int queryQueueDepth;
+	private long sendQueueDepth;
+	private long sendDropCount;
+	private long sendStallTime;
+	private long blockInterval;
 
 
 	private ServerInformation(Server server,  ConnectionManager manager) {
@@ -50,6 +56,11 @@ public class ServerInformation {
 		if (order != null ) {
 			blockCount = order.getBlockCount();
 		}
+		queryQueueDepth = server.getQueryQueueDepth();
+		sendQueueDepth = manager.getSendQueueDepth();
+		sendDropCount = Counters.sendDrops;
+		sendStallTime = Counters.sendStallTime;
+		blockInterval = server.getBlockInterval();
 	}
 
 	public AccountKey getPeerKey() {
@@ -85,4 +96,19 @@ public class ServerInformation {
 	public long getBlockCount() {
 		return blockCount;
 	}
+	public int getQueryQueueDepth() {
+		return queryQueueDepth;
+	}
+	public long getSendQueueDepth() {
+		return sendQueueDepth;
+	}
+	public long getSendDropCount() {
+		return sendDropCount;
+	}
+	public long getSendStallTime() {
+		return sendStallTime;
+	}
+	public long getBlockInterval() {
+		return blockInterval;
+	}
 }
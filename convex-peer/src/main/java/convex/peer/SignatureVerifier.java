@@ -0,0 +1,120 @@
+package convex.peer;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.SignedData;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+
+/**
+ * Stage that verifies signatures of incoming SignedData on a pool of worker threads.
+ *
+ * Verification results are cached in the Ref flags of each SignedData instance (VERIFIED_MASK / BAD_MASK),
+ * so data that has already been checked does not go to the pool again.
+ *
+ * Results are delivered in submission order for each origin (typically a Connection). Results for
+ * different origins may be delivered concurrently from different worker threads, so handlers
+ * must be thread safe.
+ */
+public class SignatureVerifier implements Closeable {
+
+	static final Logger log = LoggerFactory.getLogger(SignatureVerifier.class.getName());
+
+	private static final CompletableFuture<Void> DONE=CompletableFuture.completedFuture(null);
+
+	private final ExecutorService executor;
+
+	private final int threadCount;
+
+	/**
+	 * Completion of the last submitted verification for each origin
+	 */
+	private final ConcurrentHashMap<Object, CompletableFuture<Void>> tails=new ConcurrentHashMap<>();
+
+	private SignatureVerifier(int threads, AStore store, String name) {
+		this.threadCount=threads;
+		AtomicInteger counter=new AtomicInteger(0);
+		this.executor=Executors.newFixedThreadPool(threads, r->{
+			Thread t=new Thread(()->{
+				Stores.setCurrent(store); // ensure workers use the Server's store
+				r.run();
+			}, name+" "+counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Creates a SignatureVerifier with the given number of worker threads
+	 * @param threads Number of worker threads
+	 * @param store Store to use for worker threads
+	 * @param name Name prefix for worker threads
+	 * @return New SignatureVerifier instance
+	 */
+	public static SignatureVerifier create(int threads, AStore store, String name) {
+		if (threads<1) throw new IllegalArgumentException("Need at least one verification thread");
+		return new SignatureVerifier(threads,store,name);
+	}
+
+	/**
+	 * Submits a SignedData instance for signature verification. The handler will be called
+	 * with the result, after the handlers for all previous submissions from the same origin.
+	 *
+	 * @param origin Origin used for ordering results, e.g. a Connection. May be null.
+	 * @param signed SignedData to verify
+	 * @param handler Handler to receive the result of verification (true if valid)
+	 */
+	public void submit(Object origin, SignedData<?> signed, Consumer<Boolean> handler) {
+		Object key=(origin==null)?this:origin;
+
+		// Use cached result if available, otherwise verify on the worker pool
+		CompletableFuture<Boolean> check;
+		if (signed.isSignatureChecked()) {
+			check=CompletableFuture.completedFuture(signed.checkSignature());
+		} else {
+			check=CompletableFuture.supplyAsync(signed::checkSignature, executor);
+		}
+
+		CompletableFuture<Void> next=new CompletableFuture<>();
+		CompletableFuture<Void> prev=tails.put(key, next);
+		if (prev==null) prev=DONE;
+
+		prev.thenCombine(check, (v,ok)->ok).whenComplete((ok,e)->{
+			try {
+				if (e!=null) {
+					log.warn("Error verifying signature: {}",e.getMessage());
+					handler.accept(false);
+				} else {
+					handler.accept(ok);
+				}
+			} catch (Throwable t) {
+				log.warn("Error handling signature verification result: {}",t);
+			} finally {
+				next.complete(null);
+				tails.remove(key, next);
+			}
+		});
+	}
+
+	/**
+	 * Gets the number of worker threads used by this verifier
+	 * @return Number of threads
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -1,12 +1,26 @@
 package convex.net;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
+import convex.core.data.ACell;
+import convex.core.data.AVector;
+import convex.core.data.Blob;
+import convex.core.data.Vectors;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadFormatException;
 import convex.core.store.Stores;
@@ -86,4 +100,269 @@ public class ConnectionTest {
 		receiveThread.join();
 	}
 
+	@Test
+	public void testDataBatch() throws IOException, BadFormatException {
+		final ArrayList<Message> received = new ArrayList<>();
+
+		MemoryByteChannel chan = MemoryByteChannel.create(100000);
+		Connection conn=Connection.create(chan, null, Stores.current(), null);
+		MessageReceiver mr = new MessageReceiver(a -> received.add(a), conn);
+
+		// vector of non-embedded blobs, so there is plenty of novelty to send ahead of the message
+		AVector<ACell> v=Vectors.empty();
+		for (int i=0; i<100; i++) {
+			v=v.conj(Blob.createRandom(new Random(i), 200));
+		}
+		assertTrue(conn.sendObject(MessageType.RESULT, v));
+		assertTrue(conn.flushBytes());
+
+		int rec=-1;
+		while (rec!=0) {
+			rec=mr.receiveFromChannel(chan);
+		}
+
+		// every novel cell arrives as a separate DATA message, before the message itself
+		int n=received.size();
+		assertTrue(n>100);
+		for (int i=0; i<n-1; i++) {
+			assertEquals(MessageType.DATA,received.get(i).getType());
+		}
+		Message last=received.get(n-1);
+		assertEquals(MessageType.RESULT,last.getType());
+		assertEquals(v,last.getPayload());
+	}
+
+	@Test
+	public void testReceiveMany() throws IOException, BadFormatException {
+		final ArrayList<Message> received = new ArrayList<>();
+
+		MemoryByteChannel chan = MemoryByteChannel.create(100000);
+		Connection conn=Connection.create(chan, null, Stores.current(), null);
+		MessageReceiver mr = new MessageReceiver(a -> received.add(a), conn);
+
+		// enough data to fill the receive buffer several times over, so that frames
+		// are split across reads
+		int NUM=1000;
+		ArrayList<Blob> blobs=new ArrayList<>();
+		for (int i=0; i<NUM; i++) {
+			Blob b=Blob.createRandom(new Random(i), 100+(i%300));
+			blobs.add(b);
+			assertTrue(conn.sendData(b));
+			while (!conn.flushBytes()) {
+				mr.receiveFromChannel(chan);
+			}
+		}
+
+		// many messages should be handled by a single read
+		int rec=mr.receiveFromChannel(chan);
+		assertTrue(rec>0);
+		while (rec!=0) {
+			rec=mr.receiveFromChannel(chan);
+		}
+
+		// check payloads only after all reads, since they may share receive buffers
+		assertEquals(NUM,received.size());
+		for (int i=0; i<NUM; i++) {
+			assertEquals(MessageType.DATA,received.get(i).getType());
+			assertEquals(blobs.get(i),received.get(i).getPayload());
+		}
+	}
+
+	@Test
+	public void testSharedFrames() throws IOException, BadFormatException {
+		AVector<ACell> v=Vectors.empty();
+		for (int i=0; i<100; i++) {
+			v=v.conj(Blob.createRandom(new Random(1000+i), 200));
+		}
+		List<ByteBuffer> frames=Connection.createFrames(MessageType.BELIEF, v);
+
+		// same frames sent on several connections, as in a broadcast
+		for (int c=0; c<3; c++) {
+			final ArrayList<Message> received = new ArrayList<>();
+			MemoryByteChannel chan = MemoryByteChannel.create(100000);
+			Connection conn=Connection.create(chan, null, Stores.current(), null);
+			MessageReceiver mr = new MessageReceiver(a -> received.add(a), conn);
+
+			assertTrue(conn.sendFrames(frames, MessageType.BELIEF));
+			assertTrue(conn.flushBytes());
+			int rec=-1;
+			while (rec!=0) {
+				rec=mr.receiveFromChannel(chan);
+			}
+
+			Message last=received.get(received.size()-1);
+			assertEquals(MessageType.BELIEF,last.getType());
+			assertEquals(v,last.getPayload());
+		}
+	}
+
+	@Test
+	public void testUrgentFirst() throws IOException, BadFormatException {
+		final ArrayList<Message> received = new ArrayList<>();
+		MemoryByteChannel chan = MemoryByteChannel.create(100000);
+		Connection conn=Connection.create(chan, null, Stores.current(), null);
+		MessageReceiver mr = new MessageReceiver(a -> received.add(a), conn);
+
+		// queue enough bulk data to pass the send buffer size
+		int NUM=30;
+		for (int i=0; i<NUM; i++) {
+			assertTrue(conn.sendData(Blob.createRandom(new Random(2000+i), 4000)));
+		}
+		assertTrue(conn.isBackpressured());
+		assertTrue(conn.getSendQueueDepth()>MessageSender.SEND_BUFFER_SIZE);
+
+		// result is queued last, but sent first
+		assertTrue(conn.sendResult(CVMLong.ONE, CVMLong.ONE));
+		while (!conn.flushBytes()) {
+			mr.receiveFromChannel(chan);
+		}
+		int rec=-1;
+		while (rec!=0) {
+			rec=mr.receiveFromChannel(chan);
+		}
+		assertFalse(conn.isBackpressured());
+		assertEquals(0,conn.getSendQueueDepth());
+
+		assertEquals(NUM+1,received.size());
+		assertEquals(MessageType.RESULT,received.get(0).getType());
+		for (int i=1; i<=NUM; i++) {
+			assertEquals(MessageType.DATA,received.get(i).getType());
+		}
+	}
+
+	@Test
+	public void testUrgentBetweenMessages() throws IOException, BadFormatException {
+		// small channel, so that writes stop at every possible position in the bulk messages
+		for (int len=60; len<120; len++) {
+			final ArrayList<Message> received = new ArrayList<>();
+			MemoryByteChannel chan = MemoryByteChannel.create(100);
+			Connection conn=Connection.create(chan, null, Stores.current(), null);
+			MessageReceiver mr = new MessageReceiver(a -> received.add(a), conn);
+
+			Blob b1=Blob.createRandom(new Random(4000+len), len);
+			Blob b2=Blob.createRandom(new Random(5000+len), 50);
+			assertTrue(conn.sendData(b1));
+			assertTrue(conn.sendData(b2));
+			assertFalse(conn.flushBytes());
+
+			// urgent message must not be sent inside a partly written bulk message
+			assertTrue(conn.sendResult(CVMLong.ONE, CVMLong.ONE));
+			while (!conn.flushBytes()) {
+				mr.receiveFromChannel(chan);
+			}
+			int rec=-1;
+			while (rec!=0) {
+				rec=mr.receiveFromChannel(chan);
+			}
+
+			assertEquals(3,received.size());
+			ArrayList<ACell> data=new ArrayList<>();
+			int results=0;
+			for (Message m: received) {
+				if (m.getType()==MessageType.RESULT) {
+					results++;
+				} else {
+					assertEquals(MessageType.DATA,m.getType());
+					data.add(m.getPayload());
+				}
+			}
+			assertEquals(1,results);
+			assertEquals(List.of(b1,b2),data);
+		}
+	}
+
+	@Test
+	public void testSendQueueLimit() throws IOException {
+		MemoryByteChannel chan = MemoryByteChannel.create(100);
+		Connection conn=Connection.create(chan, null, Stores.current(), null);
+
+		// nothing is reading, so bulk data is dropped once the queue is full
+		int sent=0;
+		for (int i=0; i<100; i++) {
+			if (conn.sendData(Blob.createRandom(new Random(3000+i), 4000))) sent++;
+		}
+		assertTrue(sent<100);
+		assertEquals(100-sent,conn.getDropCount());
+		assertTrue(conn.getSendQueueDepth()<=MessageSender.BULK_LIMIT);
+
+		// urgent messages still have space
+		assertTrue(conn.sendResult(CVMLong.ONE, CVMLong.ONE));
+	}
+
+	@Test
+	public void testNonBlockingSendDefers() throws IOException, BadFormatException {
+		final ArrayList<Message> received = new ArrayList<>();
+		MemoryByteChannel chan = MemoryByteChannel.create(100);
+		Connection conn=Connection.create(chan, null, Stores.current(), null);
+		MessageReceiver mr = new MessageReceiver(a -> received.add(a), conn);
+
+		// fill the queue, nothing is reading
+		int NUM=0;
+		while (conn.sendData(Blob.createRandom(new Random(6000+NUM), 4000))) NUM++;
+		long drops=conn.getDropCount();
+
+		// a non-blocking sender defers a reply rather than waiting or dropping it
+		Connection.setNonBlockingThread(true);
+		try {
+			assertTrue(conn.sendData(Blob.createRandom(new Random(7000), 4000)));
+			assertTrue(conn.sendResult(CVMLong.ONE, CVMLong.ONE));
+		} finally {
+			Connection.setNonBlockingThread(false);
+		}
+		assertEquals(drops,conn.getDropCount());
+
+		while (!conn.flushBytes()) {
+			mr.receiveFromChannel(chan);
+		}
+		int rec=-1;
+		while (rec!=0) {
+			rec=mr.receiveFromChannel(chan);
+		}
+
+		// deferred messages are all delivered, the data after the data queued before it
+		assertEquals(NUM+2,received.size());
+		ArrayList<ACell> data=new ArrayList<>();
+		for (Message m: received) {
+			if (m.getType()!=MessageType.RESULT) data.add(m.getPayload());
+		}
+		assertEquals(NUM+1,data.size());
+		assertEquals(Blob.createRandom(new Random(7000), 4000),data.get(NUM));
+	}
+
+	@Test
+	public void testDecodeExecutor() throws IOException, BadFormatException, InterruptedException {
+		final ArrayList<Message> received = new ArrayList<>();
+		final ArrayList<Thread> threads = new ArrayList<>();
+		MemoryByteChannel chan = MemoryByteChannel.create(100000);
+		Connection conn=Connection.create(chan, null, Stores.current(), null);
+		ExecutorService decoder=Executors.newFixedThreadPool(2);
+		int NUM=1000;
+		CountDownLatch done=new CountDownLatch(NUM);
+		MessageReceiver mr = new MessageReceiver(a -> {
+			synchronized (received) {
+				received.add(a);
+				threads.add(Thread.currentThread());
+			}
+			done.countDown();
+		}, conn, decoder);
+
+		for (int i=0; i<NUM; i++) {
+			assertTrue(conn.sendData(CVMLong.create(i)));
+			while (!conn.flushBytes()) {
+				mr.receiveFromChannel(chan);
+			}
+		}
+		int rec=-1;
+		while (rec!=0) {
+			rec=mr.receiveFromChannel(chan);
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		decoder.shutdown();
+
+		// messages decoded off the receiving thread, in the order received
+		for (int i=0; i<NUM; i++) {
+			assertEquals(CVMLong.create(i),received.get(i).getPayload());
+			assertNotEquals(Thread.currentThread(),threads.get(i));
+		}
+	}
 }
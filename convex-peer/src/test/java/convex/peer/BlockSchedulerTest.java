@@ -0,0 +1,49 @@
+package convex.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class BlockSchedulerTest {
+
+	@Test
+	public void testIdlePublishesImmediately() {
+		BlockScheduler bs = BlockScheduler.create(0, 20);
+		assertEquals(-1, bs.getDelay(1000, 0, 100, 0));
+		assertTrue(bs.shouldPublish(1000, 1, 100, 0));
+		bs.published(1000, 0);
+		assertTrue(bs.shouldPublish(1000, 1, 100, 0));
+		assertEquals(0, bs.getInterval());
+	}
+
+	@Test
+	public void testBatchingUnderLoad() {
+		BlockScheduler bs = BlockScheduler.create(0, 20);
+
+		// interval grows while Blocks keep waiting for consensus
+		bs.published(1000, 1);
+		assertEquals(1, bs.getInterval());
+		bs.published(1000, 1);
+		bs.published(1000, 1);
+		assertEquals(4, bs.getInterval());
+		for (int i = 0; i < 10; i++) {
+			bs.published(1000, 1);
+		}
+		assertEquals(20, bs.getInterval());
+
+		// transactions held back while a Block is outstanding
+		assertFalse(bs.shouldPublish(1010, 10, 100, 1));
+		assertEquals(10, bs.getDelay(1010, 10, 100, 1));
+		assertTrue(bs.shouldPublish(1020, 10, 100, 1));
+
+		// full Block published immediately
+		assertTrue(bs.shouldPublish(1010, 100, 100, 1));
+
+		// interval shrinks once consensus catches up
+		bs.published(1020, 0);
+		assertEquals(10, bs.getInterval());
+		assertTrue(bs.shouldPublish(1020, 1, 100, 0));
+	}
+}
@@ -0,0 +1,157 @@
+package convex.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.ErrorCodes;
+import convex.core.State;
+import convex.core.crypto.AKeyPair;
+import convex.core.data.Address;
+import convex.core.data.Keyword;
+import convex.core.data.SignedData;
+import convex.core.data.prim.CVMLong;
+import convex.core.init.Init;
+import convex.core.transactions.ATransaction;
+import convex.core.transactions.Invoke;
+
+public class MempoolTest {
+
+	private static final AKeyPair KP = AKeyPair.createSeeded(4001);
+
+	private static SignedData<ATransaction> tx(Address origin, long seq, long value) {
+		return KP.signData(Invoke.create(origin, seq, CVMLong.create(value)));
+	}
+
+	@Test
+	public void testDeduplication() {
+		Mempool pool = Mempool.create(100, 10, 0);
+		SignedData<ATransaction> t = tx(Address.create(1), 1, 1);
+		assertTrue(pool.add(t, 0));
+		assertTrue(pool.add(t, 0));
+		assertEquals(1, pool.size());
+
+		// same sequence number but different transaction is kept
+		assertTrue(pool.add(tx(Address.create(1), 1, 2), 0));
+		assertEquals(2, pool.size());
+	}
+
+	@Test
+	public void testSequenceOrder() {
+		Mempool pool = Mempool.create(100, 10, 0);
+		Address a = Address.create(1);
+		SignedData<ATransaction> t1 = tx(a, 1, 0);
+		SignedData<ATransaction> t2 = tx(a, 2, 0);
+		SignedData<ATransaction> t3 = tx(a, 3, 0);
+		pool.add(t3, 0);
+		pool.add(t1, 0);
+		pool.add(t2, 0);
+
+		assertEquals(List.of(t1, t2, t3), pool.takeBlock(10));
+		assertTrue(pool.isEmpty());
+	}
+
+	@Test
+	public void testRoundRobin() {
+		Mempool pool = Mempool.create(1000, 1000, 0);
+		Address busy = Address.create(1);
+		Address quiet = Address.create(2);
+		for (int i = 1; i <= 100; i++) {
+			pool.add(tx(busy, i, 0), 0);
+		}
+		SignedData<ATransaction> q = tx(quiet, 1, 0);
+		pool.add(q, 0);
+
+		// quiet account gets into the first block despite arriving last
+		ArrayList<SignedData<ATransaction>> block = pool.takeBlock(10);
+		assertEquals(10, block.size());
+		assertTrue(block.contains(q));
+		assertEquals(91, pool.size());
+
+		// remaining transactions from the busy account still in order
+		block = pool.takeBlock(1000);
+		assertEquals(91, block.size());
+		assertEquals(10, block.get(0).getValue().getSequence());
+		assertEquals(100, block.get(90).getValue().getSequence());
+	}
+
+	@Test
+	public void testRotation() {
+		Mempool pool = Mempool.create(100, 10, 0);
+		Address a = Address.create(1);
+		Address b = Address.create(2);
+		pool.add(tx(a, 1, 0), 0);
+		pool.add(tx(a, 2, 0), 0);
+		pool.add(tx(b, 1, 0), 0);
+		pool.add(tx(b, 2, 0), 0);
+
+		// next block starts with the origin not served last time
+		assertEquals(a, pool.takeBlock(1).get(0).getValue().getOrigin());
+		assertEquals(b, pool.takeBlock(1).get(0).getValue().getOrigin());
+		assertEquals(a, pool.takeBlock(1).get(0).getValue().getOrigin());
+	}
+
+	@Test
+	public void testLimits() {
+		Mempool pool = Mempool.create(5, 3, 0);
+		Address a = Address.create(1);
+		assertTrue(pool.add(tx(a, 1, 0), 0));
+		assertTrue(pool.add(tx(a, 2, 0), 0));
+		assertTrue(pool.add(tx(a, 3, 0), 0));
+		assertFalse(pool.add(tx(a, 4, 0), 0));
+
+		// other origins unaffected until pool is full
+		assertTrue(pool.add(tx(Address.create(2), 1, 0), 0));
+		assertTrue(pool.add(tx(Address.create(3), 1, 0), 0));
+		assertFalse(pool.add(tx(Address.create(4), 1, 0), 0));
+		assertEquals(5, pool.size());
+	}
+
+	@Test
+	public void testEviction() {
+		State s = Init.createState(List.of(KP.getAccountKey()));
+		Address a = Init.GENESIS_ADDRESS;
+		long seq = s.getAccount(a).getSequence();
+
+		Mempool pool = Mempool.create(100, 10, 1000);
+		SignedData<ATransaction> stale = tx(a, seq, 0);
+		SignedData<ATransaction> next = tx(a, seq + 1, 0);
+		SignedData<ATransaction> old = tx(Address.create(1000000), 1, 0);
+		pool.add(stale, 0);
+		pool.add(next, 500);
+		pool.add(old, 0);
+
+		ArrayList<SignedData<ATransaction>> evicted = new ArrayList<>();
+		ArrayList<Keyword> codes = new ArrayList<>();
+		pool.evict(s, 1000, (st, code) -> {
+			evicted.add(st);
+			codes.add(code);
+		});
+		assertEquals(List.of(stale, old), evicted);
+		assertSame(ErrorCodes.SEQUENCE, codes.get(0));
+		assertSame(ErrorCodes.LOAD, codes.get(1));
+		assertEquals(List.of(next), pool.takeBlock(10));
+	}
+
+	@Test
+	public void testEvictionWrongKey() {
+		State s = Init.createState(List.of(KP.getAccountKey()));
+		Address a = Init.GENESIS_ADDRESS;
+		long seq = s.getAccount(a).getSequence();
+
+		// not signed by account key, so left for the CVM to report
+		Mempool pool = Mempool.create(100, 10, 0);
+		SignedData<ATransaction> t = AKeyPair.createSeeded(4002).signData(Invoke.create(a, seq, CVMLong.ZERO));
+		pool.add(t, 0);
+		pool.evict(s, 1000, (st, code) -> {
+			throw new AssertionError("Unexpected eviction");
+		});
+		assertEquals(1, pool.size());
+	}
+}
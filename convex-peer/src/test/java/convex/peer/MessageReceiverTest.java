@@ -8,7 +8,10 @@ import java.util.ArrayList;
 
 import org.junit.Test;
 
+import convex.core.data.AArrayBlob;
 import convex.core.data.ACell;
+import convex.core.data.AString;
+import convex.core.data.Strings;
 import convex.core.exceptions.BadFormatException;
 import convex.core.lang.RT;
 import convex.core.store.Stores;
@@ -40,17 +43,43 @@ public class MessageReceiverTest {
 		// since we aren't using a Selector / SocketChannel here
 		assertTrue(pc.flushBytes());
 
-		// receive first message
+		// receive both messages with a single read
 		mr.receiveFromChannel(chan);
-		assertEquals(1, received.size());
+		assertEquals(2, received.size());
 		assertEquals(msg1, received.get(0).getPayload());
+		assertEquals(msg2, received.get(1).getPayload());
 
-		// receive second message
-		mr.receiveFromChannel(chan);
+		// nothing more to receive
+		assertEquals(0, mr.receiveFromChannel(chan));
 		assertEquals(2, received.size());
-		assertEquals(msg2, received.get(1).getPayload());
 
 		Message m1 = received.get(0);
 		assertEquals(MessageType.DATA, m1.getType());
 	}
+
+	@Test
+	public void testSmallMessagesCopied() throws IOException, BadFormatException {
+		final ArrayList<Message> received = new ArrayList<>();
+
+		MemoryByteChannel chan = MemoryByteChannel.create(100000);
+		Connection pc = Connection.create(chan, null, Stores.current(), null);
+		MessageReceiver mr = new MessageReceiver(a -> received.add(a), pc);
+
+		// enough small messages to fill most of the receive buffer
+		int n = 60;
+		for (int i = 0; i < n; i++) {
+			AString s = Strings.create(i + "x".repeat(1000));
+			assertTrue(pc.sendData(s));
+		}
+		assertTrue(pc.flushBytes());
+
+		mr.receiveFromChannel(chan);
+		assertEquals(n, received.size());
+
+		// small cells must not hold on to the receive buffer array
+		for (Message m : received) {
+			AArrayBlob enc = (AArrayBlob) m.getPayload().getEncoding();
+			assertTrue(enc.getInternalArray().length < MessageReceiver.MIN_SHARED_LENGTH);
+		}
+	}
 }
@@ -0,0 +1,81 @@
+package convex.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.store.Stores;
+
+public class QueryExecutorTest {
+
+	@Test
+	public void testClientLimit() throws InterruptedException {
+		try (QueryExecutor qe=QueryExecutor.create(2, 3, 100, Stores.current(), "Test query executor")) {
+			CountDownLatch block=new CountDownLatch(1);
+			CountDownLatch done=new CountDownLatch(4);
+			Runnable query=()->{
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+					// finish anyway
+				}
+				done.countDown();
+			};
+
+			// client limited to 3 outstanding queries
+			assertTrue(qe.submit("a", query));
+			assertTrue(qe.submit("a", query));
+			assertTrue(qe.submit("a", query));
+			assertFalse(qe.submit("a", query));
+
+			// other clients unaffected
+			assertTrue(qe.submit("b", query));
+
+			// two threads busy, so two queries queued
+			assertEquals(2,qe.getQueueDepth());
+
+			block.countDown();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+
+			// client can submit again once queries complete
+			CountDownLatch again=new CountDownLatch(1);
+			long deadline=System.currentTimeMillis()+10000;
+			while (!qe.submit("a", again::countDown)) {
+				assertTrue(System.currentTimeMillis()<deadline);
+				Thread.sleep(1);
+			}
+			assertTrue(again.await(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testQueueLimit() throws InterruptedException {
+		try (QueryExecutor qe=QueryExecutor.create(1, 10, 2, Stores.current(), "Test query executor")) {
+			CountDownLatch block=new CountDownLatch(1);
+			Runnable query=()->{
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+					// finish anyway
+				}
+			};
+
+			// one running and two queued, then the queue is full
+			assertTrue(qe.submit("a", query));
+			long deadline=System.currentTimeMillis()+10000;
+			while (qe.getQueueDepth()>0) {
+				assertTrue(System.currentTimeMillis()<deadline);
+				Thread.sleep(1);
+			}
+			assertTrue(qe.submit("b", query));
+			assertTrue(qe.submit("c", query));
+			assertFalse(qe.submit("d", query));
+			block.countDown();
+		}
+	}
+}
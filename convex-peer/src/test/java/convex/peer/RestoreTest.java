@@ -27,7 +27,9 @@ import convex.core.data.Maps;
 import convex.core.init.Init;
 import convex.core.lang.Symbols;
 import convex.core.store.AStore;
+import convex.core.store.TieredStore;
 import convex.core.transactions.Invoke;
+import etch.Compaction;
 import etch.EtchStore;
 
 public class RestoreTest {
@@ -93,4 +95,65 @@ public class RestoreTest {
 		State state=s2.getPeer().getConsensusState();
 		assertNotNull(state);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void compactTest() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		EtchStore store=EtchStore.createTemp();
+		Map<Keyword, Object> config = Maps.hashMapOf(
+				Keywords.KEYPAIR,KP,
+				Keywords.STATE,GENESIS,
+				Keywords.STORE,store,
+				Keywords.URL,null,
+				Keywords.PERSIST,true
+		);
+		Server s1=API.launchPeer(config);
+		Convex cvx1=Convex.connect(s1,HERO,KP);
+		Result tx1=cvx1.transactSync(Invoke.create(HERO,1, Symbols.STAR_ADDRESS));
+		assertEquals(HERO,tx1.getValue());
+
+		// compact while running, then check Peer still works and can be restored
+		Compaction c=s1.compactStore();
+		assertEquals(Compaction.Phase.DONE,c.getPhase());
+		assertTrue(c.getEndLength()<c.getStartLength());
+
+		Result tx2=cvx1.transactSync(Invoke.create(HERO,2, Symbols.STAR_ADDRESS));
+		assertFalse(tx2.isError());
+		s1.close();
+
+		Server s2=API.launchPeer(config);
+		Convex cvx2=Convex.connect(s2.getHostAddress(), HERO,KP);
+		Result tx3=cvx2.transactSync(Invoke.create(HERO,3, Symbols.BALANCE));
+		assertFalse(tx3.isError());
+		s2.close();
+	}
+
+	@Test
+	public void tieredTest() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		EtchStore etch=EtchStore.createTemp();
+		TieredStore store=TieredStore.create(etch);
+		Map<Keyword, Object> config = Maps.hashMapOf(
+				Keywords.KEYPAIR,KP,
+				Keywords.STATE,GENESIS,
+				Keywords.STORE,store,
+				Keywords.URL,null,
+				Keywords.PERSIST,true
+		);
+		Server s1=API.launchPeer(config);
+		Convex cvx1=Convex.connect(s1,HERO,KP);
+		Result tx1=cvx1.transactSync(Invoke.create(HERO,1, Symbols.STAR_ADDRESS));
+		assertEquals(HERO,tx1.getValue());
+
+		// consensus State pinned after Belief broadcast
+		assertTrue(store.getPinnedSize()>0);
+		s1.close();
+
+		// peer data written back, so can restore from the backing store alone
+		store.close();
+		config.put(Keywords.STORE, EtchStore.create(etch.getFile()));
+		Server s2=API.launchPeer(config);
+		Convex cvx2=Convex.connect(s2.getHostAddress(), HERO,KP);
+		Result tx2=cvx2.transactSync(Invoke.create(HERO,2, Symbols.BALANCE));
+		assertFalse(tx2.isError());
+		s2.close();
+	}
+}
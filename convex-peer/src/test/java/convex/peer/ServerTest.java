@@ -7,7 +7,10 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -20,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.api.Convex;
+import convex.api.ConvexRemote;
 import convex.core.Belief;
 import convex.core.Coin;
 import convex.core.ErrorCodes;
@@ -44,6 +48,7 @@ import convex.core.lang.RT;
 import convex.core.lang.Reader;
 import convex.core.lang.Symbols;
 import convex.core.store.AStore;
+import convex.core.store.MemoryStore;
 import convex.core.store.Stores;
 import convex.core.transactions.ATransaction;
 import convex.core.transactions.Call;
@@ -51,6 +56,7 @@ import convex.core.transactions.Invoke;
 import convex.core.transactions.Transfer;
 import convex.core.util.Utils;
 import convex.net.Connection;
+import convex.net.MessageType;
 import convex.net.ResultConsumer;
 import convex.net.message.Message;
 import etch.EtchStore;
@@ -163,6 +169,35 @@ public class ServerTest {
 		assertNotNull(ref);
 	}
 
+	@Test
+	public void testMissingDataBatch() throws IOException, InterruptedException, TimeoutException {
+		InetSocketAddress hostAddress=network.SERVER.getHostAddress();
+
+		Set<Hash> received=ConcurrentHashMap.newKeySet();
+		Consumer<Message> collector=m->{
+			if (m.getType()==MessageType.DATA) received.add(m.getPayload().getHash());
+		};
+		Connection pc = Connection.connect(hostAddress, collector, Stores.current());
+
+		// request the consensus State and its children in one message
+		State s=network.SERVER.getPeer().getConsensusState();
+		ArrayList<Hash> hashes=new ArrayList<>();
+		hashes.add(s.getHash());
+		for (int i=0; i<s.getRefCount(); i++) {
+			Ref<ACell> r=s.getRef(i);
+			if (!r.isEmbedded()) hashes.add(r.getHash());
+		}
+		assertTrue(hashes.size()>1);
+		assertTrue(pc.sendMissingData(hashes));
+
+		long start=Utils.getCurrentTimestamp();
+		while (!received.containsAll(hashes) && (Utils.getCurrentTimestamp()<start+5000)) {
+			Thread.sleep(10);
+		}
+		assertTrue(received.containsAll(hashes));
+		pc.close();
+	}
+
 	@Test
 	public void testJoinNetwork() throws IOException, InterruptedException, ExecutionException, TimeoutException, BadSignatureException {
 		AKeyPair kp=AKeyPair.generate();
@@ -247,6 +282,47 @@ public class ServerTest {
 		}
 	}
 
+	@Test
+	public void testAcquireToNewStore() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		synchronized(network.SERVER) {
+			// client with its own empty store, so everything must be fetched from the Peer
+			MemoryStore ms=new MemoryStore();
+			Convex convex=Convex.connect(network.SERVER.getHostAddress(), network.HERO, network.HERO_KEYPAIR, ms);
+			Result status=convex.requestStatus().get(10000,TimeUnit.MILLISECONDS);
+			Hash stateHash=RT.ensureHash(((AVector<?>)status.getValue()).get(4));
+
+			State s=convex.<State>acquire(stateHash, ms).get(10000,TimeUnit.MILLISECONDS);
+			assertEquals(stateHash,s.getHash());
+			assertTrue(ms.refForHash(stateHash).getStatus()>=Ref.PERSISTED);
+			convex.close();
+		}
+	}
+
+	@Test
+	public void testSnapshotToNewStore() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		synchronized(network.SERVER) {
+			MemoryStore ms=new MemoryStore();
+			ConvexRemote convex=Convex.connect(network.SERVER.getHostAddress(), network.HERO, network.HERO_KEYPAIR, ms);
+			Result status=convex.requestStatus().get(10000,TimeUnit.MILLISECONDS);
+			Hash stateHash=RT.ensureHash(((AVector<?>)status.getValue()).get(4));
+
+			// Peer should stream the whole state
+			Result r=convex.requestSnapshot(stateHash).get(10000,TimeUnit.MILLISECONDS);
+			assertFalse(r.isError());
+			assertTrue(((CVMLong)r.getValue()).longValue()>0);
+			assertNotNull(ms.refForHash(stateHash));
+
+			State s=convex.<State>acquireSnapshot(stateHash, ms).get(10000,TimeUnit.MILLISECONDS);
+			assertEquals(stateHash,s.getHash());
+			assertTrue(ms.refForHash(stateHash).getStatus()>=Ref.PERSISTED);
+
+			// unknown data
+			Result bad=convex.requestSnapshot(Hash.EMPTY_HASH).get(10000,TimeUnit.MILLISECONDS);
+			assertTrue(bad.isError());
+			convex.close();
+		}
+	}
+
 	public long checkSent(Connection pc,SignedData<ATransaction> st) throws IOException {
 		long x=pc.sendTransaction(st);
 		assertTrue(x>=0);
@@ -0,0 +1,72 @@
+package convex.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.crypto.AKeyPair;
+import convex.core.data.SignedData;
+import convex.core.data.prim.CVMLong;
+import convex.core.store.Stores;
+
+public class SignatureVerifierTest {
+
+	@Test
+	public void testOrderedResults() throws InterruptedException {
+		AKeyPair kp=AKeyPair.createSeeded(1234);
+		AKeyPair other=AKeyPair.createSeeded(5678);
+		int N=200;
+
+		try (SignatureVerifier verifier=SignatureVerifier.create(4, Stores.current(), "Test verifier")) {
+			List<Long> received=Collections.synchronizedList(new ArrayList<>());
+			List<Boolean> results=Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch latch=new CountDownLatch(N);
+			for (int i=0; i<N; i++) {
+				final long value=i;
+				SignedData<CVMLong> sd=kp.signData(CVMLong.create(i));
+
+				// every tenth signature is made invalid by using the wrong key
+				if ((i%10)==0) sd=SignedData.create(other.getAccountKey(), sd.getSignature(), sd.getDataRef());
+
+				verifier.submit("origin", sd, ok->{
+					received.add(value);
+					results.add(ok);
+					latch.countDown();
+				});
+			}
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+			for (int i=0; i<N; i++) {
+				assertEquals(i,received.get(i));
+				assertEquals((i%10)!=0,results.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testCachedResult() throws InterruptedException {
+		AKeyPair kp=AKeyPair.createSeeded(1234);
+		SignedData<CVMLong> sd=kp.signData(CVMLong.create(1));
+		SignedData<CVMLong> bad=SignedData.create(kp.getAccountKey(), sd.getSignature(), CVMLong.create(2).getRef());
+
+		try (SignatureVerifier verifier=SignatureVerifier.create(1, Stores.current(), "Test verifier")) {
+			CountDownLatch latch=new CountDownLatch(2);
+			verifier.submit(null, sd, ok->{assertTrue(ok); latch.countDown();});
+			verifier.submit(null, bad, ok->{assertFalse(ok); latch.countDown();});
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+		}
+
+		// verification result is cached in the SignedData Ref flags
+		assertTrue(sd.isSignatureChecked());
+		assertTrue(bad.isSignatureChecked());
+		assertFalse(bad.checkSignature());
+	}
+}